@@ -60,9 +60,24 @@ public class BeanELResolver extends ELResolver {
 
     private final boolean readOnly;
 
+    /*
+     * Must be a power of two.
+     */
+    private static final int INLINE_CACHE_SIZE = 16;
+
     private final ConcurrentCache<String, BeanProperties> cache =
         new ConcurrentCache<String, BeanProperties>(CACHE_SIZE);
 
+    /*
+     * The most recently used bean types, indexed by the identity hash code of
+     * the type, so that the common case of the same few types being accessed
+     * repeatedly only needs an identity comparison. Updates are not
+     * synchronized. That is safe because BeanProperties only has final fields
+     * and a lost update only results in a lookup in the main cache.
+     */
+    private final BeanProperties[] inlineCache =
+        new BeanProperties[INLINE_CACHE_SIZE];
+
     public BeanELResolver() {
         this.readOnly = false;
     }
@@ -316,10 +331,15 @@ public class BeanELResolver extends ELResolver {
         Class<?> type = base.getClass();
         String prop = property.toString();
 
-        BeanProperties props = this.cache.get(type.getName());
+        int index = System.identityHashCode(type) & (INLINE_CACHE_SIZE - 1);
+        BeanProperties props = this.inlineCache[index];
         if (props == null || type != props.getType()) {
-            props = new BeanProperties(type);
-            this.cache.put(type.getName(), props);
+            props = this.cache.get(type.getName());
+            if (props == null || type != props.getType()) {
+                props = new BeanProperties(type);
+                this.cache.put(type.getName(), props);
+            }
+            this.inlineCache[index] = props;
         }
 
         return props.get(ctx, prop);
@@ -357,6 +377,11 @@ public class BeanELResolver extends ELResolver {
         return null;
     }
     
+    /*
+     * The keys of the entries that have not been used recently are only
+     * weakly referenced so that they do not prevent the classes of unused
+     * beans from being unloaded. Only the access to those entries is locked.
+     */
     private static final class ConcurrentCache<K,V> {
 
         private final int size;
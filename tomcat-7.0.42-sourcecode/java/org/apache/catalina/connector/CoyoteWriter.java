@@ -19,13 +19,15 @@ package org.apache.catalina.connector;
 import java.io.IOException;
 import java.io.PrintWriter;
 
+import org.apache.tomcat.util.buf.EncodedOutput;
+
 /**
  * Coyote implementation of the servlet writer.
  *
  * @author Remy Maucherat
  */
 public class CoyoteWriter
-    extends PrintWriter {
+    extends PrintWriter implements EncodedOutput {
 
 
     // -------------------------------------------------------------- Constants
@@ -141,6 +143,26 @@ public class CoyoteWriter
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean writeEncoded(byte[] b, String charset) {
+
+        if (error) {
+            return true;
+        }
+
+        try {
+            return ob.writeEncoded(b, charset);
+        } catch (IOException e) {
+            error = true;
+        }
+        return true;
+
+    }
+
+
     @Override
     public void write(char buf[], int off, int len) {
 
@@ -30,6 +30,7 @@ import org.apache.coyote.Response;
 import org.apache.tomcat.util.buf.ByteChunk;
 import org.apache.tomcat.util.buf.C2BConverter;
 import org.apache.tomcat.util.buf.CharChunk;
+import org.apache.tomcat.util.buf.EncodedOutput;
 
 
 /**
@@ -41,7 +42,8 @@ import org.apache.tomcat.util.buf.CharChunk;
  * @author Remy Maucherat
  */
 public class OutputBuffer extends Writer
-    implements ByteChunk.ByteOutputChannel, CharChunk.CharOutputChannel {
+    implements ByteChunk.ByteOutputChannel, CharChunk.CharOutputChannel,
+    EncodedOutput {
 
 
     // -------------------------------------------------------------- Constants
@@ -440,6 +442,41 @@ public class OutputBuffer extends Writer
     }
 
 
+    /**
+     * Write text that has already been encoded, if it was encoded with the
+     * character encoding of the response. Any characters written before are
+     * encoded first so that the order of the output is preserved.
+     *
+     * @param b         The encoded text
+     * @param charset   The name of the character encoding used
+     * @return <code>true</code> if the bytes were written, <code>false</code>
+     *         if the characters must be written instead
+     */
+    @Override
+    public boolean writeEncoded(byte b[], String charset)
+        throws IOException {
+
+        if (suspended) {
+            return true;
+        }
+
+        if (conv == null || !charset.equalsIgnoreCase(enc)) {
+            return false;
+        }
+        if (cb.getLength() > 0) {
+            cb.flushBuffer();
+        }
+        if (conv.isUndeflow()) {
+            // Half of a surrogate pair is waiting for the other half
+            return false;
+        }
+
+        writeBytes(b, 0, b.length);
+        return true;
+
+    }
+
+
     public void writeByte(int b)
         throws IOException {
 
@@ -128,6 +128,7 @@ import org.apache.tomcat.JarScanner;
 import org.apache.tomcat.util.ExceptionUtils;
 import org.apache.tomcat.util.modeler.Registry;
 import org.apache.tomcat.util.scan.StandardJarScanner;
+import org.apache.tomcat.util.scan.TldIndex;
 
 /**
  * Standard implementation of the <b>Context</b> interface.  Each
@@ -697,6 +698,12 @@ public class StandardContext extends ContainerBase
     protected int cacheObjectMaxSize = 512; // 512K
 
 
+    /**
+     * Cache class name, <code>null</code> for the default cache.
+     */
+    protected String cacheClassName = null;
+
+
     /**
      * Cache TTL in ms.
      */
@@ -852,6 +859,12 @@ public class StandardContext extends ContainerBase
      */
     private boolean logEffectiveWebXml = false;
 
+    /**
+     * Should the merged web.xml be saved in the work directory and reused on
+     * the next start if none of the files it was built from have changed?
+     */
+    private boolean webXmlSnapshot = false;
+
     private int effectiveMajorVersion = 3;
     
     private int effectiveMinorVersion = 0;
@@ -1021,6 +1034,14 @@ public class StandardContext extends ContainerBase
         return logEffectiveWebXml;
     }
 
+    public void setWebXmlSnapshot(boolean webXmlSnapshot) {
+        this.webXmlSnapshot = webXmlSnapshot;
+    }
+
+    public boolean getWebXmlSnapshot() {
+        return webXmlSnapshot;
+    }
+
     @Override
     public Authenticator getAuthenticator() {
         if (this instanceof Authenticator)
@@ -1202,6 +1223,22 @@ public class StandardContext extends ContainerBase
     }
 
 
+    /**
+     * Return the class name of the static resource cache.
+     */
+    public String getCacheClassName() {
+        return cacheClassName;
+    }
+
+
+    /**
+     * Set the class name of the static resource cache.
+     */
+    public void setCacheClassName(String cacheClassName) {
+        this.cacheClassName = cacheClassName;
+    }
+
+
     /**
      * Return the list of resource aliases. 
      */
@@ -2527,6 +2564,8 @@ public class StandardContext extends ContainerBase
             ((BaseDirContext) resources).setCacheMaxSize(getCacheMaxSize());
             ((BaseDirContext) resources).setCacheObjectMaxSize(
                     getCacheObjectMaxSize());
+            ((BaseDirContext) resources).setCacheClassName(
+                    getCacheClassName());
             // Alias support
             ((BaseDirContext) resources).setAliases(getAliases());
         }
@@ -5058,6 +5097,8 @@ public class StandardContext extends ContainerBase
                 ((BaseDirContext) webappResources).setCacheTTL(getCacheTTL());
                 ((BaseDirContext) webappResources).setCacheMaxSize
                     (getCacheMaxSize());
+                ((BaseDirContext) webappResources).setCacheClassName
+                    (getCacheClassName());
                 ((BaseDirContext) webappResources).allocate();
                 // Alias support
                 ((BaseDirContext) webappResources).setAliases(getAliases());
@@ -5411,6 +5452,14 @@ public class StandardContext extends ContainerBase
             if (ok) {
                 getServletContext().setAttribute(
                         JarScanner.class.getName(), getJarScanner());
+                if (getParent() instanceof StandardHost) {
+                    TldIndex tldIndex =
+                            ((StandardHost) getParent()).getTldIndex();
+                    if (tldIndex != null) {
+                        getServletContext().setAttribute(
+                                TldIndex.class.getName(), tldIndex);
+                    }
+                }
             }
 
             // Set up the context init params
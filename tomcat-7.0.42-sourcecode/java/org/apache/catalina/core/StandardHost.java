@@ -17,6 +17,7 @@
 package org.apache.catalina.core;
 
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
@@ -27,6 +28,7 @@ import java.util.regex.Pattern;
 
 import org.apache.catalina.Container;
 import org.apache.catalina.Context;
+import org.apache.catalina.Globals;
 import org.apache.catalina.Host;
 import org.apache.catalina.Lifecycle;
 import org.apache.catalina.LifecycleEvent;
@@ -37,6 +39,7 @@ import org.apache.catalina.loader.WebappClassLoader;
 import org.apache.catalina.mbeans.MBeanUtils;
 import org.apache.catalina.valves.ValveBase;
 import org.apache.tomcat.util.ExceptionUtils;
+import org.apache.tomcat.util.scan.TldIndex;
 
 
 /**
@@ -182,6 +185,21 @@ public class StandardHost extends ContainerBase implements Host {
     private boolean undeployOldVersions = false;
 
 
+    /**
+     * Should the TLDs found in the JARs used by the web applications of this
+     * Host be indexed once and the index shared by the web applications?
+     */
+    private boolean indexTlds = false;
+
+
+    /**
+     * The index of the TLDs found in JARs, shared by the web applications of
+     * this Host. Only present while the Host is started with
+     * {@link #indexTlds} enabled.
+     */
+    private volatile TldIndex tldIndex = null;
+
+
     // ------------------------------------------------------------- Properties
 
     @Override
@@ -535,6 +553,63 @@ public class StandardHost extends ContainerBase implements Host {
     }
 
 
+    /**
+     * Are the TLDs found in the JARs used by the web applications of this
+     * Host indexed once, with the index shared by the web applications and
+     * saved in the work directory of the Host when it stops?
+     */
+    public boolean isIndexTlds() {
+
+        return (indexTlds);
+    }
+
+
+    /**
+     * Set whether the TLDs found in the JARs used by the web applications of
+     * this Host are indexed once and the index shared. Takes effect when the
+     * Host is next started.
+     */
+    public void setIndexTlds(boolean indexTlds) {
+
+        this.indexTlds = indexTlds;
+    }
+
+
+    /**
+     * The index of the TLDs found in JARs shared by the web applications of
+     * this Host or <code>null</code> if TLDs are not indexed.
+     */
+    public TldIndex getTldIndex() {
+
+        return (tldIndex);
+    }
+
+
+    /**
+     * The file the TLD index is saved to, in the work directory of this Host.
+     */
+    public File getTldIndexFile() {
+
+        String dir = workDir;
+        if (dir == null || dir.length() == 0) {
+            String engineName = null;
+            if (getParent() != null) {
+                engineName = getParent().getName();
+            }
+            if ((engineName == null) || (engineName.length() < 1))
+                engineName = "_";
+            dir = "work" + File.separator + engineName + File.separator +
+                getName();
+        }
+        File file = new File(dir, "TldIndex.ser");
+        if (!file.isAbsolute()) {
+            file = new File(System.getProperty(Globals.CATALINA_BASE_PROP),
+                    file.getPath());
+        }
+        return file;
+    }
+
+
     /**
      * Return the regular expression that defines the files and directories in
      * the host's {@link #appBase} that will be ignored by the automatic
@@ -797,10 +872,37 @@ public class StandardHost extends ContainerBase implements Host {
                         errorValve), t);
             }
         }
+
+        if (indexTlds) {
+            TldIndex index = new TldIndex();
+            index.load(getTldIndexFile());
+            tldIndex = index;
+        }
+
         super.startInternal();
     }
 
 
+    /**
+     * Stop this component and implement the requirements
+     * of {@link org.apache.catalina.util.LifecycleBase#stopInternal()}.
+     *
+     * @exception LifecycleException if this component detects a fatal error
+     *  that prevents this component from being used
+     */
+    @Override
+    protected synchronized void stopInternal() throws LifecycleException {
+
+        super.stopInternal();
+
+        TldIndex index = tldIndex;
+        if (index != null) {
+            tldIndex = null;
+            index.save(getTldIndexFile());
+        }
+    }
+
+
     // -------------------- JMX  --------------------
     /**
       * Return the MBean Names of the Valves associated with this Host
@@ -16,10 +16,15 @@
  */
 package org.apache.catalina.deploy;
 
+import java.io.Serializable;
+
 /**
  * @version $Id: InjectionTarget.java 1057677 2011-01-11 14:57:17Z markt $
  */
-public class InjectionTarget {
+public class InjectionTarget implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
     private String targetClass;
     private String targetName;
 
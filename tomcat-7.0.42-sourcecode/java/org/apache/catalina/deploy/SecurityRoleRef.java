@@ -18,6 +18,8 @@
 
 package org.apache.catalina.deploy;
 
+import java.io.Serializable;
+
 
 /**
  * <p>Representation of a security role reference for a web application, as
@@ -29,7 +31,9 @@ package org.apache.catalina.deploy;
  * @since Tomcat 5.5
  */
 
-public class SecurityRoleRef {
+public class SecurityRoleRef implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
 
     // ------------------------------------------------------------- Properties
@@ -18,6 +18,7 @@
 
 package org.apache.catalina.deploy;
 
+import java.io.Serializable;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.EnumSet;
@@ -52,7 +53,9 @@ import org.apache.tomcat.util.res.StringManager;
  * This class checks for invalid duplicates (eg filter/servlet names)
  * StandardContext will check validity of values (eg URL formats etc)
  */
-public class WebXml {
+public class WebXml implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     protected static final String ORDER_OTHERS =
         "org.apache.catalina.order.others";
@@ -0,0 +1,217 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.ha.deploy;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.catalina.ha.deploy.WarChunker.Chunk;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * The chunks of the WAR files already present on this node, so that only the
+ * chunks that are missing are transferred when a new version of a WAR is
+ * deployed. The files are split again only when they have been modified.
+ */
+public class ChunkIndex {
+    private static final Log log = LogFactory.getLog(ChunkIndex.class);
+    private static final StringManager sm =
+        StringManager.getManager(Constants.Package);
+
+    /**
+     * The chunks, by hash, with the files containing them. The same chunk may
+     * be found in several files, for instance when a library is packaged in
+     * several WARs.
+     */
+    private final Map<String, List<Location>> chunks =
+        new HashMap<String, List<Location>>();
+
+    /**
+     * The files indexed, with the chunks found in them.
+     */
+    private final Map<File, IndexedFile> files = new HashMap<File, IndexedFile>();
+
+
+    /**
+     * Index the WAR files of a directory which are new or have been modified
+     * since the last update, and forget the ones that have been removed.
+     *
+     * @param dir   The directory to index
+     */
+    public synchronized void update(File dir) {
+        File[] wars = dir.listFiles();
+        Map<File, File> present = new HashMap<File, File>();
+        if (wars != null) {
+            for (File war : wars) {
+                if (war.isFile() && war.getName().endsWith(".war")) {
+                    present.put(war, war);
+                    IndexedFile indexed = files.get(war);
+                    if (indexed == null ||
+                            indexed.lastModified != war.lastModified() ||
+                            indexed.length != war.length()) {
+                        add(war);
+                    }
+                }
+            }
+        }
+        Iterator<File> iter = files.keySet().iterator();
+        while (iter.hasNext()) {
+            File file = iter.next();
+            if (file.getParentFile().equals(dir) && !present.containsKey(file)) {
+                removeChunks(file);
+                iter.remove();
+            }
+        }
+    }
+
+
+    /**
+     * Index a file.
+     *
+     * @param file  The file to index
+     */
+    public synchronized void add(File file) {
+        long lastModified = file.lastModified();
+        long length = file.length();
+        List<Chunk> found;
+        try {
+            found = WarChunker.chunk(file);
+        } catch (IOException e) {
+            log.warn(sm.getString("chunkIndex.indexFail", file), e);
+            return;
+        }
+        removeChunks(file);
+        files.put(file, new IndexedFile(lastModified, length, found));
+        for (Chunk chunk : found) {
+            List<Location> locations = chunks.get(chunk.getHash());
+            if (locations == null) {
+                locations = new ArrayList<Location>(1);
+                chunks.put(chunk.getHash(), locations);
+            }
+            locations.add(new Location(file, chunk));
+        }
+    }
+
+
+    public synchronized boolean contains(String hash) {
+        return chunks.containsKey(hash);
+    }
+
+
+    public synchronized int size() {
+        return chunks.size();
+    }
+
+
+    /**
+     * Read the data of a chunk.
+     *
+     * @param hash  The hash of the chunk
+     * @return the data or <code>null</code> if the chunk is not available
+     */
+    public byte[] read(String hash) {
+        while (true) {
+            Location location;
+            synchronized (this) {
+                List<Location> locations = chunks.get(hash);
+                if (locations == null) {
+                    return null;
+                }
+                location = locations.get(0);
+            }
+            try {
+                byte[] data = WarChunker.read(location.file, location.chunk);
+                if (data != null) {
+                    return data;
+                }
+            } catch (IOException e) {
+                if (log.isDebugEnabled()) {
+                    log.debug(sm.getString("chunkIndex.readFail", hash,
+                            location.file), e);
+                }
+            }
+            // The file has been modified since it was indexed, try the
+            // other files containing the chunk
+            synchronized (this) {
+                removeLocation(hash, location);
+            }
+        }
+    }
+
+
+    private void removeChunks(File file) {
+        IndexedFile indexed = files.get(file);
+        if (indexed == null) {
+            return;
+        }
+        for (Chunk chunk : indexed.chunks) {
+            List<Location> locations = chunks.get(chunk.getHash());
+            if (locations == null) {
+                continue;
+            }
+            Iterator<Location> iter = locations.iterator();
+            while (iter.hasNext()) {
+                if (iter.next().file.equals(file)) {
+                    iter.remove();
+                }
+            }
+            if (locations.isEmpty()) {
+                chunks.remove(chunk.getHash());
+            }
+        }
+    }
+
+
+    private void removeLocation(String hash, Location location) {
+        List<Location> locations = chunks.get(hash);
+        if (locations != null && locations.remove(location) &&
+                locations.isEmpty()) {
+            chunks.remove(hash);
+        }
+    }
+
+
+    private static class IndexedFile {
+        final long lastModified;
+        final long length;
+        final List<Chunk> chunks;
+
+        IndexedFile(long lastModified, long length, List<Chunk> chunks) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.chunks = chunks;
+        }
+    }
+
+
+    private static class Location {
+        final File file;
+        final Chunk chunk;
+
+        Location(File file, Chunk chunk) {
+            this.file = file;
+            this.chunk = chunk;
+        }
+    }
+}
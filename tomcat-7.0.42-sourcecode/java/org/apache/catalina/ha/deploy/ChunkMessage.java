@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.ha.deploy;
+
+import org.apache.catalina.ha.ClusterMessageBase;
+import org.apache.catalina.tribes.Member;
+
+/**
+ * A message of a chunked WAR transfer, used by the FarmWarDeployer when
+ * <code>chunkedTransfer</code> is enabled.
+ * <ul>
+ * <li>{@link #MSG_MANIFEST} - sent by the node deploying the WAR to all the
+ * members, lists the hashes and lengths of the chunks of the WAR in
+ * order</li>
+ * <li>{@link #MSG_REQUEST} - sent back by a member, lists the chunks it does
+ * not have</li>
+ * <li>{@link #MSG_DATA} - the data of one chunk, which the receiver forwards
+ * to the next of the members that requested it too</li>
+ * </ul>
+ */
+public class ChunkMessage extends ClusterMessageBase {
+    private static final long serialVersionUID = 1L;
+
+    public static final int MSG_MANIFEST = 1;
+    public static final int MSG_REQUEST = 2;
+    public static final int MSG_DATA = 3;
+
+    private final int type;
+    private final String transferId;
+    private final String fileName;
+    private final String contextName;
+    private String[] hashes;
+    private int[] lengths;
+    private byte[] data;
+    private Member[] forwardTo;
+
+    public ChunkMessage(Member source, int type, String transferId,
+            String fileName, String contextName) {
+        this.address = source;
+        this.type = type;
+        this.transferId = transferId;
+        this.fileName = fileName;
+        this.contextName = contextName;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * The identifier of the transfer, unique in the cluster.
+     */
+    public String getTransferId() {
+        return transferId;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public String getContextName() {
+        return contextName;
+    }
+
+    /**
+     * The hashes of the chunks: all the chunks of the file for a manifest,
+     * the missing chunks for a request and the chunk sent for data.
+     */
+    public String[] getHashes() {
+        return hashes;
+    }
+
+    public void setHashes(String[] hashes) {
+        this.hashes = hashes;
+    }
+
+    /**
+     * The lengths of the chunks of a manifest.
+     */
+    public int[] getLengths() {
+        return lengths;
+    }
+
+    public void setLengths(int[] lengths) {
+        this.lengths = lengths;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public void setData(byte[] data) {
+        this.data = data;
+    }
+
+    /**
+     * The members the data must be forwarded to, in turn.
+     */
+    public Member[] getForwardTo() {
+        return forwardTo;
+    }
+
+    public void setForwardTo(Member[] forwardTo) {
+        this.forwardTo = forwardTo;
+    }
+
+    @Override
+    public String getUniqueId() {
+        StringBuilder result = new StringBuilder(getTransferId());
+        result.append("#-#");
+        result.append(getType());
+        result.append("#-#");
+        result.append(System.currentTimeMillis());
+        return result.toString();
+    }
+}
@@ -20,6 +20,9 @@ package org.apache.catalina.ha.deploy;
 import java.io.File;
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
@@ -37,6 +40,7 @@ import org.apache.catalina.tribes.Member;
 import org.apache.catalina.util.ContextName;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.buf.HexUtils;
 import org.apache.tomcat.util.modeler.Registry;
 import org.apache.tomcat.util.res.StringManager;
 
@@ -55,6 +59,13 @@ import org.apache.tomcat.util.res.StringManager;
  * </ul>
  * Currently we only support deployment of WAR files since they are easier to
  * send across the wire.
+ * <p>
+ * When <code>chunkedTransfer</code> is enabled, the WAR is split into chunks
+ * whose boundaries depend on the content. The members are sent the list of
+ * the chunks first and only request the chunks that are not found in the
+ * WAR files they already have. Each chunk is sent once, to one of the members
+ * that requested it, which forwards it to the next one.
+ * </p>
  * 
  * @author Filip Hanik
  * @author Peter Rossbach
@@ -142,6 +153,30 @@ public class FarmWarDeployer extends ClusterListener
      */
     protected int maxValidTime = 5 * 60;
 
+    /**
+     * Transfer the WARs in chunks, only sending the chunks the members do not
+     * already have.
+     */
+    protected boolean chunkedTransfer = false;
+
+    /**
+     * The time (in seconds) to wait for the members to request the chunks
+     * they are missing, and after which a member that is still missing chunks
+     * requests them again.
+     */
+    protected int chunkRequestTimeout = 10;
+
+    /**
+     * The chunks of the WARs of the deployment directory.
+     */
+    protected final ChunkIndex chunkIndex = new ChunkIndex();
+
+    protected final Map<String, OutgoingWarTransfer> outgoingTransfers =
+        new ConcurrentHashMap<String, OutgoingWarTransfer>();
+
+    protected final Map<String, IncomingWarTransfer> incomingTransfers =
+        new ConcurrentHashMap<String, IncomingWarTransfer>();
+
     /*--Constructor---------------------------------------------*/
     public FarmWarDeployer() {
     }
@@ -261,39 +296,15 @@ public class FarmWarDeployer extends ClusterListener
                 // TODO correct second try after app is in service!
                 if (factory.writeMessage(fmsg)) {
                     //last message received war file is completed
-                    String name = factory.getFile().getName();
-                    if (!name.endsWith(".war"))
-                        name = name + ".war";
-                    File deployable = new File(getDeployDirFile(), name);
                     try {
-                        String contextName = fmsg.getContextName();
-                        if (!isServiced(contextName)) {
-                            addServiced(contextName);
-                            try {
-                                remove(contextName);
-                                if (!factory.getFile().renameTo(deployable)) {
-                                    log.error(sm.getString(
-                                            "farmWarDeployer.renameFail",
-                                            factory.getFile(), deployable));
-                                }
-                                check(contextName);
-                            } finally {
-                                removeServiced(contextName);
-                            }
-                            if (log.isDebugEnabled())
-                                log.debug(sm.getString(
-                                        "farmWarDeployer.deployEnd",
-                                        contextName));
-                        } else
-                            log.error(sm.getString(
-                                    "farmWarDeployer.servicingDeploy",
-                                    contextName, name));
-                    } catch (Exception ex) {
-                        log.error(ex);
+                        installReceived(fmsg.getContextName(),
+                                factory.getFile());
                     } finally {
                         removeFactory(fmsg);
                     }
                 }
+            } else if (msg instanceof ChunkMessage) {
+                messageReceived((ChunkMessage) msg);
             } else if (msg instanceof UndeployMessage) {
                 try {
                     UndeployMessage umsg = (UndeployMessage) msg;
@@ -325,6 +336,138 @@ public class FarmWarDeployer extends ClusterListener
         }
     }
 
+    /**
+     * Deploy a WAR received from the cluster.
+     *
+     * @param contextName The name of the context
+     * @param war         The WAR, in the temporary directory
+     */
+    protected void installReceived(String contextName, File war) {
+        String name = war.getName();
+        if (!name.endsWith(".war"))
+            name = name + ".war";
+        File deployable = new File(getDeployDirFile(), name);
+        try {
+            if (!isServiced(contextName)) {
+                addServiced(contextName);
+                try {
+                    remove(contextName);
+                    if (!war.renameTo(deployable)) {
+                        log.error(sm.getString(
+                                "farmWarDeployer.renameFail",
+                                war, deployable));
+                    }
+                    check(contextName);
+                } finally {
+                    removeServiced(contextName);
+                }
+                if (log.isDebugEnabled())
+                    log.debug(sm.getString(
+                            "farmWarDeployer.deployEnd",
+                            contextName));
+            } else
+                log.error(sm.getString(
+                        "farmWarDeployer.servicingDeploy",
+                        contextName, name));
+        } catch (Exception ex) {
+            log.error(ex);
+        }
+    }
+
+    /**
+     * Process a message of a chunked transfer.
+     *
+     * @param msg The message received
+     * @throws IOException if the WAR can not be read or written
+     */
+    protected void messageReceived(ChunkMessage msg) throws IOException {
+        String transferId = msg.getTransferId();
+        if (msg.getType() == ChunkMessage.MSG_MANIFEST) {
+            if (log.isDebugEnabled())
+                log.debug(sm.getString("farmWarDeployer.msgRxDeploy",
+                        msg.getContextName(), msg.getFileName()));
+            chunkIndex.update(getDeployDirFile());
+            IncomingWarTransfer transfer = new IncomingWarTransfer(msg,
+                    new File(getTempDirFile(), msg.getFileName()), chunkIndex);
+            incomingTransfers.put(transferId, transfer);
+            if (log.isDebugEnabled())
+                log.debug(sm.getString("farmWarDeployer.chunksMissing",
+                        msg.getContextName(),
+                        Integer.valueOf(transfer.getMissing().length),
+                        Integer.valueOf(msg.getHashes().length),
+                        Long.valueOf(transfer.getCopied())));
+            getCluster().send(transfer.createRequest(
+                    getCluster().getLocalMember()), transfer.getSource());
+            if (transfer.isComplete()) {
+                completeTransfer(transfer);
+            }
+        } else if (msg.getType() == ChunkMessage.MSG_REQUEST) {
+            OutgoingWarTransfer transfer = outgoingTransfers.get(transferId);
+            if (transfer == null) {
+                log.warn(sm.getString("farmWarDeployer.transferUnknown",
+                        transferId, msg.getAddress()));
+            } else if (transfer.addRequest(msg.getAddress(), msg.getHashes())) {
+                // Requested late or again, send the chunks directly
+                Member[] target = new Member[] {msg.getAddress()};
+                for (String hash : msg.getHashes()) {
+                    sendChunk(transfer, hash, target);
+                }
+            }
+        } else if (msg.getType() == ChunkMessage.MSG_DATA) {
+            String hash = msg.getHashes()[0];
+            byte[] data = msg.getData();
+            Member[] forwardTo = msg.getForwardTo();
+            if (forwardTo != null && forwardTo.length > 0) {
+                Member next = forwardTo[0];
+                Member[] rest = new Member[forwardTo.length - 1];
+                System.arraycopy(forwardTo, 1, rest, 0, rest.length);
+                msg.setForwardTo(rest);
+                getCluster().send(msg, next);
+            }
+            IncomingWarTransfer transfer = incomingTransfers.get(transferId);
+            if (transfer != null && transfer.write(hash, data) &&
+                    transfer.isComplete()) {
+                completeTransfer(transfer);
+            }
+        }
+    }
+
+    /**
+     * Deploy a WAR once all its chunks have been received.
+     */
+    protected void completeTransfer(IncomingWarTransfer transfer)
+            throws IOException {
+        if (incomingTransfers.remove(transfer.getTransferId()) == null) {
+            // Completed by another thread
+            return;
+        }
+        transfer.close();
+        installReceived(transfer.getContextName(), transfer.getFile());
+    }
+
+    /**
+     * Send a chunk of a WAR to the first of the members, which forwards it to
+     * the next ones.
+     */
+    protected void sendChunk(OutgoingWarTransfer transfer, String hash,
+            Member[] targets) throws IOException {
+        byte[] data = transfer.read(hash);
+        if (data == null) {
+            log.error(sm.getString("farmWarDeployer.chunkReadFail", hash,
+                    transfer.getFile()));
+            return;
+        }
+        Member[] forwardTo = new Member[targets.length - 1];
+        System.arraycopy(targets, 1, forwardTo, 0, forwardTo.length);
+        ChunkMessage msg = new ChunkMessage(getCluster().getLocalMember(),
+                ChunkMessage.MSG_DATA, transfer.getTransferId(),
+                transfer.getFile().getName(), null);
+        msg.setHashes(new String[] {hash});
+        msg.setData(data);
+        msg.setForwardTo(forwardTo);
+        getCluster().send(msg, targets[0]);
+    }
+
     /**
      * create factory for all transported war files
      * 
@@ -367,7 +510,8 @@ public class FarmWarDeployer extends ClusterListener
      */
     @Override
     public boolean accept(ClusterMessage msg) {
-        return (msg instanceof FileMessage) || (msg instanceof UndeployMessage);
+        return (msg instanceof FileMessage) || (msg instanceof UndeployMessage)
+                || (msg instanceof ChunkMessage);
     }
 
     /**
@@ -399,6 +543,10 @@ public class FarmWarDeployer extends ClusterListener
         Member[] members = getCluster().getMembers();
         if (members.length == 0) return;
 
+        if (chunkedTransfer) {
+            installChunked(contextName, webapp, members);
+            return;
+        }
         Member localMember = getCluster().getLocalMember();
         FileMessageFactory factory =
             FileMessageFactory.getInstance(webapp, false);
@@ -422,6 +570,59 @@ public class FarmWarDeployer extends ClusterListener
                     "farmWarDeployer.sendEnd", contextName, webapp));
     }
 
+    /**
+     * Send a WAR to the members in chunks. The members are sent the manifest
+     * of the WAR and request the chunks they are missing, each chunk is then
+     * sent to one of the members that requested it, which forwards it to the
+     * others. The first member is changed from one chunk to the next so that
+     * the forwarding is shared between the members.
+     */
+    protected void installChunked(String contextName, File webapp,
+            Member[] members) throws IOException {
+        Member localMember = getCluster().getLocalMember();
+        String transferId = "Deploy:" + contextName + ":"
+                + HexUtils.toHexString(localMember.getUniqueId()) + ":"
+                + System.currentTimeMillis();
+        OutgoingWarTransfer transfer = new OutgoingWarTransfer(transferId,
+                webapp, contextName, members.length);
+        outgoingTransfers.put(transferId, transfer);
+        if(log.isDebugEnabled())
+            log.debug(sm.getString("farmWarDeployer.sendStart", contextName,
+                    webapp));
+        ChunkMessage manifest = transfer.createManifest(localMember);
+        for (int i = 0; i < members.length; i++) {
+            getCluster().send(manifest, members[i]);
+        }
+        try {
+            if (!transfer.awaitRequests(chunkRequestTimeout * 1000L)) {
+                log.warn(sm.getString("farmWarDeployer.chunkRequestTimeout",
+                        contextName, Integer.valueOf(chunkRequestTimeout)));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        int i = 0;
+        for (Map.Entry<String, List<Member>> entry :
+                transfer.dispatch().entrySet()) {
+            List<Member> targets = entry.getValue();
+            if (targets.isEmpty()) {
+                continue;
+            }
+            Member[] chain = new Member[targets.size()];
+            int first = i++ % chain.length;
+            for (int j = 0; j < chain.length; j++) {
+                chain[j] = targets.get((first + j) % chain.length);
+            }
+            if (log.isDebugEnabled())
+                log.debug(sm.getString("farmWarDeployer.sendFragment",
+                        contextName, webapp, chain[0]));
+            sendChunk(transfer, entry.getKey(), chain);
+        }
+        if(log.isDebugEnabled())
+            log.debug(sm.getString(
+                    "farmWarDeployer.sendEnd", contextName, webapp));
+    }
+
     /**
      * Remove an existing web application, attached to the specified context
      * name. If this application is successfully removed, a ContainerEvent of
@@ -633,6 +834,7 @@ public class FarmWarDeployer extends ClusterListener
                 }
             }
             removeInvalidFileFactories();
+            removeInvalidChunkTransfers();
         }
 
     }
@@ -779,6 +981,22 @@ public class FarmWarDeployer extends ClusterListener
         this.maxValidTime = maxValidTime;
     }
 
+    public boolean getChunkedTransfer() {
+        return chunkedTransfer;
+    }
+
+    public void setChunkedTransfer(boolean chunkedTransfer) {
+        this.chunkedTransfer = chunkedTransfer;
+    }
+
+    public int getChunkRequestTimeout() {
+        return chunkRequestTimeout;
+    }
+
+    public void setChunkRequestTimeout(int chunkRequestTimeout) {
+        this.chunkRequestTimeout = chunkRequestTimeout;
+    }
+
     /**
      * Copy a file to the specified temp directory.
      * @param from copy from temp
@@ -823,6 +1041,32 @@ public class FarmWarDeployer extends ClusterListener
         }
     }
 
+    /**
+     * Request again the chunks that have not been received after
+     * chunkRequestTimeout, for instance because a member that had to forward
+     * them has left, and remove the transfers older than maxValidTime.
+     */
+    protected void removeInvalidChunkTransfers() {
+        long now = System.currentTimeMillis();
+        for (IncomingWarTransfer transfer : incomingTransfers.values()) {
+            if (maxValidTime > 0 &&
+                    now - transfer.getCreationTime() > maxValidTime * 1000L) {
+                incomingTransfers.remove(transfer.getTransferId());
+                transfer.cleanup();
+            } else if (now - transfer.getLastActivity() >
+                    chunkRequestTimeout * 1000L) {
+                getCluster().send(transfer.createRequest(
+                        getCluster().getLocalMember()), transfer.getSource());
+            }
+        }
+        for (OutgoingWarTransfer transfer : outgoingTransfers.values()) {
+            if (maxValidTime > 0 &&
+                    now - transfer.getCreationTime() > maxValidTime * 1000L) {
+                outgoingTransfers.remove(transfer.getTransferId());
+            }
+        }
+    }
+
     private File getAbsolutePath(String path) {
         File dir = new File(path);
         File base = new File(System.getProperty(Globals.CATALINA_BASE_PROP));
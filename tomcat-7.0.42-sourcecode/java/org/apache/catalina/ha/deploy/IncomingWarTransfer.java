@@ -0,0 +1,194 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.ha.deploy;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.catalina.tribes.Member;
+
+/**
+ * The state of a chunked transfer of a WAR on a node receiving it. The chunks
+ * found in the {@link ChunkIndex} are copied when the manifest is received,
+ * the other chunks are written as they are received.
+ */
+public class IncomingWarTransfer {
+
+    private final String transferId;
+    private final Member source;
+    private final String contextName;
+    private final File file;
+    /**
+     * The offsets of the missing chunks, by hash.
+     */
+    private final Map<String, List<Long>> missing =
+        new LinkedHashMap<String, List<Long>>();
+    private final Map<String, Integer> lengths =
+        new LinkedHashMap<String, Integer>();
+    private final long creationTime = System.currentTimeMillis();
+    private long lastActivity = creationTime;
+    private RandomAccessFile out;
+    private long copied = 0;
+
+    /**
+     * @param manifest  The manifest of the WAR
+     * @param file      The file the WAR is written to
+     * @param index     The chunks available locally
+     * @throws IOException if the file can not be written
+     */
+    public IncomingWarTransfer(ChunkMessage manifest, File file,
+            ChunkIndex index) throws IOException {
+        this.transferId = manifest.getTransferId();
+        this.source = manifest.getAddress();
+        this.contextName = manifest.getContextName();
+        this.file = file;
+        String[] hashes = manifest.getHashes();
+        int[] chunkLengths = manifest.getLengths();
+        long length = 0;
+        for (int i = 0; i < hashes.length; i++) {
+            List<Long> offsets = missing.get(hashes[i]);
+            if (offsets == null) {
+                offsets = new ArrayList<Long>();
+                missing.put(hashes[i], offsets);
+                lengths.put(hashes[i], Integer.valueOf(chunkLengths[i]));
+            }
+            offsets.add(Long.valueOf(length));
+            length += chunkLengths[i];
+        }
+        out = new RandomAccessFile(file, "rw");
+        try {
+            out.setLength(length);
+            for (String hash : new ArrayList<String>(missing.keySet())) {
+                byte[] data = index.read(hash);
+                if (data != null && write(hash, data)) {
+                    copied += data.length;
+                }
+            }
+        } catch (IOException e) {
+            cleanup();
+            throw e;
+        }
+    }
+
+    public String getTransferId() {
+        return transferId;
+    }
+
+    /**
+     * The node deploying the WAR.
+     */
+    public Member getSource() {
+        return source;
+    }
+
+    public String getContextName() {
+        return contextName;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getCreationTime() {
+        return creationTime;
+    }
+
+    public synchronized long getLastActivity() {
+        return lastActivity;
+    }
+
+    /**
+     * The number of bytes copied from the chunks available locally.
+     */
+    public long getCopied() {
+        return copied;
+    }
+
+    /**
+     * Write a chunk of the WAR.
+     *
+     * @return <code>true</code> if the chunk was missing
+     * @throws IOException if the file can not be written
+     */
+    public synchronized boolean write(String hash, byte[] data)
+            throws IOException {
+        List<Long> offsets = missing.get(hash);
+        if (offsets == null || out == null ||
+                lengths.get(hash).intValue() != data.length ||
+                !hash.equals(WarChunker.hash(data, 0, data.length))) {
+            return false;
+        }
+        for (Long offset : offsets) {
+            out.seek(offset.longValue());
+            out.write(data);
+        }
+        missing.remove(hash);
+        lastActivity = System.currentTimeMillis();
+        return true;
+    }
+
+    public synchronized boolean isComplete() {
+        return missing.isEmpty();
+    }
+
+    /**
+     * The hashes of the chunks not received yet.
+     */
+    public synchronized String[] getMissing() {
+        return missing.keySet().toArray(new String[missing.size()]);
+    }
+
+    /**
+     * Create the request for the missing chunks.
+     */
+    public synchronized ChunkMessage createRequest(Member local) {
+        ChunkMessage msg = new ChunkMessage(local, ChunkMessage.MSG_REQUEST,
+                transferId, file.getName(), contextName);
+        msg.setHashes(getMissing());
+        lastActivity = System.currentTimeMillis();
+        return msg;
+    }
+
+    /**
+     * Close the file once the transfer is complete.
+     */
+    public synchronized void close() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    /**
+     * Close and delete the file of a transfer that did not complete.
+     */
+    public synchronized void cleanup() {
+        try {
+            close();
+        } catch (IOException ignore) {
+            // Ignore
+        }
+        if (file.exists()) {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.ha.deploy;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.catalina.ha.deploy.WarChunker.Chunk;
+import org.apache.catalina.tribes.Member;
+
+/**
+ * The state of a chunked transfer of a WAR on the node deploying it: the
+ * chunks of the WAR and the chunks requested by each member.
+ */
+public class OutgoingWarTransfer {
+
+    private final String transferId;
+    private final File file;
+    private final String contextName;
+    private final List<Chunk> chunks;
+    /**
+     * The first chunk with each hash, in the order of the file.
+     */
+    private final Map<String, Chunk> chunksByHash =
+        new LinkedHashMap<String, Chunk>();
+    private final Map<Member, String[]> requests =
+        new LinkedHashMap<Member, String[]>();
+    private final CountDownLatch pendingRequests;
+    private final long creationTime = System.currentTimeMillis();
+    private boolean dispatched = false;
+
+    /**
+     * @param transferId    The identifier of the transfer
+     * @param file          The WAR
+     * @param contextName   The name of the context deployed
+     * @param members       The number of members the WAR is sent to
+     * @throws IOException if the WAR can not be read
+     */
+    public OutgoingWarTransfer(String transferId, File file,
+            String contextName, int members) throws IOException {
+        this.transferId = transferId;
+        this.file = file;
+        this.contextName = contextName;
+        this.chunks = WarChunker.chunk(file);
+        for (Chunk chunk : chunks) {
+            if (!chunksByHash.containsKey(chunk.getHash())) {
+                chunksByHash.put(chunk.getHash(), chunk);
+            }
+        }
+        this.pendingRequests = new CountDownLatch(members);
+    }
+
+    public String getTransferId() {
+        return transferId;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getCreationTime() {
+        return creationTime;
+    }
+
+    /**
+     * Create the manifest listing the chunks of the WAR.
+     */
+    public ChunkMessage createManifest(Member source) {
+        String[] hashes = new String[chunks.size()];
+        int[] lengths = new int[chunks.size()];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = chunks.get(i).getHash();
+            lengths[i] = chunks.get(i).getLength();
+        }
+        ChunkMessage msg = new ChunkMessage(source, ChunkMessage.MSG_MANIFEST,
+                transferId, file.getName(), contextName);
+        msg.setHashes(hashes);
+        msg.setLengths(lengths);
+        return msg;
+    }
+
+    /**
+     * Record the chunks requested by a member.
+     *
+     * @return <code>true</code> if the chunks have already been dispatched to
+     *         the members that requested them, so that the chunks must be
+     *         sent to this member on their own
+     */
+    public synchronized boolean addRequest(Member member, String[] hashes) {
+        if (dispatched) {
+            return true;
+        }
+        if (!requests.containsKey(member)) {
+            pendingRequests.countDown();
+        }
+        requests.put(member, hashes);
+        return false;
+    }
+
+    /**
+     * Wait for all the members to request the chunks they are missing.
+     *
+     * @return <code>false</code> if some of the members did not respond
+     */
+    public boolean awaitRequests(long timeout) throws InterruptedException {
+        return pendingRequests.await(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop collecting the requests, the members responding later are sent
+     * the chunks they request on their own.
+     *
+     * @return the members that requested each chunk, in the order of the
+     *         file
+     */
+    public synchronized Map<String, List<Member>> dispatch() {
+        dispatched = true;
+        Map<String, List<Member>> targets =
+            new LinkedHashMap<String, List<Member>>();
+        for (String hash : chunksByHash.keySet()) {
+            targets.put(hash, new ArrayList<Member>());
+        }
+        for (Map.Entry<Member, String[]> request : requests.entrySet()) {
+            for (String hash : request.getValue()) {
+                List<Member> members = targets.get(hash);
+                if (members != null) {
+                    members.add(request.getKey());
+                }
+            }
+        }
+        return targets;
+    }
+
+    /**
+     * Read the data of a chunk of the WAR.
+     *
+     * @return the data or <code>null</code> if the WAR does not contain the
+     *         chunk
+     * @throws IOException if the WAR can not be read
+     */
+    public byte[] read(String hash) throws IOException {
+        Chunk chunk = chunksByHash.get(hash);
+        if (chunk == null) {
+            return null;
+        }
+        return WarChunker.read(file, chunk);
+    }
+}
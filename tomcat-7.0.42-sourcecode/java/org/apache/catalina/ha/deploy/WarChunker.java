@@ -0,0 +1,196 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.ha.deploy;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.tomcat.util.buf.HexUtils;
+
+/**
+ * Splits files into chunks whose boundaries depend on the content, so that a
+ * change in a file only changes the chunks around it, and identifies the
+ * chunks by their SHA-1 hash. The boundaries are found with a gear rolling
+ * hash of the last 64 bytes: a chunk ends where the top bits of the hash are
+ * all zero, once it is at least {@link #MIN_CHUNK_SIZE} bytes long, or when
+ * it reaches {@link #MAX_CHUNK_SIZE} bytes.
+ */
+public class WarChunker {
+
+    /**
+     * The minimum size of a chunk, except the last one of a file.
+     */
+    public static final int MIN_CHUNK_SIZE = 16 * 1024;
+
+    /**
+     * The maximum size of a chunk.
+     */
+    public static final int MAX_CHUNK_SIZE = 256 * 1024;
+
+    /**
+     * The top 16 bits, giving chunks of 64kb on average after the minimum
+     * size.
+     */
+    private static final long BOUNDARY_MASK = 0xFFFFL << 48;
+
+    private static final long[] GEAR = new long[256];
+
+    static {
+        // Fixed seed, all the nodes must find the same boundaries
+        Random random = new Random(0x3C6EF372FE94F82BL);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+
+    /**
+     * Split a file into chunks.
+     *
+     * @param file  The file to split
+     * @return the chunks, in the order of the file
+     * @throws IOException if the file can not be read
+     */
+    public static List<Chunk> chunk(File file) throws IOException {
+        List<Chunk> chunks = new ArrayList<Chunk>();
+        MessageDigest digest = newDigest();
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buf = new byte[64 * 1024];
+            long offset = 0;
+            int length = 0;
+            long hash = 0;
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                int start = 0;
+                for (int i = 0; i < n; i++) {
+                    hash = (hash << 1) + GEAR[buf[i] & 0xFF];
+                    length++;
+                    if (length >= MIN_CHUNK_SIZE &&
+                            ((hash & BOUNDARY_MASK) == 0 ||
+                                    length >= MAX_CHUNK_SIZE)) {
+                        digest.update(buf, start, i + 1 - start);
+                        chunks.add(new Chunk(
+                                HexUtils.toHexString(digest.digest()),
+                                offset, length));
+                        offset += length;
+                        length = 0;
+                        hash = 0;
+                        start = i + 1;
+                    }
+                }
+                digest.update(buf, start, n - start);
+            }
+            if (length > 0) {
+                chunks.add(new Chunk(HexUtils.toHexString(digest.digest()),
+                        offset, length));
+            }
+        } finally {
+            in.close();
+        }
+        return chunks;
+    }
+
+
+    /**
+     * Read the data of a chunk.
+     *
+     * @param file  The file containing the chunk
+     * @param chunk The chunk to read
+     * @return the data of the chunk, or <code>null</code> if the file does not
+     *         contain the chunk any more
+     * @throws IOException if the file can not be read
+     */
+    public static byte[] read(File file, Chunk chunk) throws IOException {
+        byte[] data = new byte[chunk.getLength()];
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            if (raf.length() < chunk.getOffset() + chunk.getLength()) {
+                return null;
+            }
+            raf.seek(chunk.getOffset());
+            raf.readFully(data);
+        } finally {
+            raf.close();
+        }
+        if (!chunk.getHash().equals(hash(data, 0, data.length))) {
+            return null;
+        }
+        return data;
+    }
+
+
+    public static String hash(byte[] data, int offset, int length) {
+        MessageDigest digest = newDigest();
+        digest.update(data, offset, length);
+        return HexUtils.toHexString(digest.digest());
+    }
+
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-1 is required to be supported by every JVM
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+    /**
+     * A chunk of a file.
+     */
+    public static class Chunk {
+        private final String hash;
+        private final long offset;
+        private final int length;
+
+        public Chunk(String hash, long offset, int length) {
+            this.hash = hash;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        /**
+         * The SHA-1 hash of the data of the chunk, in hexadecimal.
+         */
+        public String getHash() {
+            return hash;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        @Override
+        public String toString() {
+            return hash + "@" + offset + "+" + length;
+        }
+    }
+}
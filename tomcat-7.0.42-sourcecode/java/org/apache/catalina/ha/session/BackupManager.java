@@ -30,6 +30,8 @@ import org.apache.catalina.ha.ClusterManager;
 import org.apache.catalina.ha.ClusterMessage;
 import org.apache.catalina.tribes.Channel;
 import org.apache.catalina.tribes.tipis.AbstractReplicatedMap.MapOwner;
+import org.apache.catalina.tribes.tipis.ConsistentHashReplicatedMap;
+import org.apache.catalina.tribes.tipis.ConsistentHashRing;
 import org.apache.catalina.tribes.tipis.LazyReplicatedMap;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
@@ -69,6 +71,22 @@ public class BackupManager extends ClusterManagerBase
      */
     private long rpcTimeout = DEFAULT_REPL_TIMEOUT;
 
+    /**
+     * Place the backups of the sessions on a consistent hash ring instead of
+     * selecting them in turn.
+     */
+    private boolean consistentHashing = false;
+
+    /**
+     * The number of backups of each session when consistent hashing is used.
+     */
+    private int backupCount = 1;
+
+    /**
+     * The number of points of each node on the consistent hash ring.
+     */
+    private int virtualNodes = ConsistentHashRing.DEFAULT_VIRTUAL_NODES;
+
     /**
      * Constructor, just calls super()
      *
@@ -160,11 +178,22 @@ public class BackupManager extends ClusterManagerBase
                 }
             }
             cluster.registerManager(this);
-            LazyReplicatedMap map = new LazyReplicatedMap(this,
-                                                          cluster.getChannel(),
-                                                          rpcTimeout,
-                                                          getMapName(),
-                                                          getClassLoaders());
+            LazyReplicatedMap map;
+            if (consistentHashing) {
+                map = new ConsistentHashReplicatedMap(this,
+                                                      cluster.getChannel(),
+                                                      rpcTimeout,
+                                                      getMapName(),
+                                                      getClassLoaders(),
+                                                      backupCount,
+                                                      virtualNodes);
+            } else {
+                map = new LazyReplicatedMap(this,
+                                            cluster.getChannel(),
+                                            rpcTimeout,
+                                            getMapName(),
+                                            getClassLoaders());
+            }
             map.setChannelSendOptions(mapSendOptions);
             this.sessions = map;
         }  catch ( Exception x ) {
@@ -234,6 +263,30 @@ public class BackupManager extends ClusterManagerBase
         return rpcTimeout;
     }
 
+    public void setConsistentHashing(boolean consistentHashing) {
+        this.consistentHashing = consistentHashing;
+    }
+
+    public boolean isConsistentHashing() {
+        return consistentHashing;
+    }
+
+    public void setBackupCount(int backupCount) {
+        this.backupCount = backupCount;
+    }
+
+    public int getBackupCount() {
+        return backupCount;
+    }
+
+    public void setVirtualNodes(int virtualNodes) {
+        this.virtualNodes = virtualNodes;
+    }
+
+    public int getVirtualNodes() {
+        return virtualNodes;
+    }
+
     @Override
     public String[] getInvalidatedSessions() {
         return new String[0];
@@ -246,6 +299,9 @@ public class BackupManager extends ClusterManagerBase
         result.mExpireSessionsOnShutdown = mExpireSessionsOnShutdown;
         result.mapSendOptions = mapSendOptions;
         result.rpcTimeout = rpcTimeout;
+        result.consistentHashing = consistentHashing;
+        result.backupCount = backupCount;
+        result.virtualNodes = virtualNodes;
         return result;
     }
 
@@ -0,0 +1,191 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.ha.session;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+import org.apache.tomcat.util.buf.B2CConverter;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * A {@link SessionAttributeCodec} that writes the primitive wrappers,
+ * strings and byte arrays as a type tag followed by their binary value, and
+ * {@link Externalizable} values as their class name followed by their
+ * external form. Other values are written with Java serialization. This
+ * avoids the class descriptors Java serialization writes for each message,
+ * which are usually much larger than the value of a small attribute.
+ */
+public class BinarySessionAttributeCodec implements SessionAttributeCodec {
+
+    private static final StringManager sm =
+        StringManager.getManager(Constants.Package);
+
+    protected static final int NULL = 0;
+    protected static final int STRING = 1;
+    protected static final int LONG_STRING = 2;
+    protected static final int INTEGER = 3;
+    protected static final int LONG = 4;
+    protected static final int TRUE = 5;
+    protected static final int FALSE = 6;
+    protected static final int SHORT = 7;
+    protected static final int BYTE = 8;
+    protected static final int CHARACTER = 9;
+    protected static final int FLOAT = 10;
+    protected static final int DOUBLE = 11;
+    protected static final int BYTE_ARRAY = 12;
+    protected static final int EXTERNALIZABLE = 13;
+    protected static final int SERIALIZED = 14;
+
+    /**
+     * The longest string that always fits in the 65535 bytes written by
+     * {@link ObjectOutput#writeUTF(String)}.
+     */
+    private static final int MAX_UTF_LENGTH = 65535 / 3;
+
+
+    @Override
+    public void writeValue(ObjectOutput out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof String) {
+            String s = (String) value;
+            if (s.length() <= MAX_UTF_LENGTH) {
+                out.writeByte(STRING);
+                out.writeUTF(s);
+            } else {
+                byte[] bytes = s.getBytes(B2CConverter.UTF_8);
+                out.writeByte(LONG_STRING);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        } else if (value instanceof Integer) {
+            out.writeByte(INTEGER);
+            out.writeInt(((Integer) value).intValue());
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong(((Long) value).longValue());
+        } else if (value instanceof Boolean) {
+            out.writeByte(((Boolean) value).booleanValue() ? TRUE : FALSE);
+        } else if (value instanceof Short) {
+            out.writeByte(SHORT);
+            out.writeShort(((Short) value).shortValue());
+        } else if (value instanceof Byte) {
+            out.writeByte(BYTE);
+            out.writeByte(((Byte) value).byteValue());
+        } else if (value instanceof Character) {
+            out.writeByte(CHARACTER);
+            out.writeChar(((Character) value).charValue());
+        } else if (value instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeFloat(((Float) value).floatValue());
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble(((Double) value).doubleValue());
+        } else if (value instanceof byte[]) {
+            byte[] bytes = (byte[]) value;
+            out.writeByte(BYTE_ARRAY);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        } else if (value instanceof Externalizable) {
+            out.writeByte(EXTERNALIZABLE);
+            out.writeUTF(value.getClass().getName());
+            ((Externalizable) value).writeExternal(out);
+        } else {
+            out.writeByte(SERIALIZED);
+            out.writeObject(value);
+        }
+    }
+
+
+    @Override
+    public Object readValue(ObjectInput in)
+            throws IOException, ClassNotFoundException {
+        int type = in.readByte();
+        switch (type) {
+            case NULL:
+                return null;
+            case STRING:
+                return in.readUTF();
+            case LONG_STRING:
+                return new String(readBytes(in), B2CConverter.UTF_8);
+            case INTEGER:
+                return Integer.valueOf(in.readInt());
+            case LONG:
+                return Long.valueOf(in.readLong());
+            case TRUE:
+                return Boolean.TRUE;
+            case FALSE:
+                return Boolean.FALSE;
+            case SHORT:
+                return Short.valueOf(in.readShort());
+            case BYTE:
+                return Byte.valueOf(in.readByte());
+            case CHARACTER:
+                return Character.valueOf(in.readChar());
+            case FLOAT:
+                return Float.valueOf(in.readFloat());
+            case DOUBLE:
+                return Double.valueOf(in.readDouble());
+            case BYTE_ARRAY:
+                return readBytes(in);
+            case EXTERNALIZABLE:
+                return readExternalizable(in);
+            case SERIALIZED:
+                return in.readObject();
+            default:
+                throw new IOException(sm.getString(
+                        "binarySessionAttributeCodec.unknownType",
+                        Integer.valueOf(type)));
+        }
+    }
+
+
+    private static byte[] readBytes(ObjectInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+
+    private static Object readExternalizable(ObjectInput in)
+            throws IOException, ClassNotFoundException {
+        String className = in.readUTF();
+        Class<?> clazz = Class.forName(className, false,
+                Thread.currentThread().getContextClassLoader());
+        if (!Externalizable.class.isAssignableFrom(clazz)) {
+            throw new InvalidClassException(className);
+        }
+        Externalizable value;
+        try {
+            value = (Externalizable) clazz.newInstance();
+        } catch (InstantiationException e) {
+            InvalidClassException ice = new InvalidClassException(className);
+            ice.initCause(e);
+            throw ice;
+        } catch (IllegalAccessException e) {
+            InvalidClassException ice = new InvalidClassException(className);
+            ice.initCause(e);
+            throw ice;
+        }
+        value.readExternal(in);
+        return value;
+    }
+}
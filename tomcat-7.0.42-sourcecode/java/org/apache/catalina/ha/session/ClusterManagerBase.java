@@ -27,6 +27,8 @@ import org.apache.catalina.ha.CatalinaCluster;
 import org.apache.catalina.ha.ClusterManager;
 import org.apache.catalina.session.ManagerBase;
 import org.apache.catalina.tribes.io.ReplicationStream;
+import org.apache.tomcat.util.ExceptionUtils;
+import org.apache.tomcat.util.res.StringManager;
 
 /**
  * 
@@ -37,6 +39,9 @@ import org.apache.catalina.tribes.io.ReplicationStream;
 public abstract class ClusterManagerBase extends ManagerBase
         implements ClusterManager {
 
+    private static final StringManager sm =
+        StringManager.getManager(Constants.Package);
+
     /**
      * A reference to the cluster
      */
@@ -61,6 +66,14 @@ public abstract class ClusterManagerBase extends ManagerBase
      */
     private Pattern sessionAttributePattern = null;
 
+    /**
+     * The class name of the codec used to write the values of the replicated
+     * session attributes. If not set, Java serialization is used.
+     */
+    private String sessionAttributeCodec = null;
+
+    private SessionAttributeCodec attributeCodec = null;
+
     /* 
      * @see org.apache.catalina.ha.ClusterManager#getCluster()
      */
@@ -114,6 +127,50 @@ public abstract class ClusterManagerBase extends ManagerBase
         }
     }
 
+    /**
+     * Return the class name of the codec used to write the values of the
+     * replicated session attributes.
+     *
+     * @return the sessionAttributeCodec
+     */
+    public String getSessionAttributeCodec() {
+        return sessionAttributeCodec;
+    }
+
+    /**
+     * Set the class name of the {@link SessionAttributeCodec} used to write
+     * the values of the replicated session attributes. All the nodes of the
+     * cluster must use the same codec. If not set, Java serialization is used.
+     *
+     * @param sessionAttributeCodec
+     *            the class name of the codec
+     */
+    public void setSessionAttributeCodec(String sessionAttributeCodec) {
+        if (sessionAttributeCodec == null
+            || sessionAttributeCodec.trim().equals("")) {
+            this.sessionAttributeCodec = null;
+            attributeCodec = null;
+        } else {
+            try {
+                attributeCodec = (SessionAttributeCodec) Class.forName(
+                        sessionAttributeCodec).newInstance();
+            } catch (Throwable t) {
+                ExceptionUtils.handleThrowable(t);
+                throw new IllegalArgumentException(sm.getString(
+                        "clusterManager.codecFail", sessionAttributeCodec), t);
+            }
+            this.sessionAttributeCodec = sessionAttributeCodec;
+        }
+    }
+
+    /**
+     * Return the codec used to write the values of the replicated session
+     * attributes or <code>null</code> if Java serialization is used.
+     */
+    public SessionAttributeCodec getAttributeCodec() {
+        return attributeCodec;
+    }
+
     /**
      * Check whether the given session attribute should be distributed
      *
@@ -189,6 +246,7 @@ public abstract class ClusterManagerBase extends ManagerBase
         copy.setProcessExpiresFrequency(getProcessExpiresFrequency());
         copy.setNotifyListenersOnReplication(isNotifyListenersOnReplication());
         copy.setSessionAttributeFilter(getSessionAttributeFilter());
+        copy.setSessionAttributeCodec(getSessionAttributeCodec());
         copy.setSecureRandomClass(getSecureRandomClass());
         copy.setSecureRandomProvider(getSecureRandomProvider());
         copy.setSecureRandomAlgorithm(getSecureRandomAlgorithm());
@@ -25,6 +25,12 @@ import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import org.apache.catalina.Cluster;
 import org.apache.catalina.Container;
@@ -42,9 +48,11 @@ import org.apache.catalina.ha.ClusterMessage;
 import org.apache.catalina.ha.tcp.ReplicationValve;
 import org.apache.catalina.session.ManagerBase;
 import org.apache.catalina.tribes.Member;
+import org.apache.catalina.tribes.group.interceptors.GzipInterceptor;
 import org.apache.catalina.tribes.io.ReplicationStream;
 import org.apache.tomcat.util.ExceptionUtils;
 import org.apache.tomcat.util.res.StringManager;
+import org.apache.tomcat.util.threads.TaskThreadFactory;
 
 /**
  * The DeltaManager manages replicated sessions by only replicating the deltas
@@ -111,6 +119,65 @@ public class DeltaManager extends ClusterManagerBase{
     private boolean receiverQueue = false ;
     private boolean stateTimestampDrop = true ;
     private long stateTransferCreateSendTime; 
+
+    /**
+     * Time in msec the deltas of the sessions are collected before they are
+     * replicated together. 0 replicates the delta at the end of each request.
+     */
+    private int replicationBatchWindow = 0;
+    private int replicationBatchMaxSessions = 500;
+
+    /**
+     * The ids of the sessions with deltas waiting for the next batch and the
+     * time the first of these deltas was completed.
+     */
+    private final Map<String,Long> pendingDeltas =
+        new ConcurrentHashMap<String,Long>();
+    private volatile ScheduledThreadPoolExecutor replicationBatchExecutor = null;
+
+    /**
+     * Pull the session state from all members in parallel, without waiting
+     * for the transfer to complete before starting.
+     */
+    private boolean parallelStateTransfer = false;
+    private int stateTransferFetchTimeout = 1000;
+
+    /**
+     * The members the session state is pulled from while a parallel state
+     * transfer is running, member i sends the sessions of partition i.
+     */
+    private volatile Member[] stateTransferMembers = null;
+    private final AtomicInteger pendingStatePartitions = new AtomicInteger();
+
+    /**
+     * The time each member took the snapshot of its partition at, the
+     * messages queued meanwhile are dropped only if they are older than the
+     * snapshot of the partition of their session. 0 until the snapshot is
+     * complete.
+     */
+    private volatile AtomicLongArray stateTransferSnapshotTimes = null;
+
+    /**
+     * The ids of the sessions fetched or removed during a parallel state
+     * transfer, whose copy in the transfered partitions must be ignored.
+     */
+    private final Map<String,Boolean> stateTransferIgnoredSessions =
+        new ConcurrentHashMap<String,Boolean>();
+
+    /**
+     * The ids of the sessions fetched from the other members during a
+     * parallel state transfer, mapped to whether a reply was received.
+     */
+    private final Map<String,Boolean> sessionFetches =
+        new ConcurrentHashMap<String,Boolean>();
+    private final Object sessionFetchLock = new Object();
+
+    /**
+     * Set while a thread processes a replication message, which must not wait
+     * for the sessions fetched from other members.
+     */
+    private static final ThreadLocal<Boolean> messageThread =
+        new ThreadLocal<Boolean>();
     
     // ------------------------------------------------------------------ stats attributes
     
@@ -132,6 +199,15 @@ public class DeltaManager extends ClusterManagerBase{
     private long counterSend_EVT_SESSION_EXPIRED = 0;
     private int counterSend_EVT_ALL_SESSION_TRANSFERCOMPLETE = 0 ;
     private long counterSend_EVT_CHANGE_SESSION_ID = 0;
+    private long counterReceive_EVT_SESSION_DELTA_BATCH = 0 ;
+    private long counterSend_EVT_SESSION_DELTA_BATCH = 0 ;
+    private long counterBatchedDeltas = 0 ;
+    private int maxBatchSize = 0 ;
+    private long replicationLagTotal = 0 ;
+    private long maxReplicationLag = 0 ;
+    private long counterSend_EVT_GET_SESSION = 0 ;
+    private long counterReceive_EVT_GET_SESSION = 0 ;
+    private long counterReceive_EVT_SESSION_DATA = 0 ;
     private int counterNoStateTransfered = 0 ;
     
 
@@ -221,6 +297,13 @@ public class DeltaManager extends ClusterManagerBase{
         return counterSend_EVT_CHANGE_SESSION_ID;
     }
 
+    /**
+     * @return Returns the counterSend_EVT_SESSION_DELTA_BATCH.
+     */
+    public long getCounterSend_EVT_SESSION_DELTA_BATCH() {
+        return counterSend_EVT_SESSION_DELTA_BATCH;
+    }
+
     /**
      * @return Returns the counterReceive_EVT_ALL_SESSION_DATA.
      */
@@ -278,6 +361,68 @@ public class DeltaManager extends ClusterManagerBase{
         return counterReceive_EVT_CHANGE_SESSION_ID;
     }
 
+    /**
+     * @return Returns the counterReceive_EVT_SESSION_DELTA_BATCH.
+     */
+    public long getCounterReceive_EVT_SESSION_DELTA_BATCH() {
+        return counterReceive_EVT_SESSION_DELTA_BATCH;
+    }
+
+    /**
+     * @return Returns the number of session deltas sent in batches.
+     */
+    public long getCounterBatchedDeltas() {
+        return counterBatchedDeltas;
+    }
+
+    /**
+     * @return Returns the largest number of session deltas sent in one batch.
+     */
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * @return Returns the average time in msec between the completion of a
+     *         request that changed a session and the replication of the
+     *         batched delta.
+     */
+    public long getReplicationLag() {
+        if (counterBatchedDeltas == 0) {
+            return 0;
+        }
+        return replicationLagTotal / counterBatchedDeltas;
+    }
+
+    /**
+     * @return Returns the longest time in msec a batched delta waited to be
+     *         replicated.
+     */
+    public long getMaxReplicationLag() {
+        return maxReplicationLag;
+    }
+
+    /**
+     * @return Returns the counterSend_EVT_GET_SESSION.
+     */
+    public long getCounterSend_EVT_GET_SESSION() {
+        return counterSend_EVT_GET_SESSION;
+    }
+
+    /**
+     * @return Returns the counterReceive_EVT_GET_SESSION.
+     */
+    public long getCounterReceive_EVT_GET_SESSION() {
+        return counterReceive_EVT_GET_SESSION;
+    }
+
+    /**
+     * @return Returns the counterReceive_EVT_SESSION_DATA.
+     */
+    public long getCounterReceive_EVT_SESSION_DATA() {
+        return counterReceive_EVT_SESSION_DATA;
+    }
+
     /**
      * @return Returns the counterReceive_EVT_ALL_SESSION_NOCONTEXTMANAGER.
      */
@@ -428,6 +573,100 @@ public class DeltaManager extends ClusterManagerBase{
         this.expireSessionsOnShutdown = expireSessionsOnShutdown;
     }
     
+    /**
+     * @return Returns the replicationBatchWindow in msec
+     */
+    public int getReplicationBatchWindow() {
+        return replicationBatchWindow;
+    }
+
+    /**
+     * @param replicationBatchWindow The time in msec the session deltas are
+     *            collected before they are replicated in one message. 0
+     *            replicates the delta at the end of each request.
+     */
+    public void setReplicationBatchWindow(int replicationBatchWindow) {
+        this.replicationBatchWindow = replicationBatchWindow;
+    }
+
+    /**
+     * @return Returns the replicationBatchMaxSessions.
+     */
+    public int getReplicationBatchMaxSessions() {
+        return replicationBatchMaxSessions;
+    }
+
+    /**
+     * @param replicationBatchMaxSessions The maximum number of session deltas
+     *            sent in one message.
+     */
+    public void setReplicationBatchMaxSessions(int replicationBatchMaxSessions) {
+        this.replicationBatchMaxSessions = replicationBatchMaxSessions;
+    }
+
+    /**
+     * @return Returns the parallelStateTransfer.
+     */
+    public boolean isParallelStateTransfer() {
+        return parallelStateTransfer;
+    }
+
+    /**
+     * @param parallelStateTransfer <code>true</code> to pull the session
+     *            state from all members in parallel and to start before the
+     *            transfer is complete
+     */
+    public void setParallelStateTransfer(boolean parallelStateTransfer) {
+        this.parallelStateTransfer = parallelStateTransfer;
+    }
+
+    /**
+     * @return Returns the stateTransferFetchTimeout in msec
+     */
+    public int getStateTransferFetchTimeout() {
+        return stateTransferFetchTimeout;
+    }
+
+    /**
+     * @param stateTransferFetchTimeout The time in msec to wait for a session
+     *            that is requested before the parallel state transfer has
+     *            delivered it
+     */
+    public void setStateTransferFetchTimeout(int stateTransferFetchTimeout) {
+        this.stateTransferFetchTimeout = stateTransferFetchTimeout;
+    }
+
+    /**
+     * Return the active Session, associated with this Manager, with the
+     * specified session id (if any). While a parallel state transfer is
+     * running, a session that has not been transfered yet is fetched from the
+     * member that transfers it.
+     */
+    @Override
+    public Session findSession(String id) throws IOException {
+        Session session = super.findSession(id);
+        if (session == null && id != null && stateTransferMembers != null &&
+                messageThread.get() == null &&
+                !stateTransferIgnoredSessions.containsKey(id)) {
+            session = fetchSession(id);
+        }
+        return session;
+    }
+
+    /**
+     * Remove this Session from the active Sessions for this Manager. A session
+     * removed during a parallel state transfer is not restored by the
+     * partitions transfered afterwards.
+     */
+    @Override
+    public void remove(Session session, boolean update) {
+        if (stateTransferMembers != null) {
+            stateTransferIgnoredSessions.put(session.getIdInternal(),
+                    Boolean.TRUE);
+        }
+        super.remove(session, update);
+    }
+
     public boolean isNotifyContainerListenersOnReplication() {
         return notifyContainerListenersOnReplication;
     }
@@ -541,6 +780,13 @@ public class DeltaManager extends ClusterManagerBase{
     public void changeSessionId(Session session, boolean notify) {
         // original sessionID
         String orgSessionID = session.getId();
+        // the backup nodes must know the pending delta before the id changes
+        if (pendingDeltas.remove(orgSessionID) != null) {
+            ClusterMessage msg = requestCompleted(orgSessionID, true);
+            if (msg != null) {
+                send((SessionMessage) msg);
+            }
+        }
         super.changeSessionId(session);
         if (notify && cluster.getMembers().length > 0) {
             // changed sessionID
@@ -636,6 +882,22 @@ public class DeltaManager extends ClusterManagerBase{
      *                if an input/output error occurs
      */
     protected void deserializeSessions(byte[] data) throws ClassNotFoundException,IOException {
+        deserializeSessions(data, true);
+    }
+
+    /**
+     * Load sessions from other cluster node.
+     * @param data The serialized sessions
+     * @param replace <code>false</code> to keep the sessions that already
+     *            exist, which may be newer than the transfered ones, and to
+     *            ignore the sessions fetched or removed during a parallel
+     *            state transfer
+     * @exception ClassNotFoundException
+     *                if a serialized class cannot be found during the reload
+     * @exception IOException
+     *                if an input/output error occurs
+     */
+    protected void deserializeSessions(byte[] data, boolean replace) throws ClassNotFoundException,IOException {
 
         // Initialize our internal data structures
         //sessions.clear(); //should not do this
@@ -664,8 +926,13 @@ public class DeltaManager extends ClusterManagerBase{
                 session.resetDeltaRequest();
                 // FIXME How inform other session id cache like SingleSignOn
                 // increment sessionCounter to correct stats report
-                if (findSession(session.getIdInternal()) == null ) {
+                if (!replace && stateTransferIgnoredSessions.containsKey(
+                        session.getIdInternal())) {
+                    continue;
+                } else if (findSession(session.getIdInternal()) == null ) {
                     sessionCounter++;
+                } else if (!replace) {
+                    continue;
                 } else {
                     sessionReplaceCounter++;
                     // FIXME better is to grap this sessions again !
@@ -797,6 +1064,27 @@ public class DeltaManager extends ClusterManagerBase{
 
             getAllClusterSessions();
 
+            if (replicationBatchWindow > 0) {
+                replicationBatchExecutor = new ScheduledThreadPoolExecutor(1,
+                        new TaskThreadFactory("DeltaManager-Batch-" +
+                                getName() + "-", true, Thread.NORM_PRIORITY));
+                replicationBatchExecutor.scheduleWithFixedDelay(new Runnable() {
+                    @Override
+                    public void run() {
+                        // An exception would cancel the following runs
+                        try {
+                            sendDeltaBatch();
+                        } catch (Throwable t) {
+                            ExceptionUtils.handleThrowable(t);
+                            log.error(sm.getString(
+                                    "deltaManager.sendDeltaBatch.fail",
+                                    getName()), t);
+                        }
+                    }
+                }, replicationBatchWindow, replicationBatchWindow,
+                        TimeUnit.MILLISECONDS);
+            }
+
         } catch (Throwable t) {
             ExceptionUtils.handleThrowable(t);
             log.error(sm.getString("deltaManager.managerLoad"), t);
@@ -810,7 +1098,10 @@ public class DeltaManager extends ClusterManagerBase{
      * @see #findSessionMasterMember()
      */
     public synchronized void getAllClusterSessions() {
-        if (cluster != null && cluster.getMembers().length > 0) {
+        if (cluster != null && cluster.getMembers().length > 0 &&
+                parallelStateTransfer) {
+            getAllClusterSessionsParallel();
+        } else if (cluster != null && cluster.getMembers().length > 0) {
             long beforeSendTime = System.currentTimeMillis();
             Member mbr = findSessionMasterMember();
             if(mbr == null) { // No domain member found
@@ -833,31 +1124,246 @@ public class DeltaManager extends ClusterManagerBase{
                 // FIXME At sender ack mode this method check only the state transfer and resend is a problem!
                 waitForSendAllSessions(beforeSendTime);
             } finally {
-                synchronized(receivedMessageQueue) {
-                    for (Iterator<SessionMessage> iter = receivedMessageQueue.iterator(); iter.hasNext();) {
-                        SessionMessage smsg = iter.next();
-                        if (!stateTimestampDrop) {
-                            messageReceived(smsg, smsg.getAddress() != null ? (Member) smsg.getAddress() : null);
-                        } else {
-                            if (smsg.getEventType() != SessionMessage.EVT_GET_ALL_SESSIONS && smsg.getTimestamp() >= stateTransferCreateSendTime) {
-                                // FIXME handle EVT_GET_ALL_SESSIONS later
-                                messageReceived(smsg,smsg.getAddress() != null ? (Member) smsg.getAddress() : null);
-                            } else {
-                                if (log.isWarnEnabled()) {
-                                    log.warn(sm.getString("deltaManager.dropMessage",getName(), smsg.getEventTypeString(),new Date(stateTransferCreateSendTime), new Date(smsg.getTimestamp())));
-                                }
-                            }
-                        }
-                    }        
-                    receivedMessageQueue.clear();
-                    receiverQueue = false ;
-                }
+                processReceivedMessageQueue();
            }
         } else {
             if (log.isInfoEnabled()) log.info(sm.getString("deltaManager.noMembers", getName()));
         }
     }
 
+    /**
+     * Process the messages received during the state transfer.
+     */
+    protected void processReceivedMessageQueue() {
+        AtomicLongArray snapshotTimes = stateTransferSnapshotTimes;
+        synchronized(receivedMessageQueue) {
+            for (Iterator<SessionMessage> iter = receivedMessageQueue.iterator(); iter.hasNext();) {
+                SessionMessage smsg = iter.next();
+                if (!stateTimestampDrop) {
+                    messageReceived(smsg, smsg.getAddress() != null ? (Member) smsg.getAddress() : null);
+                } else if (snapshotTimes != null &&
+                        smsg.getEventType() != SessionMessage.EVT_GET_ALL_SESSIONS) {
+                    // each partition was sent by a different member
+                    if (smsg.getEventType() == SessionMessage.EVT_SESSION_DELTA_BATCH) {
+                        smsg = filterDeltaBatch(smsg, snapshotTimes);
+                    } else {
+                        long snapshotTime = snapshotTimes.get(getPartition(
+                                smsg.getSessionID(), snapshotTimes.length()));
+                        if (smsg.getTimestamp() < snapshotTime) {
+                            if (log.isWarnEnabled()) {
+                                log.warn(sm.getString("deltaManager.dropMessage",getName(), smsg.getEventTypeString(),new Date(snapshotTime), new Date(smsg.getTimestamp())));
+                            }
+                            smsg = null;
+                        }
+                    }
+                    if (smsg != null) {
+                        messageReceived(smsg,smsg.getAddress() != null ? (Member) smsg.getAddress() : null);
+                    }
+                } else {
+                    if (smsg.getEventType() != SessionMessage.EVT_GET_ALL_SESSIONS && smsg.getTimestamp() >= stateTransferCreateSendTime) {
+                        // FIXME handle EVT_GET_ALL_SESSIONS later
+                        messageReceived(smsg,smsg.getAddress() != null ? (Member) smsg.getAddress() : null);
+                    } else {
+                        if (log.isWarnEnabled()) {
+                            log.warn(sm.getString("deltaManager.dropMessage",getName(), smsg.getEventTypeString(),new Date(stateTransferCreateSendTime), new Date(smsg.getTimestamp())));
+                        }
+                    }
+                }
+            }        
+            receivedMessageQueue.clear();
+            receiverQueue = false ;
+        }
+    }
+
+    /**
+     * Remove from a batch of deltas received during a parallel state transfer
+     * the deltas that are older than the snapshot of the partition of their
+     * session.
+     * @param msg The batch
+     * @param snapshotTimes The snapshot time of each partition
+     * @return the batch of the remaining deltas or <code>null</code> if none
+     *         remains
+     */
+    protected SessionMessage filterDeltaBatch(SessionMessage msg,
+            AtomicLongArray snapshotTimes) {
+        ArrayList<String> ids = new ArrayList<String>();
+        ArrayList<byte[]> deltas = new ArrayList<byte[]>();
+        int dropped = 0;
+        long snapshotTime = 0;
+        try {
+            ReplicationStream ois = getReplicationStream(msg.getSession());
+            try {
+                int count = ois.readInt();
+                for (int i = 0; i < count; i++) {
+                    String sessionId = ois.readUTF();
+                    byte[] delta = new byte[ois.readInt()];
+                    ois.readFully(delta);
+                    long time = snapshotTimes.get(getPartition(sessionId,
+                            snapshotTimes.length()));
+                    if (msg.getTimestamp() < time) {
+                        dropped++;
+                        snapshotTime = Math.max(snapshotTime, time);
+                    } else {
+                        ids.add(sessionId);
+                        deltas.add(delta);
+                    }
+                }
+            } finally {
+                ois.close();
+            }
+            if (dropped == 0) {
+                return msg;
+            }
+            if (log.isWarnEnabled()) {
+                log.warn(sm.getString("deltaManager.dropMessage",getName(), msg.getEventTypeString(),new Date(snapshotTime), new Date(msg.getTimestamp())));
+            }
+            if (ids.isEmpty()) {
+                return null;
+            }
+            SessionMessage filtered = new SessionMessageImpl(getName(),
+                    SessionMessage.EVT_SESSION_DELTA_BATCH,
+                    serializeDeltaBatch(ids, deltas), msg.getSessionID(),
+                    msg.getUniqueId());
+            filtered.setTimestamp(msg.getTimestamp());
+            filtered.setAddress(msg.getAddress());
+            return filtered;
+        } catch (IOException x) {
+            log.error(sm.getString("deltaManager.receiveMessage.error",getName()), x);
+            return null;
+        }
+    }
+
+    /**
+     * Pull the session state from all members in parallel. Each member sends
+     * the sessions of one partition of the session ids. The messages received
+     * meanwhile are queued as usual, but the manager does not wait for the
+     * transfer to complete: sessions requested before they have been
+     * transfered are fetched from the member that sends their partition.
+     */
+    protected void getAllClusterSessionsParallel() {
+        final long beforeSendTime = System.currentTimeMillis();
+        final Member[] mbrs = cluster.getMembers();
+        stateTransferCreateSendTime = beforeSendTime ;
+        stateTransfered = false ;
+        pendingStatePartitions.set(mbrs.length);
+        stateTransferSnapshotTimes = new AtomicLongArray(mbrs.length);
+        stateTransferIgnoredSessions.clear();
+        synchronized(receivedMessageQueue) {
+            receiverQueue = true ;
+        }
+        stateTransferMembers = mbrs;
+        if (log.isInfoEnabled())
+            log.info(sm.getString("deltaManager.waitForSessionStateParallel",
+                    getName(), Integer.valueOf(mbrs.length),
+                    Integer.valueOf(getStateTransferTimeout())));
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < mbrs.length; i++) {
+                        SessionMessage msg = new SessionMessageImpl(getName(),
+                                SessionMessage.EVT_GET_ALL_SESSIONS_PARTITION,
+                                serializePartition(i, mbrs.length), "GET-ALL",
+                                "GET-ALL-" + i + "-" + getName());
+                        msg.setTimestamp(beforeSendTime);
+                        counterSend_EVT_GET_ALL_SESSIONS++;
+                        cluster.send(msg, mbrs[i]);
+                    }
+                    waitForSendAllSessions(beforeSendTime);
+                } catch (IOException x) {
+                    log.error(sm.getString("deltaManager.createMessage.unableCreatePartitionRequest", getName()), x);
+                } finally {
+                    endParallelStateTransfer();
+                }
+            }
+        }, "DeltaManager-StateTransfer-" + getName());
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void endParallelStateTransfer() {
+        pendingStatePartitions.set(0);
+        // the transfer is only complete once the messages received meanwhile
+        // have been applied
+        processReceivedMessageQueue();
+        stateTransferMembers = null;
+        stateTransferSnapshotTimes = null;
+        stateTransferIgnoredSessions.clear();
+        synchronized (sessionFetchLock) {
+            sessionFetchLock.notifyAll();
+        }
+    }
+
+    /**
+     * Is the session state still being transfered from the other members?
+     */
+    public boolean isStateTransferInProgress() {
+        return stateTransferMembers != null;
+    }
+
+    /**
+     * The partition of the sessions a session belongs to during a parallel
+     * state transfer.
+     */
+    protected static int getPartition(String sessionId, int partitions) {
+        return (sessionId.hashCode() & 0x7fffffff) % partitions;
+    }
+
+    protected byte[] serializePartition(int partition, int partitions) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        oos.writeInt(partition);
+        oos.writeInt(partitions);
+        oos.flush();
+        oos.close();
+        return bos.toByteArray();
+    }
+
+    /**
+     * Fetch a session that has not been transfered yet from the member that
+     * transfers its partition.
+     * @param id The session id
+     * @return the session or <code>null</code> if the member does not have it
+     *         or did not reply in time
+     * @throws IOException
+     */
+    protected Session fetchSession(String id) throws IOException {
+        Member[] mbrs = stateTransferMembers;
+        if (mbrs == null) {
+            return super.findSession(id);
+        }
+        Member mbr = mbrs[getPartition(id, mbrs.length)];
+        long now = System.currentTimeMillis();
+        SessionMessage msg = new SessionMessageImpl(getName(),
+                SessionMessage.EVT_GET_SESSION, null, id, id + "-GET-" + now);
+        msg.setTimestamp(now);
+        if (log.isDebugEnabled()) log.debug(sm.getString("deltaManager.createMessage.getSession",getName(), id, mbr));
+        sessionFetches.put(id, Boolean.FALSE);
+        try {
+            counterSend_EVT_GET_SESSION++;
+            cluster.send(msg, mbr);
+            long timeout = now + stateTransferFetchTimeout;
+            synchronized (sessionFetchLock) {
+                long wait = timeout - System.currentTimeMillis();
+                while (wait > 0 && stateTransferMembers != null &&
+                        !Boolean.TRUE.equals(sessionFetches.get(id)) &&
+                        super.findSession(id) == null) {
+                    sessionFetchLock.wait(wait);
+                    wait = timeout - System.currentTimeMillis();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            sessionFetches.remove(id);
+            // the session may be changed or removed locally from now on
+            if (stateTransferMembers != null) {
+                stateTransferIgnoredSessions.put(id, Boolean.TRUE);
+            }
+        }
+        return super.findSession(id);
+    }
+
     /**
      * Register cross context session at replication valve thread local
      * @param session cross context session
@@ -955,6 +1461,19 @@ public class DeltaManager extends ClusterManagerBase{
             log.debug(sm.getString("deltaManager.stopped", getName()));
 
         setState(LifecycleState.STOPPING);
+
+        // Replicate the deltas still waiting for a batch
+        if (replicationBatchExecutor != null) {
+            replicationBatchExecutor.shutdown();
+            try {
+                replicationBatchExecutor.awaitTermination(
+                        replicationBatchWindow, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                // Ignore
+            }
+            replicationBatchExecutor = null;
+            sendDeltaBatch();
+        }
         
         // Expire all active sessions
         if (log.isInfoEnabled()) log.info(sm.getString("deltaManager.expireSessions", getName()));
@@ -996,6 +1515,7 @@ public class DeltaManager extends ClusterManagerBase{
                 case SessionMessage.EVT_SESSION_EXPIRED: 
                 case SessionMessage.EVT_SESSION_ACCESSED:
                 case SessionMessage.EVT_SESSION_DELTA:
+                case SessionMessage.EVT_SESSION_DELTA_BATCH:
                 case SessionMessage.EVT_CHANGE_SESSION_ID: {
                     synchronized(receivedMessageQueue) {
                         if(receiverQueue) {
@@ -1049,7 +1569,7 @@ public class DeltaManager extends ClusterManagerBase{
      public ClusterMessage requestCompleted(String sessionId, boolean expires) {
         DeltaSession session = null;
         try {
-            session = (DeltaSession) findSession(sessionId);
+            session = (DeltaSession) super.findSession(sessionId);
             if (session == null) {
                 // A parallel request has called session.invalidate() which has
                 // removed the session from the Manager.
@@ -1061,7 +1581,18 @@ public class DeltaManager extends ClusterManagerBase{
             boolean isDeltaRequest = false ;
             synchronized(deltaRequest) {
                 isDeltaRequest = deltaRequest.getSize() > 0 ;
-                if (isDeltaRequest) {    
+                if (expires) {
+                    pendingDeltas.remove(sessionId);
+                }
+                if (isDeltaRequest && !expires && replicationBatchExecutor != null) {
+                    // keep collecting, the delta is sent with the next batch
+                    if (!pendingDeltas.containsKey(sessionId)) {
+                        pendingDeltas.put(sessionId,
+                                Long.valueOf(System.currentTimeMillis()));
+                    }
+                    session.setPrimarySession(true);
+                    return null;
+                } else if (isDeltaRequest) {    
                     counterSend_EVT_SESSION_DELTA++;
                     byte[] data = serializeDeltaRequest(session,deltaRequest);
                     msg = new SessionMessageImpl(getName(),
@@ -1164,8 +1695,134 @@ public class DeltaManager extends ClusterManagerBase{
         counterSend_EVT_SESSION_EXPIRED = 0 ;
         counterSend_EVT_ALL_SESSION_TRANSFERCOMPLETE = 0;
         counterSend_EVT_CHANGE_SESSION_ID = 0;
+        counterReceive_EVT_SESSION_DELTA_BATCH = 0;
+        counterSend_EVT_SESSION_DELTA_BATCH = 0;
+        counterBatchedDeltas = 0;
+        maxBatchSize = 0;
+        replicationLagTotal = 0;
+        maxReplicationLag = 0;
+        counterSend_EVT_GET_SESSION = 0;
+        counterReceive_EVT_GET_SESSION = 0;
+        counterReceive_EVT_SESSION_DATA = 0;
         
     }
+
+    /**
+     * Replicate the deltas of all sessions changed since the last batch. The
+     * changes to a session since the last batch have been merged into the
+     * delta request of the session, so each session is sent once. A batch is
+     * split if it has more than {@link #getReplicationBatchMaxSessions()}
+     * sessions.
+     */
+    protected void sendDeltaBatch() {
+        if (pendingDeltas.isEmpty()) {
+            return;
+        }
+        try {
+            ArrayList<byte[]> deltas = new ArrayList<byte[]>();
+            ArrayList<String> ids = new ArrayList<String>();
+            Iterator<Map.Entry<String,Long>> iter =
+                pendingDeltas.entrySet().iterator();
+            while (iter.hasNext()) {
+                Map.Entry<String,Long> entry = iter.next();
+                String sessionId = entry.getKey();
+                iter.remove();
+                DeltaSession session = (DeltaSession) super.findSession(sessionId);
+                if (session == null) {
+                    continue;
+                }
+                byte[] data = null;
+                try {
+                    session.lock();
+                    DeltaRequest deltaRequest = session.getDeltaRequest();
+                    synchronized (deltaRequest) {
+                        if (deltaRequest.getSize() > 0) {
+                            data = serializeDeltaRequest(session, deltaRequest);
+                            session.resetDeltaRequest();
+                        }
+                    }
+                } catch (IOException x) {
+                    log.error(sm.getString("deltaManager.createMessage.unableCreateDeltaRequest",sessionId), x);
+                } finally {
+                    session.unlock();
+                }
+                if (data == null) {
+                    continue;
+                }
+                long now = System.currentTimeMillis();
+                long lag = now - entry.getValue().longValue();
+                replicationLagTotal += lag;
+                if (lag > maxReplicationLag) {
+                    maxReplicationLag = lag;
+                }
+                session.setLastTimeReplicated(now);
+                ids.add(sessionId);
+                deltas.add(data);
+                if (ids.size() >= replicationBatchMaxSessions) {
+                    sendDeltaBatch(ids, deltas);
+                }
+            }
+            if (ids.size() > 0) {
+                sendDeltaBatch(ids, deltas);
+            }
+        } catch (IOException x) {
+            log.error(sm.getString("deltaManager.createMessage.unableCreateDeltaBatch", getName()), x);
+        }
+    }
+
+    /**
+     * Serialize a batch of session deltas.
+     *
+     * @param ids       The ids of the sessions
+     * @param deltas    The serialized delta requests of the sessions
+     * @throws IOException
+     */
+    protected byte[] serializeDeltaBatch(ArrayList<String> ids,
+            ArrayList<byte[]> deltas) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        oos.writeInt(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            byte[] data = deltas.get(i);
+            oos.writeUTF(ids.get(i));
+            oos.writeInt(data.length);
+            oos.write(data);
+        }
+        oos.flush();
+        oos.close();
+        return bos.toByteArray();
+    }
+
+    /**
+     * Send one batch of session deltas to the other cluster nodes.
+     *
+     * @param ids       The ids of the sessions
+     * @param deltas    The serialized delta requests of the sessions, cleared
+     *                  once the batch has been sent
+     * @throws IOException
+     */
+    protected void sendDeltaBatch(ArrayList<String> ids,
+            ArrayList<byte[]> deltas) throws IOException {
+        byte[] data = serializeDeltaBatch(ids, deltas);
+        long now = System.currentTimeMillis();
+        SessionMessage msg = new SessionMessageImpl(getName(),
+                SessionMessage.EVT_SESSION_DELTA_BATCH, data,
+                "SESSION-DELTA-BATCH", "SESSION-DELTA-BATCH-" + getName() +
+                "-" + now);
+        msg.setTimestamp(now);
+        if (log.isDebugEnabled()) {
+            log.debug(sm.getString("deltaManager.createMessage.deltaBatch",
+                    getName(), Integer.valueOf(ids.size())));
+        }
+        counterSend_EVT_SESSION_DELTA_BATCH++;
+        counterBatchedDeltas += ids.size();
+        if (ids.size() > maxBatchSize) {
+            maxBatchSize = ids.size();
+        }
+        ids.clear();
+        deltas.clear();
+        send(msg);
+    }
    
     //  -------------------------------------------------------- expire
 
@@ -1261,6 +1918,8 @@ public class DeltaManager extends ClusterManagerBase{
             return;
         }
         ClassLoader contextLoader = Thread.currentThread().getContextClassLoader();
+        Boolean nested = messageThread.get();
+        messageThread.set(Boolean.TRUE);
         try {
             
             ClassLoader[] loaders = getClassLoaders();
@@ -1276,6 +1935,22 @@ public class DeltaManager extends ClusterManagerBase{
                     handleALL_SESSION_DATA(msg,sender);
                     break;
                 }
+                case SessionMessage.EVT_GET_ALL_SESSIONS_PARTITION: {
+                    handleGET_ALL_SESSIONS_PARTITION(msg,sender);
+                    break;
+                }
+                case SessionMessage.EVT_ALL_SESSION_DATA_COMPRESSED: {
+                    handleALL_SESSION_DATA_COMPRESSED(msg,sender);
+                    break;
+                }
+                case SessionMessage.EVT_GET_SESSION: {
+                    handleGET_SESSION(msg,sender);
+                    break;
+                }
+                case SessionMessage.EVT_SESSION_DATA: {
+                    handleSESSION_DATA(msg,sender);
+                    break;
+                }
                 case SessionMessage.EVT_ALL_SESSION_TRANSFERCOMPLETE: {
                     handleALL_SESSION_TRANSFERCOMPLETE(msg,sender);
                     break;
@@ -1296,6 +1971,10 @@ public class DeltaManager extends ClusterManagerBase{
                    handleSESSION_DELTA(msg,sender);
                    break;
                 }
+                case SessionMessage.EVT_SESSION_DELTA_BATCH: {
+                   handleSESSION_DELTA_BATCH(msg,sender);
+                   break;
+                }
                 case SessionMessage.EVT_CHANGE_SESSION_ID: {
                     handleCHANGE_SESSION_ID(msg,sender);
                     break;
@@ -1313,6 +1992,9 @@ public class DeltaManager extends ClusterManagerBase{
             log.error(sm.getString("deltaManager.receiveMessage.error",getName()), x);
         } finally {
             Thread.currentThread().setContextClassLoader(contextLoader);
+            if (nested == null) {
+                messageThread.remove();
+            }
         }
     }
 
@@ -1327,6 +2009,21 @@ public class DeltaManager extends ClusterManagerBase{
     protected void handleALL_SESSION_TRANSFERCOMPLETE(SessionMessage msg, Member sender) {
         counterReceive_EVT_ALL_SESSION_TRANSFERCOMPLETE++ ;
         if (log.isDebugEnabled()) log.debug(sm.getString("deltaManager.receiveMessage.transfercomplete",getName(), sender.getHost(), Integer.valueOf(sender.getPort())));
+        Member[] mbrs = stateTransferMembers;
+        AtomicLongArray snapshotTimes = stateTransferSnapshotTimes;
+        if (mbrs != null && snapshotTimes != null) {
+            // the time this member took the snapshot of its partition at
+            for (int i = 0; i < mbrs.length; i++) {
+                if (mbrs[i].equals(sender)) {
+                    snapshotTimes.set(i, msg.getTimestamp());
+                }
+            }
+        }
+        if (pendingStatePartitions.get() > 0 &&
+                pendingStatePartitions.decrementAndGet() > 0) {
+            // wait for the other partitions of a parallel state transfer
+            return;
+        }
         stateTransferCreateSendTime = msg.getTimestamp() ;
         stateTransfered = true ;
     }
@@ -1340,10 +2037,44 @@ public class DeltaManager extends ClusterManagerBase{
      */
     protected void handleSESSION_DELTA(SessionMessage msg, Member sender) throws IOException, ClassNotFoundException {
         counterReceive_EVT_SESSION_DELTA++;
-        byte[] delta = msg.getSession();
-        DeltaSession session = (DeltaSession) findSession(msg.getSessionID());
+        handleDelta(msg.getSessionID(), msg.getSession());
+    }
+
+    /**
+     * handle receive the deltas of several sessions
+     * @param msg
+     * @param sender
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    protected void handleSESSION_DELTA_BATCH(SessionMessage msg, Member sender) throws IOException, ClassNotFoundException {
+        counterReceive_EVT_SESSION_DELTA_BATCH++;
+        ReplicationStream ois = getReplicationStream(msg.getSession());
+        try {
+            int count = ois.readInt();
+            if (log.isDebugEnabled()) log.debug(sm.getString("deltaManager.receiveMessage.deltaBatch",getName(), Integer.valueOf(count)));
+            for (int i = 0; i < count; i++) {
+                String sessionId = ois.readUTF();
+                byte[] delta = new byte[ois.readInt()];
+                ois.readFully(delta);
+                handleDelta(sessionId, delta);
+            }
+        } finally {
+            ois.close();
+        }
+    }
+
+    /**
+     * Apply the delta received for a session.
+     * @param sessionId
+     * @param delta The serialized delta request
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    protected void handleDelta(String sessionId, byte[] delta) throws IOException, ClassNotFoundException {
+        DeltaSession session = (DeltaSession) findSession(sessionId);
         if (session != null) {
-            if (log.isDebugEnabled()) log.debug(sm.getString("deltaManager.receiveMessage.delta",getName(), msg.getSessionID()));
+            if (log.isDebugEnabled()) log.debug(sm.getString("deltaManager.receiveMessage.delta",getName(), sessionId));
             try {
                 session.lock();
                 DeltaRequest dreq = deserializeDeltaRequest(session, delta);
@@ -1467,6 +2198,124 @@ public class DeltaManager extends ClusterManagerBase{
         cluster.send(newmsg, sender);
     }
 
+    /**
+     * handle receive that other node wants the sessions of one partition
+     * during a parallel state transfer. The sessions are sent in compressed
+     * blocks, each sent once the previous one has been processed. The request
+     * is not queued while this node receives its own state, so that nodes
+     * starting at the same time do not wait for each other.
+     * @param msg
+     * @param sender
+     * @throws IOException
+     */
+    protected void handleGET_ALL_SESSIONS_PARTITION(SessionMessage msg, Member sender) throws IOException {
+        counterReceive_EVT_GET_ALL_SESSIONS++;
+        ReplicationStream ois = getReplicationStream(msg.getSession());
+        int partition = ois.readInt();
+        int partitions = ois.readInt();
+        ois.close();
+        if (log.isDebugEnabled()) log.debug(sm.getString("deltaManager.receiveMessage.partitionBegin", getName(), Integer.valueOf(partition), Integer.valueOf(partitions)));
+        Session[] currentSessions = findSessions();
+        long findSessionTimestamp = System.currentTimeMillis() ;
+        ArrayList<Session> block = new ArrayList<Session>();
+        for (int i = 0; i < currentSessions.length; i++) {
+            if (getPartition(currentSessions[i].getIdInternal(), partitions) != partition) {
+                continue;
+            }
+            block.add(currentSessions[i]);
+            if (block.size() >= getSendAllSessionsSize()) {
+                sendCompressedSessions(sender, block.toArray(new Session[block.size()]), findSessionTimestamp);
+                block.clear();
+            }
+        }
+        if (block.size() > 0) {
+            sendCompressedSessions(sender, block.toArray(new Session[block.size()]), findSessionTimestamp);
+        }
+
+        SessionMessage newmsg = new SessionMessageImpl(name,SessionMessage.EVT_ALL_SESSION_TRANSFERCOMPLETE, null,"SESSION-STATE-TRANSFERED", "SESSION-STATE-TRANSFERED"+ getName());
+        newmsg.setTimestamp(findSessionTimestamp);
+        if (log.isDebugEnabled()) log.debug(sm.getString("deltaManager.createMessage.allSessionTransfered",getName()));
+        counterSend_EVT_ALL_SESSION_TRANSFERCOMPLETE++;
+        cluster.send(newmsg, sender);
+    }
+
+    /**
+     * handle receive a compressed block of sessions of a parallel state
+     * transfer
+     * @param msg
+     * @param sender
+     * @throws ClassNotFoundException
+     * @throws IOException
+     */
+    protected void handleALL_SESSION_DATA_COMPRESSED(SessionMessage msg,Member sender) throws ClassNotFoundException, IOException {
+        counterReceive_EVT_ALL_SESSION_DATA++;
+        if (log.isDebugEnabled()) log.debug(sm.getString("deltaManager.receiveMessage.allSessionDataBegin",getName()));
+        // sessions fetched meanwhile may have been changed locally
+        deserializeSessions(GzipInterceptor.decompress(msg.getSession()), false);
+        if (log.isDebugEnabled()) log.debug(sm.getString("deltaManager.receiveMessage.allSessionDataAfter",getName()));
+        synchronized (sessionFetchLock) {
+            sessionFetchLock.notifyAll();
+        }
+    }
+
+    /**
+     * handle receive that other node wants a session it has not received yet
+     * during a parallel state transfer
+     * @param msg
+     * @param sender
+     * @throws IOException
+     */
+    protected void handleGET_SESSION(SessionMessage msg, Member sender) throws IOException {
+        counterReceive_EVT_GET_SESSION++;
+        Session session = findSession(msg.getSessionID());
+        Session[] sessions;
+        if (session == null) {
+            sessions = new Session[0];
+        } else {
+            sessions = new Session[] {session};
+        }
+        long now = System.currentTimeMillis();
+        SessionMessage newmsg = new SessionMessageImpl(name,
+                SessionMessage.EVT_SESSION_DATA, serializeSessions(sessions),
+                msg.getSessionID(), msg.getSessionID() + "-DATA-" + now);
+        newmsg.setTimestamp(now);
+        cluster.send(newmsg, sender);
+    }
+
+    /**
+     * handle receive a session fetched during a parallel state transfer
+     * @param msg
+     * @param sender
+     * @throws ClassNotFoundException
+     * @throws IOException
+     */
+    protected void handleSESSION_DATA(SessionMessage msg, Member sender) throws ClassNotFoundException, IOException {
+        counterReceive_EVT_SESSION_DATA++;
+        deserializeSessions(msg.getSession(), false);
+        synchronized (sessionFetchLock) {
+            if (sessionFetches.containsKey(msg.getSessionID())) {
+                sessionFetches.put(msg.getSessionID(), Boolean.TRUE);
+            }
+            sessionFetchLock.notifyAll();
+        }
+    }
+
+    /**
+     * send a compressed block of sessions to sender
+     * @param sender
+     * @param currentSessions
+     * @param sendTimestamp
+     * @throws IOException
+     */
+    protected void sendCompressedSessions(Member sender, Session[] currentSessions,long sendTimestamp) throws IOException {
+        byte[] data = GzipInterceptor.compress(serializeSessions(currentSessions));
+        SessionMessage newmsg = new SessionMessageImpl(name,SessionMessage.EVT_ALL_SESSION_DATA_COMPRESSED, data,"SESSION-STATE", "SESSION-STATE-" + getName());
+        newmsg.setTimestamp(sendTimestamp);
+        if (log.isDebugEnabled()) log.debug(sm.getString("deltaManager.createMessage.allSessionData",getName()));
+        counterSend_EVT_ALL_SESSION_DATA++;
+        cluster.send(newmsg, sender);
+    }
+
     /**
      * handle receive change sessionID at other node
      * @param msg
@@ -1496,6 +2345,14 @@ public class DeltaManager extends ClusterManagerBase{
         counterReceive_EVT_ALL_SESSION_NOCONTEXTMANAGER++ ;
         if (log.isDebugEnabled())
             log.debug(sm.getString("deltaManager.receiveMessage.noContextManager",getName(), sender.getHost(), Integer.valueOf(sender.getPort())));
+        if (pendingStatePartitions.get() > 0) {
+            // the other partitions of a parallel state transfer may still
+            // arrive, the sessions of this one are fetched when requested
+            if (pendingStatePartitions.decrementAndGet() == 0) {
+                stateTransfered = true ;
+            }
+            return;
+        }
         noContextManagerReceived = true ;
     }
 
@@ -1531,6 +2388,10 @@ public class DeltaManager extends ClusterManagerBase{
         result.receiverQueue = receiverQueue ;
         result.stateTimestampDrop = stateTimestampDrop ;
         result.stateTransferCreateSendTime = stateTransferCreateSendTime; 
+        result.replicationBatchWindow = replicationBatchWindow;
+        result.replicationBatchMaxSessions = replicationBatchMaxSessions;
+        result.parallelStateTransfer = parallelStateTransfer;
+        result.stateTransferFetchTimeout = stateTransferFetchTimeout;
         return result;
     }
 }
@@ -70,6 +70,11 @@ public class DeltaRequest implements Externalizable {
     
     private boolean recordAllActions = false;
 
+    /**
+     * The codec of the attribute values, not part of the serialized form.
+     */
+    private SessionAttributeCodec codec = null;
+
     public DeltaRequest() {
         
     }
@@ -229,6 +234,19 @@ public class DeltaRequest implements Externalizable {
             new Exception("Session Id is null for setSessionId").fillInStackTrace().printStackTrace();
         }
     }
+
+    public SessionAttributeCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * Set the codec used to read and write the values of the attributes.
+     * Java serialization is used if the codec is <code>null</code>.
+     */
+    public void setCodec(SessionAttributeCodec codec) {
+        this.codec = codec;
+    }
+
     public int getSize() {
         return actions.size();
     }
@@ -265,7 +283,7 @@ public class DeltaRequest implements Externalizable {
             else {
                 info = new AttributeInfo();
             }
-            info.readExternal(in);
+            info.readExternal(in, codec);
             actions.addLast(info);
         }//for
     }
@@ -282,7 +300,7 @@ public class DeltaRequest implements Externalizable {
         out.writeInt(getSize());
         for ( int i=0; i<getSize(); i++ ) {
             AttributeInfo info = actions.get(i);
-            info.writeExternal(out);
+            info.writeExternal(out, codec);
         }
     }
     
@@ -378,6 +396,18 @@ public class DeltaRequest implements Externalizable {
             if ( hasValue ) value = in.readObject();
         }
 
+        public void readExternal(java.io.ObjectInput in,
+                SessionAttributeCodec codec) throws IOException,ClassNotFoundException {
+            if (codec == null) {
+                readExternal(in);
+                return;
+            }
+            type = in.readInt();
+            action = in.readInt();
+            name = in.readUTF();
+            value = codec.readValue(in);
+        }
+
         @Override
         public void writeExternal(java.io.ObjectOutput out) throws IOException {
             //type - int
@@ -391,6 +421,22 @@ public class DeltaRequest implements Externalizable {
             out.writeBoolean(getValue()!=null);
             if (getValue()!=null) out.writeObject(getValue());
         }
+
+        public void writeExternal(java.io.ObjectOutput out,
+                SessionAttributeCodec codec) throws IOException {
+            if (codec == null) {
+                writeExternal(out);
+                return;
+            }
+            //type - int
+            //action - int
+            //name - String
+            //value - encoded by the codec
+            out.writeInt(getType());
+            out.writeInt(getAction());
+            out.writeUTF(getName());
+            codec.writeValue(out, getValue());
+        }
         
         @Override
         public String toString() {
@@ -563,6 +563,7 @@ public class DeltaSession extends StandardSession implements Externalizable,Clus
                 deltaRequest.reset();
                 deltaRequest.setSessionId(getIdInternal());
             }
+            deltaRequest.setCodec(getAttributeCodec());
         }finally{
             unlock();
         }
@@ -709,6 +710,8 @@ public class DeltaSession extends StandardSession implements Externalizable,Clus
 
     private void readObject(ObjectInput stream) throws ClassNotFoundException, IOException {
 
+        SessionAttributeCodec codec = getSessionCodec();
+
         // Deserialize the scalar instance variables (except Manager)
         authType = null; // Transient only
         creationTime = ( (Long) stream.readObject()).longValue();
@@ -735,7 +738,12 @@ public class DeltaSession extends StandardSession implements Externalizable,Clus
         isValid = true;
         for (int i = 0; i < n; i++) {
             String name = (String) stream.readObject();
-            Object value = stream.readObject();
+            Object value;
+            if (codec == null) {
+                value = stream.readObject();
+            } else {
+                value = codec.readValue(stream);
+            }
             if ( (value instanceof String) && (value.equals(NOT_SERIALIZED)))
                 continue;
             attributes.put(name, value);
@@ -792,6 +800,8 @@ public class DeltaSession extends StandardSession implements Externalizable,Clus
     }
     
     private void writeObject(ObjectOutput stream) throws IOException {
+        SessionAttributeCodec codec = getSessionCodec();
+
         // Write the scalar instance variables (except Manager)
         stream.writeObject(Long.valueOf(creationTime));
         stream.writeObject(Long.valueOf(lastAccessedTime));
@@ -829,10 +839,18 @@ public class DeltaSession extends StandardSession implements Externalizable,Clus
         for (int i = 0; i < n; i++) {
             stream.writeObject( saveNames.get(i));
             try {
-                stream.writeObject(saveValues.get(i));
+                if (codec == null) {
+                    stream.writeObject(saveValues.get(i));
+                } else {
+                    codec.writeValue(stream, saveValues.get(i));
+                }
             } catch (NotSerializableException e) {
                 log.error(sm.getString("standardSession.notSerializable",saveNames.get(i), id), e);
-                stream.writeObject(NOT_SERIALIZED);
+                if (codec == null) {
+                    stream.writeObject(NOT_SERIALIZED);
+                } else {
+                    codec.writeValue(stream, NOT_SERIALIZED);
+                }
                 log.error("  storing attribute '" + saveNames.get(i)+ "' with value NOT_SERIALIZED");
             }
         }
@@ -842,6 +860,30 @@ public class DeltaSession extends StandardSession implements Externalizable,Clus
     // -------------------------------------------------------- Private Methods
 
 
+    /**
+     * Return the codec of the attribute values of the deltas of this session.
+     */
+    protected SessionAttributeCodec getAttributeCodec() {
+        if (manager instanceof ClusterManagerBase) {
+            return ((ClusterManagerBase) manager).getAttributeCodec();
+        }
+        return null;
+    }
+
+
+    /**
+     * Return the codec of the attribute values when the whole session is
+     * written. The BackupManager reads sessions before their manager is known
+     * so only the sessions of the DeltaManager use the codec.
+     */
+    private SessionAttributeCodec getSessionCodec() {
+        if (manager instanceof DeltaManager) {
+            return getAttributeCodec();
+        }
+        return null;
+    }
+
+
     /**
      * Return the value of an attribute without a check for validity.
      */
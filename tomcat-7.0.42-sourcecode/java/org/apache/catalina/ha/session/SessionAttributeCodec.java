@@ -0,0 +1,56 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.ha.session;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * Encodes the values of the session attributes replicated by the cluster
+ * managers. A codec is configured with the <code>sessionAttributeCodec</code>
+ * attribute of the manager and must be the same on all the nodes of the
+ * cluster. Without a codec the values are written with Java serialization.
+ * <p>
+ * Implementations must be thread safe and have a public no-argument
+ * constructor.
+ */
+public interface SessionAttributeCodec {
+
+    /**
+     * Write the value of a session attribute.
+     *
+     * @param out   The stream to write to
+     * @param value The value, may be <code>null</code>
+     * @throws IOException if the value can not be written
+     */
+    public void writeValue(ObjectOutput out, Object value) throws IOException;
+
+    /**
+     * Read a value written by {@link #writeValue(ObjectOutput, Object)}.
+     * Classes are loaded with the context class loader of the current thread,
+     * which is the class loader of the web application while replication
+     * messages are processed.
+     *
+     * @param in    The stream to read from
+     * @return the value
+     * @throws IOException if the value can not be read
+     * @throws ClassNotFoundException if the class of the value is not found
+     */
+    public Object readValue(ObjectInput in)
+            throws IOException, ClassNotFoundException;
+}
@@ -34,6 +34,11 @@ import org.apache.catalina.ha.ClusterMessage;
  *   <li><pre>public static final int EVT_ALL_SESSION_TRANSFERCOMPLETE</pre><li>
  *   <li><pre>public static final int EVT_CHANGE_SESSION_ID</pre><li>
  *   <li><pre>public static final int EVT_ALL_SESSION_NOCONTEXTMANAGER</pre><li>
+ *   <li><pre>public static final int EVT_SESSION_DELTA_BATCH</pre><li>
+ *   <li><pre>public static final int EVT_GET_ALL_SESSIONS_PARTITION</pre><li>
+ *   <li><pre>public static final int EVT_ALL_SESSION_DATA_COMPRESSED</pre><li>
+ *   <li><pre>public static final int EVT_GET_SESSION</pre><li>
+ *   <li><pre>public static final int EVT_SESSION_DATA</pre><li>
  * </ul>
  *
  */
@@ -88,6 +93,35 @@ public interface SessionMessage extends ClusterMessage {
      */
     public static final int EVT_ALL_SESSION_NOCONTEXTMANAGER = 16;
 
+    /**
+     * Event type used when the deltas of several sessions are replicated
+     * together. The session id of the message is not used.
+     */
+    public static final int EVT_SESSION_DELTA_BATCH = 17;
+
+    /**
+     * Event type used when a node wants the sessions of one partition of the
+     * session ids during a parallel state transfer.
+     */
+    public static final int EVT_GET_ALL_SESSIONS_PARTITION = 18;
+
+    /**
+     * Event type used to send a compressed block of sessions during a
+     * parallel state transfer.
+     */
+    public static final int EVT_ALL_SESSION_DATA_COMPRESSED = 19;
+
+    /**
+     * Event type used when a node wants a session it has not received yet
+     * during a parallel state transfer.
+     */
+    public static final int EVT_GET_SESSION = 20;
+
+    /**
+     * Event type used to reply to EVT_GET_SESSION.
+     */
+    public static final int EVT_SESSION_DATA = 21;
+
     public String getContextName();
     
     public String getEventTypeString();
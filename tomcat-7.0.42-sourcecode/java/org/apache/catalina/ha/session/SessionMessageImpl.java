@@ -155,6 +155,11 @@ public class SessionMessageImpl extends ClusterMessageBase implements SessionMes
             case EVT_ALL_SESSION_TRANSFERCOMPLETE : return "SESSION-STATE-TRANSFERED";
             case EVT_CHANGE_SESSION_ID : return "SESSION-ID-CHANGED";
             case EVT_ALL_SESSION_NOCONTEXTMANAGER : return "NO-CONTEXT-MANAGER";
+            case EVT_SESSION_DELTA_BATCH : return "SESSION-DELTA-BATCH";
+            case EVT_GET_ALL_SESSIONS_PARTITION : return "SESSION-GET-ALL-PARTITION";
+            case EVT_ALL_SESSION_DATA_COMPRESSED : return "ALL-SESSION-DATA-COMPRESSED";
+            case EVT_GET_SESSION : return "SESSION-GET";
+            case EVT_SESSION_DATA : return "SESSION-DATA";
             default : return "UNKNOWN-EVENT-TYPE";
         }
     }
@@ -833,7 +833,8 @@ public class SimpleTcpCluster extends LifecycleMBeanBase
             msg.setAddress(getLocalMember());
             int sendOptions = channelSendOptions;
             if (msg instanceof SessionMessage
-                    && ((SessionMessage)msg).getEventType() == SessionMessage.EVT_ALL_SESSION_DATA) {
+                    && (((SessionMessage)msg).getEventType() == SessionMessage.EVT_ALL_SESSION_DATA
+                    || ((SessionMessage)msg).getEventType() == SessionMessage.EVT_ALL_SESSION_DATA_COMPRESSED)) {
                 sendOptions = Channel.SEND_OPTIONS_SYNCHRONIZED_ACK|Channel.SEND_OPTIONS_USE_ACK;
             }
             if (dest != null) {
@@ -34,7 +34,11 @@ import java.io.RandomAccessFile;
 import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.StringTokenizer;
 
@@ -203,6 +207,27 @@ public class DefaultServlet
      */
     protected int sendfileSize = 48 * 1024;
 
+    /**
+     * Maximum total size in bytes of the files held memory mapped. Zero
+     * disables serving from memory mapped files.
+     */
+    protected long mappedCacheSize = 0;
+
+    /**
+     * Minimum size for memory mapped file usage in bytes.
+     */
+    protected int mappedFileMinSize = 8 * 1024;
+
+    /**
+     * Maximum size for memory mapped file usage in bytes.
+     */
+    protected int mappedFileMaxSize = 256 * 1024;
+
+    /**
+     * Cache of memory mapped files.
+     */
+    protected transient MappedFileCache mappedFileCache = null;
+
     /**
      * Should the Accept-Ranges: bytes header be send with static resources?
      */
@@ -263,7 +288,10 @@ public class DefaultServlet
      */
     @Override
     public void destroy() {
-        // NOOP
+        if (mappedFileCache != null) {
+            mappedFileCache.clear();
+            mappedFileCache = null;
+        }
     }
 
 
@@ -291,6 +319,18 @@ public class DefaultServlet
             sendfileSize =
                 Integer.parseInt(getServletConfig().getInitParameter("sendfileSize")) * 1024;
 
+        if (getServletConfig().getInitParameter("mappedCacheSize") != null)
+            mappedCacheSize =
+                Long.parseLong(getServletConfig().getInitParameter("mappedCacheSize")) * 1024;
+
+        if (getServletConfig().getInitParameter("mappedFileMinSize") != null)
+            mappedFileMinSize =
+                Integer.parseInt(getServletConfig().getInitParameter("mappedFileMinSize")) * 1024;
+
+        if (getServletConfig().getInitParameter("mappedFileMaxSize") != null)
+            mappedFileMaxSize =
+                Integer.parseInt(getServletConfig().getInitParameter("mappedFileMaxSize")) * 1024;
+
         fileEncoding = getServletConfig().getInitParameter("fileEncoding");
 
         globalXsltFile = getServletConfig().getInitParameter("globalXsltFile");
@@ -330,6 +370,10 @@ public class DefaultServlet
             throw new UnavailableException("No resources");
         }
 
+        if (mappedCacheSize > 0) {
+            mappedFileCache = new MappedFileCache(mappedCacheSize);
+        }
+
     }
 
 
@@ -847,6 +891,9 @@ public class DefaultServlet
 
                 // Parse range specifier
                 ranges = parseRange(request, response, cacheEntry.attributes);
+                if ((ranges != null) && (ranges != FULL)) {
+                    ranges = coalesceRanges(ranges);
+                }
 
                 // ETag header
                 response.setHeader("ETag", cacheEntry.attributes.getETag());
@@ -1237,6 +1284,48 @@ public class DefaultServlet
 
 
 
+    /**
+     * Merge ranges which overlap or are adjacent, as permitted by RFC 2616
+     * section 14.35.1, so that each byte is served at most once and as few
+     * parts as possible are written. The returned ranges are sorted by
+     * their start position.
+     *
+     * @param ranges The ranges parsed from the request
+     * @return the coalesced ranges
+     */
+    protected ArrayList<Range> coalesceRanges(ArrayList<Range> ranges) {
+
+        if (ranges.size() < 2)
+            return ranges;
+
+        ArrayList<Range> sorted = new ArrayList<Range>(ranges);
+        Collections.sort(sorted, new Comparator<Range>() {
+            @Override
+            public int compare(Range r1, Range r2) {
+                return (r1.start < r2.start) ? -1
+                        : ((r1.start == r2.start) ? 0 : 1);
+            }
+        });
+
+        ArrayList<Range> result = new ArrayList<Range>();
+        Range current = null;
+        for (Range range : sorted) {
+            if ((current != null) && (range.start <= current.end + 1)) {
+                if (range.end > current.end)
+                    current.end = range.end;
+            } else {
+                current = new Range();
+                current.start = range.start;
+                current.end = range.end;
+                current.length = range.length;
+                result.add(current);
+            }
+        }
+        return result;
+
+    }
+
+
     /**
      *  Decide which way to render. HTML or XML.
      */
@@ -1861,6 +1950,9 @@ public class DefaultServlet
                 ostream.write(buffer, 0, buffer.length);
                 return;
             }
+            if (copyMapped(cacheEntry, ostream)) {
+                return;
+            }
             resourceInputStream = cacheEntry.resource.streamContent();
         } else {
             resourceInputStream = is;
@@ -1882,6 +1974,48 @@ public class DefaultServlet
     }
 
 
+    /**
+     * Copy the contents of the resource to the specified output stream from a
+     * memory mapping of the file, if the mapped file cache is enabled and the
+     * resource is suitable.
+     *
+     * @param cacheEntry The cache entry for the source resource
+     * @param ostream The output stream to write to
+     * @return <code>true</code> if the content was written
+     * @exception IOException if an input/output error occurs
+     */
+    protected boolean copyMapped(CacheEntry cacheEntry,
+                                 ServletOutputStream ostream)
+        throws IOException {
+
+        if (mappedFileCache == null)
+            return false;
+        String canonicalPath = cacheEntry.attributes.getCanonicalPath();
+        long length = cacheEntry.attributes.getContentLength();
+        if ((canonicalPath == null) || (length < mappedFileMinSize)
+                || (length > mappedFileMaxSize))
+            return false;
+
+        MappedFileCache.Region region = mappedFileCache.acquire(canonicalPath,
+                cacheEntry.attributes.getLastModified(), length);
+        if (region == null)
+            return false;
+        try {
+            ByteBuffer mapped = region.getBuffer();
+            byte buffer[] = new byte[Math.min(input, mapped.remaining())];
+            while (mapped.hasRemaining()) {
+                int len = Math.min(buffer.length, mapped.remaining());
+                mapped.get(buffer, 0, len);
+                ostream.write(buffer, 0, len);
+            }
+        } finally {
+            region.release();
+        }
+        return true;
+
+    }
+
+
     /**
      * Copy the contents of the specified input stream to the specified
      * output stream, and ensure that both streams are closed before returning
@@ -1942,6 +2076,25 @@ public class DefaultServlet
 
         IOException exception = null;
 
+        // Optimization: If the binary content has already been loaded, send
+        // the range directly
+        byte buffer[] = cacheEntry.resource.getContent();
+        if (buffer != null) {
+            ostream.write(buffer, (int) range.start,
+                    (int) (range.end - range.start + 1));
+            return;
+        }
+
+        // Read the range in place rather than skipping through the file
+        FileChannel channel = openChannel(cacheEntry);
+        if (channel != null) {
+            exception = copyRange(channel, ostream, range.start, range.end);
+            closeChannel(channel);
+            if (exception != null)
+                throw exception;
+            return;
+        }
+
         InputStream resourceInputStream = cacheEntry.resource.streamContent();
         InputStream istream =
             new BufferedInputStream(resourceInputStream, input);
@@ -1974,11 +2127,16 @@ public class DefaultServlet
 
         IOException exception = null;
 
-        while ( (exception == null) && (ranges.hasNext()) ) {
+        // Serve every range from the cached content or from a single open
+        // file rather than re-opening and skipping through the resource for
+        // each one
+        byte content[] = cacheEntry.resource.getContent();
+        FileChannel channel = null;
+        if (content == null) {
+            channel = openChannel(cacheEntry);
+        }
 
-            InputStream resourceInputStream = cacheEntry.resource.streamContent();
-            InputStream istream =
-                new BufferedInputStream(resourceInputStream, input);
+        while ( (exception == null) && (ranges.hasNext()) ) {
 
             Range currentRange = ranges.next();
 
@@ -1993,13 +2151,27 @@ public class DefaultServlet
             ostream.println();
 
             // Printing content
-            exception = copyRange(istream, ostream, currentRange.start,
-                                  currentRange.end);
-
-            istream.close();
+            if (content != null) {
+                ostream.write(content, (int) currentRange.start,
+                        (int) (currentRange.end - currentRange.start + 1));
+            } else if (channel != null) {
+                exception = copyRange(channel, ostream, currentRange.start,
+                                      currentRange.end);
+            } else {
+                InputStream resourceInputStream =
+                    cacheEntry.resource.streamContent();
+                InputStream istream =
+                    new BufferedInputStream(resourceInputStream, input);
+                exception = copyRange(istream, ostream, currentRange.start,
+                                      currentRange.end);
+                istream.close();
+            }
 
         }
 
+        if (channel != null)
+            closeChannel(channel);
+
         ostream.println();
         ostream.print("--" + mimeSeparation + "--");
 
@@ -2132,6 +2304,78 @@ public class DefaultServlet
     }
 
 
+    /**
+     * Copy the contents of the specified file to the specified output
+     * stream using positional reads, so that no data before the range is
+     * read.
+     *
+     * @param channel The file to read from
+     * @param ostream The output stream to write to
+     * @param start Start of the range which will be copied
+     * @param end End of the range which will be copied
+     * @return Exception which occurred during processing
+     */
+    protected IOException copyRange(FileChannel channel,
+                                  ServletOutputStream ostream,
+                                  long start, long end) {
+
+        if (debug > 10)
+            log("Serving bytes:" + start + "-" + end);
+
+        byte buffer[] = new byte[input];
+        ByteBuffer bb = ByteBuffer.wrap(buffer);
+        long pos = start;
+        try {
+            while (pos <= end) {
+                bb.clear();
+                long bytesToRead = end - pos + 1;
+                if (bytesToRead < buffer.length)
+                    bb.limit((int) bytesToRead);
+                int len = channel.read(bb, pos);
+                if (len < 0) {
+                    return new IOException(sm.getString(
+                            "defaultservlet.readfail", Long.valueOf(pos),
+                            Long.valueOf(end)));
+                }
+                ostream.write(buffer, 0, len);
+                pos += len;
+            }
+        } catch (IOException e) {
+            return e;
+        }
+        return null;
+
+    }
+
+
+    /**
+     * Open the file backing the specified resource for positional reads.
+     *
+     * @param cacheEntry The cache entry for the source resource
+     * @return the open channel, or <code>null</code> if the resource is not
+     *         backed by a file which can be opened
+     */
+    protected FileChannel openChannel(CacheEntry cacheEntry) {
+        String canonicalPath = cacheEntry.attributes.getCanonicalPath();
+        if (canonicalPath == null)
+            return null;
+        try {
+            return new RandomAccessFile(canonicalPath, "r").getChannel();
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+    }
+
+
+    private static void closeChannel(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+
+
     // ------------------------------------------------------ Range Inner Class
 
 
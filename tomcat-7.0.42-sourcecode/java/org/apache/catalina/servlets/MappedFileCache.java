@@ -0,0 +1,243 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.servlets;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.tomcat.util.buf.ByteBufferUtils;
+
+/**
+ * Cache of read-only memory mapped files used by the {@link DefaultServlet}
+ * to serve static resources without opening and reading the file for every
+ * request.
+ * <p>
+ * Regions are reference counted. The cache holds one reference for as long
+ * as the region is cached and each request holds one while it is writing
+ * from the mapping. Once a region has been evicted and every request has
+ * released it, the mapping is unmapped so that the file is not left locked
+ * (e.g. on Windows) until the next garbage collection. The least recently
+ * used regions are evicted when the total mapped size exceeds the limit.
+ */
+public class MappedFileCache {
+
+    private final long maxSize;
+
+    private final Map<String,Region> regions =
+        new LinkedHashMap<String,Region>(16, 0.75f, true);
+
+    private long size = 0;
+
+    private long hitCount = 0;
+    private long missCount = 0;
+    private long evictionCount = 0;
+
+
+    /**
+     * Create a cache which will map at most <code>maxSize</code> bytes.
+     */
+    public MappedFileCache(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+
+    /**
+     * Obtain a mapping for the given file. The caller must call
+     * {@link Region#release()} once it has finished with the region.
+     *
+     * @param path          Canonical path of the file
+     * @param lastModified  Last modification time of the file as seen by the
+     *                      caller, used to detect changed files
+     * @param length        Length of the file as seen by the caller
+     * @return the acquired region or <code>null</code> if the file is too
+     *         large to be cached
+     * @throws IOException if the file can not be mapped
+     */
+    public Region acquire(String path, long lastModified, long length)
+            throws IOException {
+
+        if (length > maxSize || length > Integer.MAX_VALUE) {
+            return null;
+        }
+
+        synchronized (regions) {
+            Region region = regions.get(path);
+            if (region != null) {
+                if (region.lastModified == lastModified &&
+                        region.length == length) {
+                    hitCount++;
+                    region.retain();
+                    return region;
+                }
+                // Stale
+                regions.remove(path);
+                size -= region.length;
+                region.release();
+            }
+            missCount++;
+        }
+
+        Region region = map(path, lastModified, length);
+
+        synchronized (regions) {
+            Region current = regions.get(path);
+            if (current != null && current.lastModified == lastModified &&
+                    current.length == length) {
+                // Mapped concurrently by another request
+                region.release();
+                current.retain();
+                return current;
+            }
+            if (current != null) {
+                regions.remove(path);
+                size -= current.length;
+                current.release();
+            }
+            regions.put(path, region);
+            size += length;
+            evict();
+            region.retain();
+            return region;
+        }
+    }
+
+
+    /**
+     * Release all the cached regions. Regions still in use are unmapped once
+     * they are released by the requests using them.
+     */
+    public void clear() {
+        synchronized (regions) {
+            for (Region region : regions.values()) {
+                region.release();
+            }
+            regions.clear();
+            size = 0;
+        }
+    }
+
+
+    /**
+     * Return the number of bytes currently mapped by the cache.
+     */
+    public long getSize() {
+        synchronized (regions) {
+            return size;
+        }
+    }
+
+
+    public long getHitCount() {
+        synchronized (regions) {
+            return hitCount;
+        }
+    }
+
+
+    public long getMissCount() {
+        synchronized (regions) {
+            return missCount;
+        }
+    }
+
+
+    public long getEvictionCount() {
+        synchronized (regions) {
+            return evictionCount;
+        }
+    }
+
+
+    private void evict() {
+        Iterator<Region> iter = regions.values().iterator();
+        while (size > maxSize && iter.hasNext()) {
+            Region eldest = iter.next();
+            iter.remove();
+            size -= eldest.length;
+            evictionCount++;
+            eldest.release();
+        }
+    }
+
+
+    private static Region map(String path, long lastModified, long length)
+            throws IOException {
+        RandomAccessFile file = new RandomAccessFile(path, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            // The file may have shrunk since its attributes were read
+            long mapLength = Math.min(length, channel.size());
+            MappedByteBuffer buffer =
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, mapLength);
+            return new Region(buffer, lastModified, length);
+        } finally {
+            try {
+                file.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+
+
+    /**
+     * A mapped file.
+     */
+    public static final class Region {
+
+        private final MappedByteBuffer buffer;
+        private final long lastModified;
+        private final long length;
+        private final AtomicInteger refCount = new AtomicInteger(1);
+
+        private Region(MappedByteBuffer buffer, long lastModified,
+                long length) {
+            this.buffer = buffer;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+
+        /**
+         * Return a view of the mapped file with an independent position and
+         * limit. The view must not be used after the region is released.
+         */
+        public ByteBuffer getBuffer() {
+            return buffer.asReadOnlyBuffer();
+        }
+
+        public long getLength() {
+            return buffer.capacity();
+        }
+
+        private void retain() {
+            refCount.incrementAndGet();
+        }
+
+        public void release() {
+            if (refCount.decrementAndGet() == 0) {
+                ByteBufferUtils.cleanDirectBuffer(buffer);
+            }
+        }
+    }
+}
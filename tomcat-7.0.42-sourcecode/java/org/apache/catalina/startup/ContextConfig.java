@@ -29,7 +29,10 @@ import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
@@ -88,6 +91,8 @@ import org.apache.tomcat.JarScanner;
 import org.apache.tomcat.JarScannerCallback;
 import org.apache.tomcat.util.ExceptionUtils;
 import org.apache.tomcat.util.bcel.classfile.AnnotationElementValue;
+import org.apache.tomcat.util.buf.B2CConverter;
+import org.apache.tomcat.util.buf.HexUtils;
 import org.apache.tomcat.util.bcel.classfile.AnnotationEntry;
 import org.apache.tomcat.util.bcel.classfile.ArrayElementValue;
 import org.apache.tomcat.util.bcel.classfile.ClassFormatException;
@@ -118,6 +123,12 @@ public class ContextConfig implements LifecycleListener {
     private static final String SCI_LOCATION =
         "META-INF/services/javax.servlet.ServletContainerInitializer";
 
+    /**
+     * Name of the file in the work directory holding the snapshot of the
+     * merged web.xml.
+     */
+    private static final String WEB_XML_SNAPSHOT = "webxml.ser";
+
 
     /**
      * The string resources for this package.
@@ -1242,6 +1253,22 @@ public class ContextConfig implements LifecycleListener {
          *   those in JARs excluded from an absolute ordering) need to be
          *   scanned to check if they match.
          */
+        // Reuse the merged web.xml from the previous start if none of the
+        // inputs have changed
+        File snapshotFile = getWebXmlSnapshotFile();
+        String fingerprint = null;
+        if (snapshotFile != null) {
+            fingerprint = getWebXmlFingerprint();
+            if (fingerprint != null) {
+                WebXmlSnapshot snapshot =
+                        WebXmlSnapshot.load(snapshotFile, fingerprint);
+                if (snapshot != null) {
+                    webConfig(snapshot);
+                    return;
+                }
+            }
+        }
+
         Set<WebXml> defaults = new HashSet<WebXml>();
         defaults.add(getDefaultWebXmlFragment());
 
@@ -1331,6 +1358,9 @@ public class ContextConfig implements LifecycleListener {
                 ok = webXml.merge(orderedFragments);
             }
 
+            saveWebXmlSnapshot(snapshotFile, fingerprint, webXml, fragments,
+                    orderedFragments);
+
             // Step 7. Apply global defaults
             // Have to merge defaults before JSP conversion since defaults
             // provide JSP servlet definition.
@@ -1346,11 +1376,60 @@ public class ContextConfig implements LifecycleListener {
                 webXml.configureContext(context);
             }
         } else {
+            saveWebXmlSnapshot(snapshotFile, fingerprint, webXml, fragments,
+                    orderedFragments);
             webXml.merge(defaults);
             convertJsps(webXml);
             webXml.configureContext(context);
         }
 
+        webConfigComplete(webXml, fragments, orderedFragments);
+    }
+
+
+    /**
+     * Configure the web application from a snapshot of the merged web.xml.
+     * The global defaults are not part of the snapshot since they are shared
+     * by all the applications of the host and are cached separately. The
+     * ServletContainerInitializers still need to be found since they are
+     * not part of the web.xml.
+     */
+    private void webConfig(WebXmlSnapshot snapshot) {
+        WebXml webXml = snapshot.getWebXml();
+        Set<WebXml> orderedFragments = snapshot.getOrderedFragments();
+
+        if (log.isDebugEnabled()) {
+            log.debug(sm.getString("contextConfig.webXmlSnapshot",
+                    context.getName()));
+        }
+
+        Set<WebXml> defaults = new HashSet<WebXml>();
+        defaults.add(getDefaultWebXmlFragment());
+
+        context.getServletContext().setAttribute(ServletContext.ORDERED_LIBS,
+                snapshot.getOrderedLibs());
+
+        processServletContainerInitializers(orderedFragments);
+
+        webXml.merge(defaults);
+
+        if (ok) {
+            convertJsps(webXml);
+        }
+
+        if (ok) {
+            webXml.configureContext(context);
+        }
+
+        webConfigComplete(webXml, snapshot.getFragments(), orderedFragments);
+    }
+
+
+    private void webConfigComplete(WebXml webXml,
+            Map<String,WebXml> fragments, Set<WebXml> orderedFragments) {
+
+        ServletContext sContext = context.getServletContext();
+
         // Step 9a. Make the merged web.xml available to other
         // components, specifically Jasper, to save those components
         // from having to re-generate it.
@@ -1401,6 +1480,145 @@ public class ContextConfig implements LifecycleListener {
         }
     }
 
+    /**
+     * Obtain the file used to store the snapshot of the merged web.xml.
+     *
+     * @return the file or <code>null</code> if snapshots are not enabled
+     */
+    protected File getWebXmlSnapshotFile() {
+        if (!(context instanceof StandardContext)) {
+            return null;
+        }
+        StandardContext standardContext = (StandardContext) context;
+        if (!standardContext.getWebXmlSnapshot() ||
+                standardContext.getWorkPath() == null) {
+            return null;
+        }
+        return new File(standardContext.getWorkPath(), WEB_XML_SNAPSHOT);
+    }
+
+
+    /**
+     * Calculate a fingerprint of everything the snapshot of the merged
+     * web.xml is built from: the application web.xml, the JARs and
+     * directories scanned for fragments and annotations and the classes in
+     * /WEB-INF/classes. The content of the web.xml is used while JARs and
+     * classes are identified by their size and modification time.
+     *
+     * @return the fingerprint or <code>null</code> if one of the inputs is
+     *         not a file and can not be reliably identified
+     */
+    protected String getWebXmlFingerprint() {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+
+        update(digest, "xmlValidation=" + context.getXmlValidation() +
+                ",xmlNamespaceAware=" + context.getXmlNamespaceAware());
+
+        try {
+            update(digest, getContextWebXmlSource());
+
+            FingerprintJarScannerCallback callback =
+                    new FingerprintJarScannerCallback(digest);
+            context.getJarScanner().scan(context.getServletContext(),
+                    context.getLoader().getClassLoader(), callback,
+                    pluggabilityJarsToSkip);
+            if (!callback.isComplete()) {
+                return null;
+            }
+
+            NamingEnumeration<Binding> listBindings = null;
+            try {
+                listBindings =
+                        context.getResources().listBindings("/WEB-INF/classes");
+            } catch (NameNotFoundException ignore) {
+                // Safe to ignore
+            }
+            while (listBindings != null && listBindings.hasMoreElements()) {
+                Binding binding = listBindings.nextElement();
+                if (binding.getObject() instanceof FileDirContext) {
+                    update(digest, new File(((FileDirContext)
+                            binding.getObject()).getDocBase()));
+                } else {
+                    String realPath = context.getServletContext().getRealPath(
+                            "/WEB-INF/classes/" + binding.getName());
+                    if (realPath == null) {
+                        return null;
+                    }
+                    update(digest, new File(realPath));
+                }
+            }
+        } catch (IOException e) {
+            return null;
+        } catch (NamingException e) {
+            return null;
+        }
+
+        return HexUtils.toHexString(digest.digest());
+    }
+
+
+    private void saveWebXmlSnapshot(File snapshotFile, String fingerprint,
+            WebXml webXml, Map<String,WebXml> fragments,
+            Set<WebXml> orderedFragments) {
+        // Classes matching @HandlesTypes are only found by scanning
+        if (snapshotFile == null || fingerprint == null || !ok ||
+                !typeInitializerMap.isEmpty()) {
+            return;
+        }
+        @SuppressWarnings("unchecked")
+        List<String> orderedLibs = (List<String>) context.getServletContext()
+                .getAttribute(ServletContext.ORDERED_LIBS);
+        new WebXmlSnapshot(webXml, fragments, orderedFragments,
+                orderedLibs).save(snapshotFile, fingerprint);
+    }
+
+
+    private static void update(MessageDigest digest, String value) {
+        digest.update(value.getBytes(B2CConverter.UTF_8));
+        digest.update((byte) 0);
+    }
+
+
+    private static void update(MessageDigest digest, InputSource source)
+            throws IOException {
+        if (source == null) {
+            update(digest, "");
+            return;
+        }
+        update(digest, source.getSystemId());
+        InputStream is = source.getByteStream();
+        try {
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = is.read(buf)) >= 0) {
+                digest.update(buf, 0, n);
+            }
+        } finally {
+            is.close();
+        }
+    }
+
+
+    private static void update(MessageDigest digest, File file) {
+        update(digest, file.getPath() + ',' + file.length() + ',' +
+                file.lastModified());
+        if (file.isDirectory()) {
+            String[] names = file.list();
+            if (names != null) {
+                Arrays.sort(names);
+                for (String name : names) {
+                    update(digest, new File(file, name));
+                }
+            }
+        }
+    }
+
+
     private WebXml getDefaultWebXmlFragment() {
 
         // Host should never be null
@@ -2732,6 +2950,44 @@ public class ContextConfig implements LifecycleListener {
         }
     }
 
+    /**
+     * Adds the JARs and directories that would be scanned for fragments to
+     * the fingerprint of the merged web.xml.
+     */
+    private static class FingerprintJarScannerCallback
+            implements JarScannerCallback {
+
+        private final MessageDigest digest;
+        private boolean complete = true;
+
+        public FingerprintJarScannerCallback(MessageDigest digest) {
+            this.digest = digest;
+        }
+
+        @Override
+        public void scan(JarURLConnection jarConn) throws IOException {
+            URL url = jarConn.getJarFileURL();
+            if ("file".equals(url.getProtocol())) {
+                try {
+                    update(digest, new File(url.toURI()));
+                } catch (URISyntaxException e) {
+                    complete = false;
+                }
+            } else {
+                complete = false;
+            }
+        }
+
+        @Override
+        public void scan(File file) throws IOException {
+            update(digest, file);
+        }
+
+        public boolean isComplete() {
+            return complete;
+        }
+    }
+
     private static class DefaultWebXmlCacheEntry {
         private final WebXml webXml;
         private final long globalTimeStamp;
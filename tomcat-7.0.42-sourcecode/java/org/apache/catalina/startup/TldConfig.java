@@ -31,11 +31,13 @@ import java.util.StringTokenizer;
 import javax.servlet.ServletContext;
 import javax.servlet.descriptor.TaglibDescriptor;
 
+import org.apache.catalina.Container;
 import org.apache.catalina.Context;
 import org.apache.catalina.Lifecycle;
 import org.apache.catalina.LifecycleEvent;
 import org.apache.catalina.LifecycleListener;
 import org.apache.catalina.core.StandardContext;
+import org.apache.catalina.core.StandardHost;
 import org.apache.catalina.deploy.ApplicationListener;
 import org.apache.tomcat.JarScanner;
 import org.apache.tomcat.JarScannerCallback;
@@ -44,6 +46,7 @@ import org.apache.tomcat.util.digester.Digester;
 import org.apache.tomcat.util.res.StringManager;
 import org.apache.tomcat.util.scan.Jar;
 import org.apache.tomcat.util.scan.JarFactory;
+import org.apache.tomcat.util.scan.TldIndex;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
@@ -187,6 +190,12 @@ public final class TldConfig  implements LifecycleListener {
 
     private ArrayList<String> listeners = new ArrayList<String>();
 
+    /**
+     * The index of the TLDs in JARs shared by the web applications of the
+     * Host, if any, used while the TLDs are scanned.
+     */
+    private TldIndex tldIndex = null;
+
     // --------------------------------------------------------- Public Methods
 
     /**
@@ -274,10 +283,20 @@ public final class TldConfig  implements LifecycleListener {
         tldScanResourcePaths(WEB_INF);
 
         // Stages 3b & 4
+        // Validation errors are reported for each context so JARs are only
+        // taken from the index when the TLDs are not validated
+        Container host = context.getParent();
+        if (host instanceof StandardHost && !context.getTldValidation()) {
+            tldIndex = ((StandardHost) host).getTldIndex();
+        }
         JarScanner jarScanner = context.getJarScanner();
-        jarScanner.scan(context.getServletContext(),
-                context.getLoader().getClassLoader(),
-                new TldJarScannerCallback(), noTldJars);
+        try {
+            jarScanner.scan(context.getServletContext(),
+                    context.getLoader().getClassLoader(),
+                    new TldJarScannerCallback(), noTldJars);
+        } finally {
+            tldIndex = null;
+        }
         
         // Now add all the listeners we found to the listeners for this context
         String list[] = getTldListeners();
@@ -482,6 +501,25 @@ public final class TldConfig  implements LifecycleListener {
      */
     private void tldScanJar(JarURLConnection jarConn) {
 
+        if (tldIndex != null) {
+            TldIndex.Tld[] tlds = null;
+            try {
+                tlds = tldIndex.getTlds(jarConn);
+            } catch (IOException ioe) {
+                // Scan the JAR directly so the failure is reported as usual
+                if (log.isDebugEnabled()) {
+                    log.debug(sm.getString("tldConfig.indexFail",
+                            jarConn.getURL()), ioe);
+                }
+            }
+            if (tlds != null) {
+                for (TldIndex.Tld tld : tlds) {
+                    tldScanIndexed(tld);
+                }
+                return;
+            }
+        }
+
         Jar jar = null;
         InputStream is;
         
@@ -521,6 +559,33 @@ public final class TldConfig  implements LifecycleListener {
     }
 
 
+    /*
+     * Register the URI and the application event listeners of a TLD taken
+     * from the index, in the same way as the rules in TldRuleSet do for a
+     * parsed TLD.
+     */
+    private void tldScanIndexed(TldIndex.Tld tld) {
+        String uri = tld.getUri();
+        if (uri != null) {
+            if (isKnownTaglibUri(uri)) {
+                // This is expected if the URI was defined in web.xml
+                if (isKnownWebxmlTaglibUri(uri)) {
+                    if (log.isDebugEnabled()) {
+                        log.debug(sm.getString("tldConfig.uriSkip", uri));
+                    }
+                } else {
+                    log.info(sm.getString("tldConfig.uriSkip", uri));
+                }
+                return;
+            }
+            addTaglibUri(uri);
+        }
+        for (String listener : tld.getListeners()) {
+            addApplicationListener(listener);
+        }
+    }
+
+
     /*
      * Scan the TLD contents in the specified input stream, and register
      * any application event listeners found there.  <b>NOTE</b> - This 
@@ -0,0 +1,194 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.startup;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.catalina.deploy.WebXml;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * The result of parsing and merging the web.xml, the web-fragment.xml files
+ * and the annotations of a web application, persisted so that it can be
+ * reused on the next start if none of the inputs have changed. The global
+ * and host defaults are merged when the snapshot is applied. The inputs are
+ * identified by a fingerprint calculated by {@link ContextConfig}.
+ * <p>
+ * The fingerprint is written ahead of the object model so that a stale
+ * snapshot is detected without deserializing it.
+ */
+public class WebXmlSnapshot implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Log log = LogFactory.getLog(WebXmlSnapshot.class);
+
+    private static final StringManager sm =
+        StringManager.getManager(Constants.Package);
+
+    private final WebXml webXml;
+    private final Map<String,WebXml> fragments;
+    private final Set<WebXml> orderedFragments;
+    private final ArrayList<String> orderedLibs;
+
+
+    public WebXmlSnapshot(WebXml webXml, Map<String,WebXml> fragments,
+            Set<WebXml> orderedFragments, List<String> orderedLibs) {
+        this.webXml = webXml;
+        this.fragments = new LinkedHashMap<String,WebXml>(fragments);
+        this.orderedFragments = new LinkedHashSet<WebXml>(orderedFragments);
+        if (orderedLibs == null) {
+            this.orderedLibs = null;
+        } else {
+            this.orderedLibs = new ArrayList<String>(orderedLibs);
+        }
+    }
+
+
+    /**
+     * The merged web.xml, before the defaults were merged.
+     */
+    public WebXml getWebXml() {
+        return webXml;
+    }
+
+
+    /**
+     * The fragments found in the JARs of the web application, keyed by name.
+     */
+    public Map<String,WebXml> getFragments() {
+        return fragments;
+    }
+
+
+    /**
+     * The fragments in the order in which they were merged.
+     */
+    public Set<WebXml> getOrderedFragments() {
+        return orderedFragments;
+    }
+
+
+    /**
+     * The names of the ordered JARs published to the web application or
+     * <code>null</code> if no ordering was specified.
+     */
+    public List<String> getOrderedLibs() {
+        return orderedLibs;
+    }
+
+
+    /**
+     * Read a snapshot.
+     *
+     * @param file          The file the snapshot was saved to
+     * @param fingerprint   The fingerprint of the current inputs
+     * @return the snapshot or <code>null</code> if there is no snapshot, it
+     *         was created from different inputs or it can not be read
+     */
+    public static WebXmlSnapshot load(File file, String fingerprint) {
+        if (!file.isFile()) {
+            return null;
+        }
+        ObjectInputStream ois = null;
+        try {
+            ois = new ObjectInputStream(new BufferedInputStream(
+                    new FileInputStream(file)));
+            if (!fingerprint.equals(ois.readUTF())) {
+                if (log.isDebugEnabled()) {
+                    log.debug(sm.getString("webXmlSnapshot.stale", file));
+                }
+                return null;
+            }
+            return (WebXmlSnapshot) ois.readObject();
+        } catch (Exception e) {
+            // Includes snapshots written by an incompatible version
+            log.warn(sm.getString("webXmlSnapshot.loadFail", file), e);
+            return null;
+        } finally {
+            if (ois != null) {
+                try {
+                    ois.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Write the snapshot. The snapshot is written to a temporary file which
+     * then replaces any previous snapshot so that a partially written
+     * snapshot is never read.
+     *
+     * @param file          The file to save the snapshot to
+     * @param fingerprint   The fingerprint of the inputs of the snapshot
+     */
+    public void save(File file, String fingerprint) {
+        File parent = file.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            log.warn(sm.getString("webXmlSnapshot.saveFail", file));
+            return;
+        }
+        File tmp = new File(parent, file.getName() + ".tmp");
+        ObjectOutputStream oos = null;
+        boolean written = false;
+        try {
+            oos = new ObjectOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(tmp)));
+            oos.writeUTF(fingerprint);
+            oos.writeObject(this);
+            oos.close();
+            oos = null;
+            written = (!file.exists() || file.delete()) && tmp.renameTo(file);
+        } catch (IOException e) {
+            log.warn(sm.getString("webXmlSnapshot.saveFail", file), e);
+            return;
+        } finally {
+            if (oos != null) {
+                try {
+                    oos.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+            if (!written && tmp.exists() && !tmp.delete()) {
+                log.debug(sm.getString("webXmlSnapshot.saveFail", tmp));
+            }
+        }
+        if (!written) {
+            log.warn(sm.getString("webXmlSnapshot.saveFail", file));
+        }
+    }
+}
@@ -203,18 +203,19 @@ public class GroupChannel extends ChannelInterceptorBase implements ManagedChann
             ChannelData data = new ChannelData(true);//generates a unique Id
             data.setAddress(getLocalMember(false));
             data.setTimestamp(System.currentTimeMillis());
-            byte[] b = null;
             if ( msg instanceof ByteMessage ){
-                b = ((ByteMessage)msg).getMessage();
+                byte[] b = ((ByteMessage)msg).getMessage();
                 options = options | SEND_OPTIONS_BYTE_MESSAGE;
+                buffer = BufferPool.getBufferPool().getBuffer(b.length+128, false);
+                buffer.append(b,0,b.length);
             } else {
-                b = XByteBuffer.serialize(msg);
                 options = options & (~SEND_OPTIONS_BYTE_MESSAGE);
+                //serialize straight into the pooled buffer, it keeps its
+                //capacity so large messages are not copied as they grow
+                buffer = BufferPool.getBufferPool().getBuffer(1024, false);
+                XByteBuffer.serialize(msg, buffer);
             }
             data.setOptions(options);
-            //XByteBuffer buffer = new XByteBuffer(b.length+128,false);
-            buffer = BufferPool.getBufferPool().getBuffer(b.length+128, false);
-            buffer.append(b,0,b.length);
             data.setMessage(buffer);
             InterceptorPayload payload = null;
             if ( handler != null ) {
@@ -0,0 +1,448 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.tribes.group.interceptors;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.catalina.tribes.Channel;
+import org.apache.catalina.tribes.ChannelException;
+import org.apache.catalina.tribes.ChannelMessage;
+import org.apache.catalina.tribes.ErrorHandler;
+import org.apache.catalina.tribes.Member;
+import org.apache.catalina.tribes.UniqueId;
+import org.apache.catalina.tribes.group.InterceptorPayload;
+import org.apache.catalina.tribes.io.ChannelData;
+import org.apache.catalina.tribes.io.XByteBuffer;
+import org.apache.catalina.tribes.transport.bio.util.LinkObject;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ *
+ * A message dispatcher that queues the asynchronous messages of each
+ * destination in a non blocking queue, drained by a sender thread per
+ * destination. The messages that are queued while a message is being sent
+ * are sent together, in one batch message, that is unpacked by this
+ * interceptor on the receiving side. All the members must use this
+ * interceptor as a flag is added to every message.
+ * <br>
+ * The number of bytes queued is limited by <code>maxQueueSize</code> like
+ * for the <code>MessageDispatchInterceptor</code>. The messages that exceed
+ * it are counted as overflows.
+ *
+ * <br><b>Configuration Options</b><br>
+ * BatchingDispatchInterceptor.maxBatchSize=&lt;messages&gt; - the maximum number of messages in a batch <b>default=64</b><br>
+ * BatchingDispatchInterceptor.maxBatchBytes=&lt;bytes&gt; - a batch is closed when it reaches this size <b>default=64KB</b><br>
+ */
+public class BatchingDispatchInterceptor extends MessageDispatchInterceptor {
+    private static final Log log = LogFactory.getLog(BatchingDispatchInterceptor.class);
+
+    protected AtomicLong currentSize = new AtomicLong(0);
+    protected ConcurrentHashMap<Member, DestinationQueue> queues =
+        new ConcurrentHashMap<Member, DestinationQueue>();
+    protected int maxBatchSize = 64;
+    protected int maxBatchBytes = 64 * 1024;
+
+    // statistics
+    protected AtomicInteger queueDepth = new AtomicInteger(0);
+    protected AtomicInteger peakQueueDepth = new AtomicInteger(0);
+    protected AtomicLong overflowCount = new AtomicLong(0);
+    protected AtomicLong batchCount = new AtomicLong(0);
+    protected AtomicLong batchedMessageCount = new AtomicLong(0);
+    protected AtomicLong dispatchedCount = new AtomicLong(0);
+    protected AtomicLong totalLatency = new AtomicLong(0);
+    protected AtomicLong maxLatency = new AtomicLong(0);
+
+    @Override
+    public void sendMessage(Member[] destination, ChannelMessage msg, InterceptorPayload payload) throws ChannelException {
+        boolean async = (msg.getOptions() & Channel.SEND_OPTIONS_ASYNCHRONOUS) == Channel.SEND_OPTIONS_ASYNCHRONOUS;
+        if ( async && run ) {
+            if ( (getCurrentSize()+msg.getMessage().getLength()) > maxQueueSize ) {
+                overflowCount.incrementAndGet();
+                if ( !alwaysSend ) {
+                    throw new ChannelException("Asynchronous queue is full, reached its limit of " + maxQueueSize +" bytes, current:" + getCurrentSize() + " bytes.");
+                }
+                //send it synchronously below
+            } else {
+                if ( useDeepClone ) msg = (ChannelMessage)msg.deepclone();
+                addAndGetCurrentSize(msg.getMessage().getLength());
+                addToQueue(msg, destination, payload);
+                return;
+            }
+        }
+        msg.getMessage().append(false);
+        if ( getNext() != null ) getNext().sendMessage(destination, msg, payload);
+    }
+
+    @Override
+    public void messageReceived(ChannelMessage msg) {
+        boolean batch = XByteBuffer.toBoolean(msg.getMessage().getBytesDirect(),msg.getMessage().getLength()-1);
+        msg.getMessage().trim(1);
+        if ( batch ) {
+            byte[] data = msg.getMessage().getBytesDirect();
+            int count = XByteBuffer.toInt(data, 0);
+            int offset = 4;
+            for (int i = 0; i < count; i++) {
+                int length = XByteBuffer.toInt(data, offset);
+                offset += 4;
+                XByteBuffer buffer = new XByteBuffer(length, false);
+                buffer.append(data, offset, length);
+                offset += length;
+                super.messageReceived(ChannelData.getDataFromPackage(buffer));
+            }
+        } else {
+            super.messageReceived(msg);
+        }
+    }
+
+    @Override
+    public boolean addToQueue(ChannelMessage msg, Member[] destination, InterceptorPayload payload) {
+        Dispatch dispatch = new Dispatch(msg, destination.length,
+                payload != null ? payload.getErrorHandler() : null);
+        for (int i = 0; i < destination.length; i++) {
+            getQueue(destination[i]).add(dispatch);
+        }
+        return true;
+    }
+
+    @Override
+    public LinkObject removeFromQueue() {
+        return null; //not used, each destination has its own queue.
+    }
+
+    @Override
+    public void startQueue() {
+        run = true;
+    }
+
+    @Override
+    public void stopQueue() {
+        run = false;
+        Iterator<DestinationQueue> i = queues.values().iterator();
+        while (i.hasNext()) {
+            i.next().stop();
+            i.remove();
+        }
+        setAndGetCurrentSize(0);
+    }
+
+    @Override
+    public void memberDisappeared(Member member) {
+        DestinationQueue queue = queues.remove(member);
+        if ( queue != null ) queue.stop();
+        super.memberDisappeared(member);
+    }
+
+    protected DestinationQueue getQueue(Member destination) {
+        DestinationQueue queue = queues.get(destination);
+        if ( queue == null ) {
+            DestinationQueue created = new DestinationQueue(destination);
+            queue = queues.putIfAbsent(destination, created);
+            if ( queue == null ) {
+                queue = created;
+                queue.start();
+            }
+        }
+        return queue;
+    }
+
+    /**
+     * Sends the dispatches taken from the queue of a destination, in one
+     * message if there are more than one.
+     */
+    protected void sendBatch(Member destination, List<Dispatch> batch) {
+        ChannelMessage first = batch.get(0).msg;
+        ChannelData out;
+        if ( batch.size() == 1 ) {
+            XByteBuffer buffer = new XByteBuffer(first.getMessage().getLength() + 1, false);
+            buffer.append(first.getMessage().getBytesDirect(), 0, first.getMessage().getLength());
+            buffer.append(false);
+            out = new ChannelData(first.getUniqueId(), buffer, first.getTimestamp());
+        } else {
+            XByteBuffer buffer = new XByteBuffer(maxBatchBytes + 1024, false);
+            buffer.append(batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                ChannelData data = (ChannelData) batch.get(i).msg;
+                int length = data.getDataPackageLength();
+                buffer.append(length);
+                if ( buffer.getCapacity() < buffer.getLength() + length ) {
+                    buffer.expand(buffer.getLength() + length);
+                }
+                data.getDataPackage(buffer.getBytesDirect(), buffer.getLength());
+                buffer.setLength(buffer.getLength() + length);
+            }
+            buffer.append(true);
+            out = new ChannelData(true);
+            out.setMessage(buffer);
+            out.setTimestamp(System.currentTimeMillis());
+            batchCount.incrementAndGet();
+            batchedMessageCount.addAndGet(batch.size());
+        }
+        out.setOptions(first.getOptions());
+        out.setAddress(first.getAddress());
+        ChannelException failure = null;
+        try {
+            if ( getNext() != null ) getNext().sendMessage(new Member[] {destination}, out, null);
+        } catch ( ChannelException x ) {
+            failure = x;
+        } catch ( Exception x ) {
+            failure = new ChannelException(x);
+        }
+        if ( failure != null && log.isDebugEnabled() ) {
+            log.debug("Error while processing async message.", failure);
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).completed(destination, failure);
+        }
+    }
+
+    /**
+     * Can more messages be added to a batch that starts with a message?
+     * Only messages with the same options are batched, and never UDP
+     * messages which are limited in size.
+     */
+    protected boolean isBatchable(ChannelMessage first, ChannelMessage next) {
+        return first.getOptions() == next.getOptions() &&
+            (first.getOptions() & Channel.SEND_OPTIONS_UDP) == 0 &&
+            first instanceof ChannelData && next instanceof ChannelData;
+    }
+
+    @Override
+    public long getCurrentSize() {
+        return currentSize.get();
+    }
+
+    @Override
+    public long addAndGetCurrentSize(long inc) {
+        return currentSize.addAndGet(inc);
+    }
+
+    @Override
+    public long setAndGetCurrentSize(long value) {
+        currentSize.set(value);
+        return value;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public int getMaxBatchBytes() {
+        return maxBatchBytes;
+    }
+
+    public void setMaxBatchBytes(int maxBatchBytes) {
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    /**
+     * @return the number of messages waiting to be sent, a message sent to
+     *         several destinations is counted once per destination
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    public int getPeakQueueDepth() {
+        return peakQueueDepth.get();
+    }
+
+    /**
+     * @return the number of messages that did not fit in the queue and were
+     *         sent synchronously or rejected
+     */
+    public long getOverflowCount() {
+        return overflowCount.get();
+    }
+
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    public long getBatchedMessageCount() {
+        return batchedMessageCount.get();
+    }
+
+    public long getDispatchedCount() {
+        return dispatchedCount.get();
+    }
+
+    /**
+     * @return the average time in ms between queueing a message and its
+     *         sending completing for all destinations
+     */
+    public double getAverageLatency() {
+        long count = dispatchedCount.get();
+        if ( count == 0 ) return 0;
+        return (double) totalLatency.get() / count / 1000000;
+    }
+
+    public long getMaxLatency() {
+        return TimeUnit.NANOSECONDS.toMillis(maxLatency.get());
+    }
+
+    public void resetStatistics() {
+        peakQueueDepth.set(queueDepth.get());
+        overflowCount.set(0);
+        batchCount.set(0);
+        batchedMessageCount.set(0);
+        dispatchedCount.set(0);
+        totalLatency.set(0);
+        maxLatency.set(0);
+    }
+
+
+    /**
+     * A message queued for one or more destinations.
+     */
+    protected class Dispatch {
+        protected final ChannelMessage msg;
+        protected final ErrorHandler handler;
+        protected final AtomicInteger remaining;
+        protected final long queued = System.nanoTime();
+        protected ChannelException failure = null;
+
+        public Dispatch(ChannelMessage msg, int destinations, ErrorHandler handler) {
+            this.msg = msg;
+            this.remaining = new AtomicInteger(destinations);
+            this.handler = handler;
+        }
+
+        public void completed(Member destination, Exception x) {
+            if ( x != null ) {
+                synchronized (this) {
+                    if ( failure == null ) failure = new ChannelException("Unable to send the asynchronous message.");
+                    failure.addFaultyMember(destination, x);
+                }
+            }
+            if ( remaining.decrementAndGet() > 0 ) return;
+            addAndGetCurrentSize(-msg.getMessage().getLength());
+            long latency = System.nanoTime() - queued;
+            dispatchedCount.incrementAndGet();
+            totalLatency.addAndGet(latency);
+            long max = maxLatency.get();
+            while ( latency > max && !maxLatency.compareAndSet(max, latency) ) {
+                max = maxLatency.get();
+            }
+            if ( handler == null ) return;
+            ChannelException error;
+            synchronized (this) {
+                error = failure;
+            }
+            try {
+                if ( error == null ) handler.handleCompletion(new UniqueId(msg.getUniqueId()));
+                else handler.handleError(error, new UniqueId(msg.getUniqueId()));
+            } catch ( Exception ex ) {
+                log.error("Unable to report back the result of the message.",ex);
+            }
+        }
+    }
+
+
+    /**
+     * The messages to send to a destination, and the thread that sends them.
+     */
+    protected class DestinationQueue implements Runnable {
+        protected final Member destination;
+        protected final ConcurrentLinkedQueue<Dispatch> queue = new ConcurrentLinkedQueue<Dispatch>();
+        protected final AtomicBoolean parked = new AtomicBoolean(false);
+        protected volatile boolean running = true;
+        protected final Thread thread;
+
+        public DestinationQueue(Member destination) {
+            this.destination = destination;
+            thread = new Thread(this);
+            thread.setName("BatchingDispatchInterceptor.MessageDispatchThread-" + destination.getName());
+            thread.setDaemon(true);
+        }
+
+        public void start() {
+            thread.start();
+        }
+
+        public void stop() {
+            running = false;
+            LockSupport.unpark(thread);
+        }
+
+        public void add(Dispatch dispatch) {
+            queue.offer(dispatch);
+            int depth = queueDepth.incrementAndGet();
+            int peak = peakQueueDepth.get();
+            while ( depth > peak && !peakQueueDepth.compareAndSet(peak, depth) ) {
+                peak = peakQueueDepth.get();
+            }
+            if ( !running ) {
+                //the thread may have drained the queue already
+                failQueued();
+            } else if ( parked.get() ) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        @Override
+        public void run() {
+            List<Dispatch> batch = new ArrayList<Dispatch>();
+            while ( running ) {
+                Dispatch first = queue.poll();
+                if ( first == null ) {
+                    parked.set(true);
+                    //check again, a message added before parked was set
+                    //would not have woken us up
+                    if ( queue.isEmpty() && running ) LockSupport.parkNanos(this, 1000000000L);
+                    parked.set(false);
+                    continue;
+                }
+                batch.add(first);
+                int bytes = first.msg.getMessage().getLength();
+                while ( batch.size() < maxBatchSize && bytes < maxBatchBytes ) {
+                    Dispatch next = queue.peek();
+                    if ( next == null || !isBatchable(first.msg, next.msg) ) break;
+                    queue.poll();
+                    batch.add(next);
+                    bytes += next.msg.getMessage().getLength();
+                }
+                queueDepth.addAndGet(-batch.size());
+                sendBatch(destination, batch);
+                batch.clear();
+            }
+            failQueued();
+        }
+
+        protected void failQueued() {
+            Dispatch dispatch = queue.poll();
+            while ( dispatch != null ) {
+                queueDepth.decrementAndGet();
+                dispatch.completed(destination, new ChannelException("The dispatch queue of the destination has been stopped."));
+                dispatch = queue.poll();
+            }
+        }
+    }
+}
@@ -0,0 +1,339 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.tribes.group.interceptors;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.catalina.tribes.ChannelException;
+import org.apache.catalina.tribes.ChannelMessage;
+import org.apache.catalina.tribes.Member;
+import org.apache.catalina.tribes.group.ChannelInterceptorBase;
+import org.apache.catalina.tribes.group.InterceptorPayload;
+import org.apache.catalina.tribes.io.LZCodec;
+import org.apache.catalina.tribes.io.XByteBuffer;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * Compresses the messages, unlike the <code>GzipInterceptor</code> only when
+ * it makes them smaller.
+ * <ul>
+ * <li>Messages smaller than <code>minSize</code> are not compressed.</li>
+ * <li>The compression ratio is sampled for each type of message, the class of
+ * the serialized object. The messages of a type that does not compress to
+ * less than <code>maxRatio</code> of its size are no longer compressed, except
+ * one in <code>samplingInterval</code> to detect a change of the data.</li>
+ * <li>A compressed message that is not smaller is sent uncompressed.</li>
+ * </ul>
+ * The messages are compressed with the fast LZ codec or with deflate. The
+ * codec used is written in a byte added to every message, so that the
+ * receivers decode the messages whatever the configuration of the sender.
+ * All the members must use this interceptor.
+ *
+ * <br><b>Configuration Options</b><br>
+ * CompressionInterceptor.codec=lz|deflate - the codec used to compress the messages <b>default=lz</b><br>
+ * CompressionInterceptor.deflateLevel=&lt;0-9&gt; - the deflate compression level <b>default=1</b><br>
+ * CompressionInterceptor.minSize=&lt;bytes&gt; - the size below which the messages are not compressed <b>default=512</b><br>
+ * CompressionInterceptor.maxRatio=&lt;ratio&gt; - compression is disabled for a type of message above this ratio <b>default=0.9</b><br>
+ * CompressionInterceptor.samplingInterval=&lt;messages&gt; - one message in this number is compressed when disabled <b>default=100</b><br>
+ */
+public class CompressionInterceptor extends ChannelInterceptorBase {
+
+    private static final Log log = LogFactory.getLog(CompressionInterceptor.class);
+
+    public static final byte CODEC_NONE = 0;
+    public static final byte CODEC_DEFLATE = 1;
+    public static final byte CODEC_LZ = 2;
+
+    /**
+     * The number of messages of a type compressed before compression is
+     * disabled for the type.
+     */
+    protected static final int MIN_SAMPLES = 8;
+    /**
+     * The maximum number of types of message sampled, the other messages
+     * share the same statistics.
+     */
+    protected static final int MAX_TYPES = 128;
+    protected static final String OTHER_TYPE = "";
+
+    private static final byte[] STREAM_HEADER = new byte[] {
+        (byte) 0xAC, (byte) 0xED, 0x00, 0x05};
+    private static final byte TC_OBJECT = 0x73;
+    private static final byte TC_ARRAY = 0x75;
+    private static final byte TC_STRING = 0x74;
+    private static final byte TC_CLASSDESC = 0x72;
+
+    protected byte codec = CODEC_LZ;
+    protected int deflateLevel = Deflater.BEST_SPEED;
+    protected int minSize = 512;
+    protected double maxRatio = 0.9;
+    protected int samplingInterval = 100;
+
+    protected ConcurrentHashMap<String, TypeStatistics> types =
+        new ConcurrentHashMap<String, TypeStatistics>();
+
+    // statistics
+    protected AtomicLong compressedCount = new AtomicLong(0);
+    protected AtomicLong uncompressedCount = new AtomicLong(0);
+    protected AtomicLong bytesBefore = new AtomicLong(0);
+    protected AtomicLong bytesAfter = new AtomicLong(0);
+
+    @Override
+    public void sendMessage(Member[] destination, ChannelMessage msg, InterceptorPayload payload) throws ChannelException {
+        XByteBuffer buffer = msg.getMessage();
+        int length = buffer.getLength();
+        byte used = CODEC_NONE;
+        if ( length >= minSize ) {
+            TypeStatistics stats = getStatistics(msg);
+            if ( stats.sample() ) {
+                byte[] data = compress(buffer.getBytesDirect(), length);
+                if ( data != null ) {
+                    stats.update((double)data.length / length);
+                    buffer.trim(length);
+                    buffer.append(data, 0, data.length);
+                    buffer.append(length);
+                    used = codec;
+                    compressedCount.incrementAndGet();
+                    bytesBefore.addAndGet(length);
+                    bytesAfter.addAndGet(data.length);
+                } else {
+                    stats.update(1);
+                }
+            }
+        }
+        if ( used == CODEC_NONE ) uncompressedCount.incrementAndGet();
+        buffer.append(used);
+        getNext().sendMessage(destination, msg, payload);
+    }
+
+    @Override
+    public void messageReceived(ChannelMessage msg) {
+        XByteBuffer buffer = msg.getMessage();
+        byte[] bytes = buffer.getBytesDirect();
+        byte used = bytes[buffer.getLength() - 1];
+        buffer.trim(1);
+        if ( used != CODEC_NONE ) {
+            try {
+                int length = XByteBuffer.toInt(bytes, buffer.getLength() - 4);
+                buffer.trim(4);
+                byte[] data = decompress(used, bytes, buffer.getLength(), length);
+                buffer.trim(buffer.getLength());
+                buffer.append(data, 0, data.length);
+            } catch ( IOException x ) {
+                log.error("Unable to decompress byte contents",x);
+                return;
+            }
+        }
+        getPrevious().messageReceived(msg);
+    }
+
+    /**
+     * Compress data with the configured codec.
+     *
+     * @return the compressed data or <code>null</code> if it is not smaller
+     *         than the data
+     */
+    protected byte[] compress(byte[] data, int length) {
+        byte[] result;
+        int resultLength;
+        if ( codec == CODEC_DEFLATE ) {
+            result = new byte[length];
+            Deflater deflater = new Deflater(deflateLevel, true);
+            try {
+                deflater.setInput(data, 0, length);
+                deflater.finish();
+                resultLength = deflater.deflate(result);
+                if ( !deflater.finished() ) return null;
+            } finally {
+                deflater.end();
+            }
+        } else {
+            result = new byte[LZCodec.maxCompressedLength(length)];
+            resultLength = LZCodec.compress(data, 0, length, result, 0);
+        }
+        // Make sure the length and the codec do not make it bigger
+        if ( resultLength + 5 >= length ) return null;
+        byte[] compressed = new byte[resultLength];
+        System.arraycopy(result, 0, compressed, 0, resultLength);
+        return compressed;
+    }
+
+    protected static byte[] decompress(byte used, byte[] data, int length, int originalLength) throws IOException {
+        byte[] result = new byte[originalLength];
+        if ( used == CODEC_DEFLATE ) {
+            Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(data, 0, length);
+                int read = inflater.inflate(result);
+                if ( read != originalLength ) {
+                    throw new IOException("Expected " + originalLength + " bytes but was " + read);
+                }
+            } catch ( DataFormatException x ) {
+                throw new IOException(x);
+            } finally {
+                inflater.end();
+            }
+        } else if ( used == CODEC_LZ ) {
+            LZCodec.decompress(data, 0, length, result, 0, originalLength);
+        } else {
+            throw new IOException("Unknown codec:" + used);
+        }
+        return result;
+    }
+
+    protected TypeStatistics getStatistics(ChannelMessage msg) {
+        String type = getMessageType(msg);
+        TypeStatistics stats = types.get(type);
+        if ( stats == null ) {
+            if ( types.size() >= MAX_TYPES ) type = OTHER_TYPE;
+            stats = new TypeStatistics();
+            TypeStatistics existing = types.putIfAbsent(type, stats);
+            if ( existing != null ) stats = existing;
+        }
+        return stats;
+    }
+
+    /**
+     * The type of a message, the class name of the top level serialized
+     * object or the empty string if the message is not a serialized object.
+     */
+    protected String getMessageType(ChannelMessage msg) {
+        byte[] data = msg.getMessage().getBytesDirect();
+        int length = msg.getMessage().getLength();
+        int header = STREAM_HEADER.length;
+        if ( length < header + 4 ) return OTHER_TYPE;
+        for (int i = 0; i < header; i++) {
+            if ( data[i] != STREAM_HEADER[i] ) return OTHER_TYPE;
+        }
+        byte tag = data[header];
+        if ( tag == TC_STRING ) return String.class.getName();
+        if ( (tag != TC_OBJECT && tag != TC_ARRAY) || data[header + 1] != TC_CLASSDESC ) return OTHER_TYPE;
+        header += 2;
+        int nameLength = ((data[header] & 0xFF) << 8) | (data[header + 1] & 0xFF);
+        if ( length < header + 2 + nameLength ) return OTHER_TYPE;
+        // Class names are ASCII in practice, the type only needs to be stable
+        char[] name = new char[nameLength];
+        for (int i = 0; i < nameLength; i++) {
+            name[i] = (char) (data[header + 2 + i] & 0xFF);
+        }
+        return new String(name);
+    }
+
+    public String getCodec() {
+        return codec == CODEC_DEFLATE ? "deflate" : "lz";
+    }
+
+    public void setCodec(String codec) {
+        if ( "deflate".equalsIgnoreCase(codec) ) this.codec = CODEC_DEFLATE;
+        else if ( "lz".equalsIgnoreCase(codec) ) this.codec = CODEC_LZ;
+        else throw new IllegalArgumentException("Unknown codec:" + codec);
+    }
+
+    public int getDeflateLevel() {
+        return deflateLevel;
+    }
+
+    public void setDeflateLevel(int deflateLevel) {
+        this.deflateLevel = deflateLevel;
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public void setMinSize(int minSize) {
+        this.minSize = minSize;
+    }
+
+    public double getMaxRatio() {
+        return maxRatio;
+    }
+
+    public void setMaxRatio(double maxRatio) {
+        this.maxRatio = maxRatio;
+    }
+
+    public int getSamplingInterval() {
+        return samplingInterval;
+    }
+
+    public void setSamplingInterval(int samplingInterval) {
+        this.samplingInterval = samplingInterval;
+    }
+
+    public long getCompressedCount() {
+        return compressedCount.get();
+    }
+
+    public long getUncompressedCount() {
+        return uncompressedCount.get();
+    }
+
+    /**
+     * @return the size of the compressed messages divided by their original
+     *         size
+     */
+    public double getCompressionRatio() {
+        long before = bytesBefore.get();
+        if ( before == 0 ) return 1;
+        return (double) bytesAfter.get() / before;
+    }
+
+    /**
+     * @return <code>true</code> if the messages of the type are compressed
+     */
+    public boolean isCompressed(String type) {
+        TypeStatistics stats = types.get(type);
+        return stats == null || stats.isEnabled();
+    }
+
+
+    /**
+     * The compression ratio of a type of message. The ratio is an
+     * exponential moving average which is updated without locking, so
+     * concurrent updates may be lost.
+     */
+    protected class TypeStatistics {
+        protected final AtomicLong messages = new AtomicLong(0);
+        protected volatile int samples = 0;
+        protected volatile double ratio = 0;
+
+        public boolean isEnabled() {
+            return samples < MIN_SAMPLES || ratio <= maxRatio;
+        }
+
+        /**
+         * @return <code>true</code> if the message should be compressed
+         */
+        public boolean sample() {
+            long count = messages.incrementAndGet();
+            return isEnabled() || (samplingInterval > 0 && count % samplingInterval == 0);
+        }
+
+        public void update(double value) {
+            if ( samples == 0 ) ratio = value;
+            else ratio = ratio * 0.75 + value * 0.25;
+            if ( samples < MIN_SAMPLES ) samples++;
+        }
+    }
+}
@@ -0,0 +1,419 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.tribes.group.interceptors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.catalina.tribes.ChannelException;
+import org.apache.catalina.tribes.ChannelMessage;
+import org.apache.catalina.tribes.Member;
+import org.apache.catalina.tribes.group.ChannelInterceptorBase;
+import org.apache.catalina.tribes.io.ChannelData;
+import org.apache.catalina.tribes.io.XByteBuffer;
+import org.apache.catalina.tribes.membership.MemberImpl;
+import org.apache.catalina.tribes.membership.Membership;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * <p>Title: A phi accrual failure detector</p>
+ *
+ * <p>Description: Sends a heartbeat to all the members and suspects every
+ * <code>heartbeatInterval</code> and records the intervals between the
+ * messages received from each member. The suspicion level <i>phi</i> of a
+ * member is <code>-log10(P)</code>, <code>P</code> being the probability
+ * that no message is received for as long as it has not been, estimated
+ * from the recent intervals. As a result a member that is usually heard of
+ * regularly is suspected sooner than a member with irregular heartbeats,
+ * for instance because of garbage collection pauses.</p>
+ * <p>
+ * The suspicion levels are checked by the heartbeat thread. A member whose
+ * phi reaches <code>threshold</code> is removed and a memberDisappeared
+ * event is sent up the stack, the member is added again when it is heard of
+ * again. A memberDisappeared event received from the membership service, for
+ * instance when the multicast heartbeats of the member have expired, is
+ * ignored while phi is below the threshold, the member is then removed when
+ * phi reaches it. No connection is made to verify a member, the events are
+ * not delayed by a member that does not respond.
+ * </p>
+ * <p>
+ * All the members must use this interceptor, which replaces the
+ * TcpFailureDetector.
+ * </p>
+ */
+public class PhiAccrualFailureDetector extends ChannelInterceptorBase {
+
+    private static final Log log = LogFactory.getLog(PhiAccrualFailureDetector.class);
+
+    protected static final byte[] HEARTBEAT_DATA = new byte[] {
+        -93, 41, 7, -112, 88, -3, 76, 17, -66, 95, 33, -120, 2, -41, 120, 60,
+        -8, 93, -27, 71, 12, -99, 64, -76, 105, 30, -55, 118, -17, 1, 83, -42,
+        45, -122, 66, 9, -71, 124, 59, -13, 92, -87, 20, 111, -64, 37, -100, 6,
+        -47, 74, 28, -115, 99, -30, 51, 86, -9, 121, -58, 14, 68, -81, 27, -126};
+
+    protected long heartbeatInterval = 1000;
+    protected double threshold = 8;
+    protected int windowSize = 100;
+    protected long minStdDeviation = 100;
+    protected long acceptableHeartbeatPause = 1000;
+
+    protected Membership membership = null;
+    protected final ConcurrentHashMap<Member, HeartbeatHistory> histories =
+        new ConcurrentHashMap<Member, HeartbeatHistory>();
+    /**
+     * The members that have been removed because of their suspicion level,
+     * they are added again when they are heard of.
+     */
+    protected final ConcurrentHashMap<Member, Member> suspects =
+        new ConcurrentHashMap<Member, Member>();
+    /**
+     * The members that the membership service reported as gone while they
+     * were still heard of.
+     */
+    protected final ConcurrentHashMap<Member, Member> disappeared =
+        new ConcurrentHashMap<Member, Member>();
+
+    protected volatile boolean running = false;
+    protected HeartbeatThread thread = null;
+    protected static final AtomicInteger cnt = new AtomicInteger(0);
+
+    @Override
+    public synchronized void start(int svc) throws ChannelException {
+        super.start(svc);
+        running = true;
+        if ( thread == null ) {
+            thread = new HeartbeatThread();
+            thread.setDaemon(true);
+            thread.setName("PhiAccrualFailureDetector.HeartbeatThread-"+cnt.addAndGet(1));
+            thread.start();
+        }
+    }
+
+    @Override
+    public synchronized void stop(int svc) throws ChannelException {
+        running = false;
+        if ( thread != null ) {
+            thread.interrupt();
+            thread = null;
+        }
+        super.stop(svc);
+    }
+
+    @Override
+    public void messageReceived(ChannelMessage msg) {
+        Member sender = msg.getAddress();
+        if ( sender != null ) heartbeat(sender);
+        boolean process = true;
+        if ( okToProcess(msg.getOptions()) ) {
+            //check to see if it is a heartbeat, if so, process = false
+            process = ( (msg.getMessage().getLength() != HEARTBEAT_DATA.length) ||
+                        (!Arrays.equals(HEARTBEAT_DATA,msg.getMessage().getBytes()) ) );
+        }
+        if ( process ) super.messageReceived(msg);
+        else if ( log.isTraceEnabled() ) log.trace("Received a heartbeat:"+msg);
+    }
+
+    @Override
+    public void memberAdded(Member member) {
+        if ( membership == null ) setupMembership();
+        boolean notify;
+        synchronized (membership) {
+            disappeared.remove(member);
+            suspects.remove(member);
+            notify = membership.memberAlive((MemberImpl)member);
+            if ( notify ) histories.put(member, new HeartbeatHistory(windowSize, heartbeatInterval, now()));
+        }
+        if ( notify ) super.memberAdded(member);
+    }
+
+    @Override
+    public void memberDisappeared(Member member) {
+        if ( membership == null ) setupMembership();
+        boolean shutdown = Arrays.equals(member.getCommand(),Member.SHUTDOWN_PAYLOAD);
+        synchronized (membership) {
+            if ( !shutdown && membership.contains(member) ) {
+                double phi = phi(member);
+                if ( phi < threshold ) {
+                    disappeared.put(member, member);
+                    if ( log.isInfoEnabled() )
+                        log.info("Received memberDisappeared["+member+"] message, member still alive with phi="+phi);
+                    return;
+                }
+            }
+            disappeared.remove(member);
+            suspects.remove(member);
+            histories.remove(member);
+            if ( !membership.contains(member) ) return;
+            membership.removeMember((MemberImpl)member);
+        }
+        super.memberDisappeared(member);
+    }
+
+    @Override
+    public boolean hasMembers() {
+        if ( membership == null ) setupMembership();
+        return membership.hasMembers();
+    }
+
+    @Override
+    public Member[] getMembers() {
+        if ( membership == null ) setupMembership();
+        return membership.getMembers();
+    }
+
+    @Override
+    public Member getMember(Member mbr) {
+        if ( membership == null ) setupMembership();
+        return membership.getMember(mbr);
+    }
+
+    /**
+     * Records that a member has been heard of.
+     */
+    protected void heartbeat(Member member) {
+        HeartbeatHistory history = histories.get(member);
+        if ( history != null ) {
+            history.heartbeat(now());
+            return;
+        }
+        Member suspect = suspects.get(member);
+        if ( suspect == null ) return;
+        if ( membership == null ) setupMembership();
+        boolean notify;
+        synchronized (membership) {
+            notify = suspects.remove(member) != null && membership.memberAlive((MemberImpl)suspect);
+            if ( notify ) histories.put(suspect, new HeartbeatHistory(windowSize, heartbeatInterval, now()));
+        }
+        if ( notify ) {
+            if ( log.isInfoEnabled() ) log.info("Suspect member, confirmed alive.["+suspect+"]");
+            super.memberAdded(suspect);
+        }
+    }
+
+    /**
+     * @return the suspicion level of a member, <code>0</code> if the member
+     *         is not known
+     */
+    public double phi(Member member) {
+        HeartbeatHistory history = histories.get(member);
+        if ( history == null ) return 0;
+        return history.phi(now(), minStdDeviation, acceptableHeartbeatPause);
+    }
+
+    /**
+     * Removes the members whose suspicion level has reached the threshold.
+     */
+    public void checkMembers() {
+        if ( membership == null ) setupMembership();
+        List<Member> removed = new ArrayList<Member>();
+        synchronized (membership) {
+            Member[] members = membership.getMembers();
+            for ( int i=0; i<members.length; i++ ) {
+                double phi = phi(members[i]);
+                if ( phi < threshold ) continue;
+                membership.removeMember((MemberImpl)members[i]);
+                histories.remove(members[i]);
+                if ( disappeared.remove(members[i]) == null ) {
+                    //the membership service still knows it, wait for it to be heard of
+                    suspects.put(members[i], members[i]);
+                }
+                removed.add(members[i]);
+                if ( log.isInfoEnabled() )
+                    log.info("Member suspected with phi="+phi+", removing it.["+members[i]+"]");
+            }
+        }
+        for ( Member member : removed ) super.memberDisappeared(member);
+    }
+
+    protected void sendHeartbeat() {
+        //the suspects are sent heartbeats too, otherwise two members that
+        //suspect each other would never hear of each other again
+        List<Member> list = new ArrayList<Member>(Arrays.asList(getMembers()));
+        for ( Member suspect : suspects.keySet() ) {
+            if ( !list.contains(suspect) ) list.add(suspect);
+        }
+        if ( list.isEmpty() ) return;
+        Member[] members = list.toArray(new Member[list.size()]);
+        ChannelData data = new ChannelData(true);
+        data.setAddress(getLocalMember(false));
+        data.setTimestamp(System.currentTimeMillis());
+        data.setOptions(getOptionFlag());
+        data.setMessage(new XByteBuffer(HEARTBEAT_DATA, false));
+        try {
+            super.sendMessage(members, data, null);
+        } catch ( ChannelException x ) {
+            if ( log.isDebugEnabled() ) log.debug("Unable to send heartbeat.",x);
+        }
+    }
+
+    protected synchronized void setupMembership() {
+        if ( membership == null ) {
+            membership = new Membership((MemberImpl)super.getLocalMember(true));
+        }
+    }
+
+    /**
+     * The current time in milliseconds, overridden to simulate delays.
+     */
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+
+    public long getHeartbeatInterval() {
+        return heartbeatInterval;
+    }
+
+    public void setHeartbeatInterval(long heartbeatInterval) {
+        this.heartbeatInterval = heartbeatInterval;
+    }
+
+    public double getThreshold() {
+        return threshold;
+    }
+
+    public void setThreshold(double threshold) {
+        this.threshold = threshold;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    public void setWindowSize(int windowSize) {
+        this.windowSize = windowSize;
+    }
+
+    public long getMinStdDeviation() {
+        return minStdDeviation;
+    }
+
+    public void setMinStdDeviation(long minStdDeviation) {
+        this.minStdDeviation = minStdDeviation;
+    }
+
+    public long getAcceptableHeartbeatPause() {
+        return acceptableHeartbeatPause;
+    }
+
+    public void setAcceptableHeartbeatPause(long acceptableHeartbeatPause) {
+        this.acceptableHeartbeatPause = acceptableHeartbeatPause;
+    }
+
+
+    /**
+     * The last intervals between the heartbeats of a member.
+     */
+    public static class HeartbeatHistory {
+        private final long[] intervals;
+        private int size = 0;
+        private int index = 0;
+        private double sum = 0;
+        private double squaredSum = 0;
+        private long last;
+
+        /**
+         * @param windowSize The number of intervals kept
+         * @param firstEstimate The interval expected before the first
+         *                      heartbeats are received
+         * @param now The time the member has been heard of first
+         */
+        public HeartbeatHistory(int windowSize, long firstEstimate, long now) {
+            intervals = new long[Math.max(2, windowSize)];
+            // an estimate with a large deviation until the first heartbeats
+            add(firstEstimate - firstEstimate / 4);
+            add(firstEstimate + firstEstimate / 4);
+            last = now;
+        }
+
+        public synchronized void heartbeat(long now) {
+            if ( now > last ) {
+                add(now - last);
+                last = now;
+            }
+        }
+
+        private void add(long interval) {
+            if ( size == intervals.length ) {
+                long dropped = intervals[index];
+                sum -= dropped;
+                squaredSum -= (double)dropped * dropped;
+            } else {
+                size++;
+            }
+            intervals[index] = interval;
+            index = (index + 1) % intervals.length;
+            sum += interval;
+            squaredSum += (double)interval * interval;
+        }
+
+        public synchronized double getMean() {
+            return sum / size;
+        }
+
+        public synchronized double getStdDeviation() {
+            double mean = sum / size;
+            return Math.sqrt(Math.max(0, squaredSum / size - mean * mean));
+        }
+
+        /**
+         * @param now The current time
+         * @param minStdDeviation The minimum standard deviation used, in ms
+         * @param acceptablePause The pause added to the mean interval, in ms
+         * @return the suspicion level, from <code>0</code>
+         */
+        public synchronized double phi(long now, long minStdDeviation, long acceptablePause) {
+            double mean = sum / size + acceptablePause;
+            double deviation = Math.max(Math.sqrt(Math.max(0, squaredSum / size - (sum / size) * (sum / size))), minStdDeviation);
+            return phi(now - last, mean, deviation);
+        }
+
+        /**
+         * The suspicion level after an interval for normally distributed
+         * intervals, with the logistic approximation of the cumulative
+         * distribution function.
+         */
+        public static double phi(long elapsed, double mean, double deviation) {
+            double y = (elapsed - mean) / deviation;
+            double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+            double p = elapsed > mean ? e / (1 + e) : 1 - 1 / (1 + e);
+            if ( p <= 0 ) return Double.MAX_VALUE;
+            return -Math.log10(p);
+        }
+    }
+
+
+    protected class HeartbeatThread extends Thread {
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    sleep(heartbeatInterval);
+                    sendHeartbeat();
+                    checkMembers();
+                }catch ( InterruptedException ix ) {
+                    interrupted();
+                }catch ( Exception x )  {
+                    log.warn("Unable to check the members from the heartbeat thread.",x);
+                }
+            }
+        }
+    }
+}
@@ -40,9 +40,10 @@ class BufferPool15Impl implements BufferPool.BufferPoolAPI {
         XByteBuffer buffer = queue.poll();
         if ( buffer != null ) size.addAndGet(-buffer.getCapacity());
         if ( buffer == null ) buffer = new XByteBuffer(minSize,discard);
-        else if ( buffer.getCapacity() <= minSize ) buffer.expand(minSize);
-        buffer.setDiscard(discard);
         buffer.reset();
+        //reset first, the previous content doesn't need to be copied
+        if ( buffer.getCapacity() <= minSize ) buffer.expand(minSize);
+        buffer.setDiscard(discard);
         return buffer;
     }
 
@@ -34,6 +34,14 @@ public class DirectByteArrayOutputStream extends OutputStream {
         buffer = new XByteBuffer(size,false);
     }
 
+    /**
+     * Creates a stream that appends to an existing buffer
+     * @param buffer the buffer the bytes are appended to
+     */
+    public DirectByteArrayOutputStream(XByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
     /**
      * Writes the specified byte to this output stream.
      *
@@ -47,6 +55,11 @@ public class DirectByteArrayOutputStream extends OutputStream {
     public void write(int b) throws IOException {
         buffer.append((byte)b);
     }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        buffer.append(b, off, len);
+    }
     
     public int size() {
         return buffer.getLength();
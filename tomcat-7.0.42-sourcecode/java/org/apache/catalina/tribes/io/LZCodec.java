@@ -0,0 +1,223 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.tribes.io;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A fast LZ77 compressor, writing the sequences of literals and matches in
+ * the LZ4 block format. It compresses much faster than deflate, at the cost
+ * of a lower compression ratio. The length of the original data is not
+ * written, it must be known to decompress the data.
+ */
+public class LZCodec {
+
+    private static final int MIN_MATCH = 4;
+    /** The last bytes are always literals. */
+    private static final int LAST_LITERALS = 5;
+    /** The last match must start this number of bytes before the end. */
+    private static final int MATCH_FIND_LIMIT = 12;
+    private static final int MAX_OFFSET = 0xFFFF;
+    private static final int HASH_BITS = 12;
+
+    private LZCodec() {
+        // Hide the default constructor
+    }
+
+    /**
+     * @param length The length of the data to compress
+     * @return the maximum length of the compressed data
+     */
+    public static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    /**
+     * Compress data.
+     *
+     * @param src       The data to compress
+     * @param srcOff    The offset of the data
+     * @param srcLen    The length of the data
+     * @param dest      The buffer to write the compressed data to, at least
+     *                  {@link #maxCompressedLength(int)} long
+     * @param destOff   The offset to write the compressed data at
+     * @return the length of the compressed data
+     */
+    public static int compress(byte[] src, int srcOff, int srcLen,
+            byte[] dest, int destOff) {
+        int end = srcOff + srcLen;
+        int matchLimit = end - LAST_LITERALS;
+        int findLimit = end - MATCH_FIND_LIMIT;
+        int anchor = srcOff;
+        int ip = srcOff;
+        int op = destOff;
+        if (srcLen > MATCH_FIND_LIMIT) {
+            int[] table = new int[1 << HASH_BITS];
+            Arrays.fill(table, -1);
+            while (ip < findLimit) {
+                int sequence = readInt(src, ip);
+                int h = hash(sequence);
+                int ref = table[h];
+                table[h] = ip;
+                if (ref < 0 || ip - ref > MAX_OFFSET ||
+                        readInt(src, ref) != sequence) {
+                    ip++;
+                    continue;
+                }
+                // Extend the match backwards over the pending literals
+                while (ip > anchor && ref > srcOff && src[ip - 1] == src[ref - 1]) {
+                    ip--;
+                    ref--;
+                }
+                int matchLen = MIN_MATCH;
+                while (ip + matchLen < matchLimit &&
+                        src[ip + matchLen] == src[ref + matchLen]) {
+                    matchLen++;
+                }
+                op = writeLiterals(src, anchor, ip - anchor, matchLen - MIN_MATCH,
+                        dest, op);
+                dest[op++] = (byte) (ip - ref);
+                dest[op++] = (byte) ((ip - ref) >>> 8);
+                op = writeMatchLength(matchLen - MIN_MATCH, dest, op);
+                ip += matchLen;
+                anchor = ip;
+            }
+        }
+        op = writeLiterals(src, anchor, end - anchor, 0, dest, op);
+        return op - destOff;
+    }
+
+    /**
+     * Decompress data.
+     *
+     * @param src       The compressed data
+     * @param srcOff    The offset of the compressed data
+     * @param srcLen    The length of the compressed data
+     * @param dest      The buffer to write the data to
+     * @param destOff   The offset to write the data at
+     * @param destLen   The length of the original data
+     * @throws IOException if the compressed data is not valid
+     * @throws IllegalArgumentException if a range lies outside its buffer
+     */
+    public static void decompress(byte[] src, int srcOff, int srcLen,
+            byte[] dest, int destOff, int destLen) throws IOException {
+        int end = srcOff + srcLen;
+        int destEnd = destOff + destLen;
+        int ip = srcOff;
+        int op = destOff;
+        if (srcOff < 0 || srcLen < 0 || end > src.length ||
+                destOff < 0 || destLen < 0 || destEnd > dest.length) {
+            throw new IllegalArgumentException(
+                    "Range lies outside the source or destination buffer");
+        }
+        while (true) {
+            if (ip >= end) {
+                throw new IOException("Invalid compressed data, truncated token");
+            }
+            int token = src[ip++] & 0xFF;
+            int literals = token >>> 4;
+            if (literals == 15) {
+                int b;
+                do {
+                    if (ip >= end) {
+                        throw new IOException("Invalid compressed data, truncated literal length");
+                    }
+                    b = src[ip++] & 0xFF;
+                    literals += b;
+                } while (b == 255 && literals <= destLen);
+            }
+            if (literals > end - ip || literals > destEnd - op) {
+                throw new IOException("Invalid compressed data, literals overflow");
+            }
+            System.arraycopy(src, ip, dest, op, literals);
+            ip += literals;
+            op += literals;
+            if (ip == end) {
+                break;
+            }
+            if (end - ip < 2) {
+                throw new IOException("Invalid compressed data, truncated offset");
+            }
+            int offset = (src[ip] & 0xFF) | ((src[ip + 1] & 0xFF) << 8);
+            ip += 2;
+            int matchLen = token & 0x0F;
+            if (matchLen == 15) {
+                int b;
+                do {
+                    if (ip >= end) {
+                        throw new IOException("Invalid compressed data, truncated match length");
+                    }
+                    b = src[ip++] & 0xFF;
+                    matchLen += b;
+                } while (b == 255 && matchLen <= destLen);
+            }
+            matchLen += MIN_MATCH;
+            if (offset == 0 || offset > op - destOff ||
+                    matchLen > destEnd - op) {
+                throw new IOException("Invalid compressed data, bad match");
+            }
+            int ref = op - offset;
+            // The match may overlap the bytes it writes
+            for (int i = 0; i < matchLen; i++) {
+                dest[op++] = dest[ref++];
+            }
+        }
+        if (op != destEnd) {
+            throw new IOException("Invalid compressed data, expected " +
+                    destLen + " bytes but was " + (op - destOff));
+        }
+    }
+
+    private static int writeLiterals(byte[] src, int off, int len,
+            int matchToken, byte[] dest, int op) {
+        int tokenPos = op++;
+        if (len >= 15) {
+            dest[tokenPos] = (byte) (0xF0 | Math.min(matchToken, 15));
+            op = writeExtraLength(len - 15, dest, op);
+        } else {
+            dest[tokenPos] = (byte) ((len << 4) | Math.min(matchToken, 15));
+        }
+        System.arraycopy(src, off, dest, op, len);
+        return op + len;
+    }
+
+    private static int writeMatchLength(int matchLen, byte[] dest, int op) {
+        if (matchLen < 15) {
+            return op;
+        }
+        return writeExtraLength(matchLen - 15, dest, op);
+    }
+
+    private static int writeExtraLength(int remaining, byte[] dest, int op) {
+        while (remaining >= 255) {
+            dest[op++] = (byte) 255;
+            remaining -= 255;
+        }
+        dest[op++] = (byte) remaining;
+        return op;
+    }
+
+    private static int readInt(byte[] b, int off) {
+        return (b[off] & 0xFF) | ((b[off + 1] & 0xFF) << 8) |
+            ((b[off + 2] & 0xFF) << 16) | ((b[off + 3] & 0xFF) << 24);
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_BITS);
+    }
+}
@@ -593,6 +593,19 @@ public class XByteBuffer
         return data;
     }
 
+    /**
+     * Serializes a message directly into a buffer, without the intermediate
+     * byte arrays of {@link #serialize(Serializable)}.
+     * @param msg the message to serialize
+     * @param buffer the buffer the serialized message is appended to
+     * @throws IOException
+     */
+    public static void serialize(Serializable msg, XByteBuffer buffer) throws IOException {
+        ObjectOutputStream out = new ObjectOutputStream(new DirectByteArrayOutputStream(buffer));
+        out.writeObject(msg);
+        out.flush();
+    }
+
     public void setDiscard(boolean discard) {
         this.discard = discard;
     }
@@ -0,0 +1,374 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.tribes.tipis;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.catalina.tribes.Channel;
+import org.apache.catalina.tribes.ChannelException;
+import org.apache.catalina.tribes.ChannelException.FaultyMember;
+import org.apache.catalina.tribes.Member;
+import org.apache.catalina.tribes.group.Response;
+import org.apache.catalina.tribes.group.RpcChannel;
+import org.apache.catalina.tribes.util.Arrays;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * A replicated map that places the backups of an entry with a
+ * {@link ConsistentHashRing}. The backups of a key are the first
+ * <code>backupCount</code> members found on the ring from the hash of the
+ * key, not counting the primary.<br>
+ * Unlike the {@link LazyReplicatedMap}, the other members do not hold a proxy
+ * entry for every key, they compute where the key is held. When a key that is
+ * not in the map is requested, it is retrieved from the members that own the
+ * key on the ring and this node becomes the primary. This saves the proxy
+ * entries and the messages that maintain them, at the cost of a remote lookup
+ * for keys that do not exist in the cluster.<br>
+ * When the members of the map change, only the entries whose backups are
+ * placed differently on the new ring are sent to their new backups. When the
+ * primary of an entry disappears, the first of its backups still present
+ * becomes the primary.<br>
+ * All the members of the map must use this implementation.
+ */
+public class ConsistentHashReplicatedMap extends LazyReplicatedMap {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Log log = LogFactory.getLog(ConsistentHashReplicatedMap.class);
+
+    // Not initialized in the declaration as the map is started by the
+    // constructor of the super class
+    private transient int backupCount;
+    private transient int virtualNodes;
+    private transient volatile ConsistentHashRing ring;
+    private transient ConsistentHashRing balancedRing;
+
+    /**
+     * Creates a new map
+     * @param channel The channel to use for communication
+     * @param timeout long - timeout for RPC messags
+     * @param mapContextName String - unique name for this map, to allow multiple maps per channel
+     * @param cls ClassLoader[] - the class loaders used to deserialize the values
+     * @param backupCount int - the number of backups of each entry
+     * @param virtualNodes int - the number of points of each member on the ring
+     */
+    public ConsistentHashReplicatedMap(MapOwner owner, Channel channel, long timeout, String mapContextName, ClassLoader[] cls, int backupCount, int virtualNodes) {
+        super(owner, channel, timeout, mapContextName, cls);
+        this.backupCount = backupCount;
+        this.virtualNodes = virtualNodes;
+        this.ring = null;
+    }
+
+    public int getBackupCount() {
+        return backupCount > 0 ? backupCount : 1;
+    }
+
+    public int getVirtualNodes() {
+        return virtualNodes;
+    }
+
+    /**
+     * Returns the ring of the current members of the map, including this
+     * node.
+     * @return ConsistentHashRing
+     */
+    public ConsistentHashRing getRing() {
+        Member[] members = getMapMembers();
+        Member[] all = new Member[members.length + 1];
+        System.arraycopy(members, 0, all, 0, members.length);
+        all[members.length] = channel.getLocalMember(false);
+        ConsistentHashRing result = ring;
+        if (result == null || !result.hasMembers(all)) {
+            result = new ConsistentHashRing(all, virtualNodes);
+            ring = result;
+        }
+        return result;
+    }
+
+//------------------------------------------------------------------------------
+//              METHODS TO OVERRIDE
+//------------------------------------------------------------------------------
+
+    /**
+     * The members that own a key are known, no state is transferred.
+     * The members that become backups of existing entries receive them when
+     * the primaries see this node start.
+     */
+    @Override
+    public void transferState() {
+        stateTransferred = true;
+    }
+
+    /**
+     * Sends the entry to its backups on the ring, no proxies are published.
+     * @param key Object
+     * @param value Object
+     * @return Member[] - the backup nodes
+     * @throws ChannelException
+     */
+    @Override
+    protected Member[] publishEntryInfo(Object key, Object value) throws ChannelException {
+        if  (! (key instanceof Serializable && value instanceof Serializable)  ) return new Member[0];
+        Member[] backup = getRing().getOwners(key, getBackupCount(), channel.getLocalMember(false));
+        return sendBackup(key, value, backup);
+    }
+
+    @Override
+    public Serializable replyRequest(Serializable msg, Member sender) {
+        if (msg instanceof MapMessage &&
+                ((MapMessage) msg).getMsgType() == MapMessage.MSG_RETRIEVE_BACKUP) {
+            //reply with the location of the entry as well
+            MapEntry entry = getInternal(((MapMessage) msg).getKey());
+            if (entry == null || (!entry.isSerializable())) return null;
+            return new MapMessage(getMapContextName(), MapMessage.MSG_RETRIEVE_BACKUP, false,
+                                  (Serializable) entry.getKey(), (Serializable) entry.getValue(),
+                                  null, entry.getPrimary(), entry.getBackupNodes());
+        }
+        return super.replyRequest(msg, sender);
+    }
+
+    @Override
+    public void mapMemberAdded(Member member) {
+        super.mapMemberAdded(member);
+        rebalance();
+    }
+
+    @Override
+    public void memberDisappeared(Member member) {
+        synchronized (mapMembers) {
+            mapMembers.remove(member);
+        }
+        rebalance();
+    }
+
+    /**
+     * Returns true if this node holds the key, the other members are not
+     * asked.
+     * @param key Object
+     * @return boolean
+     */
+    @Override
+    public boolean containsKey(Object key) {
+        return getInternal(key) != null;
+    }
+
+    @Override
+    public Object get(Object key) {
+        MapEntry entry = getInternal(key);
+        if (log.isTraceEnabled()) log.trace("Requesting id:"+key+" entry:"+entry);
+        Member[] holders = null;
+        try {
+            if (entry == null) {
+                //the entry may be held by the owners of the key
+                MapMessage msg = retrieve(key);
+                if (msg == null) return null;
+                put(key, msg.getValue(), false);
+                entry = getInternal(key);
+                holders = getHolders(msg.getPrimary(), msg.getBackupNodes());
+            } else if (!entry.isPrimary()) {
+                holders = getHolders(entry.getPrimary(), entry.getBackupNodes());
+            }
+            if (holders != null) {
+                //this node becomes the primary
+                entry.setPrimary(channel.getLocalMember(false));
+                entry.setBackup(false);
+                entry.setProxy(false);
+                if (entry.getValue() instanceof ReplicatedMapEntry) {
+                    ((ReplicatedMapEntry) entry.getValue()).setOwner(getMapOwner());
+                }
+                relocate(entry, holders, getRing());
+                if ( getMapOwner()!=null ) getMapOwner().objectMadePrimay(key, entry.getValue());
+            }
+        } catch (Exception x) {
+            log.error("Unable to replicate out data for a ConsistentHashReplicatedMap.get operation", x);
+            return null;
+        }
+        return entry.getValue();
+    }
+
+    @Override
+    public Object remove(Object key, boolean notify) {
+        MapEntry entry = getInternal(key);
+        Object value = super.remove(key, false);
+        if (notify && entry != null) {
+            Member[] holders = getHolders(entry.getPrimary(), entry.getBackupNodes());
+            try {
+                if (holders.length > 0) {
+                    MapMessage msg = new MapMessage(getMapContextName(), MapMessage.MSG_REMOVE, false, (Serializable) key, null, null, null,null);
+                    getChannel().send(holders, msg, getChannelSendOptions());
+                }
+            } catch ( ChannelException x ) {
+                log.error("Unable to replicate out data for a ConsistentHashReplicatedMap.remove operation",x);
+            }
+        }
+        return value;
+    }
+
+//------------------------------------------------------------------------------
+//              PLACEMENT
+//------------------------------------------------------------------------------
+
+    /**
+     * Moves the entries whose backups are placed differently on the current
+     * ring. The entries that this node holds as a backup and whose primary
+     * has disappeared are made primary by their first remaining backup.
+     */
+    protected void rebalance() {
+        ConsistentHashRing current = getRing();
+        Member local = channel.getLocalMember(false);
+        synchronized (stateMutex) {
+            if (current == balancedRing) return;
+            balancedRing = current;
+            Iterator<?> i = entrySetFull().iterator();
+            while (i.hasNext()) {
+                MapEntry entry = (MapEntry) ((Map.Entry<?,?>) i.next()).getValue();
+                if (entry == null || (!entry.isSerializable())) continue;
+                try {
+                    if (entry.isPrimary()) {
+                        Member[] backup = current.getOwners(entry.getKey(), getBackupCount(), local);
+                        Member[] holders = getHolders(null, entry.getBackupNodes());
+                        if (!sameMembers(backup, holders)) {
+                            relocate(entry, holders, current);
+                        }
+                    } else if (entry.isBackup() &&
+                               (entry.getPrimary() == null || !current.contains(entry.getPrimary()))) {
+                        Member[] remaining = getRemaining(current, entry.getBackupNodes());
+                        if (remaining.length > 0 && remaining[0].equals(local)) {
+                            if (log.isDebugEnabled()) log.debug("Backup becoming primary for:"+entry.getKey());
+                            entry.setPrimary(local);
+                            entry.setBackup(false);
+                            entry.setProxy(false);
+                            relocate(entry, getHolders(null, remaining), current);
+                            if ( getMapOwner()!=null ) getMapOwner().objectMadePrimay(entry.getKey(), entry.getValue());
+                        } else {
+                            entry.setPrimary(null);
+                        }
+                    }
+                } catch (ChannelException x) {
+                    log.error("Unable to relocate[" + entry.getKey() + "] to a new backup node", x);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends an entry this node is the primary of to its backups on the
+     * current ring, and removes it from the members that held it and are not
+     * backups anymore.
+     * @param entry MapEntry
+     * @param holders Member[] - the other members that hold the entry
+     * @param current ConsistentHashRing - the current ring
+     * @throws ChannelException
+     */
+    protected void relocate(MapEntry entry, Member[] holders, ConsistentHashRing current) throws ChannelException {
+        Object key = entry.getKey();
+        Member[] backup = current.getOwners(key, getBackupCount(), channel.getLocalMember(false));
+        backup = sendBackup(key, entry.getValue(), backup);
+        entry.setBackupNodes(backup);
+        Member[] dropped = excludeFromSet(backup, holders);
+        if (dropped.length > 0) {
+            MapMessage msg = new MapMessage(getMapContextName(), MapMessage.MSG_REMOVE, false,
+                                            (Serializable) key, null, null, null, null);
+            getChannel().send(dropped, msg, getChannelSendOptions());
+        }
+    }
+
+    /**
+     * Sends the value of an entry to its backups
+     * @return Member[] - the backups that received the value
+     */
+    private Member[] sendBackup(Object key, Object value, Member[] backup) {
+        if (backup.length == 0) return backup;
+        MapMessage msg = new MapMessage(getMapContextName(), MapMessage.MSG_BACKUP, false,
+                                        (Serializable) key, (Serializable) value, null,
+                                        channel.getLocalMember(false), backup);
+        try {
+            if ( log.isTraceEnabled() )
+                log.trace("Publishing backup data:"+msg+" to: "+Arrays.toNameString(backup));
+            getChannel().send(backup, msg, getChannelSendOptions());
+        } catch (ChannelException x) {
+            log.error("Unable to replicate backup key:"+key+" to backup:"+Arrays.toNameString(backup)+". Reason:"+x.getMessage(),x);
+            FaultyMember[] faulty = x.getFaultyMembers();
+            Member[] failed = new Member[faulty.length];
+            for (int i = 0; i < faulty.length; i++) {
+                failed[i] = faulty[i].getMember();
+            }
+            backup = excludeFromSet(failed, backup);
+        }
+        return backup;
+    }
+
+    /**
+     * Asks the owners of a key on the ring for the entry.
+     * @return MapMessage - the reply of a member that holds the entry or
+     *         <code>null</code> if none does
+     */
+    private MapMessage retrieve(Object key) throws Exception {
+        if (! (key instanceof Serializable)) return null;
+        //the primary is not a backup of the key, one more owner is asked
+        Member[] owners = getRing().getOwners(key, getBackupCount() + 1, channel.getLocalMember(false));
+        if (owners.length == 0) return null;
+        MapMessage msg = new MapMessage(getMapContextName(), MapMessage.MSG_RETRIEVE_BACKUP, false,
+                                        (Serializable) key, null, null, null, null);
+        Response[] resp = getRpcChannel().send(owners, msg, RpcChannel.ALL_REPLY, Channel.SEND_OPTIONS_DEFAULT, getRpcTimeout());
+        for (int i = 0; resp != null && i < resp.length; i++) {
+            MapMessage reply = (MapMessage) resp[i].getMessage();
+            if (reply == null) continue;
+            reply.deserialize(getExternalLoaders());
+            if (reply.getValue() != null) return reply;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the members that hold an entry, except this node
+     */
+    private Member[] getHolders(Member primary, Member[] backup) {
+        ArrayList<Member> result = new ArrayList<Member>();
+        Member local = channel.getLocalMember(false);
+        if (primary != null && !primary.equals(local)) result.add(primary);
+        for (int i = 0; backup != null && i < backup.length; i++) {
+            if (backup[i] != null && !backup[i].equals(local) && !result.contains(backup[i])) {
+                result.add(backup[i]);
+            }
+        }
+        return result.toArray(new Member[result.size()]);
+    }
+
+    /**
+     * Returns the backups, in order, that are still on the ring
+     */
+    private static Member[] getRemaining(ConsistentHashRing ring, Member[] backup) {
+        ArrayList<Member> result = new ArrayList<Member>();
+        for (int i = 0; backup != null && i < backup.length; i++) {
+            if (backup[i] != null && ring.contains(backup[i])) result.add(backup[i]);
+        }
+        return result.toArray(new Member[result.size()]);
+    }
+
+    private boolean sameMembers(Member[] set1, Member[] set2) {
+        if (set1.length != set2.length) return false;
+        for (int i = 0; i < set1.length; i++) {
+            if (!inSet(set1[i], set2)) return false;
+        }
+        return true;
+    }
+}
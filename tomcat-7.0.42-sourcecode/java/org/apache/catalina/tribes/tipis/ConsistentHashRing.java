@@ -0,0 +1,189 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.tribes.tipis;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.catalina.tribes.Member;
+
+/**
+ * A consistent hash ring of members. Each member is placed on the ring at a
+ * number of points (virtual nodes) derived from its host and port, and a key
+ * is owned by the members found walking the ring clockwise from the hash of
+ * the key. Every node that knows the same members computes the same owners,
+ * and adding or removing a member only changes the owners of the keys next to
+ * the points of that member.
+ * <p>
+ * Instances are immutable, a new ring is created when the members change.
+ */
+public class ConsistentHashRing {
+
+    public static final int DEFAULT_VIRTUAL_NODES = 100;
+
+    private final Set<Member> members;
+    private final int[] points;
+    private final Member[] owners;
+
+    /**
+     * Creates a new ring
+     * @param members Member[] - the members to place on the ring
+     * @param virtualNodes int - the number of points of each member
+     */
+    public ConsistentHashRing(Member[] members, int virtualNodes) {
+        if (virtualNodes <= 0) virtualNodes = DEFAULT_VIRTUAL_NODES;
+        this.members = new HashSet<Member>(Arrays.asList(members));
+        long[] entries = new long[members.length * virtualNodes];
+        Member[] sorted = members.clone();
+        // sort the members so that all nodes resolve point collisions the same way
+        Arrays.sort(sorted, new Comparator<Member>() {
+            @Override
+            public int compare(Member m1, Member m2) {
+                return compareIdentity(identity(m1), identity(m2));
+            }
+        });
+        MessageDigest md5;
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException x) {
+            throw new IllegalStateException(x);
+        }
+        int count = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            byte[] id = identity(sorted[i]);
+            for (int vnode = 0; vnode < virtualNodes; vnode += 4) {
+                md5.update(id);
+                md5.update((byte) (vnode >> 24));
+                md5.update((byte) (vnode >> 16));
+                md5.update((byte) (vnode >> 8));
+                md5.update((byte) vnode);
+                byte[] digest = md5.digest();
+                // an MD5 digest provides four points
+                for (int j = 0; j < 4 && vnode + j < virtualNodes; j++) {
+                    int point = ((digest[j * 4] & 0xFF) << 24) |
+                                ((digest[j * 4 + 1] & 0xFF) << 16) |
+                                ((digest[j * 4 + 2] & 0xFF) << 8) |
+                                (digest[j * 4 + 3] & 0xFF);
+                    // the point in the high bits, the member index in the low bits
+                    entries[count++] = ((long) point << 32) | i;
+                }
+            }
+        }
+        Arrays.sort(entries);
+        int[] pts = new int[count];
+        Member[] own = new Member[count];
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            int point = (int) (entries[i] >> 32);
+            // on a collision the member that sorts first keeps the point
+            if (size > 0 && pts[size - 1] == point) continue;
+            pts[size] = point;
+            own[size] = sorted[(int) entries[i]];
+            size++;
+        }
+        this.points = Arrays.copyOf(pts, size);
+        this.owners = Arrays.copyOf(own, size);
+    }
+
+    /**
+     * Returns the owners of a key, in ring order
+     * @param key Object
+     * @param count int - the maximum number of owners
+     * @param exclude Member - a member that can't be an owner, may be null
+     * @return Member[] - at most <code>count</code> distinct members
+     */
+    public Member[] getOwners(Object key, int count, Member exclude) {
+        int available = members.size();
+        if (exclude != null && members.contains(exclude)) available--;
+        if (count > available) count = available;
+        if (count <= 0) return new Member[0];
+        List<Member> result = new ArrayList<Member>(count);
+        int idx = Arrays.binarySearch(points, hash(key));
+        if (idx < 0) idx = -idx - 1;
+        for (int i = 0; i < points.length && result.size() < count; i++) {
+            Member owner = owners[(idx + i) % points.length];
+            if (!owner.equals(exclude) && !result.contains(owner)) {
+                result.add(owner);
+            }
+        }
+        return result.toArray(new Member[result.size()]);
+    }
+
+    public boolean contains(Member member) {
+        return members.contains(member);
+    }
+
+    /**
+     * Does this ring contain exactly these members?
+     * @param members Member[]
+     * @return boolean
+     */
+    public boolean hasMembers(Member[] members) {
+        if (members.length != this.members.size()) return false;
+        for (int i = 0; i < members.length; i++) {
+            if (!this.members.contains(members[i])) return false;
+        }
+        return true;
+    }
+
+    public int getMemberCount() {
+        return members.size();
+    }
+
+    /**
+     * Returns the position of a key on the ring. The hash code of the key is
+     * mixed as it is usually not evenly distributed.
+     * @param key Object
+     * @return int
+     */
+    protected static int hash(Object key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    protected static byte[] identity(Member member) {
+        byte[] host = member.getHost();
+        byte[] id = new byte[host.length + 4];
+        System.arraycopy(host, 0, id, 0, host.length);
+        int port = member.getPort();
+        id[host.length] = (byte) (port >> 24);
+        id[host.length + 1] = (byte) (port >> 16);
+        id[host.length + 2] = (byte) (port >> 8);
+        id[host.length + 3] = (byte) port;
+        return id;
+    }
+
+    private static int compareIdentity(byte[] id1, byte[] id2) {
+        int len = Math.min(id1.length, id2.length);
+        for (int i = 0; i < len; i++) {
+            int diff = (id1[i] & 0xFF) - (id2[i] & 0xFF);
+            if (diff != 0) return diff;
+        }
+        return id1.length - id2.length;
+    }
+}
@@ -17,6 +17,7 @@
 
 package org.apache.catalina.tribes.transport;
 
+import org.apache.catalina.tribes.ChannelMessage;
 import org.apache.catalina.tribes.io.ListenCallback;
 
 
@@ -84,4 +85,21 @@ public abstract class AbstractRxTask implements Runnable
     public boolean getUseBufferPool() {
         return useBufferPool;
     }
+
+    /**
+     * Removes {@link Constants#OPTION_ACK_WITH_ID} from a received message.
+     * @return the unique id to send in the acks of the message, or
+     *         <code>null</code> if the plain acks are sent
+     */
+    protected static byte[] getAckId(ChannelMessage msg) {
+        int options = msg.getOptions();
+        if ( (options & Constants.OPTION_ACK_WITH_ID) == 0 ) return null;
+        msg.setOptions(options & ~Constants.OPTION_ACK_WITH_ID);
+        return msg.getUniqueId();
+    }
+
+    protected static byte[] getAckCommand(byte[] ackId, boolean success) {
+        if ( ackId == null ) return success ? Constants.ACK_COMMAND : Constants.FAIL_ACK_COMMAND;
+        return Constants.createAckCommand(success ? Constants.ACK_DATA : Constants.FAIL_ACK_DATA, ackId);
+    }
 }
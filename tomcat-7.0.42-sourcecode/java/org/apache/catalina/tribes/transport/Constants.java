@@ -40,4 +40,26 @@ public class Constants {
     public static final byte[] ACK_COMMAND = XByteBuffer.createDataPackage(ACK_DATA);
     public static final byte[] FAIL_ACK_COMMAND = XByteBuffer.createDataPackage(FAIL_ACK_DATA);
 
+    /**
+     * Option set by the transport on the messages that must be acknowledged
+     * with an ack followed by the unique id of the message, so that several
+     * messages can be sent on a connection before their acks are received.
+     * The option is removed from the message when it is received.
+     */
+    public static final int OPTION_ACK_WITH_ID = 0x40000000;
+
+    /**
+     * Creates the command acknowledging a message sent with
+     * {@link #OPTION_ACK_WITH_ID}.
+     * @param ack - {@link #ACK_DATA} or {@link #FAIL_ACK_DATA}
+     * @param uniqueId - the unique id of the message
+     * @return the ack command
+     */
+    public static byte[] createAckCommand(byte[] ack, byte[] uniqueId) {
+        byte[] data = new byte[ack.length + uniqueId.length];
+        System.arraycopy(ack, 0, data, 0, ack.length);
+        System.arraycopy(uniqueId, 0, data, ack.length, uniqueId.length);
+        return XByteBuffer.createDataPackage(data);
+    }
+
 }
@@ -27,7 +27,6 @@ import org.apache.catalina.tribes.io.ChannelData;
 import org.apache.catalina.tribes.io.ListenCallback;
 import org.apache.catalina.tribes.io.ObjectReader;
 import org.apache.catalina.tribes.transport.AbstractRxTask;
-import org.apache.catalina.tribes.transport.Constants;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 
@@ -100,12 +99,13 @@ public class BioReplicationTask extends AbstractRxTask {
         if ( pkgcnt > 0 ) {
             ChannelMessage[] msgs = reader.execute();
             for ( int i=0; i<msgs.length; i++ ) {
+                byte[] ackId = getAckId(msgs[i]);
                 /**
                  * Use send ack here if you want to ack the request to the remote 
                  * server before completing the request
                  * This is considered an asynchronized request
                  */
-                if (ChannelData.sendAckAsync(msgs[i].getOptions())) sendAck(Constants.ACK_COMMAND);
+                if (ChannelData.sendAckAsync(msgs[i].getOptions())) sendAck(getAckCommand(ackId,true));
                 try {
                     //process the message
                     getCallback().messageDataReceived(msgs[i]);
@@ -114,9 +114,9 @@ public class BioReplicationTask extends AbstractRxTask {
                      * server before sending the ack to the remote server
                      * This is considered a synchronized request
                      */
-                    if (ChannelData.sendAckSync(msgs[i].getOptions())) sendAck(Constants.ACK_COMMAND);
+                    if (ChannelData.sendAckSync(msgs[i].getOptions())) sendAck(getAckCommand(ackId,true));
                 }catch  ( Exception x ) {
-                    if (ChannelData.sendAckSync(msgs[i].getOptions())) sendAck(Constants.FAIL_ACK_COMMAND);
+                    if (ChannelData.sendAckSync(msgs[i].getOptions())) sendAck(getAckCommand(ackId,false));
                     log.error("Error thrown from messageDataReceived.",x);
                 }
                 if ( getUseBufferPool() ) {
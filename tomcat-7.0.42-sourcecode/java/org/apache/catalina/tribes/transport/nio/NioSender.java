@@ -226,7 +226,8 @@ public class NioSender extends AbstractSender {
             readbuf.clear();
         }
         if ( writebuf == null ) {
-            writebuf = getWriteBuffer();
+            //heap messages are written without a buffer of their own
+            if ( getDirectBuffer() ) writebuf = getWriteBuffer();
         } else {
             writebuf.clear();
         }
@@ -339,16 +340,18 @@ public class NioSender extends AbstractSender {
            current = data;
            remaining = length;
            ackbuf.clear();
-           if ( writebuf != null ) writebuf.clear();
-           else writebuf = getBuffer(length);
-           if ( writebuf.capacity() < length ) writebuf = getBuffer(length);
-           
-           //TODO use ByteBuffer.wrap to avoid copying the data.
-           writebuf.put(data,offset,length);
-           //writebuf.rewind();
-           //set the limit so that we don't write non wanted data
-           //writebuf.limit(length);
-           writebuf.flip();
+           if ( getDirectBuffer() ) {
+               //direct buffers are written by the OS, the data is copied once
+               if ( writebuf != null ) writebuf.clear();
+               else writebuf = getBuffer(length);
+               if ( writebuf.capacity() < length ) writebuf = getBuffer(length);
+               writebuf.put(data,offset,length);
+               writebuf.flip();
+           } else {
+               //the message is not modified while it is sent, each sender
+               //can write it without a copy
+               writebuf = ByteBuffer.wrap(data,offset,length);
+           }
            if (isConnected()) {
                if (isUdpBased())
                    dataChannel.register(getSelector(), SelectionKey.OP_WRITE, this);
@@ -0,0 +1,631 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.tribes.transport.nio;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.catalina.tribes.Channel;
+import org.apache.catalina.tribes.ChannelException;
+import org.apache.catalina.tribes.ChannelMessage;
+import org.apache.catalina.tribes.Member;
+import org.apache.catalina.tribes.RemoteProcessException;
+import org.apache.catalina.tribes.UniqueId;
+import org.apache.catalina.tribes.io.ChannelData;
+import org.apache.catalina.tribes.io.XByteBuffer;
+import org.apache.catalina.tribes.transport.AbstractSender;
+import org.apache.catalina.tribes.transport.Constants;
+import org.apache.catalina.tribes.transport.MultiPointSender;
+import org.apache.catalina.tribes.transport.SenderState;
+import org.apache.catalina.tribes.util.LatencyHistogram;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * A sender that pipelines the messages on its connections. A message is
+ * written as soon as it is sent, without waiting for the acks of the
+ * messages already sent on the connection, and the receiver returns the
+ * unique id of the message in its ack, which is how the acks are matched
+ * with the messages.
+ * <p>
+ * Unlike the <code>ParallelNioSender</code> this sender is thread safe and
+ * does not need to be pooled, a thread sending a message only waits for the
+ * acks of its own message. The messages are written and the acks are read
+ * by one thread. Each member is connected with
+ * <code>connectionsPerMember</code> connections, a message that is acked is
+ * sent on the connection with the fewest messages in flight, a message that
+ * is not acked on a connection selected by the sending thread so that the
+ * messages a thread sends without ack stay in order.
+ * <p>
+ * The messages sent by different threads may be processed out of order by
+ * the receiver. The UDP messages are sent with a
+ * <code>ParallelNioSender</code>.
+ */
+public class PipelinedNioSender extends AbstractSender implements MultiPointSender, Runnable {
+
+    private static final Log log = LogFactory.getLog(PipelinedNioSender.class);
+
+    protected int connectionsPerMember = 2;
+    protected long selectTimeout = 1000;
+
+    protected Selector selector;
+    protected Thread thread;
+    /**
+     * The tasks to run on the I/O thread, which owns the channels.
+     */
+    protected final ConcurrentLinkedQueue<Runnable> events =
+        new ConcurrentLinkedQueue<Runnable>();
+    protected final ConcurrentHashMap<Member, Connection[]> connections =
+        new ConcurrentHashMap<Member, Connection[]>();
+    protected final ConcurrentHashMap<Member, LatencyHistogram> ackLatencies =
+        new ConcurrentHashMap<Member, LatencyHistogram>();
+    protected final AtomicInteger nextConnection = new AtomicInteger(0);
+    protected ParallelNioSender udpSender = null;
+
+
+    @Override
+    public synchronized void connect() throws IOException {
+        if ( isConnected() ) return;
+        synchronized (Selector.class) {
+            // Selector.open() isn't thread safe
+            // http://bugs.sun.com/view_bug.do?bug_id=6427854
+            // Affects 1.6.0_29, fixed in 1.7.0_01
+            selector = Selector.open();
+        }
+        setConnected(true);
+        thread = new Thread(this);
+        thread.setName("PipelinedNioSender-" + thread.getId());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public synchronized void disconnect() {
+        if ( !isConnected() ) return;
+        setConnected(false);
+        selector.wakeup();
+        try {
+            thread.join(getTimeout());
+        } catch ( InterruptedException x ) {
+            Thread.currentThread().interrupt();
+        }
+        if ( udpSender != null ) {
+            udpSender.disconnect();
+            udpSender = null;
+        }
+    }
+
+    @Override
+    public void sendMessage(Member[] destination, ChannelMessage msg) throws ChannelException {
+        if ( !isConnected() ) throw new ChannelException("Sender not connected.");
+        if ( (msg.getOptions() & Channel.SEND_OPTIONS_UDP) == Channel.SEND_OPTIONS_UDP ) {
+            sendUdp(destination, msg);
+            return;
+        }
+        boolean waitForAck = (Channel.SEND_OPTIONS_USE_ACK & msg.getOptions()) == Channel.SEND_OPTIONS_USE_ACK;
+        byte[] data;
+        int options = msg.getOptions();
+        if ( waitForAck ) msg.setOptions(options | Constants.OPTION_ACK_WITH_ID);
+        try {
+            data = XByteBuffer.createDataPackage((ChannelData)msg);
+        } finally {
+            msg.setOptions(options);
+        }
+        Send send = new Send(new UniqueId(msg.getUniqueId()), data, waitForAck, destination.length);
+        for ( int i=0; i<destination.length; i++ ) {
+            InFlight flight = new InFlight(send, destination[i]);
+            send.flights[i] = flight;
+            try {
+                getConnection(destination[i], waitForAck).add(flight);
+            } catch ( IOException x ) {
+                flight.complete(x);
+            }
+        }
+        ChannelException cx = send.await(getTimeout());
+        if ( cx != null ) throw cx;
+    }
+
+    protected synchronized void sendUdp(Member[] destination, ChannelMessage msg) throws ChannelException {
+        if ( udpSender == null ) {
+            try {
+                udpSender = new ParallelNioSender();
+            } catch ( IOException x ) {
+                throw new ChannelException("Unable to open NIO selector.", x);
+            }
+            AbstractSender.transferProperties(this, udpSender);
+        }
+        udpSender.sendMessage(destination, msg);
+    }
+
+    /**
+     * Selects the connection to send a message on.
+     * @param member The destination
+     * @param waitForAck Is the message acked?
+     */
+    protected Connection getConnection(Member member, boolean waitForAck) throws IOException {
+        Connection[] candidates = connections.get(member);
+        if ( candidates == null ) {
+            InetSocketAddress address = new InetSocketAddress(InetAddress.getByAddress(member.getHost()), member.getPort());
+            candidates = new Connection[Math.max(1, connectionsPerMember)];
+            for ( int i=0; i<candidates.length; i++ ) candidates[i] = new Connection(member, address);
+            Connection[] existing = connections.putIfAbsent(member, candidates);
+            if ( existing != null ) candidates = existing;
+        }
+        if ( !waitForAck ) {
+            return candidates[(int)(Thread.currentThread().getId() % candidates.length)];
+        }
+        int start = (nextConnection.getAndIncrement() & Integer.MAX_VALUE) % candidates.length;
+        Connection result = candidates[start];
+        for ( int i=1; i<candidates.length; i++ ) {
+            Connection candidate = candidates[(start + i) % candidates.length];
+            if ( candidate.outstanding.get() < result.outstanding.get() ) result = candidate;
+        }
+        return result;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while ( isConnected() ) {
+                try {
+                    selector.select(selectTimeout);
+                    Runnable event = events.poll();
+                    while ( event != null ) {
+                        event.run();
+                        event = events.poll();
+                    }
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while ( it.hasNext() ) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        Connection connection = (Connection)key.attachment();
+                        try {
+                            if ( key.isValid() ) connection.process(key);
+                        } catch ( Exception x ) {
+                            if ( log.isDebugEnabled() ) log.debug("Error while sending to " + connection.member.getName(), x);
+                            connection.fail(x);
+                        }
+                    }
+                } catch ( Exception x ) {
+                    log.error("Error in the pipelined sender I/O thread.", x);
+                }
+            }
+        } finally {
+            IOException x = new IOException("Sender has been disconnected.");
+            for ( Iterator<Connection[]> i = connections.values().iterator(); i.hasNext(); ) {
+                Connection[] member = i.next();
+                i.remove();
+                for ( int j=0; j<member.length; j++ ) member[j].close(x);
+            }
+            events.clear();
+            try {
+                selector.close();
+            } catch ( IOException e ) {
+                if ( log.isDebugEnabled() ) log.debug("Failed to close selector", e);
+            }
+        }
+    }
+
+    @Override
+    public void add(Member member) {
+        // NOOP, we connect on demand
+    }
+
+    @Override
+    public void remove(Member member) {
+        final Connection[] removed = connections.remove(member);
+        ackLatencies.remove(member);
+        if ( removed == null || !isConnected() ) return;
+        events.offer(new Runnable() {
+            @Override
+            public void run() {
+                IOException x = new IOException("Member has been removed.");
+                for ( int i=0; i<removed.length; i++ ) removed[i].close(x);
+            }
+        });
+        selector.wakeup();
+    }
+
+    @Override
+    public boolean keepalive() {
+        // the idle connections are closed by the receivers and reopened on demand
+        return false;
+    }
+
+    /**
+     * @return the latency of the acks of a member, or <code>null</code> if
+     *         no message has been acked by the member
+     */
+    public LatencyHistogram getAckLatency(Member member) {
+        return ackLatencies.get(member);
+    }
+
+    public Map<Member, LatencyHistogram> getAckLatencies() {
+        return Collections.unmodifiableMap(ackLatencies);
+    }
+
+    /**
+     * @return the number of messages sent to a member that are not completed
+     */
+    public int getInFlight(Member member) {
+        Connection[] candidates = connections.get(member);
+        int result = 0;
+        if ( candidates != null ) {
+            for ( int i=0; i<candidates.length; i++ ) result += candidates[i].outstanding.get();
+        }
+        return result;
+    }
+
+    protected void recordAckLatency(Member member, long nanos) {
+        LatencyHistogram histogram = ackLatencies.get(member);
+        if ( histogram == null ) {
+            histogram = new LatencyHistogram();
+            LatencyHistogram existing = ackLatencies.putIfAbsent(member, histogram);
+            if ( existing != null ) histogram = existing;
+        }
+        histogram.record(nanos);
+    }
+
+    public int getConnectionsPerMember() {
+        return connectionsPerMember;
+    }
+
+    public void setConnectionsPerMember(int connectionsPerMember) {
+        this.connectionsPerMember = connectionsPerMember;
+    }
+
+    public long getSelectTimeout() {
+        return selectTimeout;
+    }
+
+    public void setSelectTimeout(long selectTimeout) {
+        this.selectTimeout = selectTimeout;
+    }
+
+
+    /**
+     * A message sent to one or more members.
+     */
+    protected static class Send {
+        protected final UniqueId id;
+        protected final byte[] data;
+        protected final boolean waitForAck;
+        protected final InFlight[] flights;
+        protected final CountDownLatch latch;
+
+        public Send(UniqueId id, byte[] data, boolean waitForAck, int destinations) {
+            this.id = id;
+            this.data = data;
+            this.waitForAck = waitForAck;
+            this.flights = new InFlight[destinations];
+            this.latch = new CountDownLatch(destinations);
+        }
+
+        /**
+         * Waits for the message to be sent to all the members.
+         * @return the failure or <code>null</code> if the message was sent
+         */
+        public ChannelException await(long timeout) {
+            try {
+                latch.await(timeout, TimeUnit.MILLISECONDS);
+            } catch ( InterruptedException x ) {
+                Thread.currentThread().interrupt();
+            }
+            ChannelException cx = null;
+            for ( int i=0; i<flights.length; i++ ) {
+                InFlight flight = flights[i];
+                if ( flight.complete(new IOException("Operation has timed out("+timeout+" ms.).")) ) {
+                    flight.cancel();
+                }
+                Exception failure = flight.failure;
+                if ( failure != null ) {
+                    if ( cx == null ) cx = new ChannelException("Pipelined NIO send failed.", failure);
+                    cx.addFaultyMember(flight.member, failure);
+                }
+            }
+            return cx;
+        }
+    }
+
+
+    /**
+     * A message sent to a member.
+     */
+    protected static class InFlight {
+        protected final Send send;
+        protected final Member member;
+        protected final AtomicBoolean done = new AtomicBoolean(false);
+        protected volatile Exception failure = null;
+        protected volatile Connection connection = null;
+        protected int attempt = 0;
+        protected long sent = 0;
+
+        public InFlight(Send send, Member member) {
+            this.send = send;
+            this.member = member;
+        }
+
+        /**
+         * @return <code>true</code> if the message was not completed before
+         */
+        public boolean complete(Exception x) {
+            if ( !done.compareAndSet(false, true) ) return false;
+            failure = x;
+            Connection current = connection;
+            if ( current != null ) current.outstanding.decrementAndGet();
+            send.latch.countDown();
+            return true;
+        }
+
+        /**
+         * Stops waiting for the ack of a message that has timed out, a
+         * message that has not been written yet is skipped.
+         */
+        public void cancel() {
+            Connection current = connection;
+            if ( current != null ) current.pending.remove(send.id, this);
+        }
+    }
+
+
+    /**
+     * A connection to a member. The channel is only used by the I/O thread,
+     * the messages are added to a queue that the I/O thread writes.
+     */
+    protected class Connection implements Runnable {
+        protected final Member member;
+        protected final InetSocketAddress address;
+        protected final ConcurrentLinkedQueue<InFlight> queue = new ConcurrentLinkedQueue<InFlight>();
+        protected final ConcurrentHashMap<UniqueId, InFlight> pending = new ConcurrentHashMap<UniqueId, InFlight>();
+        protected final AtomicInteger outstanding = new AtomicInteger(0);
+        protected final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+        // the state of the channel, used by the I/O thread only
+        protected SocketChannel channel = null;
+        protected SelectionKey key = null;
+        protected boolean closed = false;
+        protected InFlight current = null;
+        protected ByteBuffer writebuf = null;
+        protected ByteBuffer readbuf = null;
+        protected XByteBuffer ackbuf = new XByteBuffer(128, true);
+
+        public Connection(Member member, InetSocketAddress address) {
+            this.member = member;
+            this.address = address;
+        }
+
+        public void add(InFlight flight) {
+            flight.connection = this;
+            outstanding.incrementAndGet();
+            queue.offer(flight);
+            if ( scheduled.compareAndSet(false, true) ) {
+                events.offer(this);
+                selector.wakeup();
+            }
+        }
+
+        /**
+         * Makes the I/O thread write the queued messages.
+         */
+        @Override
+        public void run() {
+            scheduled.set(false);
+            try {
+                if ( closed ) fail(new IOException("Connection has been closed."));
+                else if ( channel == null ) open();
+                else if ( channel.isConnected() ) key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            } catch ( Exception x ) {
+                fail(x);
+            }
+        }
+
+        protected void open() throws IOException {
+            channel = SocketChannel.open();
+            try {
+                channel.configureBlocking(false);
+                channel.socket().setSendBufferSize(getTxBufSize());
+                channel.socket().setReceiveBufferSize(getRxBufSize());
+                channel.socket().setSoTimeout((int)getTimeout());
+                channel.socket().setTcpNoDelay(getTcpNoDelay());
+                channel.socket().setKeepAlive(getSoKeepAlive());
+                channel.socket().setReuseAddress(getSoReuseAddress());
+                channel.socket().setOOBInline(getOoBInline());
+                channel.socket().setSoLinger(getSoLingerOn(),getSoLingerTime());
+                channel.socket().setTrafficClass(getSoTrafficClass());
+                if ( readbuf == null ) {
+                    readbuf = getDirectBuffer() ? ByteBuffer.allocateDirect(getRxBufSize()) : ByteBuffer.allocate(getRxBufSize());
+                }
+                readbuf.clear();
+                ackbuf.clear();
+                if ( channel.connect(address) ) {
+                    key = channel.register(selector, SelectionKey.OP_READ | SelectionKey.OP_WRITE, this);
+                } else {
+                    key = channel.register(selector, SelectionKey.OP_CONNECT, this);
+                }
+            } catch ( IOException x ) {
+                try { channel.close(); } catch ( IOException ignore ) {/*Ignore*/}
+                channel = null;
+                throw x;
+            }
+        }
+
+        protected void process(SelectionKey key) throws IOException {
+            if ( key.isConnectable() ) {
+                if ( channel.finishConnect() ) key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+            if ( key.isReadable() ) read();
+            if ( key.isValid() && key.isWritable() ) write();
+        }
+
+        protected void write() throws IOException {
+            while ( true ) {
+                if ( writebuf == null ) {
+                    current = queue.poll();
+                    if ( current == null ) {
+                        key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    //the sender has given up on the message
+                    if ( current.done.get() ) continue;
+                    current.sent = System.nanoTime();
+                    if ( current.send.waitForAck ) pending.put(current.send.id, current);
+                    writebuf = ByteBuffer.wrap(current.send.data);
+                }
+                channel.write(writebuf);
+                if ( writebuf.hasRemaining() ) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+                writebuf = null;
+                if ( !current.send.waitForAck ) completed(current, null);
+                current = null;
+            }
+        }
+
+        protected void read() throws IOException {
+            int read = channel.read(readbuf);
+            if ( read == -1 ) throw new EOFException("Unable to receive an ack message. EOF on socket channel has been reached.");
+            if ( read == 0 ) return;
+            readbuf.flip();
+            ackbuf.append(readbuf, read);
+            readbuf.clear();
+            while ( ackbuf.doesPackageExist() ) {
+                byte[] ack = ackbuf.extractDataPackage(true).getBytes();
+                boolean success = startsWith(ack, Constants.ACK_DATA);
+                if ( !success && !startsWith(ack, Constants.FAIL_ACK_DATA) ) {
+                    throw new IOException("Received an invalid ack from " + member.getName());
+                }
+                InFlight flight;
+                if ( ack.length > Constants.ACK_DATA.length ) {
+                    flight = pending.remove(new UniqueId(ack, Constants.ACK_DATA.length, ack.length - Constants.ACK_DATA.length));
+                } else {
+                    flight = removeOldest();
+                }
+                //the message has timed out
+                if ( flight == null ) continue;
+                recordAckLatency(member, System.nanoTime() - flight.sent);
+                if ( !success && getThrowOnFailedAck() ) {
+                    completed(flight, new RemoteProcessException("Received a failed ack:org.apache.catalina.tribes.transport.Constants.FAIL_ACK_DATA"));
+                } else {
+                    completed(flight, null);
+                }
+            }
+        }
+
+        /**
+         * A receiver that does not return the unique id in its acks acks the
+         * messages in order.
+         */
+        protected InFlight removeOldest() {
+            InFlight oldest = null;
+            for ( InFlight flight : pending.values() ) {
+                if ( oldest == null || flight.sent - oldest.sent < 0 ) oldest = flight;
+            }
+            if ( oldest != null ) pending.remove(oldest.send.id, oldest);
+            return oldest;
+        }
+
+        protected void completed(InFlight flight, Exception x) {
+            if ( flight.complete(x) && x == null ) {
+                SenderState.getSenderState(member).setReady();
+            }
+        }
+
+        /**
+         * Closes the channel after an error. The messages in flight are sent
+         * again unless they have been sent <code>maxRetryAttempts</code>
+         * times.
+         */
+        protected void fail(Exception x) {
+            closeChannel();
+            List<InFlight> flights = new ArrayList<InFlight>(pending.values());
+            pending.clear();
+            if ( current != null ) flights.add(current);
+            current = null;
+            InFlight queued = queue.poll();
+            while ( queued != null ) {
+                flights.add(queued);
+                queued = queue.poll();
+            }
+            boolean retry = false;
+            for ( InFlight flight : flights ) {
+                if ( flight.done.get() ) continue;
+                if ( !closed && isConnected() && flight.attempt < getMaxRetryAttempts() ) {
+                    flight.attempt++;
+                    outstanding.decrementAndGet();
+                    add(flight);
+                    retry = true;
+                } else {
+                    flight.complete(x);
+                }
+            }
+            if ( flights.isEmpty() ) return;
+            SenderState state = SenderState.getSenderState(member);
+            synchronized (state) {
+                if ( state.isSuspect() ) state.setFailing();
+                if ( state.isReady() ) {
+                    state.setSuspect();
+                    if ( retry )
+                        log.warn("Member send is failing for:" + member.getName() +" ; Setting to suspect and retrying.");
+                    else
+                        log.warn("Member send is failing for:" + member.getName() +" ; Setting to suspect.", x);
+                }
+            }
+        }
+
+        public void close(Exception x) {
+            closed = true;
+            fail(x);
+        }
+
+        protected void closeChannel() {
+            writebuf = null;
+            if ( key != null ) key.cancel();
+            key = null;
+            if ( channel != null ) {
+                try { channel.close(); } catch ( IOException ignore ) {/*Ignore*/}
+            }
+            channel = null;
+        }
+    }
+
+    private static boolean startsWith(byte[] data, byte[] prefix) {
+        if ( data.length < prefix.length ) return false;
+        for ( int i=0; i<prefix.length; i++ ) {
+            if ( data[i] != prefix[i] ) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.tribes.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies with buckets growing in powers of two, from one
+ * microsecond to about half an hour. Recording a latency does not lock.
+ */
+public class LatencyHistogram {
+
+    public static final int BUCKETS = 32;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong(0);
+    private final AtomicLong total = new AtomicLong(0);
+    private final AtomicLong max = new AtomicLong(0);
+
+    /**
+     * @param nanos The latency to record, in nanoseconds
+     */
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts.incrementAndGet(getBucket(nanos));
+        count.incrementAndGet();
+        total.addAndGet(nanos);
+        long current = max.get();
+        while (nanos > current && !max.compareAndSet(current, nanos)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * The bucket of a latency. Bucket 0 holds the latencies under one
+     * microsecond, bucket <code>i</code> the latencies from
+     * <code>2^(i-1)</code> to <code>2^i</code> microseconds, and the last
+     * bucket all the longer latencies.
+     */
+    public static int getBucket(long nanos) {
+        long micros = nanos / 1000;
+        int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        return Math.min(bucket, BUCKETS - 1);
+    }
+
+    /**
+     * @return the upper limit of a bucket, in microseconds
+     */
+    public static long getBucketLimit(int bucket) {
+        return bucket == BUCKETS - 1 ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    public long[] getCounts() {
+        long[] result = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            result[i] = counts.get(i);
+        }
+        return result;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return the mean latency in milliseconds
+     */
+    public double getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) total.get() / n / 1000000;
+    }
+
+    /**
+     * @return the maximum latency in milliseconds
+     */
+    public double getMax() {
+        return (double) max.get() / 1000000;
+    }
+
+    /**
+     * @param percentile The percentile, between 0 and 100
+     * @return the upper limit, in milliseconds, of the bucket holding the
+     *         percentile, which is at most the maximum latency
+     */
+    public double getPercentile(double percentile) {
+        long[] snapshot = getCounts();
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            n += snapshot[i];
+        }
+        if (n == 0) return 0;
+        long rank = (long) Math.ceil(n * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank && snapshot[i] > 0) {
+                return Math.min((double) getBucketLimit(i) / 1000, getMax());
+            }
+        }
+        return getMax();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        total.set(0);
+        max.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyHistogram[count=" + getCount() + ", mean=" + getMean() +
+            "ms, p50=" + getPercentile(50) + "ms, p99=" + getPercentile(99) +
+            "ms, max=" + getMax() + "ms]";
+    }
+}
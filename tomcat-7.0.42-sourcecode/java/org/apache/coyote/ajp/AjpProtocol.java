@@ -62,6 +62,8 @@ public class AjpProtocol extends AbstractAjpProtocol {
         setSoLinger(Constants.DEFAULT_CONNECTION_LINGER);
         setSoTimeout(Constants.DEFAULT_CONNECTION_TIMEOUT);
         setTcpNoDelay(Constants.DEFAULT_TCP_NO_DELAY);
+        // AJP does not use Send File
+        ((JIoEndpoint) endpoint).setUseSendfile(false);
     }
 
     
@@ -17,9 +17,13 @@
 package org.apache.coyote.http11;
 
 import java.io.EOFException;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 import org.apache.coyote.ActionCode;
 import org.apache.coyote.http11.filters.BufferedInputFilter;
@@ -97,6 +101,19 @@ public class Http11Processor extends AbstractHttp11Processor<Socket> {
      */
     private int disableKeepAlivePercentage = 75;
 
+
+    /**
+     * Sendfile data.
+     */
+    protected JIoEndpoint.SendfileData sendfileData = null;
+
+
+    /**
+     * Buffer used to write files for sendfile, reused for the lifetime of
+     * the processor.
+     */
+    protected byte[] sendfileBuffer = null;
+
     // --------------------------------------------------------- Public Methods
 
 
@@ -206,6 +223,16 @@ public class Http11Processor extends AbstractHttp11Processor<Socket> {
     @Override
     protected boolean breakKeepAliveLoop(SocketWrapper<Socket> socketWrapper) {
         openSocket = keepAlive;
+        // Do sendfile as needed: the headers have already been written so
+        // write the file directly to the socket
+        if (sendfileData != null && !error) {
+            if (!processSendfile(socketWrapper)) {
+                error = true;
+                openSocket = false;
+                return true;
+            }
+            sendfileData = null;
+        }
         // If we don't have a pipe-lined request allow this thread to be
         // used by another connection
         if (inputBuffer.lastValid == 0) {
@@ -225,6 +252,7 @@ public class Http11Processor extends AbstractHttp11Processor<Socket> {
     protected void recycleInternal() {
         // Recycle
         this.socket = null;
+        sendfileData = null;
         // Recycle ssl info
         sslSupport = null;
     }
@@ -378,17 +406,80 @@ public class Http11Processor extends AbstractHttp11Processor<Socket> {
 
     @Override
     protected void prepareRequestInternal() {
-        // NOOP for BIO
+        sendfileData = null;
     }
 
     @Override
     protected boolean prepareSendfile(OutputFilter[] outputFilters) {
-        // Should never, ever call this code
-        Exception e = new Exception();
-        log.error(sm.getString("http11processor.neverused"), e);
+        String fileName = (String) request.getAttribute(
+                org.apache.coyote.Constants.SENDFILE_FILENAME_ATTR);
+        if (fileName != null) {
+            // No entity body sent here
+            outputBuffer.addActiveFilter(outputFilters[Constants.VOID_FILTER]);
+            contentDelimitation = true;
+            sendfileData = new JIoEndpoint.SendfileData();
+            sendfileData.fileName = fileName;
+            sendfileData.pos = ((Long) request.getAttribute(
+                    org.apache.coyote.Constants.SENDFILE_FILE_START_ATTR)).longValue();
+            sendfileData.length = ((Long) request.getAttribute(
+                    org.apache.coyote.Constants.SENDFILE_FILE_END_ATTR)).longValue() - sendfileData.pos;
+            return true;
+        }
         return false;
     }
 
+
+    /**
+     * Write the file described by the current sendfile data to the socket
+     * using positional reads into a buffer owned by this processor.
+     *
+     * @return <code>true</code> if the whole file range was written
+     */
+    protected boolean processSendfile(SocketWrapper<Socket> socketWrapper) {
+        if (sendfileBuffer == null) {
+            sendfileBuffer = new byte[
+                    ((JIoEndpoint) endpoint).getSendfileBufferSize()];
+        }
+        FileInputStream fis = null;
+        try {
+            fis = new FileInputStream(sendfileData.fileName);
+            FileChannel fchannel = fis.getChannel();
+            OutputStream os = socketWrapper.getSocket().getOutputStream();
+            ByteBuffer buffer = ByteBuffer.wrap(sendfileBuffer);
+            long pos = sendfileData.pos;
+            long remaining = sendfileData.length;
+            while (remaining > 0) {
+                buffer.clear();
+                if (remaining < buffer.capacity()) {
+                    buffer.limit((int) remaining);
+                }
+                int n = fchannel.read(buffer, pos);
+                if (n < 0) {
+                    throw new IOException(
+                            sm.getString("http11processor.sendfile.short"));
+                }
+                os.write(sendfileBuffer, 0, n);
+                pos += n;
+                remaining -= n;
+            }
+            os.flush();
+            return true;
+        } catch (IOException e) {
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString("http11processor.sendfile.error"), e);
+            }
+            return false;
+        } finally {
+            if (fis != null) {
+                try {
+                    fis.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
     @Override
     protected void setSocketWrapper(SocketWrapper<Socket> socketWrapper) {
         this.socket = socketWrapper;
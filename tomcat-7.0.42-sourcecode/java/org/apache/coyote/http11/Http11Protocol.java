@@ -90,6 +90,20 @@ public class Http11Protocol extends AbstractHttp11JsseProtocol {
         }
     }
     
+    public boolean getUseSendfile() {
+        return ((JIoEndpoint)endpoint).getUseSendfile();
+    }
+    public void setUseSendfile(boolean useSendfile) {
+        ((JIoEndpoint)endpoint).setUseSendfile(useSendfile);
+    }
+
+    public int getSendfileBufferSize() {
+        return ((JIoEndpoint)endpoint).getSendfileBufferSize();
+    }
+    public void setSendfileBufferSize(int sendfileBufferSize) {
+        ((JIoEndpoint)endpoint).setSendfileBufferSize(sendfileBufferSize);
+    }
+    
     // ----------------------------------------------------- JMX related methods
 
     @Override
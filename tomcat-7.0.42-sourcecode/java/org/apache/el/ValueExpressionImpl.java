@@ -31,6 +31,7 @@ import javax.el.ValueExpression;
 import javax.el.ValueReference;
 import javax.el.VariableMapper;
 
+import org.apache.el.lang.CompiledExpression;
 import org.apache.el.lang.ELSupport;
 import org.apache.el.lang.EvaluationContext;
 import org.apache.el.lang.ExpressionBuilder;
@@ -100,6 +101,10 @@ public final class ValueExpressionImpl extends ValueExpression implements
 
     private transient Node node;
 
+    private transient CompiledExpression compiled;
+
+    private transient boolean compiledChecked;
+
     public ValueExpressionImpl() {
         super();
     }
@@ -159,6 +164,14 @@ public final class ValueExpressionImpl extends ValueExpression implements
         return this.node;
     }
 
+    private CompiledExpression getCompiled() throws ELException {
+        if (!this.compiledChecked) {
+            this.compiled = ExpressionBuilder.createCompiledExpression(this.expr);
+            this.compiledChecked = true;
+        }
+        return this.compiled;
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -182,7 +195,13 @@ public final class ValueExpressionImpl extends ValueExpression implements
             ELException {
         EvaluationContext ctx = new EvaluationContext(context, this.fnMapper,
                 this.varMapper);
-        Object value = this.getNode().getValue(ctx);
+        CompiledExpression compiled = this.getCompiled();
+        Object value;
+        if (compiled == null) {
+            value = this.getNode().getValue(ctx);
+        } else {
+            value = compiled.getValue(ctx);
+        }
         if (this.expectedType != null) {
             return ELSupport.coerceToType(value, this.expectedType);
         }
@@ -0,0 +1,38 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.el.lang;
+
+import javax.el.ELException;
+
+/**
+ * The value of a parsed expression as produced by the
+ * {@link ExpressionCompiler}. A compiled expression only evaluates the
+ * expression; the parsed nodes are still used to set values and to obtain
+ * types and method information.
+ */
+public abstract class CompiledExpression {
+
+    public abstract Object getValue(EvaluationContext ctx) throws ELException;
+
+    /**
+     * Does the expression evaluate to the same value every time, without
+     * using the context?
+     */
+    public boolean isConstant() {
+        return false;
+    }
+}
@@ -74,6 +74,30 @@ public final class ExpressionBuilder implements NodeVisitor {
     private static final ConcurrentCache<String, Node> cache =
         new ConcurrentCache<String, Node>(CACHE_SIZE);
 
+    private static final boolean COMPILE;
+    private static final String COMPILE_PROP =
+        "org.apache.el.ExpressionBuilder.COMPILE";
+
+    static {
+        if (System.getSecurityManager() == null) {
+            COMPILE = Boolean.parseBoolean(
+                    System.getProperty(COMPILE_PROP, "false"));
+        } else {
+            COMPILE = AccessController.doPrivileged(
+                    new PrivilegedAction<Boolean>() {
+
+                    @Override
+                    public Boolean run() {
+                        return Boolean.valueOf(
+                                System.getProperty(COMPILE_PROP, "false"));
+                    }
+                }).booleanValue();
+        }
+    }
+
+    private static final ConcurrentCache<String, CompiledExpression> compiledCache =
+        new ConcurrentCache<String, CompiledExpression>(CACHE_SIZE);
+
     private FunctionMapper fnMapper;
 
     private VariableMapper varMapper;
@@ -103,6 +127,26 @@ public final class ExpressionBuilder implements NodeVisitor {
         return n;
     }
 
+    /**
+     * Obtain the compiled form of an expression.
+     *
+     * @param expr  The expression
+     * @return the compiled expression or <code>null</code> if compilation of
+     *         expressions is not enabled
+     */
+    public static final CompiledExpression createCompiledExpression(
+            String expr) throws ELException {
+        if (!COMPILE) {
+            return null;
+        }
+        CompiledExpression compiled = compiledCache.get(expr);
+        if (compiled == null) {
+            compiled = ExpressionCompiler.compile(createNodeInternal(expr));
+            compiledCache.put(expr, compiled);
+        }
+        return compiled;
+    }
+
     private static final Node createNodeInternal(String expr)
             throws ELException {
         if (expr == null) {
@@ -150,6 +194,36 @@ public final class ExpressionBuilder implements NodeVisitor {
         return n;
     }
 
+    /**
+     * The number of parsed expressions held by the cache.
+     */
+    public static int getCacheSize() {
+        return cache.getSize();
+    }
+
+    /**
+     * The number of times a parsed expression was found in the cache.
+     */
+    public static long getCacheHitCount() {
+        return cache.getHitCount();
+    }
+
+    /**
+     * The number of times an expression had to be parsed because it was not
+     * in the cache.
+     */
+    public static long getCacheMissCount() {
+        return cache.getMissCount();
+    }
+
+    /**
+     * The number of parsed expressions removed from the cache to make room
+     * for more frequently used expressions.
+     */
+    public static long getCacheEvictionCount() {
+        return cache.getEvictionCount();
+    }
+
     private void prepare(Node node) throws ELException {
         try {
             node.accept(this);
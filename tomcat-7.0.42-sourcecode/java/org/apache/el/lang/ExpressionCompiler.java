@@ -0,0 +1,594 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.el.lang;
+
+import java.util.Collection;
+import java.util.Map;
+
+import javax.el.ELException;
+import javax.el.ELResolver;
+import javax.el.PropertyNotFoundException;
+import javax.el.ValueExpression;
+import javax.el.VariableMapper;
+
+import org.apache.el.parser.AstAnd;
+import org.apache.el.parser.AstBracketSuffix;
+import org.apache.el.parser.AstChoice;
+import org.apache.el.parser.AstCompositeExpression;
+import org.apache.el.parser.AstDeferredExpression;
+import org.apache.el.parser.AstDiv;
+import org.apache.el.parser.AstDotSuffix;
+import org.apache.el.parser.AstDynamicExpression;
+import org.apache.el.parser.AstEmpty;
+import org.apache.el.parser.AstEqual;
+import org.apache.el.parser.AstFalse;
+import org.apache.el.parser.AstFloatingPoint;
+import org.apache.el.parser.AstGreaterThan;
+import org.apache.el.parser.AstGreaterThanEqual;
+import org.apache.el.parser.AstIdentifier;
+import org.apache.el.parser.AstInteger;
+import org.apache.el.parser.AstLessThan;
+import org.apache.el.parser.AstLessThanEqual;
+import org.apache.el.parser.AstLiteralExpression;
+import org.apache.el.parser.AstMethodParameters;
+import org.apache.el.parser.AstMinus;
+import org.apache.el.parser.AstMod;
+import org.apache.el.parser.AstMult;
+import org.apache.el.parser.AstNegative;
+import org.apache.el.parser.AstNot;
+import org.apache.el.parser.AstNotEqual;
+import org.apache.el.parser.AstNull;
+import org.apache.el.parser.AstOr;
+import org.apache.el.parser.AstPlus;
+import org.apache.el.parser.AstString;
+import org.apache.el.parser.AstTrue;
+import org.apache.el.parser.AstValue;
+import org.apache.el.parser.Node;
+import org.apache.el.util.MessageFactory;
+
+/**
+ * Compiles a parsed expression into a tree of {@link CompiledExpression}s
+ * that evaluates the expression with less work than walking the parsed
+ * nodes:
+ * <ul>
+ * <li>sub-expressions that only use literals are evaluated once, when the
+ *     expression is compiled</li>
+ * <li>chains of properties such as <code>${a.b.c}</code> are resolved in a
+ *     single loop with the property names held as constants</li>
+ * <li>arithmetic and comparisons of integer operands are performed
+ *     directly rather than by looking up the coercion rules for every
+ *     evaluation</li>
+ * </ul>
+ * Nodes that are not compiled, such as functions and method calls, are
+ * evaluated by the parsed node so that every expression can be compiled.
+ * The result of evaluating a compiled expression is the same as that of
+ * evaluating the parsed expression.
+ */
+public final class ExpressionCompiler {
+
+    private static final int PLUS = 0;
+    private static final int MINUS = 1;
+    private static final int MULT = 2;
+    private static final int DIV = 3;
+    private static final int MOD = 4;
+
+    private static final int EQ = 0;
+    private static final int NE = 1;
+    private static final int LT = 2;
+    private static final int GT = 3;
+    private static final int LE = 4;
+    private static final int GE = 5;
+
+
+    private ExpressionCompiler() {
+        // Utility class
+    }
+
+
+    public static CompiledExpression compile(Node node) {
+
+        if (node instanceof AstDeferredExpression ||
+                node instanceof AstDynamicExpression) {
+            return compile(node.jjtGetChild(0));
+        }
+
+        if (node instanceof AstLiteralExpression ||
+                node instanceof AstString || node instanceof AstInteger ||
+                node instanceof AstFloatingPoint || node instanceof AstTrue ||
+                node instanceof AstFalse || node instanceof AstNull) {
+            return new Constant(node.getValue(null));
+        }
+
+        if (node instanceof AstIdentifier) {
+            return new Identifier(node.getImage());
+        }
+
+        if (node instanceof AstValue) {
+            return compileValue(node);
+        }
+
+        CompiledExpression[] children = compileChildren(node);
+        CompiledExpression result;
+        if (node instanceof AstPlus) {
+            result = new Arithmetic(PLUS, children[0], children[1]);
+        } else if (node instanceof AstMinus) {
+            result = new Arithmetic(MINUS, children[0], children[1]);
+        } else if (node instanceof AstMult) {
+            result = new Arithmetic(MULT, children[0], children[1]);
+        } else if (node instanceof AstDiv) {
+            result = new Arithmetic(DIV, children[0], children[1]);
+        } else if (node instanceof AstMod) {
+            result = new Arithmetic(MOD, children[0], children[1]);
+        } else if (node instanceof AstEqual) {
+            result = new Comparison(EQ, children[0], children[1]);
+        } else if (node instanceof AstNotEqual) {
+            result = new Comparison(NE, children[0], children[1]);
+        } else if (node instanceof AstLessThan) {
+            result = new Comparison(LT, children[0], children[1]);
+        } else if (node instanceof AstGreaterThan) {
+            result = new Comparison(GT, children[0], children[1]);
+        } else if (node instanceof AstLessThanEqual) {
+            result = new Comparison(LE, children[0], children[1]);
+        } else if (node instanceof AstGreaterThanEqual) {
+            result = new Comparison(GE, children[0], children[1]);
+        } else if (node instanceof AstAnd) {
+            result = new And(children[0], children[1]);
+        } else if (node instanceof AstOr) {
+            result = new Or(children[0], children[1]);
+        } else if (node instanceof AstNot) {
+            result = new Not(children[0]);
+        } else if (node instanceof AstEmpty) {
+            result = new Empty(children[0]);
+        } else if (node instanceof AstChoice) {
+            result = new Choice(children[0], children[1], children[2]);
+        } else if (node instanceof AstCompositeExpression) {
+            result = new Composite(children);
+        } else if (node instanceof AstNegative) {
+            // Rare enough to be left to the parsed node
+            result = new Interpreted(node);
+        } else {
+            // Functions and anything else that is not compiled
+            return new Interpreted(node);
+        }
+
+        // All of the above only depend on their children
+        for (CompiledExpression child : children) {
+            if (!child.isConstant()) {
+                return result;
+            }
+        }
+        try {
+            return new Constant(result.getValue(null));
+        } catch (RuntimeException e) {
+            // Leave the error to be reported when the expression is evaluated
+            return result;
+        }
+    }
+
+
+    private static CompiledExpression compileValue(Node node) {
+        int count = node.jjtGetNumChildren();
+        for (int i = 1; i < count; i++) {
+            if (node.jjtGetChild(i) instanceof AstMethodParameters) {
+                return new Interpreted(node);
+            }
+        }
+        CompiledExpression base = compile(node.jjtGetChild(0));
+        CompiledExpression[] properties = new CompiledExpression[count - 1];
+        for (int i = 1; i < count; i++) {
+            Node suffix = node.jjtGetChild(i);
+            if (suffix instanceof AstDotSuffix) {
+                properties[i - 1] = new Constant(suffix.getImage());
+            } else if (suffix instanceof AstBracketSuffix) {
+                properties[i - 1] = compile(suffix.jjtGetChild(0));
+            } else {
+                return new Interpreted(node);
+            }
+        }
+        return new Value(base, properties);
+    }
+
+
+    private static CompiledExpression[] compileChildren(Node node) {
+        int count = node.jjtGetNumChildren();
+        CompiledExpression[] children = new CompiledExpression[count];
+        for (int i = 0; i < count; i++) {
+            children[i] = compile(node.jjtGetChild(i));
+        }
+        return children;
+    }
+
+
+    private static boolean isIntegral(Object obj) {
+        return obj instanceof Long || obj instanceof Integer ||
+                obj instanceof Short || obj instanceof Byte;
+    }
+
+
+    // ---------------------------------------------------------- Inner classes
+
+
+    private static final class Constant extends CompiledExpression {
+
+        private final Object value;
+
+        public Constant(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        public Object getValue(EvaluationContext ctx) {
+            return value;
+        }
+
+        @Override
+        public boolean isConstant() {
+            return true;
+        }
+    }
+
+
+    private static final class Interpreted extends CompiledExpression {
+
+        private final Node node;
+
+        public Interpreted(Node node) {
+            this.node = node;
+        }
+
+        @Override
+        public Object getValue(EvaluationContext ctx) throws ELException {
+            return node.getValue(ctx);
+        }
+    }
+
+
+    /**
+     * See {@link AstIdentifier#getValue(EvaluationContext)}.
+     */
+    private static final class Identifier extends CompiledExpression {
+
+        private final String name;
+
+        public Identifier(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Object getValue(EvaluationContext ctx) throws ELException {
+            VariableMapper varMapper = ctx.getVariableMapper();
+            if (varMapper != null) {
+                ValueExpression expr = varMapper.resolveVariable(name);
+                if (expr != null) {
+                    return expr.getValue(ctx.getELContext());
+                }
+            }
+            ctx.setPropertyResolved(false);
+            Object result = ctx.getELResolver().getValue(ctx, null, name);
+            if (!ctx.isPropertyResolved()) {
+                throw new PropertyNotFoundException(MessageFactory.get(
+                        "error.resolver.unhandled.null", name));
+            }
+            return result;
+        }
+    }
+
+
+    /**
+     * See {@link AstValue#getValue(EvaluationContext)}.
+     */
+    private static final class Value extends CompiledExpression {
+
+        private final CompiledExpression base;
+        private final CompiledExpression[] properties;
+        /**
+         * The property names if they are all constants, else
+         * <code>null</code>.
+         */
+        private final Object[] names;
+
+        public Value(CompiledExpression base,
+                CompiledExpression[] properties) {
+            this.base = base;
+            this.properties = properties;
+            Object[] names = new Object[properties.length];
+            for (int i = 0; i < properties.length; i++) {
+                if (!properties[i].isConstant()) {
+                    names = null;
+                    break;
+                }
+                names[i] = properties[i].getValue(null);
+            }
+            this.names = names;
+        }
+
+        @Override
+        public Object getValue(EvaluationContext ctx) throws ELException {
+            Object value = base.getValue(ctx);
+            Object property = null;
+            ELResolver resolver = ctx.getELResolver();
+            for (int i = 0; value != null && i < properties.length; i++) {
+                if (names != null) {
+                    property = names[i];
+                } else {
+                    property = properties[i].getValue(ctx);
+                }
+                if (property == null) {
+                    return null;
+                }
+                ctx.setPropertyResolved(false);
+                value = resolver.getValue(ctx, value, property);
+            }
+            if (!ctx.isPropertyResolved()) {
+                throw new PropertyNotFoundException(MessageFactory.get(
+                        "error.resolver.unhandled", value, property));
+            }
+            return value;
+        }
+    }
+
+
+    private static final class Arithmetic extends CompiledExpression {
+
+        private final int op;
+        private final CompiledExpression left;
+        private final CompiledExpression right;
+
+        public Arithmetic(int op, CompiledExpression left,
+                CompiledExpression right) {
+            this.op = op;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public Object getValue(EvaluationContext ctx) throws ELException {
+            Object obj0 = left.getValue(ctx);
+            Object obj1 = right.getValue(ctx);
+            if (op != DIV && isIntegral(obj0) && isIntegral(obj1)) {
+                // Same result as ELArithmetic.LONG
+                long l0 = ((Number) obj0).longValue();
+                long l1 = ((Number) obj1).longValue();
+                switch (op) {
+                    case PLUS:
+                        return Long.valueOf(l0 + l1);
+                    case MINUS:
+                        return Long.valueOf(l0 - l1);
+                    case MULT:
+                        return Long.valueOf(l0 * l1);
+                    default:
+                        return Long.valueOf(l0 % l1);
+                }
+            }
+            switch (op) {
+                case PLUS:
+                    return ELArithmetic.add(obj0, obj1);
+                case MINUS:
+                    return ELArithmetic.subtract(obj0, obj1);
+                case MULT:
+                    return ELArithmetic.multiply(obj0, obj1);
+                case DIV:
+                    return ELArithmetic.divide(obj0, obj1);
+                default:
+                    return ELArithmetic.mod(obj0, obj1);
+            }
+        }
+    }
+
+
+    private static final class Comparison extends CompiledExpression {
+
+        private final int op;
+        private final CompiledExpression left;
+        private final CompiledExpression right;
+
+        public Comparison(int op, CompiledExpression left,
+                CompiledExpression right) {
+            this.op = op;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public Object getValue(EvaluationContext ctx) throws ELException {
+            Object obj0 = left.getValue(ctx);
+            if (obj0 == null && (op == LT || op == GT)) {
+                return Boolean.FALSE;
+            }
+            Object obj1 = right.getValue(ctx);
+            if (isIntegral(obj0) && isIntegral(obj1)) {
+                long l0 = ((Number) obj0).longValue();
+                long l1 = ((Number) obj1).longValue();
+                return Boolean.valueOf(test(l0 < l1 ? -1 : (l0 == l1 ? 0 : 1)));
+            }
+            switch (op) {
+                case EQ:
+                    return Boolean.valueOf(ELSupport.equals(obj0, obj1));
+                case NE:
+                    return Boolean.valueOf(!ELSupport.equals(obj0, obj1));
+                case LT:
+                case GT:
+                    if (obj1 == null) {
+                        return Boolean.FALSE;
+                    }
+                    break;
+                default:
+                    if (obj0 == obj1) {
+                        return Boolean.TRUE;
+                    }
+                    if (obj0 == null || obj1 == null) {
+                        return Boolean.FALSE;
+                    }
+            }
+            return Boolean.valueOf(test(ELSupport.compare(obj0, obj1)));
+        }
+
+        private boolean test(int comparison) {
+            switch (op) {
+                case EQ:
+                    return comparison == 0;
+                case NE:
+                    return comparison != 0;
+                case LT:
+                    return comparison < 0;
+                case GT:
+                    return comparison > 0;
+                case LE:
+                    return comparison <= 0;
+                default:
+                    return comparison >= 0;
+            }
+        }
+    }
+
+
+    private static final class And extends CompiledExpression {
+
+        private final CompiledExpression left;
+        private final CompiledExpression right;
+
+        public And(CompiledExpression left, CompiledExpression right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public Object getValue(EvaluationContext ctx) throws ELException {
+            Boolean b = ELSupport.coerceToBoolean(left.getValue(ctx));
+            if (!b.booleanValue()) {
+                return b;
+            }
+            return ELSupport.coerceToBoolean(right.getValue(ctx));
+        }
+    }
+
+
+    private static final class Or extends CompiledExpression {
+
+        private final CompiledExpression left;
+        private final CompiledExpression right;
+
+        public Or(CompiledExpression left, CompiledExpression right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public Object getValue(EvaluationContext ctx) throws ELException {
+            Boolean b = ELSupport.coerceToBoolean(left.getValue(ctx));
+            if (b.booleanValue()) {
+                return b;
+            }
+            return ELSupport.coerceToBoolean(right.getValue(ctx));
+        }
+    }
+
+
+    private static final class Not extends CompiledExpression {
+
+        private final CompiledExpression child;
+
+        public Not(CompiledExpression child) {
+            this.child = child;
+        }
+
+        @Override
+        public Object getValue(EvaluationContext ctx) throws ELException {
+            Boolean b = ELSupport.coerceToBoolean(child.getValue(ctx));
+            return Boolean.valueOf(!b.booleanValue());
+        }
+    }
+
+
+    /**
+     * See {@link AstEmpty#getValue(EvaluationContext)}.
+     */
+    private static final class Empty extends CompiledExpression {
+
+        private final CompiledExpression child;
+
+        public Empty(CompiledExpression child) {
+            this.child = child;
+        }
+
+        @Override
+        public Object getValue(EvaluationContext ctx) throws ELException {
+            Object obj = child.getValue(ctx);
+            if (obj == null) {
+                return Boolean.TRUE;
+            } else if (obj instanceof String) {
+                return Boolean.valueOf(((String) obj).length() == 0);
+            } else if (obj instanceof Object[]) {
+                return Boolean.valueOf(((Object[]) obj).length == 0);
+            } else if (obj instanceof Collection<?>) {
+                return Boolean.valueOf(((Collection<?>) obj).isEmpty());
+            } else if (obj instanceof Map<?,?>) {
+                return Boolean.valueOf(((Map<?,?>) obj).isEmpty());
+            }
+            return Boolean.FALSE;
+        }
+    }
+
+
+    private static final class Choice extends CompiledExpression {
+
+        private final CompiledExpression condition;
+        private final CompiledExpression whenTrue;
+        private final CompiledExpression whenFalse;
+
+        public Choice(CompiledExpression condition,
+                CompiledExpression whenTrue, CompiledExpression whenFalse) {
+            this.condition = condition;
+            this.whenTrue = whenTrue;
+            this.whenFalse = whenFalse;
+        }
+
+        @Override
+        public Object getValue(EvaluationContext ctx) throws ELException {
+            Boolean b = ELSupport.coerceToBoolean(condition.getValue(ctx));
+            if (b.booleanValue()) {
+                return whenTrue.getValue(ctx);
+            }
+            return whenFalse.getValue(ctx);
+        }
+    }
+
+
+    /**
+     * See {@link AstCompositeExpression#getValue(EvaluationContext)}.
+     */
+    private static final class Composite extends CompiledExpression {
+
+        private final CompiledExpression[] children;
+
+        public Composite(CompiledExpression[] children) {
+            this.children = children;
+        }
+
+        @Override
+        public Object getValue(EvaluationContext ctx) throws ELException {
+            StringBuilder sb = new StringBuilder(16);
+            for (CompiledExpression child : children) {
+                Object obj = child.getValue(ctx);
+                if (obj != null) {
+                    sb.append(ELSupport.coerceToString(obj));
+                }
+            }
+            return sb.toString();
+        }
+    }
+}
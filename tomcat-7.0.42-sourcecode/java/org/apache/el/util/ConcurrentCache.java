@@ -16,44 +16,227 @@
  */
 package org.apache.el.util;
 
-import java.util.Map;
-import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * A concurrent cache holding at most (approximately) a fixed number of
+ * entries. Neither {@link #get(Object)} nor {@link #put(Object, Object)} take
+ * a lock.
+ * <p>
+ * Entries are considered for eviction in the order they were added. The
+ * access frequency of each key is estimated by a small count-min sketch whose
+ * counts are periodically halved so that the estimate favours recent use.
+ * When the cache is full a new entry is only admitted if its key has been
+ * requested at least as often as the key of the oldest entry, otherwise the
+ * oldest entry is kept and considered again later. This keeps frequently used
+ * entries in the cache when a large number of entries that are only used
+ * once are added.
+ * <p>
+ * Concurrent calls to {@link #put(Object, Object)} may exceed the size by the
+ * number of threads adding entries at the same time.
+ */
 public final class ConcurrentCache<K,V> {
 
     private final int size;
 
-    private final Map<K,V> eden;
+    private final ConcurrentHashMap<K,V> map;
+
+    /*
+     * The keys in the map in the order in which they were added.
+     */
+    private final ConcurrentLinkedQueue<K> queue =
+        new ConcurrentLinkedQueue<K>();
+
+    private final AtomicInteger count = new AtomicInteger();
 
-    private final Map<K,V> longterm;
+    private final FrequencySketch sketch;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong rejectionCount = new AtomicLong();
 
     public ConcurrentCache(int size) {
         this.size = size;
-        this.eden = new ConcurrentHashMap<K,V>(size);
-        this.longterm = new WeakHashMap<K,V>(size);
+        this.map = new ConcurrentHashMap<K,V>(size);
+        this.sketch = new FrequencySketch(size);
     }
 
     public V get(K k) {
-        V v = this.eden.get(k);
+        sketch.increment(k);
+        V v = this.map.get(k);
         if (v == null) {
-            synchronized (longterm) {
-                v = this.longterm.get(k);
-            }
-            if (v != null) {
-                this.eden.put(k, v);
-            }
+            missCount.incrementAndGet();
+        } else {
+            hitCount.incrementAndGet();
         }
         return v;
     }
 
     public void put(K k, V v) {
-        if (this.eden.size() >= size) {
-            synchronized (longterm) {
-                this.longterm.putAll(this.eden);
+        if (size <= 0) {
+            return;
+        }
+        if (this.map.replace(k, v) != null) {
+            return;
+        }
+        while (count.get() >= size) {
+            K victim = queue.poll();
+            if (victim == null) {
+                // Entries are being added and removed concurrently
+                break;
+            }
+            if (sketch.frequency(k) >= sketch.frequency(victim)) {
+                this.map.remove(victim);
+                count.decrementAndGet();
+                evictionCount.incrementAndGet();
+            } else {
+                // Keep the more frequently used entry
+                queue.offer(victim);
+                rejectionCount.incrementAndGet();
+                return;
             }
-            this.eden.clear();
         }
-        this.eden.put(k, v);
+        if (this.map.putIfAbsent(k, v) == null) {
+            count.incrementAndGet();
+            queue.offer(k);
+        }
+    }
+
+    /**
+     * The maximum number of entries.
+     */
+    public int getMaxSize() {
+        return size;
+    }
+
+    /**
+     * The current number of entries.
+     */
+    public int getSize() {
+        return count.get();
+    }
+
+    /**
+     * The number of calls to {@link #get(Object)} that found an entry.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * The number of calls to {@link #get(Object)} that did not find an entry.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * The number of entries removed to make room for new entries.
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * The number of new entries that were not added because the cache was
+     * full of entries that were used more frequently.
+     */
+    public long getRejectionCount() {
+        return rejectionCount.get();
+    }
+
+
+    /*
+     * A count-min sketch of 4 bit counters, two counters per byte and four
+     * counters per key. There are four times as many counters in each row as
+     * entries in the cache to limit the over estimates caused by collisions.
+     * Counters are updated without synchronization, lost updates only make
+     * the estimate less accurate.
+     */
+    private static final class FrequencySketch {
+
+        private static final int MAX_COUNT = 15;
+
+        private static final int[] SEEDS = {
+            0x97cb3127, 0x5bd1e995, 0xcc9e2d51, 0x1b873593 };
+
+        private final byte[] counts;
+        private final int mask;
+        private final int sampleSize;
+        private final AtomicInteger additions = new AtomicInteger();
+
+        public FrequencySketch(int size) {
+            int length = 64;
+            while (length < size * 4L && length < (1 << 24)) {
+                length <<= 1;
+            }
+            // Four rows of length counters, two counters per byte
+            this.counts = new byte[length * 2];
+            this.mask = length - 1;
+            this.sampleSize = Math.max(size, 16) * 10;
+        }
+
+        public void increment(Object key) {
+            int hash = spread(key.hashCode());
+            boolean added = false;
+            for (int i = 0; i < SEEDS.length; i++) {
+                int index = index(hash, i);
+                int shift = (index & 1) << 2;
+                int b = counts[index >>> 1];
+                if (((b >>> shift) & MAX_COUNT) < MAX_COUNT) {
+                    counts[index >>> 1] = (byte) (b + (1 << shift));
+                    added = true;
+                }
+            }
+            if (added && additions.incrementAndGet() >= sampleSize) {
+                reset();
+            }
+        }
+
+        public int frequency(Object key) {
+            int hash = spread(key.hashCode());
+            int frequency = MAX_COUNT;
+            for (int i = 0; i < SEEDS.length; i++) {
+                int index = index(hash, i);
+                int count = (counts[index >>> 1] >>> ((index & 1) << 2)) &
+                        MAX_COUNT;
+                frequency = Math.min(frequency, count);
+            }
+            return frequency;
+        }
+
+        /*
+         * Halve all the counts so that keys that are no longer used are
+         * eventually considered less frequently used than new keys.
+         */
+        private void reset() {
+            synchronized (this) {
+                if (additions.get() < sampleSize) {
+                    return;
+                }
+                for (int i = 0; i < counts.length; i++) {
+                    counts[i] = (byte) ((counts[i] >>> 1) & 0x77);
+                }
+                additions.set(0);
+            }
+        }
+
+        /*
+         * The index of the counter for the key in the given row.
+         */
+        private int index(int hash, int row) {
+            int h = hash * SEEDS[row];
+            h ^= h >>> 16;
+            return ((h & mask) << 2) + row;
+        }
+
+        private static int spread(int hash) {
+            int h = hash * 0x9e3779b9;
+            return h ^ (h >>> 15);
+        }
     }
 }
@@ -200,6 +200,37 @@ public final class EmbeddedServletOptions implements Options {
      */
     private int jspIdleTimeout = -1;
 
+    /**
+     * Should all JSPs be compiled when the JSP servlet is initialised?
+     */
+    private boolean precompileOnStartup = false;
+
+    /**
+     * The number of threads used to compile JSPs on start up.
+     */
+    private int precompileThreads =
+        Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The directory used to cache generated classes by the content of JSPs.
+     */
+    private File compileCacheDir = null;
+
+    /**
+     * Should the files the compiled JSPs depend on be tracked?
+     */
+    private boolean trackDependencies = false;
+
+    /**
+     * Should template text be encoded when the generated class is loaded?
+     */
+    private boolean preEncodeTemplateText = false;
+
+    /**
+     * Should the types resolved by the JDT compiler be cached?
+     */
+    private boolean jdtTypeCache = true;
+
     public String getProperty(String name ) {
         return settings.getProperty( name );
     }
@@ -443,6 +474,63 @@ public final class EmbeddedServletOptions implements Options {
         return jspIdleTimeout;
     }
 
+    /**
+     * Should all the JSPs be compiled when the JSP servlet is initialised?
+     * Default: false
+     */
+    @Override
+    public boolean getPrecompileOnStartup() {
+        return precompileOnStartup;
+    }
+
+    /**
+     * How many threads should be used to compile the JSPs on start up?
+     * Default: the number of available processors
+     */
+    @Override
+    public int getPrecompileThreads() {
+        return precompileThreads;
+    }
+
+    /**
+     * Where should generated classes be cached by the content of the JSPs?
+     * Default: null (no caching)
+     */
+    @Override
+    public File getCompileCacheDir() {
+        return compileCacheDir;
+    }
+
+    /**
+     * Should only the JSPs that depend on a modified file be checked and
+     * recompiled?
+     * Default: false
+     */
+    @Override
+    public boolean getTrackDependencies() {
+        return trackDependencies;
+    }
+
+    /**
+     * Should template text be encoded when the generated class is loaded
+     * rather than for every request?
+     * Default: false
+     */
+    @Override
+    public boolean getPreEncodeTemplateText() {
+        return preEncodeTemplateText;
+    }
+
+    /**
+     * Should the types resolved by the JDT compiler be shared by the
+     * compilations of all the JSPs?
+     * Default: true
+     */
+    @Override
+    public boolean isJDTTypeCacheEnabled() {
+        return jdtTypeCache;
+    }
+
     /**
      * Create an EmbeddedServletOptions object using data available from
      * ServletConfig and ServletContext. 
@@ -746,6 +834,90 @@ public final class EmbeddedServletOptions implements Options {
             }
         }
 
+        String precompileOnStartup =
+            config.getInitParameter("precompileOnStartup");
+        if (precompileOnStartup != null) {
+            if (precompileOnStartup.equalsIgnoreCase("true")) {
+                this.precompileOnStartup = true;
+            } else if (precompileOnStartup.equalsIgnoreCase("false")) {
+                this.precompileOnStartup = false;
+            } else {
+                if (log.isWarnEnabled()) {
+                    log.warn(Localizer.getMessage("jsp.warning.precompileOnStartup"));
+                }
+            }
+        }
+
+        String precompileThreads = config.getInitParameter("precompileThreads");
+        if (precompileThreads != null) {
+            try {
+                int threads = Integer.parseInt(precompileThreads);
+                if (threads > 0) {
+                    this.precompileThreads = threads;
+                } else if (log.isWarnEnabled()) {
+                    log.warn(Localizer.getMessage("jsp.warning.precompileThreads",
+                            "" + this.precompileThreads));
+                }
+            } catch(NumberFormatException ex) {
+                if (log.isWarnEnabled()) {
+                    log.warn(Localizer.getMessage("jsp.warning.precompileThreads",
+                            "" + this.precompileThreads));
+                }
+            }
+        }
+
+        String compileCacheDir = config.getInitParameter("compileCacheDir");
+        if (compileCacheDir != null) {
+            this.compileCacheDir = new File(compileCacheDir);
+            if (!(this.compileCacheDir.isDirectory() ||
+                    this.compileCacheDir.mkdirs())) {
+                log.warn(Localizer.getMessage("jsp.warning.compileCacheDir",
+                        this.compileCacheDir.getAbsolutePath()));
+                this.compileCacheDir = null;
+            }
+        }
+
+        String trackDependencies =
+            config.getInitParameter("trackDependencies");
+        if (trackDependencies != null) {
+            if (trackDependencies.equalsIgnoreCase("true")) {
+                this.trackDependencies = true;
+            } else if (trackDependencies.equalsIgnoreCase("false")) {
+                this.trackDependencies = false;
+            } else {
+                if (log.isWarnEnabled()) {
+                    log.warn(Localizer.getMessage("jsp.warning.trackDependencies"));
+                }
+            }
+        }
+
+        String preEncodeTemplateText =
+            config.getInitParameter("preEncodeTemplateText");
+        if (preEncodeTemplateText != null) {
+            if (preEncodeTemplateText.equalsIgnoreCase("true")) {
+                this.preEncodeTemplateText = true;
+            } else if (preEncodeTemplateText.equalsIgnoreCase("false")) {
+                this.preEncodeTemplateText = false;
+            } else {
+                if (log.isWarnEnabled()) {
+                    log.warn(Localizer.getMessage("jsp.warning.preEncodeTemplateText"));
+                }
+            }
+        }
+
+        String jdtTypeCache = config.getInitParameter("jdtTypeCache");
+        if (jdtTypeCache != null) {
+            if (jdtTypeCache.equalsIgnoreCase("true")) {
+                this.jdtTypeCache = true;
+            } else if (jdtTypeCache.equalsIgnoreCase("false")) {
+                this.jdtTypeCache = false;
+            } else {
+                if (log.isWarnEnabled()) {
+                    log.warn(Localizer.getMessage("jsp.warning.jdtTypeCache"));
+                }
+            }
+        }
+
         // Setup the global Tag Libraries location cache for this
         // web-application.
         tldLocationsCache = TldLocationsCache.getInstance(context);
@@ -460,6 +460,52 @@ public class JspC extends Task implements Options {
         return -1;
     }
 
+    /**
+     * In JspC this always returns <code>false</code>.
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean getPrecompileOnStartup() {
+        return false;
+    }
+
+    @Override
+    public int getPrecompileThreads() {
+        return 1;
+    }
+
+    /**
+     * In JspC this always returns <code>null</code>.
+     * {@inheritDoc}
+     */
+    @Override
+    public File getCompileCacheDir() {
+        return null;
+    }
+
+    /**
+     * In JspC this always returns <code>false</code>.
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean getTrackDependencies() {
+        return false;
+    }
+
+    /**
+     * In JspC this always returns <code>false</code>.
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean getPreEncodeTemplateText() {
+        return false;
+    }
+
+    @Override
+    public boolean isJDTTypeCacheEnabled() {
+        return true;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -34,6 +34,7 @@ import javax.servlet.jsp.tagext.TagInfo;
 
 import org.apache.jasper.compiler.Compiler;
 import org.apache.jasper.compiler.JarResource;
+import org.apache.jasper.compiler.JspCompileCache;
 import org.apache.jasper.compiler.JspRuntimeContext;
 import org.apache.jasper.compiler.JspUtil;
 import org.apache.jasper.compiler.Localizer;
@@ -643,7 +644,10 @@ public class JspCompilationContext {
             try {
                 jspCompiler.removeGeneratedFiles();
                 jspLoader = null;
-                jspCompiler.compile();
+                JspCompileCache compileCache = rctxt.getCompileCache();
+                if (compileCache == null || !compileCache.restore(this)) {
+                    jspCompiler.compile();
+                }
                 jsw.setReload(true);
                 jsw.setCompilationException(null);
             } catch (JasperException ex) {
@@ -233,4 +233,41 @@ public interface Options {
      * If unset or less or equal than 0, no jsps are unloaded.
      */
     public int getJspIdleTimeout();
+
+    /**
+     * Should all the JSPs of the web application be compiled when the JSP
+     * servlet is initialised rather than when they are first requested?
+     */
+    public boolean getPrecompileOnStartup();
+
+    /**
+     * The number of threads used to compile the JSPs of the web application
+     * when {@link #getPrecompileOnStartup()} is <code>true</code>.
+     */
+    public int getPrecompileThreads();
+
+    /**
+     * The directory in which the classes generated for JSPs are cached by the
+     * content of the JSPs so that they are kept when the web application is
+     * redeployed. If <code>null</code>, classes are not cached.
+     */
+    public File getCompileCacheDir();
+
+    /**
+     * Should the files each compiled JSP depends on be tracked so that only
+     * the JSPs that depend on a modified file are checked and recompiled?
+     */
+    public boolean getTrackDependencies();
+
+    /**
+     * Should template text be encoded in the character encoding of the page
+     * when the generated class is loaded rather than for every request?
+     */
+    public boolean getPreEncodeTemplateText();
+
+    /**
+     * Should the types resolved by the JDT compiler be cached and shared by
+     * the compilations of all the JSPs of the web application?
+     */
+    public boolean isJDTTypeCacheEnabled();
 }
@@ -389,6 +389,12 @@ public abstract class Compiler {
                         }
                     }
                 }
+                JspRuntimeContext rctxt = ctxt.getRuntimeContext();
+                if (!jspcMode && rctxt != null &&
+                        rctxt.getCompileCache() != null) {
+                    rctxt.getCompileCache().store(ctxt,
+                            pageInfo.getDependants());
+                }
             }
         } finally {
             if (tfp != null && ctxt.isPrototypeMode()) {
@@ -1980,6 +1980,51 @@ class Generator {
                 return;
             }
 
+            if (ctxt.getOptions().getPreEncodeTemplateText()) {
+                // Generate the text as constants that are encoded once, when
+                // the class is loaded, rather than for every request
+                ServletWriter caOut;
+                if (charArrayBuffer == null) {
+                    charArrayBuffer = new GenBuffer();
+                    caOut = charArrayBuffer.getOut();
+                    caOut.pushIndent();
+                    textMap = new HashMap<String,String>();
+                } else {
+                    caOut = charArrayBuffer.getOut();
+                }
+                String charSet = "ISO-8859-1";
+                String cType = pageInfo.getContentType();
+                if (cType != null && cType.indexOf("charset=") >= 0) {
+                    charSet = cType.substring(cType.indexOf("charset=") + 8);
+                }
+                // As for char arrays, limit string constants to 16k characters
+                int textIndex = 0;
+                int textLength = text.length();
+                while (textIndex < textLength) {
+                    int len = Math.min(textLength - textIndex, 16384);
+                    String output = text.substring(textIndex, textIndex + len);
+                    String textName = textMap.get(output);
+                    if (textName == null) {
+                        textName = "_jspx_text_" + charArrayCount++;
+                        textMap.put(output, textName);
+                        caOut.printin("static final org.apache.jasper.runtime.PreEncodedText ");
+                        caOut.print(textName);
+                        caOut.print(" = new org.apache.jasper.runtime.PreEncodedText(");
+                        caOut.print(quote(output));
+                        caOut.print(", ");
+                        caOut.print(quote(charSet));
+                        caOut.println(");");
+                    }
+
+                    n.setBeginJavaLine(out.getJavaLine());
+                    out.printil(textName + ".write(out);");
+                    n.setEndJavaLine(out.getJavaLine());
+
+                    textIndex = textIndex + len;
+                }
+                return;
+            }
+
             if (ctxt.getOptions().genStringAsCharArray()) {
                 // Generate Strings as char arrays, for performance
                 ServletWriter caOut;
@@ -83,6 +83,12 @@ public class JDTCompiler extends org.apache.jasper.compiler.Compiler {
             ((packageName.length() != 0) ? (packageName + ".") : "") 
                     + ctxt.getServletClassName();
         final ClassLoader classLoader = ctxt.getJspLoader();
+        final JDTTypeCache typeCache;
+        if (ctxt.getRuntimeContext() != null) {
+            typeCache = ctxt.getRuntimeContext().getJDTTypeCache();
+        } else {
+            typeCache = null;
+        }
         String[] fileNames = new String[] {sourceFile};
         String[] classNames = new String[] {targetClassName};
         final ArrayList<JavacErrorDetail> problemList =
@@ -205,14 +211,25 @@ public class JDTCompiler extends org.apache.jasper.compiler.Compiler {
                 
                 private NameEnvironmentAnswer findType(String className) {
 
+                    if (className.equals(targetClassName)) {
+                        ICompilationUnit compilationUnit = 
+                            new CompilationUnit(sourceFile, className);
+                        return 
+                            new NameEnvironmentAnswer(compilationUnit, null);
+                    }
+                    boolean cacheable = typeCache != null &&
+                            JDTTypeCache.isCacheable(className);
+                    if (cacheable && typeCache.containsType(className)) {
+                        ClassFileReader classFileReader =
+                            typeCache.getType(className);
+                        if (classFileReader == null) {
+                            return null;
+                        }
+                        return new NameEnvironmentAnswer(classFileReader, null);
+                    }
+
                     InputStream is = null;
                     try {
-                        if (className.equals(targetClassName)) {
-                            ICompilationUnit compilationUnit = 
-                                new CompilationUnit(sourceFile, className);
-                            return 
-                                new NameEnvironmentAnswer(compilationUnit, null);
-                        }
                         String resourceName = 
                             className.replace('.', '/') + ".class";
                         is = classLoader.getResourceAsStream(resourceName);
@@ -231,9 +248,15 @@ public class JDTCompiler extends org.apache.jasper.compiler.Compiler {
                             ClassFileReader classFileReader = 
                                 new ClassFileReader(classBytes, fileName, 
                                                     true);
+                            if (cacheable) {
+                                typeCache.putType(className, classFileReader);
+                            }
                             return 
                                 new NameEnvironmentAnswer(classFileReader, null);
                         }
+                        if (cacheable) {
+                            typeCache.putType(className, null);
+                        }
                     } catch (IOException exc) {
                         log.error("Compilation error", exc);
                     } catch (org.eclipse.jdt.internal.compiler.classfmt.ClassFormatException exc) {
@@ -254,10 +277,29 @@ public class JDTCompiler extends org.apache.jasper.compiler.Compiler {
                     if (result.equals(targetClassName)) {
                         return false;
                     }
+                    boolean cacheable = typeCache != null &&
+                            JDTTypeCache.isCacheable(result);
+                    if (cacheable) {
+                        Boolean cached = typeCache.isPackage(result);
+                        if (cached != null) {
+                            return cached.booleanValue();
+                        }
+                    }
                     String resourceName = result.replace('.', '/') + ".class";
                     InputStream is = 
                         classLoader.getResourceAsStream(resourceName);
-                    return is == null;
+                    boolean isPackage = (is == null);
+                    if (is != null) {
+                        try {
+                            is.close();
+                        } catch (IOException e) {
+                            // Ignore
+                        }
+                    }
+                    if (cacheable) {
+                        typeCache.putPackage(result, isPackage);
+                    }
+                    return isPackage;
                 }
 
                 @Override
@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jasper.compiler;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.jasper.Constants;
+import org.eclipse.jdt.internal.compiler.classfmt.ClassFileReader;
+
+/**
+ * The types and packages resolved by the {@link JDTCompiler} for the JSPs of a
+ * web application, kept for the lifetime of the web application's class
+ * loader so that each type is found and read only once rather than once per
+ * compiled JSP. Classes in the packages of the generated classes are not
+ * cached since they change when JSPs and tag files are recompiled.
+ * <p>
+ * The cached readers are fully initialized when they are created and are
+ * only read afterwards, so they are shared by concurrent compilations.
+ */
+public class JDTTypeCache {
+
+    /**
+     * Marks types that were not found since the map does not accept
+     * <code>null</code> values.
+     */
+    private static final Object NOT_FOUND = new Object();
+
+    private final ConcurrentHashMap<String,Object> types =
+        new ConcurrentHashMap<String,Object>();
+
+    private final ConcurrentHashMap<String,Boolean> packages =
+        new ConcurrentHashMap<String,Boolean>();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong lookupCount = new AtomicLong();
+
+
+    /**
+     * Can the result of looking up the given type or package be cached?
+     */
+    public static boolean isCacheable(String name) {
+        return !name.startsWith(Constants.JSP_PACKAGE_NAME) &&
+                !name.startsWith(Constants.TAG_FILE_PACKAGE_NAME);
+    }
+
+
+    /**
+     * Has the type been looked up before?
+     */
+    public boolean containsType(String className) {
+        lookupCount.incrementAndGet();
+        if (types.containsKey(className)) {
+            hitCount.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+
+    /**
+     * The type found by a previous lookup or <code>null</code> if it was not
+     * found.
+     */
+    public ClassFileReader getType(String className) {
+        Object reader = types.get(className);
+        return reader == NOT_FOUND ? null : (ClassFileReader) reader;
+    }
+
+
+    /**
+     * Record the result of looking up a type.
+     *
+     * @param className The name of the type
+     * @param reader    The type or <code>null</code> if it was not found
+     */
+    public void putType(String className, ClassFileReader reader) {
+        types.put(className, reader == null ? NOT_FOUND : reader);
+    }
+
+
+    /**
+     * Was the name found to be a package by a previous lookup?
+     *
+     * @return the result of the previous lookup or <code>null</code> if the
+     *         name has not been looked up
+     */
+    public Boolean isPackage(String name) {
+        lookupCount.incrementAndGet();
+        Boolean result = packages.get(name);
+        if (result != null) {
+            hitCount.incrementAndGet();
+        }
+        return result;
+    }
+
+
+    public void putPackage(String name, boolean isPackage) {
+        packages.put(name, Boolean.valueOf(isPackage));
+    }
+
+
+    /**
+     * The number of lookups that were answered by the cache.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+
+    /**
+     * The number of lookups of cacheable types and packages.
+     */
+    public long getLookupCount() {
+        return lookupCount.get();
+    }
+}
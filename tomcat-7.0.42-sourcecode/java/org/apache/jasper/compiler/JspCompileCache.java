@@ -0,0 +1,363 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jasper.compiler;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.jasper.JspCompilationContext;
+import org.apache.jasper.Options;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.buf.HexUtils;
+
+/**
+ * A cache of the classes generated for JSP pages that is keyed by the content
+ * of the pages rather than by their time stamps so that it can be kept when an
+ * application is redeployed. A page that is unchanged since it was last
+ * compiled, along with the files it depends on, is restored from the cache
+ * rather than compiled again.
+ * <p>
+ * An entry is a directory named after a digest of the page, the generated
+ * class name, the web.xml of the application and the options that affect the
+ * generated code. It holds the class files and a list of the dependencies of
+ * the page with the time stamp and a digest of the content of each. The time
+ * stamps are compiled into the classes and compared with the dependencies when
+ * checking whether the page is out of date, so an entry is only restored if
+ * they have not changed either. Pages that use tag files are not cached since
+ * the classes generated for the tag files are not part of the entry.
+ */
+public class JspCompileCache {
+
+    private static final String DEPENDENCIES = "dependencies";
+
+    private final Log log = LogFactory.getLog(JspCompileCache.class); // must not be static
+
+    private final File dir;
+
+
+    public JspCompileCache(File dir) {
+        this.dir = dir;
+    }
+
+
+    public File getDirectory() {
+        return dir;
+    }
+
+
+    /**
+     * Copy the classes of a page from the cache to the output directory of
+     * the page.
+     *
+     * @param ctxt  The page to restore
+     * @return <code>true</code> if the cache held the classes for the current
+     *         content of the page and its dependencies and they were restored
+     */
+    public boolean restore(JspCompilationContext ctxt) {
+        if (ctxt.isTagFile()) {
+            return false;
+        }
+        try {
+            File entry = getEntry(ctxt);
+            if (entry == null) {
+                return false;
+            }
+            File dependencies = new File(entry, DEPENDENCIES);
+            if (!dependencies.isFile()) {
+                return false;
+            }
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(dependencies), "UTF-8"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    // name, time stamp and digest
+                    int tab2 = line.lastIndexOf('\t');
+                    int tab1 = tab2 < 0 ? -1 : line.lastIndexOf('\t', tab2 - 1);
+                    if (tab1 < 0) {
+                        return false;
+                    }
+                    String dependant = line.substring(0, tab1);
+                    String lastModified = line.substring(tab1 + 1, tab2);
+                    if (!lastModified.equals(String.valueOf(
+                            getLastModified(ctxt, dependant))) ||
+                            !line.substring(tab2 + 1).equals(
+                                    digest(ctxt, dependant))) {
+                        return false;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+
+            File[] classFiles = entry.listFiles();
+            if (classFiles == null) {
+                return false;
+            }
+            File outputDir = new File(ctxt.getOutputDir());
+            for (File classFile : classFiles) {
+                if (!classFile.getName().equals(DEPENDENCIES)) {
+                    copy(classFile, new File(outputDir, classFile.getName()));
+                }
+            }
+            File classFile = new File(ctxt.getClassFileName());
+            if (!classFile.isFile()) {
+                return false;
+            }
+            classFile.setLastModified(ctxt.getLastModified(
+                    ctxt.getJspFile()).longValue());
+            if (log.isDebugEnabled()) {
+                log.debug(Localizer.getMessage("jsp.message.compileCache.hit",
+                        ctxt.getJspFile()));
+            }
+            return true;
+        } catch (IOException e) {
+            log.warn(Localizer.getMessage("jsp.warning.compileCache.restore",
+                    ctxt.getJspFile()), e);
+            return false;
+        }
+    }
+
+
+    /**
+     * Add the classes generated for a page to the cache.
+     *
+     * @param ctxt          The page that has been compiled
+     * @param dependants    The files the page depends on
+     */
+    public void store(JspCompilationContext ctxt,
+            Map<String,Long> dependants) {
+        if (ctxt.isTagFile()) {
+            return;
+        }
+        for (String dependant : dependants.keySet()) {
+            if (dependant.endsWith(".tag") || dependant.endsWith(".tagx")) {
+                return;
+            }
+        }
+        File entry = null;
+        File tmp = null;
+        try {
+            entry = getEntry(ctxt);
+            if (entry == null) {
+                return;
+            }
+            Map<String,String> digests = new LinkedHashMap<String,String>();
+            for (String dependant : dependants.keySet()) {
+                String digest = digest(ctxt, dependant);
+                if (digest == null) {
+                    return;
+                }
+                digests.put(dependant, digest);
+            }
+
+            tmp = new File(dir, entry.getName() + '.' +
+                    Thread.currentThread().getId() + ".tmp");
+            if (!tmp.mkdirs()) {
+                return;
+            }
+            String prefix = ctxt.getServletClassName();
+            File[] classFiles = new File(ctxt.getOutputDir()).listFiles();
+            if (classFiles == null) {
+                return;
+            }
+            for (File classFile : classFiles) {
+                String name = classFile.getName();
+                if (name.equals(prefix + ".class") ||
+                        (name.startsWith(prefix + "$") &&
+                                name.endsWith(".class"))) {
+                    copy(classFile, new File(tmp, name));
+                }
+            }
+            Writer writer = new OutputStreamWriter(new FileOutputStream(
+                    new File(tmp, DEPENDENCIES)), "UTF-8");
+            try {
+                for (Map.Entry<String,String> digest : digests.entrySet()) {
+                    writer.write(digest.getKey());
+                    writer.write('\t');
+                    writer.write(String.valueOf(
+                            dependants.get(digest.getKey())));
+                    writer.write('\t');
+                    writer.write(digest.getValue());
+                    writer.write('\n');
+                }
+            } finally {
+                writer.close();
+            }
+            // Another thread or instance may have stored the same page
+            if (!entry.exists() && tmp.renameTo(entry)) {
+                tmp = null;
+            }
+        } catch (IOException e) {
+            log.warn(Localizer.getMessage("jsp.warning.compileCache.store",
+                    ctxt.getJspFile()), e);
+        } finally {
+            if (tmp != null) {
+                delete(tmp);
+            }
+        }
+    }
+
+
+    private File getEntry(JspCompilationContext ctxt) throws IOException {
+        MessageDigest md = newDigest();
+        Options options = ctxt.getOptions();
+        StringBuilder sb = new StringBuilder();
+        sb.append(ctxt.getFQCN());
+        sb.append('|').append(JspCompileCache.class.getPackage()
+                .getImplementationVersion());
+        sb.append('|').append(options.getCompilerSourceVM());
+        sb.append('|').append(options.getCompilerTargetVM());
+        sb.append('|').append(options.getCompiler());
+        sb.append('|').append(options.getCompilerClassName());
+        sb.append('|').append(options.getJavaEncoding());
+        sb.append('|').append(options.getClassDebugInfo());
+        sb.append('|').append(options.getTrimSpaces());
+        sb.append('|').append(options.genStringAsCharArray());
+        sb.append('|').append(options.getPreEncodeTemplateText());
+        sb.append('|').append(options.getMappedFile());
+        sb.append('|').append(options.isPoolingEnabled());
+        sb.append('|').append(options.isXpoweredBy());
+        sb.append('|').append(options.isSmapSuppressed());
+        sb.append('|').append(options.getIeClassId());
+        sb.append('|').append(
+                options.getErrorOnUseBeanInvalidClassAttribute());
+        md.update(sb.toString().getBytes("UTF-8"));
+        if (!update(md, ctxt.getResource(ctxt.getJspFile()))) {
+            return null;
+        }
+        // Includes the JSP configuration of the application
+        update(md, ctxt.getResource("/WEB-INF/web.xml"));
+        return new File(dir, HexUtils.toHexString(md.digest()));
+    }
+
+
+    private static String digest(JspCompilationContext ctxt,
+            String dependant) throws IOException {
+        MessageDigest md = newDigest();
+        if (!update(md, getURL(ctxt, dependant))) {
+            return null;
+        }
+        return HexUtils.toHexString(md.digest());
+    }
+
+
+    /**
+     * The time stamp of a dependency, obtained as the compiler obtains it to
+     * check whether a page is out of date.
+     */
+    private static long getLastModified(JspCompilationContext ctxt,
+            String dependant) throws IOException {
+        URL url = getURL(ctxt, dependant);
+        if (url == null) {
+            return -1;
+        }
+        URLConnection conn = url.openConnection();
+        long lastModified;
+        if (conn instanceof JarURLConnection) {
+            lastModified = ((JarURLConnection) conn).getJarEntry().getTime();
+        } else {
+            lastModified = conn.getLastModified();
+        }
+        conn.getInputStream().close();
+        return lastModified;
+    }
+
+
+    private static URL getURL(JspCompilationContext ctxt, String dependant)
+            throws IOException {
+        if (dependant.startsWith("jar:") || dependant.startsWith("file:")) {
+            return new URL(dependant);
+        }
+        return ctxt.getResource(dependant);
+    }
+
+
+    private static boolean update(MessageDigest md, URL url)
+            throws IOException {
+        if (url == null) {
+            return false;
+        }
+        InputStream is = url.openStream();
+        try {
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = is.read(buf)) > 0) {
+                md.update(buf, 0, n);
+            }
+        } finally {
+            is.close();
+        }
+        return true;
+    }
+
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            // Every JRE has to support MD5
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+    private static void copy(File src, File dest) throws IOException {
+        InputStream is = new FileInputStream(src);
+        try {
+            OutputStream os = new FileOutputStream(dest);
+            try {
+                byte[] buf = new byte[4096];
+                int n;
+                while ((n = is.read(buf)) > 0) {
+                    os.write(buf, 0, n);
+                }
+            } finally {
+                os.close();
+            }
+        } finally {
+            is.close();
+        }
+    }
+
+
+    private static void delete(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jasper.compiler;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.jasper.JspCompilationContext;
+import org.apache.jasper.servlet.JspServletWrapper;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * The graph of the resources, i.e. the JSPs and the files they include and the
+ * tag files and TLDs they use, that the compiled JSPs were generated from.
+ * Each resource is checked for modification once however many pages depend on
+ * it, and only the pages that depend on a modified resource are reported as
+ * stale.
+ * <p>
+ * Each page records the last modified time of every resource it was compiled
+ * against so that a page registered after a resource was modified is still
+ * detected as stale.
+ */
+public class JspDependencyTracker {
+
+    // Logger
+    private final Log log = LogFactory.getLog(JspDependencyTracker.class); // must not be static
+
+    /**
+     * The resources, keyed as in {@link JspServletWrapper#getDependants()}.
+     */
+    private final ConcurrentHashMap<String,Resource> resources =
+        new ConcurrentHashMap<String,Resource>();
+
+    /**
+     * The resources each registered page depends on, including the page.
+     */
+    private final ConcurrentHashMap<JspServletWrapper,Set<String>> pages =
+        new ConcurrentHashMap<JspServletWrapper,Set<String>>();
+
+    /**
+     * Guards the changes to {@link #resources} and {@link #pages}, so that a
+     * page is never added to a resource that another page is removing from
+     * the graph. It is never held while calling the pages, which may be
+     * locked by a thread that is compiling them.
+     */
+    private final Object lock = new Object();
+
+
+    /**
+     * Record the resources a page was compiled against. Any previous
+     * registration of the page is replaced. Pages which have not been
+     * compiled are not registered.
+     *
+     * @param jsw   The page
+     * @return <code>true</code> if the page was registered
+     */
+    public boolean register(JspServletWrapper jsw) {
+        JspCompilationContext ctxt = jsw.getJspEngineContext();
+        String classFileName = ctxt.getClassFileName();
+        if (classFileName == null) {
+            unregister(jsw);
+            return false;
+        }
+        // The class file has the last modified time of the JSP
+        long jspLastModified = new File(classFileName).lastModified();
+        if (jspLastModified <= 0) {
+            unregister(jsw);
+            return false;
+        }
+
+        Map<String,Long> dependants = jsw.getDependants();
+        Map<String,Long> compiledAgainst = new HashMap<String,Long>();
+        compiledAgainst.put(jsw.getJspUri(), Long.valueOf(jspLastModified));
+        if (dependants != null) {
+            compiledAgainst.putAll(dependants);
+        }
+
+        synchronized (lock) {
+            unregister(jsw);
+            for (Entry<String,Long> entry : compiledAgainst.entrySet()) {
+                Resource resource = resources.get(entry.getKey());
+                if (resource == null) {
+                    resource = new Resource(entry.getKey(), ctxt);
+                    resources.put(entry.getKey(), resource);
+                }
+                resource.pages.put(jsw, entry.getValue());
+            }
+            pages.put(jsw, new HashSet<String>(compiledAgainst.keySet()));
+        }
+        return true;
+    }
+
+
+    /**
+     * Forget a page.
+     *
+     * @param jsw   The page
+     */
+    public void unregister(JspServletWrapper jsw) {
+        synchronized (lock) {
+            Set<String> keys = pages.remove(jsw);
+            if (keys == null) {
+                return;
+            }
+            for (String key : keys) {
+                Resource resource = resources.get(key);
+                if (resource != null) {
+                    resource.pages.remove(jsw);
+                    if (resource.pages.isEmpty()) {
+                        resources.remove(key);
+                    }
+                }
+            }
+        }
+    }
+
+
+    public boolean isRegistered(JspServletWrapper jsw) {
+        return pages.containsKey(jsw);
+    }
+
+
+    /**
+     * The number of distinct resources the registered pages depend on.
+     */
+    public int getResourceCount() {
+        return resources.size();
+    }
+
+
+    /**
+     * Check each resource for modification and return the registered pages
+     * that were compiled against a different version of one of them.
+     */
+    public Set<JspServletWrapper> findStale() {
+        Set<JspServletWrapper> stale = new HashSet<JspServletWrapper>();
+        for (Resource resource : resources.values()) {
+            long lastModified = resource.getLastModified();
+            Iterator<Entry<JspServletWrapper,Long>> it =
+                resource.pages.entrySet().iterator();
+            while (it.hasNext()) {
+                Entry<JspServletWrapper,Long> entry = it.next();
+                if (lastModified < 0 ||
+                        lastModified != entry.getValue().longValue()) {
+                    stale.add(entry.getKey());
+                }
+            }
+        }
+        if (log.isDebugEnabled() && !stale.isEmpty()) {
+            log.debug("Found [" + stale.size() + "] stale pages in [" +
+                    pages.size() + "] pages depending on [" +
+                    resources.size() + "] resources");
+        }
+        return stale;
+    }
+
+
+    private static class Resource {
+
+        private final String key;
+
+        /**
+         * Resolves keys that are relative to the web application.
+         */
+        private final JspCompilationContext ctxt;
+
+        /**
+         * The pages depending on this resource and the last modified time of
+         * the resource they were compiled against.
+         */
+        private final ConcurrentHashMap<JspServletWrapper,Long> pages =
+            new ConcurrentHashMap<JspServletWrapper,Long>();
+
+        public Resource(String key, JspCompilationContext ctxt) {
+            this.key = key;
+            this.ctxt = ctxt;
+        }
+
+        /**
+         * The last modified time of the resource as determined by
+         * {@link Compiler#isOutDated(boolean)} or -1 if it has been removed
+         * or can not be accessed.
+         */
+        public long getLastModified() {
+            URLConnection uc = null;
+            try {
+                URL url;
+                if (key.startsWith("jar:") || key.startsWith("file:")) {
+                    url = new URL(key);
+                } else {
+                    url = ctxt.getResource(key);
+                }
+                if (url == null) {
+                    return -1;
+                }
+                uc = url.openConnection();
+                if (uc instanceof JarURLConnection) {
+                    return ((JarURLConnection) uc).getJarEntry().getTime();
+                }
+                return uc.getLastModified();
+            } catch (IOException e) {
+                return -1;
+            } finally {
+                if (uc != null) {
+                    try {
+                        uc.getInputStream().close();
+                    } catch (IOException e) {
+                        // Ignore
+                    }
+                }
+            }
+        }
+    }
+}
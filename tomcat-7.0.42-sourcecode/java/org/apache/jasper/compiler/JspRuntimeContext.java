@@ -28,6 +28,7 @@ import java.security.Policy;
 import java.security.cert.Certificate;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -137,6 +138,18 @@ public final class JspRuntimeContext {
         parentClassLoader =  loader;
         classpath = initClassPath();
 
+        if (options.getCompileCacheDir() != null) {
+            compileCache = new JspCompileCache(options.getCompileCacheDir());
+        } else {
+            compileCache = null;
+        }
+
+        if (options.getTrackDependencies()) {
+            dependencyTracker = new JspDependencyTracker();
+        } else {
+            dependencyTracker = null;
+        }
+
         if (context instanceof org.apache.jasper.servlet.JspCServletContext) {
             codeSource = null;
             permissionCollection = null;
@@ -160,6 +173,11 @@ public final class JspRuntimeContext {
                 && options.getCheckInterval() > 0) {
             lastCompileCheck = System.currentTimeMillis();
         }                                            
+        // Pages tracked in development mode are only checked in the
+        // background
+        if (options.getDevelopment() && dependencyTracker != null) {
+            lastCompileCheck = System.currentTimeMillis();
+        }
 
         if (options.getMaxLoadedJsps() > 0) {
             jspQueue = new FastRemovalDequeue<JspServletWrapper>(options.getMaxLoadedJsps());
@@ -184,6 +202,9 @@ public final class JspRuntimeContext {
     private final PermissionCollection permissionCollection;
     private final CodeSource codeSource;                    
     private final String classpath;
+    private final JspCompileCache compileCache;
+    private final JspDependencyTracker dependencyTracker;
+    private JDTTypeCache jdtTypeCache;
     private volatile long lastCompileCheck = -1L;
     private volatile long lastJspQueueUpdate = System.currentTimeMillis();
     /* JSP idle timeout in milliseconds */
@@ -227,7 +248,10 @@ public final class JspRuntimeContext {
      * @param jspUri JSP URI of JspServletWrapper to remove
      */
     public void removeWrapper(String jspUri) {
-        jsps.remove(jspUri);
+        JspServletWrapper jsw = jsps.remove(jspUri);
+        if (jsw != null && dependencyTracker != null) {
+            dependencyTracker.unregister(jsw);
+        }
     }
 
     /**
@@ -308,6 +332,37 @@ public final class JspRuntimeContext {
         return permissionCollection;
     }
 
+    /**
+     * Get the cache of generated classes for this web application context.
+     *
+     * @return the cache or <code>null</code> if generated classes are not
+     *         cached
+     */
+    public JspCompileCache getCompileCache() {
+        return compileCache;
+    }
+
+    /**
+     * The dependencies of the compiled JSPs or <code>null</code> if the
+     * dependencies are not tracked.
+     */
+    public JspDependencyTracker getDependencyTracker() {
+        return dependencyTracker;
+    }
+
+    /**
+     * The types resolved by the JDT compiler for the JSPs of this web
+     * application or <code>null</code> if they are not cached. The cache is
+     * created when it is first used so that the JDT compiler is not required
+     * when another compiler is used.
+     */
+    public synchronized JDTTypeCache getJDTTypeCache() {
+        if (jdtTypeCache == null && options.isJDTTypeCacheEnabled()) {
+            jdtTypeCache = new JDTTypeCache();
+        }
+        return jdtTypeCache;
+    }
+
     /**
      * Process a "destroy" event for this web application context.
      */                                                        
@@ -385,25 +440,54 @@ public final class JspRuntimeContext {
             return;
         }
         long now = System.currentTimeMillis();
-        if (now > (lastCompileCheck + (options.getCheckInterval() * 1000L))) {
+        int interval;
+        if (options.getDevelopment()) {
+            interval = options.getModificationTestInterval();
+        } else {
+            interval = options.getCheckInterval();
+        }
+        if (now > (lastCompileCheck + (interval * 1000L))) {
             lastCompileCheck = now;
         } else {
             return;
         }
-        
+
+        // Only the pages that depend on a modified file and the pages that
+        // have not been registered yet need a full check
+        Set<JspServletWrapper> stale = null;
+        if (dependencyTracker != null) {
+            stale = dependencyTracker.findStale();
+        }
+
         Object [] wrappers = jsps.values().toArray();
         for (int i = 0; i < wrappers.length; i++ ) {
             JspServletWrapper jsw = (JspServletWrapper)wrappers[i];
             JspCompilationContext ctxt = jsw.getJspEngineContext();
+            if (stale != null) {
+                if (stale.contains(jsw)) {
+                    jsw.setLastModificationTest(0);
+                } else if (dependencyTracker.isRegistered(jsw)) {
+                    continue;
+                }
+            }
             // JspServletWrapper also synchronizes on this when
             // it detects it has to do a reload
             synchronized(jsw) {
                 try {
                     ctxt.compile();
+                    if (dependencyTracker != null) {
+                        dependencyTracker.register(jsw);
+                    }
                 } catch (FileNotFoundException ex) {
                     ctxt.incrementRemoved();
+                    if (dependencyTracker != null) {
+                        dependencyTracker.unregister(jsw);
+                    }
                 } catch (Throwable t) {
                     ExceptionUtils.handleThrowable(t);
+                    if (dependencyTracker != null) {
+                        dependencyTracker.unregister(jsw);
+                    }
                     jsw.getServletContext().log("Background compile failed",
                                                 t);
                 }
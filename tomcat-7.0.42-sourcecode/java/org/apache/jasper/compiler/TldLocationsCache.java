@@ -41,6 +41,7 @@ import org.apache.tomcat.JarScanner;
 import org.apache.tomcat.JarScannerCallback;
 import org.apache.tomcat.util.scan.Jar;
 import org.apache.tomcat.util.scan.JarFactory;
+import org.apache.tomcat.util.scan.TldIndex;
 
 
 /**
@@ -429,36 +430,52 @@ public class TldLocationsCache {
         
         URL resourceURL = jarConn.getJarFileURL();
         String resourcePath = resourceURL.toString();
-        
-        try {
-            jar = JarFactory.newInstance(jarConn.getURL());
-            
-            jar.nextEntry();
-            String entryName = jar.getEntryName();
-            while (entryName != null) {
-                if (entryName.startsWith("META-INF/") &&
-                        entryName.endsWith(".tld")) {
-                    is = null;
-                    try {
-                        is = jar.getEntryInputStream();
-                        foundTld = true;
-                        tldScanStream(resourcePath, entryName, is);
-                    } finally {
-                        if (is != null) {
-                            try {
-                                is.close();
-                            } catch (IOException ioe) {
-                                // Ignore
+
+        // Use the index of the TLDs in JARs shared by the web applications
+        // of the host, if there is one
+        TldIndex.Tld[] tlds = null;
+        TldIndex tldIndex =
+            (TldIndex) ctxt.getAttribute(TldIndex.class.getName());
+        if (tldIndex != null) {
+            tlds = tldIndex.getTlds(jarConn);
+        }
+
+        if (tlds != null) {
+            for (TldIndex.Tld tld : tlds) {
+                foundTld = true;
+                addMapping(tld.getUri(), resourcePath, tld.getEntryName());
+            }
+        } else {
+            try {
+                jar = JarFactory.newInstance(jarConn.getURL());
+
+                jar.nextEntry();
+                String entryName = jar.getEntryName();
+                while (entryName != null) {
+                    if (entryName.startsWith("META-INF/") &&
+                            entryName.endsWith(".tld")) {
+                        is = null;
+                        try {
+                            is = jar.getEntryInputStream();
+                            foundTld = true;
+                            tldScanStream(resourcePath, entryName, is);
+                        } finally {
+                            if (is != null) {
+                                try {
+                                    is.close();
+                                } catch (IOException ioe) {
+                                    // Ignore
+                                }
                             }
                         }
                     }
+                    jar.nextEntry();
+                    entryName = jar.getEntryName();
+                }
+            } finally {
+                if (jar != null) {
+                    jar.close();
                 }
-                jar.nextEntry();
-                entryName = jar.getEntryName();
-            }
-        } finally {
-            if (jar != null) {
-                jar.close();
             }
         }
 
@@ -500,21 +517,28 @@ public class TldLocationsCache {
                     uri = body;
             }
 
-            // Add implicit map entry only if its uri is not already
-            // present in the map
-            if (uri != null && mappings.get(uri) == null) {
-                TldLocation location;
-                if (entryName == null) {
-                    location = new TldLocation(resourcePath);
-                } else {
-                    location = new TldLocation(entryName, resourcePath);
-                }
-                mappings.put(uri, location);
-            }
+            addMapping(uri, resourcePath, entryName);
         } catch (JasperException e) {
             // Hack - makes exception handling simpler
             throw new IOException(e);
         }
     }
 
+    /*
+     * Add an implicit map entry for the TLD only if its uri is not already
+     * present in the map.
+     */
+    private void addMapping(String uri, String resourcePath,
+            String entryName) {
+        if (uri != null && mappings.get(uri) == null) {
+            TldLocation location;
+            if (entryName == null) {
+                location = new TldLocation(resourcePath);
+            } else {
+                location = new TldLocation(entryName, resourcePath);
+            }
+            mappings.put(uri, location);
+        }
+    }
+
 }
@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jasper.runtime;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The pool of the buffer segments that {@link BodyContentImpl} adds to its
+ * initial buffer when a body grows beyond it. The segments come in a small
+ * number of size classes so that a segment released by one body can be reused
+ * by any other. The pool is shared by all the web applications and retains at
+ * most <code>org.apache.jasper.runtime.BodyContentImpl.BUFFER_POOL_SIZE</code>
+ * characters; segments released beyond that are left to the garbage
+ * collector.
+ */
+public final class BodyContentBufferPool {
+
+    /**
+     * The size of the segments in each size class. A body uses a segment of
+     * each class in turn and then segments of the largest class.
+     */
+    static final int[] SEGMENT_SIZES = { 2048, 8192, 32768 };
+
+    private static final BodyContentBufferPool INSTANCE =
+        new BodyContentBufferPool(Long.getLong(
+                "org.apache.jasper.runtime.BodyContentImpl.BUFFER_POOL_SIZE",
+                1024 * 1024).longValue());
+
+    private final long maxRetainedChars;
+
+    private final ConcurrentLinkedQueue<char[]>[] segments;
+
+    private final AtomicLong retainedChars = new AtomicLong();
+    private final AtomicLong reusedChars = new AtomicLong();
+    private final AtomicLong allocatedChars = new AtomicLong();
+    private final AtomicLong discardedChars = new AtomicLong();
+
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    BodyContentBufferPool(long maxRetainedChars) {
+        this.maxRetainedChars = maxRetainedChars;
+        segments = new ConcurrentLinkedQueue[SEGMENT_SIZES.length];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new ConcurrentLinkedQueue<char[]>();
+        }
+    }
+
+
+    public static BodyContentBufferPool getInstance() {
+        return INSTANCE;
+    }
+
+
+    /**
+     * Obtain a segment, reusing a released one if possible.
+     *
+     * @param sizeClass The size class, an index of {@link #SEGMENT_SIZES}
+     */
+    char[] take(int sizeClass) {
+        char[] segment = segments[sizeClass].poll();
+        if (segment != null) {
+            retainedChars.addAndGet(-segment.length);
+            reusedChars.addAndGet(segment.length);
+            return segment;
+        }
+        allocatedChars.addAndGet(SEGMENT_SIZES[sizeClass]);
+        return new char[SEGMENT_SIZES[sizeClass]];
+    }
+
+
+    /**
+     * Release a segment obtained from {@link #take(int)}.
+     */
+    void release(char[] segment) {
+        int len = segment.length;
+        if (retainedChars.addAndGet(len) > maxRetainedChars) {
+            retainedChars.addAndGet(-len);
+            discardedChars.addAndGet(len);
+            return;
+        }
+        for (int i = 0; i < SEGMENT_SIZES.length; i++) {
+            if (SEGMENT_SIZES[i] == len) {
+                segments[i].offer(segment);
+                return;
+            }
+        }
+        // Not one of ours
+        retainedChars.addAndGet(-len);
+    }
+
+
+    /**
+     * The number of characters in the segments currently held by the pool.
+     */
+    public long getRetainedChars() {
+        return retainedChars.get();
+    }
+
+    /**
+     * The number of characters in the segments that have been reused.
+     */
+    public long getReusedChars() {
+        return reusedChars.get();
+    }
+
+    /**
+     * The number of characters in the segments that had to be allocated
+     * because the pool held no segment of the required size.
+     */
+    public long getAllocatedChars() {
+        return allocatedChars.get();
+    }
+
+    /**
+     * The number of characters in the released segments that were not
+     * retained because the pool was full.
+     */
+    public long getDiscardedChars() {
+        return discardedChars.get();
+    }
+}
@@ -34,6 +34,10 @@ import org.apache.jasper.Constants;
  *
  * Provide support for discarding for the output that has been buffered. 
  *
+ * The buffer grows by adding segments obtained from the
+ * {@link BodyContentBufferPool} which are returned to the pool when the
+ * buffer is cleared.
+ *
  * @author Rajiv Mordani
  * @author Jan Luehe
  */
@@ -44,6 +48,17 @@ public class BodyContentImpl extends BodyContent {
     private static final boolean LIMIT_BUFFER = 
         Boolean.valueOf(System.getProperty("org.apache.jasper.runtime.BodyContentImpl.LIMIT_BUFFER", "false")).booleanValue();
     
+    /*
+     * The content is held in segments. The first is owned by this body, the
+     * others are taken from the pool as the body grows and are returned to
+     * the pool when the body is cleared. cb is the last segment and all the
+     * others are full.
+     */
+    private final BodyContentBufferPool pool;
+    private char[][] segments;
+    private int segmentCount;
+    // The number of characters in the full segments
+    private int filled;
     private char[] cb;
     private int nextChar;
     private boolean closed;
@@ -55,8 +70,17 @@ public class BodyContentImpl extends BodyContent {
      * Constructor.
      */
     public BodyContentImpl(JspWriter enclosingWriter) {
+        this(enclosingWriter, BodyContentBufferPool.getInstance());
+    }
+
+    BodyContentImpl(JspWriter enclosingWriter, BodyContentBufferPool pool) {
         super(enclosingWriter);
+        this.pool = pool;
         cb = new char[Constants.DEFAULT_TAG_BUFFER_SIZE];
+        segments = new char[4][];
+        segments[0] = cb;
+        segmentCount = 1;
+        filled = 0;
         bufferSize = cb.length;
         nextChar = 0;
         closed = false;
@@ -71,8 +95,8 @@ public class BodyContentImpl extends BodyContent {
             writer.write(c);
         } else {
             ensureOpen();
-            if (nextChar >= bufferSize) {
-                reAllocBuff (1);
+            if (nextChar >= cb.length) {
+                nextSegment();
             }
             cb[nextChar++] = (char) c;
         }
@@ -107,11 +131,16 @@ public class BodyContentImpl extends BodyContent {
                 return;
             } 
             
-            if (len >= bufferSize - nextChar)
-                reAllocBuff (len);
-            
-            System.arraycopy(cbuf, off, cb, nextChar, len);
-            nextChar+=len;
+            while (len > 0) {
+                if (nextChar >= cb.length) {
+                    nextSegment();
+                }
+                int d = Math.min(cb.length - nextChar, len);
+                System.arraycopy(cbuf, off, cb, nextChar, d);
+                nextChar += d;
+                off += d;
+                len -= d;
+            }
         }
     }
     
@@ -141,11 +170,16 @@ public class BodyContentImpl extends BodyContent {
             writer.write(s, off, len);
         } else {
             ensureOpen();
-            if (len >= bufferSize - nextChar)
-                reAllocBuff(len);
-            
-            s.getChars(off, off + len, cb, nextChar);
-            nextChar += len;
+            int end = off + len;
+            while (off < end) {
+                if (nextChar >= cb.length) {
+                    nextSegment();
+                }
+                int d = Math.min(cb.length - nextChar, end - off);
+                s.getChars(off, off + d, cb, nextChar);
+                nextChar += d;
+                off += d;
+            }
         }
     }
     
@@ -493,11 +527,17 @@ public class BodyContentImpl extends BodyContent {
         if (writer != null) {
             throw new IOException();
         } else {
-            nextChar = 0;
-            if (LIMIT_BUFFER && (cb.length > Constants.DEFAULT_TAG_BUFFER_SIZE)) {
-                cb = new char[Constants.DEFAULT_TAG_BUFFER_SIZE];
-                bufferSize = cb.length;
+            for (int i = 1; i < segmentCount; i++) {
+                if (!LIMIT_BUFFER) {
+                    pool.release(segments[i]);
+                }
+                segments[i] = null;
             }
+            segmentCount = 1;
+            filled = 0;
+            cb = segments[0];
+            bufferSize = cb.length;
+            nextChar = 0;
         }
     }
     
@@ -551,7 +591,7 @@ public class BodyContentImpl extends BodyContent {
      */
     @Override
     public int getRemaining() {
-        return (writer == null) ? bufferSize-nextChar : 0;
+        return (writer == null) ? cb.length - nextChar : 0;
     }
     
     /**
@@ -563,7 +603,13 @@ public class BodyContentImpl extends BodyContent {
      */
     @Override
     public Reader getReader() {
-        return (writer == null) ? new CharArrayReader (cb, 0, nextChar) : null;
+        if (writer != null) {
+            return null;
+        }
+        if (segmentCount == 1) {
+            return new CharArrayReader(cb, 0, nextChar);
+        }
+        return new CharArrayReader(toCharArray());
     }
     
     /**
@@ -575,7 +621,13 @@ public class BodyContentImpl extends BodyContent {
      */
     @Override
     public String getString() {
-        return (writer == null) ? new String(cb, 0, nextChar) : null;
+        if (writer != null) {
+            return null;
+        }
+        if (segmentCount == 1) {
+            return new String(cb, 0, nextChar);
+        }
+        return new String(toCharArray());
     }
     
     /**
@@ -589,6 +641,9 @@ public class BodyContentImpl extends BodyContent {
     @Override
     public void writeOut(Writer out) throws IOException {
         if (writer == null) {
+            for (int i = 0; i < segmentCount - 1; i++) {
+                out.write(segments[i]);
+            }
             out.write(cb, 0, nextChar);
             // Flush not called as the writer passed could be a BodyContent and
             // it doesn't allow to flush.
@@ -631,24 +686,32 @@ public class BodyContentImpl extends BodyContent {
     }
     
     /**
-     * Reallocates buffer since the spec requires it to be unbounded.
+     * Move on to a new segment since the spec requires the buffer to be
+     * unbounded.
      */
-    private void reAllocBuff(int len) {
-        
-        if (bufferSize + len <= cb.length) {
-            bufferSize = cb.length;
-            return;
+    private void nextSegment() {
+        int sizeClass = Math.min(segmentCount - 1,
+                BodyContentBufferPool.SEGMENT_SIZES.length - 1);
+        if (segmentCount == segments.length) {
+            char[][] tmp = new char[segmentCount * 2][];
+            System.arraycopy(segments, 0, tmp, 0, segmentCount);
+            segments = tmp;
         }
-        
-        if (len < cb.length) {
-            len = cb.length;
+        filled += cb.length;
+        cb = pool.take(sizeClass);
+        segments[segmentCount++] = cb;
+        bufferSize = filled + cb.length;
+        nextChar = 0;
+    }
+
+    private char[] toCharArray() {
+        char[] result = new char[filled + nextChar];
+        int pos = 0;
+        for (int i = 0; i < segmentCount - 1; i++) {
+            System.arraycopy(segments[i], 0, result, pos, segments[i].length);
+            pos += segments[i].length;
         }
-        
-        char[] tmp = new char[cb.length + len];
-        System.arraycopy(cb, 0, tmp, 0, cb.length);
-        cb = tmp;
-        bufferSize = cb.length;
+        System.arraycopy(cb, 0, result, pos, nextChar);
+        return result;
     }
-    
-    
 }
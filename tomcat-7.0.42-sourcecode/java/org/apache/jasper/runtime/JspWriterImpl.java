@@ -28,6 +28,7 @@ import javax.servlet.jsp.JspWriter;
 import org.apache.jasper.Constants;
 import org.apache.jasper.compiler.Localizer;
 import org.apache.jasper.security.SecurityUtil;
+import org.apache.tomcat.util.buf.EncodedOutput;
 
 /**
  * Write text to a character-output stream, buffering characters so as
@@ -48,6 +49,14 @@ public class JspWriterImpl extends JspWriter {
     private ServletResponse response;    
     private char cb[];
     private int nextChar;
+    /*
+     * Pre-encoded text in the buffer. Each text takes the space of its
+     * characters in cb, starting at the matching position, but the characters
+     * are not copied.
+     */
+    private PreEncodedText[] texts = new PreEncodedText[8];
+    private int[] textPositions = new int[8];
+    private int textCount;
     private boolean flushed = false;
     private boolean closed = false;
     
@@ -89,6 +98,7 @@ public class JspWriterImpl extends JspWriter {
         if( sz > 0 && ( cb == null || sz > cb.length ) )
             cb=new char[sz];
         nextChar = 0;
+        clearTexts();
         this.autoFlush=autoFlush;
         this.bufferSize=sz;
     }
@@ -100,6 +110,7 @@ public class JspWriterImpl extends JspWriter {
         closed = false;
         out = null;
         nextChar = 0;
+        clearTexts();
         response = null;
     }
     
@@ -116,8 +127,38 @@ public class JspWriterImpl extends JspWriter {
         if (nextChar == 0)
             return;
         initOut();
-        out.write(cb, 0, nextChar);
+        int pos = 0;
+        for (int i = 0; i < textCount; i++) {
+            if (textPositions[i] > pos) {
+                out.write(cb, pos, textPositions[i] - pos);
+            }
+            writeEncoded(texts[i]);
+            pos = textPositions[i] + texts[i].length();
+        }
+        if (nextChar > pos) {
+            out.write(cb, pos, nextChar - pos);
+        }
         nextChar = 0;
+        clearTexts();
+    }
+    
+    private void clearTexts() {
+        for (int i = 0; i < textCount; i++) {
+            texts[i] = null;
+        }
+        textCount = 0;
+    }
+    
+    /**
+     * Write pre-encoded text to the underlying writer, using the encoded form
+     * if the writer accepts it.
+     */
+    private void writeEncoded(PreEncodedText text) throws IOException {
+        byte[] bytes = text.getBytes();
+        if (bytes == null || !(out instanceof EncodedOutput) ||
+                !((EncodedOutput) out).writeEncoded(bytes, text.getCharset())) {
+            out.write(text.getText());
+        }
     }
     
     private void initOut() throws IOException {
@@ -153,6 +194,7 @@ public class JspWriterImpl extends JspWriter {
                     getLocalizeMessage("jsp.error.attempt_to_clear_flushed_buffer"));
         ensureOpen();
         nextChar = 0;
+        clearTexts();
     }
     
     @Override
@@ -162,6 +204,7 @@ public class JspWriterImpl extends JspWriter {
                     getLocalizeMessage("jsp.error.ise_on_clear"));
         ensureOpen();
         nextChar = 0;
+        clearTexts();
     }
     
     private final void bufferOverflow() throws IOException {
@@ -340,6 +383,58 @@ public class JspWriterImpl extends JspWriter {
     }
     
     
+    /**
+     * Write pre-encoded template text. The text takes the same space in the
+     * buffer as its characters would, so the buffer is flushed, or overflows,
+     * as it would if the characters were written. If the text does not fit in
+     * the remaining space, the buffer is flushed before, rather than while,
+     * the text is written.
+     *
+     * @param  text  Text to be written
+     */
+    void write(PreEncodedText text) throws IOException {
+        ensureOpen();
+        int len = text.length();
+        if (bufferSize == 0) {
+            initOut();
+            writeEncoded(text);
+            return;
+        }
+        if (len == 0) {
+            return;
+        }
+        if (len > bufferSize - nextChar) {
+            if (autoFlush)
+                flushBuffer();
+            else
+                bufferOverflow();
+            if (len >= bufferSize) {
+                // As write(char[], int, int)
+                initOut();
+                writeEncoded(text);
+                return;
+            }
+        }
+        if (textCount == texts.length) {
+            PreEncodedText[] newTexts = new PreEncodedText[textCount * 2];
+            System.arraycopy(texts, 0, newTexts, 0, textCount);
+            texts = newTexts;
+            int[] newPositions = new int[textCount * 2];
+            System.arraycopy(textPositions, 0, newPositions, 0, textCount);
+            textPositions = newPositions;
+        }
+        texts[textCount] = text;
+        textPositions[textCount] = nextChar;
+        textCount++;
+        nextChar += len;
+        if (nextChar >= bufferSize)
+            if (autoFlush)
+                flushBuffer();
+            else
+                bufferOverflow();
+    }
+    
+    
     static String lineSeparator = System.getProperty("line.separator");
     
     /**
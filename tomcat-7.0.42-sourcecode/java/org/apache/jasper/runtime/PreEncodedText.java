@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jasper.runtime;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+
+import javax.servlet.jsp.JspWriter;
+
+/**
+ * Template text of a JSP page together with its encoding in the character
+ * encoding of the page, created once when the page is loaded. When the text is
+ * written to the response the encoded form is used, if the response uses the
+ * same encoding, so that the text is not encoded for every request.
+ */
+public final class PreEncodedText {
+
+    private final String text;
+    private final String charset;
+    private final byte[] bytes;
+
+    /**
+     * @param text      The template text
+     * @param charset   The character encoding of the page
+     */
+    public PreEncodedText(String text, String charset) {
+        this.text = text;
+        this.charset = charset;
+        byte[] bytes;
+        try {
+            bytes = text.getBytes(charset);
+        } catch (UnsupportedEncodingException e) {
+            // Always write the characters
+            bytes = null;
+        }
+        this.bytes = bytes;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public String getCharset() {
+        return charset;
+    }
+
+    /**
+     * The encoded text or <code>null</code> if the encoding is not supported.
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    public int length() {
+        return text.length();
+    }
+
+    /**
+     * Write the text. Only the writer of the page itself can use the
+     * encoded text; a {@link javax.servlet.jsp.tagext.BodyContent} or any
+     * other writer is given the characters.
+     *
+     * @param out   The current writer of the page
+     * @throws IOException if an I/O error occurs
+     */
+    public void write(JspWriter out) throws IOException {
+        if (out instanceof JspWriterImpl) {
+            ((JspWriterImpl) out).write(this);
+        } else {
+            out.write(text);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jasper.runtime;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.jsp.JspException;
+import javax.servlet.jsp.tagext.Tag;
+
+import org.apache.jasper.Constants;
+
+/**
+ * Pool of tag handlers that can be reused without locking. Each thread first
+ * uses one of a small number of slots selected by the thread's ID, so a
+ * thread usually gets back the handler it returned last. Handlers that do not
+ * fit in the slots are kept, up to the maximum pool size, in a lock-free
+ * stack shared by all threads.
+ * <p>
+ * Unlike {@link PerThreadTagHandlerPool}, the memory used does not grow with
+ * the number of threads and no references to handlers are held by the threads
+ * so {@link #release()} releases every pooled handler. Handlers returned after
+ * the pool has been released are destroyed rather than pooled.
+ * <p>
+ * To use this pool set the <code>tagpoolClassName</code> init parameter of the
+ * JSP servlet, or the context init parameter of the same name, to
+ * <code>org.apache.jasper.runtime.StripedTagHandlerPool</code>.
+ */
+public class StripedTagHandlerPool extends TagHandlerPool {
+
+    private static final int MAX_SLOTS = 64;
+
+    private AtomicReferenceArray<Tag> slots;
+
+    private int mask;
+
+    private final AtomicReference<Node> overflow = new AtomicReference<Node>();
+
+    private final AtomicInteger overflowSize = new AtomicInteger();
+
+    private int maxSize;
+
+    private volatile boolean released = false;
+
+
+    private static final class Node {
+        final Tag handler;
+        Node next;
+
+        Node(Tag handler) {
+            this.handler = handler;
+        }
+    }
+
+
+    @Override
+    protected void init(ServletConfig config) {
+        maxSize = Constants.MAX_POOL_SIZE;
+        String maxSizeS = getOption(config, OPTION_MAXSIZE, null);
+        if (maxSizeS != null) {
+            try {
+                maxSize = Integer.parseInt(maxSizeS);
+            } catch (NumberFormatException ex) {
+                maxSize = -1;
+            }
+            if (maxSize < 0) {
+                maxSize = Constants.MAX_POOL_SIZE;
+            }
+        }
+        int count = 1;
+        while (count < MAX_SLOTS &&
+                count < Runtime.getRuntime().availableProcessors()) {
+            count <<= 1;
+        }
+        slots = new AtomicReferenceArray<Tag>(count);
+        mask = count - 1;
+        instanceManager = InstanceManagerFactory.getInstanceManager(config);
+    }
+
+
+    /**
+     * Gets the next available tag handler from this tag handler pool,
+     * instantiating one if this tag handler pool is empty.
+     *
+     * @param handlerClass
+     *            Tag handler class
+     * @return Reused or newly instantiated tag handler
+     * @throws JspException
+     *             if a tag handler cannot be instantiated
+     */
+    @Override
+    public Tag get(Class<? extends Tag> handlerClass) throws JspException {
+        int index = slotIndex();
+        Tag handler = slots.get(index);
+        if (handler != null && slots.compareAndSet(index, handler, null)) {
+            return handler;
+        }
+
+        Node head;
+        do {
+            head = overflow.get();
+            if (head == null) {
+                return newHandler(handlerClass);
+            }
+        } while (!overflow.compareAndSet(head, head.next));
+        overflowSize.decrementAndGet();
+        return head.handler;
+    }
+
+
+    /**
+     * Adds the given tag handler to this tag handler pool, unless this tag
+     * handler pool has already reached its capacity or has been released, in
+     * which case the tag handler's release() method is called.
+     *
+     * @param handler
+     *            Tag handler to add to this tag handler pool
+     */
+    @Override
+    public void reuse(Tag handler) {
+        if (!released) {
+            if (slots.compareAndSet(slotIndex(), null, handler)) {
+                if (released) {
+                    // Raced with release()
+                    drainSlots();
+                }
+                return;
+            }
+            if (overflowSize.incrementAndGet() <= maxSize) {
+                Node node = new Node(handler);
+                Node head;
+                do {
+                    head = overflow.get();
+                    node.next = head;
+                } while (!overflow.compareAndSet(head, node));
+                if (released) {
+                    drainOverflow();
+                }
+                return;
+            }
+            overflowSize.decrementAndGet();
+        }
+        destroyHandler(handler);
+    }
+
+
+    /**
+     * Calls the release() method of all available tag handlers in this tag
+     * handler pool.
+     */
+    @Override
+    public void release() {
+        released = true;
+        drainSlots();
+        drainOverflow();
+    }
+
+
+    private void drainSlots() {
+        for (int i = 0; i < slots.length(); i++) {
+            Tag handler = slots.getAndSet(i, null);
+            if (handler != null) {
+                destroyHandler(handler);
+            }
+        }
+    }
+
+
+    private void drainOverflow() {
+        Node node = overflow.getAndSet(null);
+        while (node != null) {
+            overflowSize.decrementAndGet();
+            destroyHandler(node.handler);
+            node = node.next;
+        }
+    }
+
+
+    private int slotIndex() {
+        long id = Thread.currentThread().getId();
+        return (int) (id ^ (id >>> 32)) & mask;
+    }
+}
@@ -112,6 +112,20 @@ public class TagHandlerPool {
 
         // Out of sync block - there is no need for other threads to
         // wait for us to construct a tag for this thread.
+        return newHandler(handlerClass);
+    }
+
+    /**
+     * Instantiates a new tag handler.
+     *
+     * @param handlerClass
+     *            Tag handler class
+     * @return Newly instantiated tag handler
+     * @throws JspException
+     *             if a tag handler cannot be instantiated
+     */
+    protected Tag newHandler(Class<? extends Tag> handlerClass)
+            throws JspException {
         try {
             if (Constants.USE_INSTANCE_MANAGER_FOR_TAGS) {
                 return (Tag) instanceManager.newInstance(
@@ -144,6 +158,16 @@ public class TagHandlerPool {
             }
         }
         // There is no need for other threads to wait for us to release
+        destroyHandler(handler);
+    }
+
+    /**
+     * Calls the release() method of the given tag handler and destroys it.
+     *
+     * @param handler
+     *            Tag handler that will not be reused
+     */
+    protected void destroyHandler(Tag handler) {
         handler.release();
         try {
             instanceManager.destroyInstance(handler);
@@ -161,16 +185,7 @@ public class TagHandlerPool {
      */
     public synchronized void release() {
         for (int i = current; i >= 0; i--) {
-            Tag handler = handlers[i];
-            handler.release();
-            try {
-                instanceManager.destroyInstance(handler);
-            } catch (Exception e) {
-                Throwable t = ExceptionUtils.unwrapInvocationTargetException(e);
-                ExceptionUtils.handleThrowable(t);
-                log.warn("Error processing preDestroy on tag instance of "
-                        + handler.getClass().getName(), t);
-            }
+            destroyHandler(handlers[i]);
         }
     }
 
@@ -98,6 +98,8 @@ public final class SecurityClassLoad {
 
             loader.loadClass( basePackage +
                 "runtime.JspContextWrapper");   
+            loader.loadClass( basePackage +
+                "runtime.PreEncodedText");
 
             // Trigger loading of class and reading of property
             SecurityUtil.isPackageProtectionEnabled();
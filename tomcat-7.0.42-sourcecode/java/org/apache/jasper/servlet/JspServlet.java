@@ -24,6 +24,12 @@ import java.net.MalformedURLException;
 import java.security.AccessController;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.servlet.RequestDispatcher;
 import javax.servlet.ServletConfig;
@@ -38,11 +44,13 @@ import org.apache.jasper.EmbeddedServletOptions;
 import org.apache.jasper.Options;
 import org.apache.jasper.compiler.JspRuntimeContext;
 import org.apache.jasper.compiler.Localizer;
+import org.apache.jasper.runtime.BodyContentBufferPool;
 import org.apache.jasper.security.SecurityUtil;
 import org.apache.jasper.util.ExceptionUtils;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.PeriodicEventListener;
+import org.apache.tomcat.util.threads.TaskThreadFactory;
 
 /**
  * The JSP engine (a.k.a Jasper).
@@ -64,6 +72,9 @@ public class JspServlet extends HttpServlet implements PeriodicEventListener {
 
     private static final long serialVersionUID = 1L;
 
+    private static final String EXPRESSION_BUILDER_CLASS =
+        "org.apache.el.lang.ExpressionBuilder";
+
     // Logger
     private final transient Log log = LogFactory.getLog(JspServlet.class);
 
@@ -146,6 +157,10 @@ public class JspServlet extends HttpServlet implements PeriodicEventListener {
             }
         }
 
+        if (jspFile == null && options.getPrecompileOnStartup()) {
+            precompile();
+        }
+
         if (log.isDebugEnabled()) {
             log.debug(Localizer.getMessage("jsp.message.scratch.dir.is",
                     options.getScratchDir().toString()));
@@ -218,6 +233,112 @@ public class JspServlet extends HttpServlet implements PeriodicEventListener {
     }
 
 
+    /**
+     * Gets the number of characters held by the pool of body content buffer
+     * segments. The pool is shared by all web applications.
+     *
+     * <p>This info may be used for monitoring purposes.
+     */
+    public long getBodyContentRetainedChars() {
+        return BodyContentBufferPool.getInstance().getRetainedChars();
+    }
+
+
+    /**
+     * Gets the number of characters in the body content buffer segments that
+     * have been reused from the pool.
+     *
+     * <p>This info may be used for monitoring purposes.
+     */
+    public long getBodyContentReusedChars() {
+        return BodyContentBufferPool.getInstance().getReusedChars();
+    }
+
+
+    /**
+     * Gets the number of characters in the body content buffer segments that
+     * have been allocated because the pool was empty.
+     *
+     * <p>This info may be used for monitoring purposes.
+     */
+    public long getBodyContentAllocatedChars() {
+        return BodyContentBufferPool.getInstance().getAllocatedChars();
+    }
+
+
+    /**
+     * Gets the number of characters in the body content buffer segments that
+     * were not kept because the pool was full.
+     *
+     * <p>This info may be used for monitoring purposes.
+     */
+    public long getBodyContentDiscardedChars() {
+        return BodyContentBufferPool.getInstance().getDiscardedChars();
+    }
+
+
+    /**
+     * Gets the number of parsed EL expressions held by the expression cache
+     * of the EL implementation provided with Jasper. The cache is shared by
+     * all web applications. The expression cache statistics are -1 if another
+     * EL implementation is used.
+     *
+     * <p>This info may be used for monitoring purposes.
+     */
+    public int getExpressionCacheSize() {
+        return (int) getExpressionCacheStatistic("getCacheSize");
+    }
+
+
+    /**
+     * Gets the number of times a parsed EL expression was found in the
+     * expression cache.
+     *
+     * <p>This info may be used for monitoring purposes.
+     */
+    public long getExpressionCacheHitCount() {
+        return getExpressionCacheStatistic("getCacheHitCount");
+    }
+
+
+    /**
+     * Gets the number of times an EL expression had to be parsed because it
+     * was not in the expression cache.
+     *
+     * <p>This info may be used for monitoring purposes.
+     */
+    public long getExpressionCacheMissCount() {
+        return getExpressionCacheStatistic("getCacheMissCount");
+    }
+
+
+    /**
+     * Gets the number of parsed EL expressions removed from the expression
+     * cache to make room for more frequently used expressions.
+     *
+     * <p>This info may be used for monitoring purposes.
+     */
+    public long getExpressionCacheEvictionCount() {
+        return getExpressionCacheStatistic("getCacheEvictionCount");
+    }
+
+
+    /**
+     * Read a statistic of the expression cache of the EL implementation
+     * provided with Jasper through reflection, so that Jasper does not depend
+     * on that implementation.
+     */
+    private static long getExpressionCacheStatistic(String name) {
+        try {
+            Class<?> builder = Class.forName(EXPRESSION_BUILDER_CLASS);
+            return ((Number) builder.getMethod(name).invoke(null)).longValue();
+        } catch (Throwable t) {
+            ExceptionUtils.handleThrowable(t);
+            return -1;
+        }
+    }
+
+
     /**
      * <p>Look for a <em>precompilation request</em> as described in
      * Section 8.4.2 of the JSP 1.2 Specification.  <strong>WARNING</strong> -
@@ -395,6 +516,94 @@ public class JspServlet extends HttpServlet implements PeriodicEventListener {
     }
 
 
+    /**
+     * Compile all the JSPs of the web application, using a pool of threads
+     * so that the JSPs are compiled in parallel. Pages that fail to compile
+     * are logged and will report the failure when they are requested, as they
+     * would if they had been compiled on first use.
+     */
+    private void precompile() {
+        List<String> jspUris = new ArrayList<String>();
+        findJsps("/", jspUris);
+        if (jspUris.isEmpty()) {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        int threads = Math.min(options.getPrecompileThreads(), jspUris.size());
+        ExecutorService executor = Executors.newFixedThreadPool(threads,
+                new TaskThreadFactory("jsp-precompile-", true,
+                        Thread.NORM_PRIORITY));
+        try {
+            List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+            for (final String jspUri : jspUris) {
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        precompile(jspUri);
+                        return null;
+                    }
+                });
+            }
+            executor.invokeAll(tasks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (log.isInfoEnabled()) {
+            log.info(Localizer.getMessage("jsp.message.precompiled",
+                    Integer.toString(jspUris.size()),
+                    Long.toString(System.currentTimeMillis() - start),
+                    Integer.toString(threads)));
+        }
+    }
+
+
+    private void precompile(String jspUri) {
+        JspServletWrapper wrapper = rctxt.getWrapper(jspUri);
+        if (wrapper == null) {
+            synchronized(this) {
+                wrapper = rctxt.getWrapper(jspUri);
+                if (wrapper == null) {
+                    wrapper = new JspServletWrapper(config, options, jspUri,
+                                                    rctxt);
+                    rctxt.addWrapper(jspUri,wrapper);
+                }
+            }
+        }
+        try {
+            wrapper.service(null, null, true);
+        } catch (Throwable t) {
+            ExceptionUtils.handleThrowable(t);
+            log.warn(Localizer.getMessage("jsp.warning.precompile", jspUri),
+                    t);
+        }
+    }
+
+
+    private void findJsps(String path, List<String> jspUris) {
+        Set<String> paths = context.getResourcePaths(path);
+        if (paths == null) {
+            return;
+        }
+        for (String child : paths) {
+            if (child.endsWith("/")) {
+                // Tag files, classes and JARs are not JSPs
+                if (!child.equals("/WEB-INF/tags/") &&
+                        !child.equals("/WEB-INF/classes/") &&
+                        !child.equals("/WEB-INF/lib/") &&
+                        !child.equals("/META-INF/")) {
+                    findJsps(child, jspUris);
+                }
+            } else if (child.endsWith(".jsp") || child.endsWith(".jspx")) {
+                jspUris.add(child);
+            }
+        }
+    }
+
+
     private void handleMissingResource(HttpServletRequest request,
             HttpServletResponse response, String jspUri)
             throws ServletException, IOException {
@@ -40,6 +40,7 @@ import org.apache.jasper.Options;
 import org.apache.jasper.compiler.ErrorDispatcher;
 import org.apache.jasper.compiler.JarResource;
 import org.apache.jasper.compiler.JavacErrorDetail;
+import org.apache.jasper.compiler.JspDependencyTracker;
 import org.apache.jasper.compiler.JspRuntimeContext;
 import org.apache.jasper.compiler.Localizer;
 import org.apache.jasper.runtime.InstanceManagerFactory;
@@ -312,6 +313,27 @@ public class JspServletWrapper {
         return tripCount--;
     }
 
+    /**
+     * Are the dependencies of this page tracked in development mode? Such a
+     * page is checked for modification in the background rather than when it
+     * is requested.
+     */
+    private boolean isTracked() {
+        JspDependencyTracker tracker =
+            ctxt.getRuntimeContext().getDependencyTracker();
+        return tracker != null && tracker.isRegistered(this);
+    }
+
+    private void track() {
+        if (options.getDevelopment()) {
+            JspDependencyTracker tracker =
+                ctxt.getRuntimeContext().getDependencyTracker();
+            if (tracker != null) {
+                tracker.register(this);
+            }
+        }
+    }
+
     public String getJspUri() {
         return jspUri;
     }
@@ -349,12 +371,13 @@ public class JspServletWrapper {
             /*
              * (1) Compile
              */
-            if (options.getDevelopment() || firstTime ) {
+            if (firstTime || (options.getDevelopment() && !isTracked())) {
                 synchronized (this) {
                     firstTime = false;
 
                     // The following sets reload to true, if necessary
                     ctxt.compile();
+                    track();
                 }
             } else {
                 if (compileException != null) {
@@ -134,6 +134,13 @@ public abstract class BaseDirContext implements DirContext {
     protected int cacheObjectMaxSize = 512; // 512 K
 
 
+    /**
+     * Class name of the resource cache, or <code>null</code> to use the
+     * default cache.
+     */
+    protected String cacheClassName = null;
+
+
     /**
      * Aliases allow content to be included from other locations.
      */
@@ -380,6 +387,23 @@ public abstract class BaseDirContext implements DirContext {
     }
 
 
+    /**
+     * Return the class name of the resource cache.
+     */
+    public String getCacheClassName() {
+        return cacheClassName;
+    }
+
+
+    /**
+     * Set the class name of the resource cache. The class must extend
+     * {@link ResourceCache}.
+     */
+    public void setCacheClassName(String cacheClassName) {
+        this.cacheClassName = cacheClassName;
+    }
+
+
     // --------------------------------------------------------- Public Methods
 
 
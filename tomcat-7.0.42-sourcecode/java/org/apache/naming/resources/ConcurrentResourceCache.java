@@ -0,0 +1,370 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.naming.resources;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * Resource cache which uses a concurrent hash map for lookups and a size
+ * weighted segmented LRU policy for eviction.
+ * <p>
+ * New entries are placed in a probationary segment. An entry that is hit
+ * again while on probation is promoted to the protected segment, which may
+ * use up to {@link #getProtectedRatio()} percent of the cache. Entries that
+ * overflow the protected segment are demoted back to probation, and space is
+ * always reclaimed from the least recently used end of the probationary
+ * segment first. Lookups never take a lock: hits are recorded in a bounded
+ * buffer which is replayed against the LRU lists when the cache is next
+ * modified, or opportunistically when the buffer fills up.
+ * <p>
+ * Hit, miss and eviction counts are exposed as attributes of the cache MBean
+ * registered by the context.
+ */
+public class ConcurrentResourceCache extends ResourceCache {
+
+
+    // ----------------------------------------------------------- Constructors
+
+
+    public ConcurrentResourceCache() {
+        probation.prev = probation;
+        probation.next = probation;
+        protectedList.prev = protectedList;
+        protectedList.next = protectedList;
+    }
+
+
+    // ----------------------------------------------------- Instance Variables
+
+
+    /**
+     * Maximum number of pending hits held before some are dropped. Dropping
+     * hits only makes the recency information slightly less accurate.
+     */
+    private static final int READ_BUFFER_SIZE = 128;
+
+
+    /**
+     * Path -> cache node.
+     */
+    private final ConcurrentHashMap<String,Node> entries =
+        new ConcurrentHashMap<String,Node>();
+
+
+    /**
+     * Sentinel of the probationary segment (LRU at next, MRU at prev).
+     */
+    private final Node probation = new Node(null);
+
+
+    /**
+     * Sentinel of the protected segment (LRU at next, MRU at prev).
+     */
+    private final Node protectedList = new Node(null);
+
+
+    /**
+     * Guards the segment lists and their sizes.
+     */
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+
+    /**
+     * Hits which have not yet been applied to the segment lists.
+     */
+    private final ConcurrentLinkedQueue<Node> readBuffer =
+        new ConcurrentLinkedQueue<Node>();
+    private final AtomicInteger readBufferCount = new AtomicInteger();
+
+
+    /**
+     * Current size of the protected segment in KB.
+     */
+    private int protectedSize = 0;
+
+
+    /**
+     * Percentage of the cache which may be used by the protected segment.
+     */
+    protected int protectedRatio = 80;
+
+
+    private final AtomicLong lookupCount = new AtomicLong();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+
+    // ------------------------------------------------------------- Properties
+
+
+    /**
+     * Return the number of lookups against the cache.
+     */
+    @Override
+    public long getAccessCount() {
+        return lookupCount.get();
+    }
+
+
+    /**
+     * Return the number of lookups that found an entry.
+     */
+    @Override
+    public long getHitsCount() {
+        return hitCount.get();
+    }
+
+
+    /**
+     * Return the number of lookups that did not find an entry.
+     */
+    public long getMissCount() {
+        return lookupCount.get() - hitCount.get();
+    }
+
+
+    /**
+     * Return the number of entries removed to make space for new ones.
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+
+    /**
+     * Return the number of entries, including not found entries, currently
+     * held in the cache.
+     */
+    public int getEntryCount() {
+        return entries.size();
+    }
+
+
+    /**
+     * Return the percentage of the cache which may be used by entries that
+     * have been accessed more than once.
+     */
+    public int getProtectedRatio() {
+        return protectedRatio;
+    }
+
+
+    /**
+     * Set the percentage of the cache which may be used by entries that
+     * have been accessed more than once.
+     */
+    public void setProtectedRatio(int protectedRatio) {
+        if (protectedRatio < 0 || protectedRatio > 100) {
+            throw new IllegalArgumentException(
+                    Integer.toString(protectedRatio));
+        }
+        this.protectedRatio = protectedRatio;
+    }
+
+
+    // --------------------------------------------------------- Public Methods
+
+
+    @Override
+    public boolean allocate(int space) {
+
+        if (space > cacheMaxSize) {
+            return false;
+        }
+
+        evictionLock.lock();
+        try {
+            drainReadBuffer();
+            while (cacheSize + space > cacheMaxSize) {
+                Node victim = probation.next;
+                if (victim == probation) {
+                    victim = protectedList.next;
+                    if (victim == protectedList) {
+                        break;
+                    }
+                }
+                if (entries.remove(victim.entry.name, victim)) {
+                    evictionCount.incrementAndGet();
+                }
+                unlink(victim);
+            }
+            return (cacheSize + space <= cacheMaxSize);
+        } finally {
+            evictionLock.unlock();
+        }
+
+    }
+
+
+    @Override
+    public CacheEntry lookup(String name) {
+
+        lookupCount.incrementAndGet();
+        Node node = entries.get(name);
+        if (node == null) {
+            return null;
+        }
+        hitCount.incrementAndGet();
+        if (readBufferCount.incrementAndGet() <= READ_BUFFER_SIZE) {
+            readBuffer.offer(node);
+        } else {
+            readBufferCount.decrementAndGet();
+            if (evictionLock.tryLock()) {
+                try {
+                    drainReadBuffer();
+                } finally {
+                    evictionLock.unlock();
+                }
+            }
+        }
+        return node.entry;
+
+    }
+
+
+    @Override
+    public boolean contains(String name) {
+        return entries.containsKey(name);
+    }
+
+
+    @Override
+    public void load(CacheEntry entry) {
+
+        Node node = new Node(entry);
+        evictionLock.lock();
+        try {
+            if (entries.putIfAbsent(entry.name, node) != null) {
+                return;
+            }
+            drainReadBuffer();
+            linkLast(probation, node);
+            cacheSize += entry.size;
+        } finally {
+            evictionLock.unlock();
+        }
+
+    }
+
+
+    @Override
+    public boolean unload(String name) {
+
+        evictionLock.lock();
+        try {
+            Node node = entries.remove(name);
+            if (node == null) {
+                return false;
+            }
+            unlink(node);
+            return true;
+        } finally {
+            evictionLock.unlock();
+        }
+
+    }
+
+
+    // -------------------------------------------------------- Private Methods
+
+
+    /**
+     * Apply the pending hits to the segment lists. Must be called while
+     * holding the eviction lock.
+     */
+    private void drainReadBuffer() {
+        Node node;
+        while ((node = readBuffer.poll()) != null) {
+            readBufferCount.decrementAndGet();
+            if (node.prev == null) {
+                // Unloaded or evicted since it was hit
+                continue;
+            }
+            if (node.isProtected) {
+                unlinkNode(node);
+                linkLast(protectedList, node);
+                continue;
+            }
+            unlinkNode(node);
+            node.isProtected = true;
+            protectedSize += node.entry.size;
+            linkLast(protectedList, node);
+            int protectedMaxSize =
+                (int) ((long) cacheMaxSize * protectedRatio / 100);
+            while (protectedSize > protectedMaxSize) {
+                Node demoted = protectedList.next;
+                unlinkNode(demoted);
+                demoted.isProtected = false;
+                protectedSize -= demoted.entry.size;
+                linkLast(probation, demoted);
+            }
+        }
+    }
+
+
+    /**
+     * Remove a node from its segment and from the cache size accounting.
+     */
+    private void unlink(Node node) {
+        if (node.prev == null) {
+            return;
+        }
+        unlinkNode(node);
+        if (node.isProtected) {
+            protectedSize -= node.entry.size;
+        }
+        cacheSize -= node.entry.size;
+        node.prev = null;
+        node.next = null;
+    }
+
+
+    private static void unlinkNode(Node node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+    }
+
+
+    private static void linkLast(Node list, Node node) {
+        node.prev = list.prev;
+        node.next = list;
+        list.prev.next = node;
+        list.prev = node;
+    }
+
+
+    // ---------------------------------------------------------- Inner Classes
+
+
+    private static final class Node {
+
+        final CacheEntry entry;
+        Node prev;
+        Node next;
+        boolean isProtected = false;
+
+        Node(CacheEntry entry) {
+            this.entry = entry;
+        }
+    }
+}
@@ -79,6 +79,9 @@ public class ProxyDirContext implements DirContext {
             // the caching policy.
             BaseDirContext baseDirContext = (BaseDirContext) dirContext;
             if (baseDirContext.isCached()) {
+                if (baseDirContext.getCacheClassName() != null) {
+                    cacheClassName = baseDirContext.getCacheClassName();
+                }
                 try {
                     cache = (ResourceCache) 
                         Class.forName(cacheClassName).newInstance();
@@ -1684,7 +1687,7 @@ public class ProxyDirContext implements DirContext {
         // Add new entry to cache
         synchronized (cache) {
             // Check cache size, and remove elements if too big
-            if ((cache.lookup(name) == null) && cache.allocate(entry.size)) {
+            if (!cache.contains(name) && cache.allocate(entry.size)) {
                 cache.load(entry);
             }
         }
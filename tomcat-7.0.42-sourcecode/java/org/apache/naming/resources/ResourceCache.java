@@ -329,6 +329,22 @@ public class ResourceCache {
     }
 
 
+    /**
+     * Is there an entry for the given name? Unlike {@link #lookup(String)},
+     * this is not counted as an access to the cache.
+     */
+    public boolean contains(String name) {
+
+        CacheEntry[] currentCache = cache;
+        int pos = find(currentCache, name);
+        if ((pos != -1) && (name.equals(currentCache[pos].name))) {
+            return true;
+        }
+        return notFoundCache.containsKey(name);
+
+    }
+
+
     public void load(CacheEntry entry) {
         if (entry.exists) {
             if (insertCache(entry)) {
@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.buf;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+public class ByteBufferUtils {
+
+    private static final Log log = LogFactory.getLog(ByteBufferUtils.class);
+
+    private static final Object unsafe;
+    private static final Method invokeCleanerMethod;
+    private static final Method cleanerMethod;
+    private static final Method cleanMethod;
+
+    static {
+        Object u = null;
+        Method ic = null;
+        Method c = null;
+        Method cl = null;
+        try {
+            // Java 9 onwards
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            ic = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field f = unsafeClass.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            u = f.get(null);
+        } catch (Exception e) {
+            ic = null;
+            u = null;
+        }
+        if (ic == null) {
+            try {
+                // Java 6 to 8
+                c = Class.forName("sun.nio.ch.DirectBuffer")
+                        .getMethod("cleaner");
+                cl = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            } catch (Exception e) {
+                c = null;
+                cl = null;
+            }
+        }
+        unsafe = u;
+        invokeCleanerMethod = ic;
+        cleanerMethod = c;
+        cleanMethod = cl;
+    }
+
+    private ByteBufferUtils() {
+        // Hide the default constructor
+    }
+
+    /**
+     * Explicitly release the memory of a direct buffer, or the mapping of a
+     * memory mapped buffer, where the JVM provides the means to do so. If it
+     * does not, the buffer is released when it is garbage collected. The
+     * buffer must not be used once it has been cleaned.
+     *
+     * @param buf   The buffer to release
+     */
+    public static void cleanDirectBuffer(ByteBuffer buf) {
+        if (buf == null || !buf.isDirect()) {
+            return;
+        }
+        try {
+            if (invokeCleanerMethod != null) {
+                invokeCleanerMethod.invoke(unsafe, buf);
+            } else if (cleanerMethod != null) {
+                Object cleaner = cleanerMethod.invoke(buf);
+                if (cleaner != null) {
+                    cleanMethod.invoke(cleaner);
+                }
+            }
+        } catch (Exception e) {
+            if (log.isDebugEnabled()) {
+                log.debug("Unable to clean direct buffer", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.buf;
+
+import java.io.IOException;
+
+/**
+ * A character output that also accepts text which has already been encoded,
+ * so that text which is written many times need only be encoded once.
+ */
+public interface EncodedOutput {
+
+    /**
+     * Write text that has already been encoded. The bytes are only written if
+     * the output uses the same character encoding and the characters written
+     * before them have been fully encoded.
+     *
+     * @param b         The encoded text
+     * @param charset   The name of the character encoding used
+     * @return <code>true</code> if the bytes were written, <code>false</code>
+     *         if the caller must write the characters instead
+     * @throws IOException if an I/O error occurs
+     */
+    public boolean writeEncoded(byte[] b, String charset) throws IOException;
+}
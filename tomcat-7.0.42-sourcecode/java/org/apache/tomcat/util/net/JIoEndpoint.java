@@ -89,6 +89,21 @@ public class JIoEndpoint extends AbstractEndpoint {
     public void setServerSocketFactory(ServerSocketFactory factory) { this.serverSocketFactory = factory; }
     public ServerSocketFactory getServerSocketFactory() { return serverSocketFactory; }
 
+    /**
+     * Use sendfile for sending static files. With blocking IO the file is
+     * written by the processor directly to the socket once the response
+     * headers have been sent, bypassing the response buffers.
+     */
+    protected boolean useSendfile = false;
+    public void setUseSendfile(boolean useSendfile) { this.useSendfile = useSendfile; }
+
+    /**
+     * Size of the buffer used to write files with sendfile.
+     */
+    protected int sendfileBufferSize = 16 * 1024;
+    public void setSendfileBufferSize(int sendfileBufferSize) { this.sendfileBufferSize = sendfileBufferSize; }
+    public int getSendfileBufferSize() { return sendfileBufferSize; }
+
     /**
      * Port in use.
      */
@@ -106,7 +121,7 @@ public class JIoEndpoint extends AbstractEndpoint {
      * Optional feature support.
      */
     @Override
-    public boolean getUseSendfile() { return false; } // Not supported
+    public boolean getUseSendfile() { return useSendfile; }
     @Override
     public boolean getUseComet() { return false; } // Not supported
     @Override
@@ -601,6 +616,17 @@ public class JIoEndpoint extends AbstractEndpoint {
         return log;
     }
 
+    // ----------------------------------------------- SendfileData Inner Class
+    /**
+     * SendfileData class.
+     */
+    public static class SendfileData {
+        // File
+        public String fileName;
+        public long pos;
+        public long length;
+    }
+
     private static class PrivilegedSetTccl implements PrivilegedAction<Void> {
 
         private ClassLoader cl;
@@ -25,6 +25,7 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.CancelledKeyException;
 import java.nio.channels.FileChannel;
 import java.nio.channels.SelectionKey;
@@ -51,6 +52,7 @@ import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.ExceptionUtils;
 import org.apache.tomcat.util.IntrospectionUtils;
+import org.apache.tomcat.util.buf.ByteBufferUtils;
 import org.apache.tomcat.util.net.AbstractEndpoint.Handler.SocketState;
 import org.apache.tomcat.util.net.SecureNioChannel.ApplicationBufferHandler;
 import org.apache.tomcat.util.net.jsse.NioX509KeyManager;
@@ -82,6 +84,12 @@ public class NioEndpoint extends AbstractEndpoint {
     public static final int OP_REGISTER = 0x100; //register interest op
     public static final int OP_CALLBACK = 0x200; //callback interest op
 
+    /**
+     * Maximum size of the file region mapped at once when using sendfile
+     * over a secure channel.
+     */
+    protected static final long SENDFILE_MAP_SIZE = 4 * 1024 * 1024;
+
     // ----------------------------------------------------------------- Fields
 
     protected NioSelectorPool selectorPool = new NioSelectorPool();
@@ -1101,6 +1109,11 @@ public class NioEndpoint extends AbstractEndpoint {
                                 "endpoint.debug.socketCloseFail"), e);
                     }
                 }
+                if (ka != null && ka.getSendfileData() != null) {
+                    ByteBufferUtils.cleanDirectBuffer(
+                            ka.getSendfileData().mappedBuffer);
+                    ka.getSendfileData().mappedBuffer = null;
+                }
                 try {
                     if (ka != null && ka.getSendfileData() != null
                             && ka.getSendfileData().fchannel != null
@@ -1333,6 +1346,34 @@ public class NioEndpoint extends AbstractEndpoint {
                     if (sc.flushOutbound()) {
                         attachment.access();
                     }
+                } else if (sc instanceof SecureNioChannel) {
+                    // Encrypt straight from a mapping of the file rather than
+                    // copying it through the temporary buffer transferTo
+                    // uses for non file channels
+                    long written = 0;
+                    int n;
+                    do {
+                        if (sd.mappedBuffer == null || !sd.mappedBuffer.hasRemaining()) {
+                            // The data has been encrypted into the outbound
+                            // buffer, release the previous window now
+                            ByteBufferUtils.cleanDirectBuffer(sd.mappedBuffer);
+                            sd.mappedBuffer = null;
+                            long size = Math.min(sd.length, SENDFILE_MAP_SIZE);
+                            if (sd.fchannel.size() < sd.pos + size) {
+                                throw new IOException("Sendfile configured to " +
+                                        "send more data than was available");
+                            }
+                            sd.mappedBuffer = sd.fchannel.map(
+                                    FileChannel.MapMode.READ_ONLY, sd.pos, size);
+                        }
+                        n = sc.write(sd.mappedBuffer);
+                        sd.pos += n;
+                        sd.length -= n;
+                        written += n;
+                    } while (n > 0 && sd.length > 0 && sc.getOutboundRemaining() == 0);
+                    if (written > 0) {
+                        attachment.access();
+                    }
                 } else {
                     long written = sd.fchannel.transferTo(sd.pos,sd.length,wc);
                     if ( written > 0 ) {
@@ -1353,6 +1394,8 @@ public class NioEndpoint extends AbstractEndpoint {
                         log.debug("Send file complete for: "+sd.fileName);
                     }
                     attachment.setSendfileData(null);
+                    ByteBufferUtils.cleanDirectBuffer(sd.mappedBuffer);
+                    sd.mappedBuffer = null;
                     try {
                         sd.fchannel.close();
                     } catch (Exception ignore) {
@@ -1774,6 +1817,8 @@ public class NioEndpoint extends AbstractEndpoint {
         // File
         public String fileName;
         public FileChannel fchannel;
+        // Mapped region of the file used when writing to a secure channel
+        public MappedByteBuffer mappedBuffer;
         public long pos;
         public long length;
         // KeepAlive flag
@@ -0,0 +1,471 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.scan;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.StringReader;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.buf.HexUtils;
+import org.apache.tomcat.util.res.StringManager;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * An index of the TLDs packaged in JAR files, shared by the web applications
+ * of a host so that each distinct JAR is only scanned and its TLDs only
+ * parsed once rather than once per web application. JARs are identified by
+ * a digest of their content so copies of the same JAR in different web
+ * applications share an entry. The digest of each file is remembered
+ * against its size and modification time so a JAR is only read again when
+ * it changes.
+ * <p>
+ * Only the information needed to build the taglib URI mappings and to
+ * register the TLD listeners is indexed. Only JARs that are files are
+ * indexed, {@link #getTlds(JarURLConnection)} returns <code>null</code> for
+ * any other JAR and the caller must scan it.
+ */
+public class TldIndex {
+
+    private static final Log log = LogFactory.getLog(TldIndex.class);
+
+    private static final StringManager sm =
+        StringManager.getManager(Constants.Package);
+
+    private static final String TLD_EXT = ".tld";
+
+    private static final Tld[] NO_TLDS = new Tld[0];
+
+    /**
+     * Identifies the format of the saved index.
+     */
+    private static final String VERSION = TldIndex.class.getName() + "/1";
+
+    /**
+     * The content digest of the JAR files, keyed by path.
+     */
+    private final ConcurrentHashMap<String,JarFile> files =
+        new ConcurrentHashMap<String,JarFile>();
+
+    /**
+     * The TLDs, keyed by the content digest of the JAR they were found in.
+     */
+    private final ConcurrentHashMap<String,Tld[]> tlds =
+        new ConcurrentHashMap<String,Tld[]>();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong scanCount = new AtomicLong();
+
+
+    /**
+     * Obtain the TLDs in the given JAR, scanning the JAR if it has not been
+     * seen before.
+     *
+     * @param jarConn   The connection to the JAR to obtain the TLDs for
+     * @return the TLDs in the JAR or <code>null</code> if the JAR can not be
+     *         indexed
+     * @throws IOException if the JAR or one of its TLDs can not be read
+     */
+    public Tld[] getTlds(JarURLConnection jarConn) throws IOException {
+        URL jarFileUrl = jarConn.getJarFileURL();
+        if (!"file".equals(jarFileUrl.getProtocol())) {
+            return null;
+        }
+        File file;
+        try {
+            file = new File(jarFileUrl.toURI());
+        } catch (URISyntaxException e) {
+            return null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (!file.isFile()) {
+            return null;
+        }
+
+        String path = file.getAbsolutePath();
+        long length = file.length();
+        long lastModified = file.lastModified();
+        JarFile jarFile = files.get(path);
+        if (jarFile == null || !jarFile.matches(length, lastModified)) {
+            jarFile = new JarFile(length, lastModified, digest(file));
+            files.put(path, jarFile);
+        }
+
+        Tld[] result = tlds.get(jarFile.digest);
+        if (result != null) {
+            hitCount.incrementAndGet();
+            return result;
+        }
+        result = scan(jarConn.getURL());
+        scanCount.incrementAndGet();
+        tlds.put(jarFile.digest, result);
+        return result;
+    }
+
+
+    /**
+     * The number of times the TLDs of a JAR were found in the index.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+
+    /**
+     * The number of JARs that had to be scanned for TLDs.
+     */
+    public long getScanCount() {
+        return scanCount.get();
+    }
+
+
+    /**
+     * The number of distinct JARs in the index.
+     */
+    public int getSize() {
+        return tlds.size();
+    }
+
+
+    /**
+     * Read an index saved by {@link #save(File)}. An index that can not be
+     * read is ignored.
+     *
+     * @param file  The file the index was saved to
+     */
+    @SuppressWarnings("unchecked")
+    public void load(File file) {
+        if (!file.isFile()) {
+            return;
+        }
+        ObjectInputStream ois = null;
+        try {
+            ois = new ObjectInputStream(new BufferedInputStream(
+                    new FileInputStream(file)));
+            if (!VERSION.equals(ois.readUTF())) {
+                return;
+            }
+            Map<String,JarFile> savedFiles =
+                (Map<String,JarFile>) ois.readObject();
+            Map<String,Tld[]> savedTlds = (Map<String,Tld[]>) ois.readObject();
+            files.putAll(savedFiles);
+            tlds.putAll(savedTlds);
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString("tldIndex.load", file,
+                        Integer.valueOf(savedTlds.size())));
+            }
+        } catch (Exception e) {
+            log.warn(sm.getString("tldIndex.loadFail", file), e);
+        } finally {
+            if (ois != null) {
+                try {
+                    ois.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Save the index. JAR files that no longer exist or have changed since
+     * they were indexed and the TLDs of JARs that are no longer used are
+     * not saved. The index is written to a temporary file which then
+     * replaces any previous index so that a partially written index is never
+     * read.
+     *
+     * @param file  The file to save the index to
+     */
+    public void save(File file) {
+        HashMap<String,JarFile> savedFiles = new HashMap<String,JarFile>();
+        HashMap<String,Tld[]> savedTlds = new HashMap<String,Tld[]>();
+        for (Map.Entry<String,JarFile> entry : files.entrySet()) {
+            File jar = new File(entry.getKey());
+            JarFile jarFile = entry.getValue();
+            Tld[] jarTlds = tlds.get(jarFile.digest);
+            if (jarTlds != null &&
+                    jarFile.matches(jar.length(), jar.lastModified())) {
+                savedFiles.put(entry.getKey(), jarFile);
+                savedTlds.put(jarFile.digest, jarTlds);
+            }
+        }
+
+        File parent = file.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            log.warn(sm.getString("tldIndex.saveFail", file));
+            return;
+        }
+        File tmp = new File(parent, file.getName() + ".tmp");
+        ObjectOutputStream oos = null;
+        boolean written = false;
+        try {
+            oos = new ObjectOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(tmp)));
+            oos.writeUTF(VERSION);
+            oos.writeObject(savedFiles);
+            oos.writeObject(savedTlds);
+            oos.close();
+            oos = null;
+            written = (!file.exists() || file.delete()) && tmp.renameTo(file);
+        } catch (IOException e) {
+            log.warn(sm.getString("tldIndex.saveFail", file), e);
+            return;
+        } finally {
+            if (oos != null) {
+                try {
+                    oos.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+            if (!written && tmp.exists() && !tmp.delete()) {
+                log.debug(sm.getString("tldIndex.saveFail", tmp));
+            }
+        }
+        if (!written) {
+            log.warn(sm.getString("tldIndex.saveFail", file));
+        }
+    }
+
+
+    private static String digest(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        InputStream is = new FileInputStream(file);
+        try {
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = is.read(buf)) >= 0) {
+                digest.update(buf, 0, n);
+            }
+        } finally {
+            is.close();
+        }
+        return HexUtils.toHexString(digest.digest());
+    }
+
+
+    /*
+     * Scans the JAR for TLD files located in META-INF (or a sub-directory of
+     * it) in the same way as o.a.c.startup.TldConfig and
+     * o.a.j.compiler.TldLocationsCache.
+     */
+    private static Tld[] scan(URL url) throws IOException {
+        List<Tld> result = new ArrayList<Tld>();
+        SAXParser parser = newParser();
+        Jar jar = JarFactory.newInstance(url);
+        try {
+            jar.nextEntry();
+            String entryName = jar.getEntryName();
+            while (entryName != null) {
+                if (entryName.startsWith("META-INF/") &&
+                        entryName.endsWith(TLD_EXT)) {
+                    InputStream is = jar.getEntryInputStream();
+                    try {
+                        TldHandler handler = new TldHandler();
+                        parser.reset();
+                        parser.parse(new InputSource(is), handler);
+                        result.add(new Tld(entryName, handler.uri,
+                                handler.listeners.toArray(
+                                        new String[handler.listeners.size()])));
+                    } catch (SAXException e) {
+                        throw new IOException(e);
+                    } finally {
+                        try {
+                            is.close();
+                        } catch (IOException ioe) {
+                            // Ignore
+                        }
+                    }
+                }
+                jar.nextEntry();
+                entryName = jar.getEntryName();
+            }
+        } finally {
+            jar.close();
+        }
+        if (result.isEmpty()) {
+            return NO_TLDS;
+        }
+        return result.toArray(new Tld[result.size()]);
+    }
+
+
+    private static SAXParser newParser() throws IOException {
+        SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        factory.setValidating(false);
+        try {
+            return factory.newSAXParser();
+        } catch (ParserConfigurationException e) {
+            throw new IOException(e);
+        } catch (SAXException e) {
+            throw new IOException(e);
+        }
+    }
+
+
+    /**
+     * The TLD information held by the index for a TLD found in a JAR.
+     */
+    public static class Tld implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String entryName;
+        private final String uri;
+        private final String[] listeners;
+
+        public Tld(String entryName, String uri, String[] listeners) {
+            this.entryName = entryName;
+            this.uri = uri;
+            this.listeners = listeners;
+        }
+
+        /**
+         * The name of the TLD entry in the JAR.
+         */
+        public String getEntryName() {
+            return entryName;
+        }
+
+        /**
+         * The taglib URI or <code>null</code> if the TLD does not define one.
+         */
+        public String getUri() {
+            return uri;
+        }
+
+        /**
+         * The class names of the listeners defined by the TLD.
+         */
+        public String[] getListeners() {
+            return listeners;
+        }
+    }
+
+
+    private static class JarFile implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long length;
+        private final long lastModified;
+        private final String digest;
+
+        public JarFile(long length, long lastModified, String digest) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.digest = digest;
+        }
+
+        public boolean matches(long length, long lastModified) {
+            return this.length == length && this.lastModified == lastModified;
+        }
+    }
+
+
+    /*
+     * Extracts the taglib URI and listener classes of a TLD. External DTDs
+     * are never loaded since the TLD is not validated.
+     */
+    private static class TldHandler extends DefaultHandler {
+
+        private final List<String> listeners = new ArrayList<String>();
+        private final List<String> elements = new ArrayList<String>();
+        private final StringBuilder body = new StringBuilder();
+        private String uri;
+
+        @Override
+        public InputSource resolveEntity(String publicId, String systemId) {
+            return new InputSource(new StringReader(""));
+        }
+
+        @Override
+        public void startElement(String namespaceURI, String localName,
+                String qName, Attributes attributes) {
+            if (localName == null || localName.length() == 0) {
+                elements.add(qName);
+            } else {
+                elements.add(localName);
+            }
+            body.setLength(0);
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            body.append(ch, start, length);
+        }
+
+        @Override
+        public void endElement(String namespaceURI, String localName,
+                String qName) {
+            if (matches("taglib", "uri")) {
+                uri = body.toString().trim();
+            } else if (matches("taglib", "listener", "listener-class")) {
+                listeners.add(body.toString().trim());
+            }
+            elements.remove(elements.size() - 1);
+            body.setLength(0);
+        }
+
+        private boolean matches(String... names) {
+            if (elements.size() != names.length) {
+                return false;
+            }
+            for (int i = 0; i < names.length; i++) {
+                if (!names[i].equals(elements.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -16,6 +16,14 @@
  */
 package javax.el;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Locale;
+import java.util.TreeMap;
+
 import org.junit.Assert;
 
 import org.junit.Test;
@@ -54,6 +62,57 @@ public class TestBeanELResolver {
                 msg.contains(type));
     }
 
+    /**
+     * Resolve the properties of more bean types than fit in the inline cache
+     * so that the types evict each other.
+     */
+    @Test
+    public void testManyTypes() {
+        BeanELResolver resolver = new BeanELResolver();
+        ELContext context = new ELContextImpl();
+
+        Object[][] cases = new Object[][] {
+                { new BeanA(), "value", "A" },
+                { new BeanB(), "value", "B" },
+                { new StringBuilder("abc"), "class", StringBuilder.class },
+                { "text", "empty", Boolean.FALSE },
+                { Integer.valueOf(1), "class", Integer.class },
+                { new Exception("message"), "message", "message" },
+                { new ArrayList<Object>(), "empty", Boolean.TRUE },
+                { new HashMap<Object,Object>(), "empty", Boolean.TRUE },
+                { new Date(0), "time", Long.valueOf(0) },
+                { new Object(), "class", Object.class },
+                { new Thread("worker"), "name", "worker" },
+                { new File("a.txt"), "name", "a.txt" },
+                { Locale.ENGLISH, "language", "en" },
+                { new StringBuffer("abc"), "class", StringBuffer.class },
+                { Long.valueOf(1), "class", Long.class },
+                { Boolean.TRUE, "class", Boolean.class },
+                { new LinkedList<Object>(), "empty", Boolean.TRUE },
+                { new TreeMap<Object,Object>(), "empty", Boolean.TRUE },
+        };
+        for (int i = 0; i < 100; i++) {
+            for (Object[] c : cases) {
+                context.setPropertyResolved(false);
+                Object result = resolver.getValue(context, c[0], c[1]);
+                Assert.assertTrue(context.isPropertyResolved());
+                Assert.assertEquals(c[2], result);
+            }
+        }
+    }
+
+    public static class BeanA {
+        public String getValue() {
+            return "A";
+        }
+    }
+
+    public static class BeanB {
+        public String getValue() {
+            return "B";
+        }
+    }
+
     private static class Bean {
 
         @SuppressWarnings("unused")
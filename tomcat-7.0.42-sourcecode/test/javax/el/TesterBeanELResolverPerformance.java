@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package javax.el;
+
+import java.lang.reflect.Method;
+
+import org.junit.Test;
+
+import org.apache.jasper.el.ELContextImpl;
+
+/**
+ * Compares the time taken to read bean properties through the
+ * {@link BeanELResolver} with the time taken to invoke the getters directly
+ * through reflection, for a single bean type and for several bean types.
+ */
+public class TesterBeanELResolverPerformance {
+
+    private static final int ITERATIONS = 5000000;
+
+    @Test
+    public void testGetValue() throws Exception {
+        Object[] monomorphic = new Object[] { new BeanA() };
+        Object[] polymorphic = new Object[] { new BeanA(), new BeanB(),
+                new BeanC(), new BeanD() };
+        doTest("1 type", monomorphic);
+        doTest("4 types", polymorphic);
+    }
+
+    private static void doTest(String name, Object[] beans) throws Exception {
+        Method[] getters = new Method[beans.length];
+        for (int i = 0; i < beans.length; i++) {
+            getters[i] = beans[i].getClass().getMethod("getValue");
+        }
+        BeanELResolver resolver = new BeanELResolver();
+        ELContext context = new ELContextImpl();
+
+        // Warm up
+        runReflection(beans, getters, ITERATIONS / 10);
+        runResolver(resolver, context, beans, ITERATIONS / 10);
+
+        long reflection = runReflection(beans, getters, ITERATIONS);
+        long resolved = runResolver(resolver, context, beans, ITERATIONS);
+
+        System.out.println(name + ": reflection " + reflection / 1000000 +
+                "ms, BeanELResolver " + resolved / 1000000 + "ms");
+    }
+
+    private static long runReflection(Object[] beans, Method[] getters,
+            int iterations) throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            int index = i % beans.length;
+            getters[index].invoke(beans[index], (Object[]) null);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long runResolver(BeanELResolver resolver,
+            ELContext context, Object[] beans, int iterations) {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            resolver.getValue(context, beans[i % beans.length], "value");
+        }
+        return System.nanoTime() - start;
+    }
+
+    public static class BeanA {
+        public String getValue() {
+            return "A";
+        }
+    }
+
+    public static class BeanB {
+        public String getValue() {
+            return "B";
+        }
+    }
+
+    public static class BeanC {
+        public String getValue() {
+            return "C";
+        }
+    }
+
+    public static class BeanD {
+        public String getValue() {
+            return "D";
+        }
+    }
+}
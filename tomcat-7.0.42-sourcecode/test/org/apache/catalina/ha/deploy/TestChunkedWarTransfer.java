@@ -0,0 +1,237 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.ha.deploy;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import org.apache.catalina.ha.deploy.WarChunker.Chunk;
+import org.apache.catalina.startup.LoggingBaseTest;
+import org.apache.catalina.tribes.Member;
+import org.apache.catalina.tribes.membership.MemberImpl;
+
+public class TestChunkedWarTransfer extends LoggingBaseTest {
+
+    @Test
+    public void testChunkBoundaries() throws Exception {
+        byte[] content = randomContent(2 * 1024 * 1024, 1);
+        File dir = createDirectory("chunk-boundaries");
+        List<Chunk> chunks = WarChunker.chunk(write(dir, "a.war", content));
+        long offset = 0;
+        for (int i = 0; i < chunks.size(); i++) {
+            Chunk chunk = chunks.get(i);
+            assertEquals(offset, chunk.getOffset());
+            assertTrue(chunk.getLength() <= WarChunker.MAX_CHUNK_SIZE);
+            if (i < chunks.size() - 1) {
+                assertTrue(chunk.getLength() >= WarChunker.MIN_CHUNK_SIZE);
+            }
+            assertEquals(chunk.getHash(), WarChunker.hash(content,
+                    (int) chunk.getOffset(), chunk.getLength()));
+            offset += chunk.getLength();
+        }
+        assertEquals(content.length, offset);
+        assertTrue(chunks.size() > 10);
+    }
+
+    @Test
+    public void testInsertionOnlyChangesNearbyChunks() throws Exception {
+        byte[] content = randomContent(2 * 1024 * 1024, 2);
+        byte[] modified = insert(content, 1024 * 1024, randomContent(100, 3));
+        File dir = createDirectory("chunk-insertion");
+        List<Chunk> before = WarChunker.chunk(write(dir, "b1.war", content));
+        List<Chunk> after = WarChunker.chunk(write(dir, "b2.war", modified));
+        Set<String> hashes = new HashSet<String>();
+        for (Chunk chunk : before) {
+            hashes.add(chunk.getHash());
+        }
+        int changed = 0;
+        for (Chunk chunk : after) {
+            if (!hashes.contains(chunk.getHash())) {
+                changed++;
+            }
+        }
+        assertTrue(changed >= 1);
+        assertTrue("Changed chunks: " + changed, changed <= 2);
+    }
+
+    @Test
+    public void testTransferMissingChunks() throws Exception {
+        File dir = createDirectory("chunk-transfer");
+        File deployDir = new File(dir, "deploy");
+        if (!deployDir.mkdirs() && !deployDir.isDirectory()) {
+            fail("Unable to create directory " + deployDir);
+        }
+        byte[] content = randomContent(2 * 1024 * 1024, 4);
+        byte[] modified = insert(content, 512 * 1024, randomContent(5000, 5));
+        write(deployDir, "app.war", content);
+        File source = write(dir, "app-new.war", modified);
+        File target = new File(dir, "app-received.war");
+
+        ChunkIndex index = new ChunkIndex();
+        index.update(deployDir);
+        assertTrue(index.size() > 0);
+
+        Member origin = new MemberImpl("localhost", 4000, 0);
+        Member member = new MemberImpl("localhost", 4001, 0);
+        OutgoingWarTransfer outgoing =
+            new OutgoingWarTransfer("t1", source, "/app", 1);
+        ChunkMessage manifest = outgoing.createManifest(origin);
+        IncomingWarTransfer incoming =
+            new IncomingWarTransfer(manifest, target, index);
+        assertFalse(incoming.isComplete());
+        assertTrue(incoming.getCopied() > modified.length / 2);
+
+        ChunkMessage request = incoming.createRequest(member);
+        assertTrue(request.getHashes().length < manifest.getHashes().length);
+        assertFalse(outgoing.addRequest(member, request.getHashes()));
+        assertTrue(outgoing.awaitRequests(0));
+        Map<String, List<Member>> targets = outgoing.dispatch();
+        long sent = 0;
+        for (Map.Entry<String, List<Member>> entry : targets.entrySet()) {
+            if (entry.getValue().isEmpty()) {
+                continue;
+            }
+            assertEquals(member, entry.getValue().get(0));
+            byte[] data = outgoing.read(entry.getKey());
+            sent += data.length;
+            assertTrue(incoming.write(entry.getKey(), data));
+        }
+        assertTrue(incoming.isComplete());
+        assertEquals(modified.length, sent + incoming.getCopied());
+        incoming.close();
+        assertArrayEquals(modified, read(target));
+
+        // Requested after the dispatch
+        assertTrue(outgoing.addRequest(member, new String[0]));
+    }
+
+    @Test
+    public void testSharedChunkKeptWhenOneFileRemoved() throws Exception {
+        File deployDir = createDirectory("chunk-shared");
+        byte[] content = randomContent(512 * 1024, 7);
+        File first = write(deployDir, "first.war", content);
+        write(deployDir, "second.war", content);
+        ChunkIndex index = new ChunkIndex();
+        index.update(deployDir);
+        List<Chunk> chunks = WarChunker.chunk(first);
+        assertEquals(chunks.size(), index.size());
+
+        // The chunks are still found in the other file
+        assertTrue(first.delete());
+        index.update(deployDir);
+        assertEquals(chunks.size(), index.size());
+        for (Chunk chunk : chunks) {
+            assertTrue(index.contains(chunk.getHash()));
+            assertArrayEquals(WarChunker.read(new File(deployDir,
+                    "second.war"), chunk), index.read(chunk.getHash()));
+        }
+    }
+
+    @Test
+    public void testCorruptChunkRejected() throws Exception {
+        byte[] content = randomContent(256 * 1024, 6);
+        File dir = createDirectory("chunk-corrupt");
+        File source = write(dir, "c.war", content);
+        OutgoingWarTransfer outgoing =
+            new OutgoingWarTransfer("t2", source, "/c", 1);
+        ChunkMessage manifest =
+            outgoing.createManifest(new MemberImpl("localhost", 4000, 0));
+        IncomingWarTransfer incoming = new IncomingWarTransfer(manifest,
+                new File(dir, "c-received.war"),
+                new ChunkIndex());
+        String hash = manifest.getHashes()[0];
+        byte[] data = outgoing.read(hash);
+        byte[] corrupt = data.clone();
+        corrupt[0]++;
+        assertFalse(incoming.write(hash, corrupt));
+        assertTrue(incoming.write(hash, data));
+        assertFalse(incoming.write(hash, data));
+        incoming.cleanup();
+    }
+
+    private static byte[] randomContent(int length, long seed) {
+        byte[] content = new byte[length];
+        new Random(seed).nextBytes(content);
+        return content;
+    }
+
+    private static byte[] insert(byte[] content, int offset, byte[] inserted) {
+        byte[] result = new byte[content.length + inserted.length];
+        System.arraycopy(content, 0, result, 0, offset);
+        System.arraycopy(inserted, 0, result, offset, inserted.length);
+        System.arraycopy(content, offset, result, offset + inserted.length,
+                content.length - offset);
+        return result;
+    }
+
+    /**
+     * Create a directory of its own for a test, deleted after the test.
+     */
+    private File createDirectory(String name) {
+        File dir = new File(getTemporaryDirectory(), name);
+        addDeleteOnTearDown(dir);
+        if (!dir.mkdirs() && !dir.isDirectory()) {
+            fail("Unable to create directory " + dir);
+        }
+        return dir;
+    }
+
+    private static File write(File dir, String name, byte[] content)
+            throws IOException {
+        File file = new File(dir, name);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static byte[] read(File file) throws IOException {
+        byte[] content = new byte[(int) file.length()];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int off = 0;
+            while (off < content.length) {
+                int n = in.read(content, off, content.length - off);
+                if (n < 0) {
+                    break;
+                }
+                off += n;
+            }
+        } finally {
+            in.close();
+        }
+        return content;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.ha.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestBinarySessionAttributeCodec {
+
+    private final SessionAttributeCodec codec =
+        new BinarySessionAttributeCodec();
+
+    @Test
+    public void testValues() throws Exception {
+        char[] chars = new char[70000];
+        Arrays.fill(chars, 'é');
+        List<String> list = new ArrayList<String>();
+        list.add("a");
+        Object[] values = new Object[] { "value", new String(chars), "",
+                Integer.valueOf(-42), Long.valueOf(Long.MAX_VALUE),
+                Boolean.TRUE, Boolean.FALSE, Short.valueOf((short) 7),
+                Byte.valueOf((byte) -1), Character.valueOf('x'),
+                Float.valueOf(1.5f), Double.valueOf(Math.PI), list };
+
+        for (Object value : values) {
+            assertEquals(value, roundTrip(value));
+        }
+        assertNull(roundTrip(null));
+        assertArrayEquals(new byte[] { 1, 2, 3 },
+                (byte[]) roundTrip(new byte[] { 1, 2, 3 }));
+        TesterExternalizable ext = new TesterExternalizable();
+        ext.value = 1234;
+        assertEquals(1234,
+                ((TesterExternalizable) roundTrip(ext)).value);
+    }
+
+    @Test
+    public void testDeltaRequest() throws Exception {
+        DeltaRequest plain = new DeltaRequest("id", false);
+        DeltaRequest compact = new DeltaRequest("id", false);
+        compact.setCodec(codec);
+        for (DeltaRequest request : new DeltaRequest[] { plain, compact }) {
+            request.setAttribute("counter", Integer.valueOf(5));
+            request.setAttribute("name", "value");
+            request.setAttribute("time", Long.valueOf(1000));
+            request.removeAttribute("old");
+        }
+        byte[] plainData = plain.serialize();
+        byte[] compactData = compact.serialize();
+        assertTrue(compactData.length < plainData.length);
+
+        DeltaManager manager = new DeltaManager();
+        manager.setSessionAttributeCodec(
+                BinarySessionAttributeCodec.class.getName());
+        DeltaSession session = new DeltaSession(manager);
+        session.setValid(true);
+        session.setId("id", false);
+        session.setAttribute("old", "x", false, false);
+        DeltaRequest received = session.getDeltaRequest();
+        received.readExternal(new ObjectInputStream(
+                new ByteArrayInputStream(compactData)));
+        assertEquals(4, received.getSize());
+        received.execute(session, false);
+        assertEquals(Integer.valueOf(5), session.getAttribute("counter"));
+        assertEquals("value", session.getAttribute("name"));
+        assertEquals(Long.valueOf(1000), session.getAttribute("time"));
+        assertNull(session.getAttribute("old"));
+    }
+
+    private Object roundTrip(Object value) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        codec.writeValue(oos, value);
+        oos.writeInt(-1);
+        oos.close();
+        ObjectInputStream ois = new ObjectInputStream(
+                new ByteArrayInputStream(bos.toByteArray()));
+        Object result = codec.readValue(ois);
+        // The whole value has been read
+        assertEquals(-1, ois.readInt());
+        ois.close();
+        return result;
+    }
+
+    public static class TesterExternalizable implements Externalizable {
+
+        private static final long serialVersionUID = 1L;
+
+        private int value;
+
+        @Override
+        public void writeExternal(ObjectOutput out) throws IOException {
+            out.writeInt(value);
+        }
+
+        @Override
+        public void readExternal(ObjectInput in) throws IOException {
+            value = in.readInt();
+        }
+    }
+}
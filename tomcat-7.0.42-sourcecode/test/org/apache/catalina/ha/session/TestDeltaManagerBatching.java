@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.ha.session;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Session;
+import org.apache.catalina.ha.tcp.SimpleTcpCluster;
+import org.apache.catalina.startup.LoggingBaseTest;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.tribes.ManagedChannel;
+import org.apache.catalina.tribes.TesterUtil;
+import org.apache.catalina.tribes.group.GroupChannel;
+
+public class TestDeltaManagerBatching extends LoggingBaseTest {
+
+    private static final int SESSIONS = 10;
+    private static final int UPDATES = 20;
+
+    private Tomcat[] nodes = new Tomcat[2];
+    private SimpleTcpCluster[] clusters = new SimpleTcpCluster[2];
+    private DeltaManager[] managers = new DeltaManager[2];
+
+    @Override
+    @After
+    public void tearDown() throws Exception {
+        for (Tomcat node : nodes) {
+            if (node != null) {
+                node.stop();
+                node.destroy();
+            }
+        }
+        super.tearDown();
+    }
+
+    @Test
+    public void testBatchedReplication() throws Exception {
+        GroupChannel[] channels =
+            new GroupChannel[] { new GroupChannel(), new GroupChannel() };
+        TesterUtil.addRandomDomain(new ManagedChannel[] { channels[0], channels[1] });
+        for (int i = 0; i < nodes.length; i++) {
+            startNode(i, channels[i]);
+        }
+        waitForMembers();
+
+        DeltaManager primary = managers[0];
+        DeltaManager backup = managers[1];
+        Session[] sessions = new Session[SESSIONS];
+        for (int i = 0; i < SESSIONS; i++) {
+            sessions[i] = primary.createSession(null);
+        }
+
+        // Simulate a burst of requests for each session
+        for (int j = 0; j < UPDATES; j++) {
+            for (int i = 0; i < SESSIONS; i++) {
+                sessions[i].getSession().setAttribute("counter",
+                        Integer.valueOf(j));
+                assertNull(primary.requestCompleted(sessions[i].getId()));
+            }
+        }
+
+        for (int i = 0; i < SESSIONS; i++) {
+            Session replica = waitForSession(backup, sessions[i].getId());
+            long timeout = System.currentTimeMillis() + 10000;
+            while (!Integer.valueOf(UPDATES - 1).equals(
+                    replica.getSession().getAttribute("counter")) &&
+                    System.currentTimeMillis() < timeout) {
+                Thread.sleep(50);
+            }
+            assertEquals(Integer.valueOf(UPDATES - 1),
+                    replica.getSession().getAttribute("counter"));
+        }
+
+        assertEquals(0, primary.getCounterSend_EVT_SESSION_DELTA());
+        assertEquals(0, backup.getCounterReceive_EVT_SESSION_DELTA());
+        // The updates of a session within a window are merged into one delta
+        long batched = primary.getCounterBatchedDeltas();
+        assertTrue(batched >= SESSIONS);
+        assertTrue(batched < SESSIONS * UPDATES);
+        assertTrue(primary.getCounterSend_EVT_SESSION_DELTA_BATCH() >= 1);
+        assertTrue(primary.getCounterSend_EVT_SESSION_DELTA_BATCH() < batched);
+        assertEquals(primary.getCounterSend_EVT_SESSION_DELTA_BATCH(),
+                backup.getCounterReceive_EVT_SESSION_DELTA_BATCH());
+        assertTrue(primary.getMaxBatchSize() >= 1);
+        assertTrue(primary.getMaxReplicationLag() >= primary.getReplicationLag());
+
+        log.info("Batches: " + primary.getCounterSend_EVT_SESSION_DELTA_BATCH() +
+                ", max batch size: " + primary.getMaxBatchSize() +
+                ", average lag: " + primary.getReplicationLag() +
+                "ms, max lag: " + primary.getMaxReplicationLag() + "ms");
+    }
+
+    private void startNode(int i, GroupChannel channel) throws Exception {
+        File baseDir = new File(getTemporaryDirectory(), "node" + i);
+        File docBase = new File(baseDir, "ROOT");
+        addDeleteOnTearDown(baseDir);
+        assertTrue(docBase.isDirectory() || docBase.mkdirs());
+        Tomcat tomcat = new Tomcat();
+        tomcat.setBaseDir(baseDir.getAbsolutePath());
+        tomcat.setPort(0);
+        tomcat.getEngine().setName("node" + i);
+        tomcat.getEngine().setJvmRoute("node" + i);
+
+        SimpleTcpCluster cluster = new SimpleTcpCluster();
+        cluster.setChannel(channel);
+        tomcat.getEngine().setCluster(cluster);
+
+        Context ctx = tomcat.addContext("", docBase.getAbsolutePath());
+        ctx.setDistributable(true);
+        DeltaManager manager = new DeltaManager();
+        manager.setReplicationBatchWindow(200);
+        ctx.setManager(manager);
+
+        tomcat.start();
+        nodes[i] = tomcat;
+        clusters[i] = cluster;
+        managers[i] = manager;
+    }
+
+    private void waitForMembers() throws InterruptedException {
+        long timeout = System.currentTimeMillis() + 20000;
+        while ((clusters[0].getMembers().length == 0 ||
+                clusters[1].getMembers().length == 0) &&
+                System.currentTimeMillis() < timeout) {
+            Thread.sleep(100);
+        }
+        assertTrue(clusters[0].getMembers().length > 0);
+        assertTrue(clusters[1].getMembers().length > 0);
+    }
+
+    private static Session waitForSession(DeltaManager manager, String id)
+            throws Exception {
+        long timeout = System.currentTimeMillis() + 10000;
+        Session session = manager.findSession(id);
+        while (session == null && System.currentTimeMillis() < timeout) {
+            Thread.sleep(50);
+            session = manager.findSession(id);
+        }
+        assertNotNull(session);
+        return session;
+    }
+}
@@ -0,0 +1,362 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.ha.session;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Session;
+import org.apache.catalina.ha.ClusterMessage;
+import org.apache.catalina.ha.tcp.SimpleTcpCluster;
+import org.apache.catalina.startup.LoggingBaseTest;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.tribes.Channel;
+import org.apache.catalina.tribes.Member;
+import org.apache.catalina.tribes.TesterUtil;
+import org.apache.catalina.tribes.group.GroupChannel;
+
+public class TestDeltaManagerStateTransfer extends LoggingBaseTest {
+
+    private static final int SESSIONS = 200;
+
+    private Tomcat[] nodes = new Tomcat[3];
+    private SimpleTcpCluster[] clusters = new SimpleTcpCluster[3];
+    private TesterDeltaManager[] managers = new TesterDeltaManager[3];
+
+    @Override
+    @After
+    public void tearDown() throws Exception {
+        for (Tomcat node : nodes) {
+            if (node != null) {
+                node.stop();
+                node.destroy();
+            }
+        }
+        super.tearDown();
+    }
+
+    @Test
+    public void testParallelStateTransfer() throws Exception {
+        GroupChannel[] channels = startMembers();
+        String[] ids = createSessions();
+
+        // The new node pulls half of the sessions from each member, which
+        // start sending them after a while
+        managers[0].partitionDelay = 2000;
+        managers[1].partitionDelay = 2000;
+        long received0 = managers[0].getCounterReceive_EVT_GET_ALL_SESSIONS();
+        long received1 = managers[1].getCounterReceive_EVT_GET_ALL_SESSIONS();
+        startNode(2, channels[2]);
+        waitForMembers(2);
+        addContext(2);
+        DeltaManager joiner = managers[2];
+
+        // Sessions are available while the transfer is running
+        assertTrue(joiner.isStateTransferInProgress());
+        for (int i = 0; i < 10; i++) {
+            Session session = joiner.findSession(ids[i]);
+            assertNotNull(session);
+            assertEquals(Integer.valueOf(i),
+                    session.getSession().getAttribute("index"));
+        }
+        assertEquals(10, joiner.getCounterSend_EVT_GET_SESSION());
+        assertEquals(10, joiner.getCounterReceive_EVT_SESSION_DATA());
+
+        waitForStateTransfer(joiner);
+        assertEquals(2, joiner.getCounterSend_EVT_GET_ALL_SESSIONS());
+        assertTrue(joiner.getStateTransfered());
+        for (int i = 0; i < SESSIONS; i++) {
+            assertAttribute(joiner, ids[i], i);
+        }
+        assertEquals(SESSIONS, joiner.getActiveSessions());
+        // Each member was asked for its partition once by the joining node
+        assertEquals(received0 + 1,
+                managers[0].getCounterReceive_EVT_GET_ALL_SESSIONS());
+        assertEquals(received1 + 1,
+                managers[1].getCounterReceive_EVT_GET_ALL_SESSIONS());
+        assertEquals(2, joiner.getCounterReceive_EVT_ALL_SESSION_TRANSFERCOMPLETE());
+
+        log.info("Received " + joiner.getCounterReceive_EVT_ALL_SESSION_DATA() +
+                " blocks, fetched " + joiner.getCounterReceive_EVT_SESSION_DATA() +
+                " sessions");
+    }
+
+    @Test
+    public void testParallelStateTransferSnapshotTimes() throws Exception {
+        GroupChannel[] channels = startMembers();
+        String[] ids = createSessions();
+
+        // One member takes the snapshot of its partition well before the
+        // other, the sessions change in between
+        managers[0].partitionDelay = 500;
+        managers[1].partitionDelay = 4000;
+        startNode(2, channels[2]);
+        waitForMembers(2);
+        addContext(2);
+        DeltaManager joiner = managers[2];
+        Thread.sleep(2000);
+        assertTrue(joiner.isStateTransferInProgress());
+        DeltaManager primary = managers[0];
+        for (int i = 0; i < SESSIONS; i++) {
+            Session session = primary.findSession(ids[i]);
+            session.getSession().setAttribute("index",
+                    Integer.valueOf(SESSIONS + i));
+            ClusterMessage msg = primary.requestCompleted(ids[i]);
+            clusters[0].send(msg);
+        }
+
+        // The changes missing from the first snapshot are not dropped
+        // because they are older than the second one
+        waitForStateTransfer(joiner);
+        for (int i = 0; i < SESSIONS; i++) {
+            Session session = joiner.findSession(ids[i]);
+            assertNotNull(session);
+            assertEquals(Integer.valueOf(SESSIONS + i),
+                    session.getSession().getAttribute("index"));
+        }
+    }
+
+    @Test
+    public void testParallelStateTransferRemovedSession() throws Exception {
+        GroupChannel[] channels = startMembers();
+        String[] ids = createSessions();
+
+        // The partitions are only applied once the session has been fetched
+        // and invalidated
+        startNode(2, channels[2]);
+        waitForMembers(2);
+        addContext(2, true);
+        TesterDeltaManager joiner = managers[2];
+        long timeout = System.currentTimeMillis() + 20000;
+        while (joiner.getHeldTransferCompleteCount() < 2 &&
+                System.currentTimeMillis() < timeout) {
+            Thread.sleep(50);
+        }
+        assertEquals(2, joiner.getHeldTransferCompleteCount());
+        assertTrue(joiner.isStateTransferInProgress());
+        Session session = joiner.findSession(ids[0]);
+        assertNotNull(session);
+        session.getSession().invalidate();
+        assertNull(joiner.findSession(ids[0]));
+
+        joiner.releaseHeldMessages();
+        waitForStateTransfer(joiner);
+        assertNull(joiner.findSession(ids[0]));
+        for (int i = 1; i < SESSIONS; i++) {
+            assertAttribute(joiner, ids[i], i);
+        }
+        assertEquals(SESSIONS - 1, joiner.getActiveSessions());
+    }
+
+    private GroupChannel[] startMembers() throws Exception {
+        GroupChannel[] channels = new GroupChannel[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            channels[i] = new GroupChannel();
+        }
+        TesterUtil.addRandomDomain(channels);
+
+        // The second node must only join once the manager of the first one
+        // is registered, otherwise the request it sends for its partition can
+        // arrive before there is a manager to answer it
+        startNode(0, channels[0]);
+        addContext(0);
+        waitForStateTransfer(managers[0]);
+        startNode(1, channels[1]);
+        waitForMembers(1);
+        addContext(1);
+        waitForStateTransfer(managers[1]);
+        return channels;
+    }
+
+    private String[] createSessions() throws Exception {
+        DeltaManager primary = managers[0];
+        String[] ids = new String[SESSIONS];
+        for (int i = 0; i < SESSIONS; i++) {
+            Session session = primary.createSession(null);
+            ids[i] = session.getId();
+            session.getSession().setAttribute("index", Integer.valueOf(i));
+            ClusterMessage msg = primary.requestCompleted(ids[i]);
+            clusters[0].send(msg);
+        }
+        for (int i = 0; i < SESSIONS; i++) {
+            assertAttribute(managers[1], ids[i], i);
+        }
+        return ids;
+    }
+
+    private void startNode(int i, GroupChannel channel) throws Exception {
+        File baseDir = new File(getTemporaryDirectory(), "node" + i);
+        addDeleteOnTearDown(baseDir);
+        Tomcat tomcat = new Tomcat();
+        tomcat.setBaseDir(baseDir.getAbsolutePath());
+        tomcat.setPort(0);
+        tomcat.getEngine().setName("node" + i);
+        tomcat.getEngine().setJvmRoute("node" + i);
+
+        SimpleTcpCluster cluster = new SimpleTcpCluster();
+        cluster.setChannel(channel);
+        // Keep the creation and the delta of a session in order
+        cluster.setChannelSendOptions(Channel.SEND_OPTIONS_USE_ACK |
+                Channel.SEND_OPTIONS_SYNCHRONIZED_ACK);
+        tomcat.getEngine().setCluster(cluster);
+
+        tomcat.start();
+        nodes[i] = tomcat;
+        clusters[i] = cluster;
+    }
+
+    private void addContext(int i) {
+        addContext(i, false);
+    }
+
+    private void addContext(int i, boolean holdMessages) {
+        File docBase = new File(getTemporaryDirectory(), "node" + i + "/ROOT");
+        assertTrue(docBase.isDirectory() || docBase.mkdirs());
+        Context ctx = nodes[i].addContext("", docBase.getAbsolutePath());
+        ctx.setDistributable(true);
+        TesterDeltaManager manager = new TesterDeltaManager();
+        manager.holdMessages = holdMessages;
+        manager.setParallelStateTransfer(true);
+        manager.setSendAllSessionsSize(10);
+        manager.setStateTransferFetchTimeout(5000);
+        ctx.setManager(manager);
+        managers[i] = manager;
+    }
+
+    private static void waitForStateTransfer(DeltaManager manager)
+            throws InterruptedException {
+        long timeout = System.currentTimeMillis() + 20000;
+        while (manager.isStateTransferInProgress() &&
+                System.currentTimeMillis() < timeout) {
+            Thread.sleep(50);
+        }
+        assertFalse(manager.isStateTransferInProgress());
+    }
+
+    private void waitForMembers(int count) throws InterruptedException {
+        long timeout = System.currentTimeMillis() + 20000;
+        boolean complete = false;
+        while (!complete && System.currentTimeMillis() < timeout) {
+            complete = true;
+            for (SimpleTcpCluster cluster : clusters) {
+                if (cluster != null && cluster.getMembers().length < count) {
+                    complete = false;
+                }
+            }
+            if (!complete) {
+                Thread.sleep(100);
+            }
+        }
+        assertTrue(complete);
+    }
+
+    private static class TesterDeltaManager extends DeltaManager {
+
+        private volatile long partitionDelay = 0;
+
+        /**
+         * Keep the partitions received and the end of their transfer
+         * until they are released.
+         */
+        private volatile boolean holdMessages = false;
+        private final List<SessionMessage> heldMessages =
+                new ArrayList<SessionMessage>();
+        private final List<Member> heldSenders = new ArrayList<Member>();
+        private int heldTransferCompleteCount = 0;
+
+        @Override
+        protected void handleGET_ALL_SESSIONS_PARTITION(SessionMessage msg,
+                Member sender) throws IOException {
+            try {
+                Thread.sleep(partitionDelay);
+            } catch (InterruptedException e) {
+                // Ignore
+            }
+            super.handleGET_ALL_SESSIONS_PARTITION(msg, sender);
+        }
+
+        @Override
+        protected void handleALL_SESSION_DATA_COMPRESSED(SessionMessage msg,
+                Member sender) throws ClassNotFoundException, IOException {
+            if (!hold(msg, sender)) {
+                super.handleALL_SESSION_DATA_COMPRESSED(msg, sender);
+            }
+        }
+
+        @Override
+        protected void handleALL_SESSION_TRANSFERCOMPLETE(SessionMessage msg,
+                Member sender) {
+            if (!hold(msg, sender)) {
+                super.handleALL_SESSION_TRANSFERCOMPLETE(msg, sender);
+            }
+        }
+
+        private synchronized boolean hold(SessionMessage msg, Member sender) {
+            if (!holdMessages) {
+                return false;
+            }
+            heldMessages.add(msg);
+            heldSenders.add(sender);
+            if (msg.getEventType() ==
+                    SessionMessage.EVT_ALL_SESSION_TRANSFERCOMPLETE) {
+                heldTransferCompleteCount++;
+            }
+            return true;
+        }
+
+        private synchronized int getHeldTransferCompleteCount() {
+            return heldTransferCompleteCount;
+        }
+
+        private synchronized void releaseHeldMessages() {
+            holdMessages = false;
+            for (int i = 0; i < heldMessages.size(); i++) {
+                messageReceived(heldMessages.get(i), heldSenders.get(i));
+            }
+            heldMessages.clear();
+            heldSenders.clear();
+        }
+    }
+
+    private static void assertAttribute(DeltaManager manager, String id,
+            int value) throws Exception {
+        long timeout = System.currentTimeMillis() + 10000;
+        Session session = manager.findSession(id);
+        while ((session == null ||
+                !Integer.valueOf(value).equals(
+                        session.getSession().getAttribute("index"))) &&
+                System.currentTimeMillis() < timeout) {
+            Thread.sleep(50);
+            session = manager.findSession(id);
+        }
+        assertNotNull(session);
+        assertEquals(Integer.valueOf(value),
+                session.getSession().getAttribute("index"));
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.ha.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ObjectInputStream;
+
+import org.junit.Test;
+
+/**
+ * Compares the size and the time to write and read a small session delta
+ * with Java serialization and with the {@link BinarySessionAttributeCodec}.
+ */
+public class TesterDeltaRequestPerformance {
+
+    private static final int ITERATIONS = 200000;
+
+    @Test
+    public void testDelta() throws Exception {
+        // Warm up
+        doTest(null, false);
+        doTest(new BinarySessionAttributeCodec(), false);
+
+        doTest(null, true);
+        doTest(new BinarySessionAttributeCodec(), true);
+    }
+
+    private void doTest(SessionAttributeCodec codec, boolean log)
+            throws Exception {
+        DeltaRequest request = new DeltaRequest("0123456789ABCDEF", false);
+        request.setCodec(codec);
+        request.setAttribute("counter", Integer.valueOf(1));
+        request.setAttribute("lastAccess", Long.valueOf(1000));
+        request.setAttribute("view", "page-1");
+
+        DeltaRequest received = new DeltaRequest();
+        received.setCodec(codec);
+
+        int size = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            byte[] data = request.serialize();
+            size = data.length;
+            received.readExternal(new ObjectInputStream(
+                    new ByteArrayInputStream(data)));
+        }
+        long time = System.nanoTime() - start;
+
+        if (log) {
+            System.out.println((codec == null ? "Java serialization" :
+                    codec.getClass().getSimpleName()) + ": " + size +
+                    " bytes per delta, " + time / ITERATIONS +
+                    "ns to write and read a delta");
+        }
+    }
+}
@@ -22,7 +22,9 @@ import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -30,6 +32,7 @@ import java.util.TimeZone;
 
 import javax.servlet.http.HttpServletResponse;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -39,6 +42,8 @@ import org.junit.Test;
 
 import static org.apache.catalina.startup.SimpleHttpClient.CRLF;
 
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.core.StandardContext;
 import org.apache.catalina.startup.SimpleHttpClient;
 import org.apache.catalina.startup.Tomcat;
 import org.apache.catalina.startup.TomcatBaseTest;
@@ -287,6 +292,160 @@ public class TestDefaultServlet extends TomcatBaseTest {
         assertTrue(client.isResponse404());
     }
 
+    /**
+     * Test serving a static resource from a memory mapped file.
+     */
+    @Test
+    public void testMappedFile() throws Exception {
+        File appDir = new File(getTemporaryDirectory(), "MyApp");
+        addDeleteOnTearDown(appDir);
+        if (!appDir.mkdirs() && !appDir.isDirectory()) {
+            fail("Unable to create directory [" + appDir + "]");
+        }
+        byte[] content = new byte[64 * 1024];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) ('a' + (i % 26));
+        }
+        FileOutputStream fos =
+                new FileOutputStream(new File(appDir, "mapped.txt"));
+        try {
+            fos.write(content);
+        } finally {
+            fos.close();
+        }
+
+        Tomcat tomcat = getTomcatInstance();
+        StandardContext ctx = (StandardContext) tomcat.addContext("/MyApp",
+                appDir.getAbsolutePath());
+        // Ensure the content is not served from the resource cache
+        ctx.setCachingAllowed(false);
+        DefaultServlet servlet = new DefaultServlet();
+        Wrapper w = Tomcat.addServlet(ctx, "default", servlet);
+        w.addInitParameter("mappedCacheSize", "1024");
+        // Sendfile takes precedence when the connector supports it
+        w.addInitParameter("sendfileSize", "-1");
+        ctx.addServletMapping("/", "default");
+        tomcat.start();
+
+        final ByteChunk res = new ByteChunk();
+        for (int i = 0; i < 2; i++) {
+            int rc = getUrl("http://localhost:" + getPort() +
+                    "/MyApp/mapped.txt", res, null);
+            assertEquals(HttpServletResponse.SC_OK, rc);
+            assertArrayEquals(content, Arrays.copyOfRange(res.getBuffer(),
+                    res.getStart(), res.getEnd()));
+        }
+        assertEquals(1, servlet.mappedFileCache.getMissCount());
+        assertEquals(1, servlet.mappedFileCache.getHitCount());
+        assertEquals(content.length, servlet.mappedFileCache.getSize());
+    }
+
+    /**
+     * Test serving a static resource large enough to use sendfile with the
+     * connector under test.
+     */
+    @Test
+    public void testSendfile() throws Exception {
+        File appDir = new File(getTemporaryDirectory(), "MyApp");
+        addDeleteOnTearDown(appDir);
+        if (!appDir.mkdirs() && !appDir.isDirectory()) {
+            fail("Unable to create directory [" + appDir + "]");
+        }
+        byte[] content = new byte[100 * 1024];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) ('a' + (i % 26));
+        }
+        FileOutputStream fos =
+                new FileOutputStream(new File(appDir, "large.txt"));
+        try {
+            fos.write(content);
+        } finally {
+            fos.close();
+        }
+
+        Tomcat tomcat = getTomcatInstance();
+        // Sendfile is disabled by default for BIO
+        tomcat.getConnector().setProperty("useSendfile", "true");
+        tomcat.addWebapp(null, "/MyApp", appDir.getAbsolutePath());
+        tomcat.start();
+
+        final ByteChunk res = new ByteChunk();
+        // Twice to re-use the keep-alive connection after sendfile
+        for (int i = 0; i < 2; i++) {
+            int rc = getUrl("http://localhost:" + getPort() +
+                    "/MyApp/large.txt", res, null);
+            assertEquals(HttpServletResponse.SC_OK, rc);
+            assertArrayEquals(content, Arrays.copyOfRange(res.getBuffer(),
+                    res.getStart(), res.getEnd()));
+        }
+    }
+
+    /**
+     * Test that overlapping and adjacent byte ranges are merged and that the
+     * ranges are read from the correct positions of the file.
+     */
+    @Test
+    public void testRanges() throws Exception {
+        File appDir = new File(getTemporaryDirectory(), "MyApp");
+        addDeleteOnTearDown(appDir);
+        if (!appDir.mkdirs() && !appDir.isDirectory()) {
+            fail("Unable to create directory [" + appDir + "]");
+        }
+        byte[] content = new byte[1000];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) ('a' + (i % 26));
+        }
+        FileOutputStream fos =
+                new FileOutputStream(new File(appDir, "range.txt"));
+        try {
+            fos.write(content);
+        } finally {
+            fos.close();
+        }
+
+        Tomcat tomcat = getTomcatInstance();
+        StandardContext ctx = (StandardContext) tomcat.addContext("/MyApp",
+                appDir.getAbsolutePath());
+        // Ensure the ranges are read from the file
+        ctx.setCachingAllowed(false);
+        Wrapper w = Tomcat.addServlet(ctx, "default", new DefaultServlet());
+        w.addInitParameter("sendfileSize", "-1");
+        ctx.addServletMapping("/", "default");
+        tomcat.start();
+
+        String path = "http://localhost:" + getPort() + "/MyApp/range.txt";
+        ByteChunk res = new ByteChunk();
+        Map<String,List<String>> reqHead = new HashMap<String,List<String>>();
+        Map<String,List<String>> resHead = new HashMap<String,List<String>>();
+
+        // Overlapping ranges are served as a single part
+        reqHead.put("Range", Arrays.asList("bytes=100-199,150-299"));
+        int rc = getUrl(path, res, reqHead, resHead);
+        assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, rc);
+        assertEquals("bytes 100-299/1000",
+                resHead.get("Content-Range").get(0));
+        assertArrayEquals(Arrays.copyOfRange(content, 100, 300),
+                Arrays.copyOfRange(res.getBuffer(), res.getStart(),
+                        res.getEnd()));
+
+        // Adjacent ranges are merged, others are sent in order
+        res.recycle();
+        resHead.clear();
+        reqHead.put("Range", Arrays.asList("bytes=900-909,0-9,10-19"));
+        rc = getUrl(path, res, reqHead, resHead);
+        assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, rc);
+        String body = res.toString();
+        int first = body.indexOf("Content-Range: bytes 0-19/1000");
+        int second = body.indexOf("Content-Range: bytes 900-909/1000");
+        assertTrue(first > 0);
+        assertTrue(second > first);
+        assertEquals(-1, body.indexOf("Content-Range: bytes 10-19/1000"));
+        assertTrue(body.indexOf(new String(content, 0, 20, "ISO-8859-1"))
+                > first);
+        assertTrue(body.indexOf(new String(content, 900, 10, "ISO-8859-1"))
+                > second);
+    }
+
     public static int getUrl(String path, ByteChunk out,
             Map<String, List<String>> resHead) throws IOException {
         out.recycle();
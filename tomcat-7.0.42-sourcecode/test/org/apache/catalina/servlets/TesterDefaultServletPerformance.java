@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.servlets;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.servlet.ServletOutputStream;
+
+import org.junit.Test;
+
+import org.apache.naming.resources.CacheEntry;
+import org.apache.naming.resources.Resource;
+import org.apache.naming.resources.ResourceAttributes;
+
+/**
+ * Compares the throughput of serving a file from a memory mapping with
+ * reading it through a stream for every request.
+ */
+public class TesterDefaultServletPerformance {
+
+    private static final int ITERATIONS = 100000;
+
+    private static final int[] SIZES = { 8 * 1024, 64 * 1024, 256 * 1024 };
+
+    @Test
+    public void testCopy() throws Exception {
+        for (int size : SIZES) {
+            File file = File.createTempFile("mapped", ".bin");
+            file.deleteOnExit();
+            FileOutputStream fos = new FileOutputStream(file);
+            try {
+                fos.write(new byte[size]);
+            } finally {
+                fos.close();
+            }
+            CacheEntry entry = createEntry(file);
+
+            DefaultServlet streamed = new DefaultServlet();
+
+            DefaultServlet mapped = new DefaultServlet();
+            mapped.mappedFileMaxSize = Integer.MAX_VALUE;
+            mapped.mappedFileCache = new MappedFileCache(1024 * 1024);
+
+            int iterations = ITERATIONS * 8 * 1024 / size;
+            // Warm up
+            run(streamed, entry, iterations / 10);
+            run(mapped, entry, iterations / 10);
+
+            long streamedTime = run(streamed, entry, iterations);
+            long mappedTime = run(mapped, entry, iterations);
+
+            System.out.println("Size: " + size / 1024 + "KB, copy(): " +
+                    throughput(size, iterations, streamedTime) +
+                    "MB/s, mapped: " +
+                    throughput(size, iterations, mappedTime) + "MB/s");
+
+            mapped.destroy();
+        }
+    }
+
+    private static long run(DefaultServlet servlet, CacheEntry entry,
+            int iterations) throws IOException {
+        NullOutputStream os = new NullOutputStream();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            servlet.copy(entry, null, os);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long throughput(int size, int iterations, long nanos) {
+        return ((long) size * iterations * 1000000000L) / nanos / 1024 / 1024;
+    }
+
+    private static CacheEntry createEntry(final File file) {
+        CacheEntry entry = new CacheEntry();
+        entry.name = "/" + file.getName();
+        entry.attributes = new ResourceAttributes() {
+            private static final long serialVersionUID = 1L;
+            @Override
+            public String getCanonicalPath() {
+                return file.getAbsolutePath();
+            }
+        };
+        entry.attributes.setContentLength(file.length());
+        entry.attributes.setLastModified(file.lastModified());
+        entry.resource = new Resource() {
+            @Override
+            public InputStream streamContent() throws IOException {
+                return new FileInputStream(file);
+            }
+        };
+        return entry;
+    }
+
+    private static class NullOutputStream extends ServletOutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            // NO-OP
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            // NO-OP
+        }
+    }
+}
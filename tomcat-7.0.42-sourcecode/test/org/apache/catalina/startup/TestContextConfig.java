@@ -34,7 +34,9 @@ import org.junit.Test;
 
 import org.apache.catalina.Context;
 import org.apache.catalina.core.StandardContext;
+import org.apache.catalina.deploy.WebXml;
 import org.apache.tomcat.util.buf.ByteChunk;
+import org.xml.sax.InputSource;
 
 public class TestContextConfig extends TomcatBaseTest {
 
@@ -146,6 +148,59 @@ public class TestContextConfig extends TomcatBaseTest {
                 "envEntry1: 1 envEntry2: 2 envEntry3: 33 envEntry4: 4");
     }
 
+    @Test
+    public void testWebXmlSnapshot() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+
+        File appDir = new File("test/webapp-3.0-fragments");
+        File workDir = new File(getTemporaryDirectory(), "snapshot-work");
+        addDeleteOnTearDown(workDir);
+        StandardContext ctxt = (StandardContext) tomcat.addContext(null,
+                "/test", appDir.getAbsolutePath());
+        ctxt.setDefaultWebXml(new File("conf/web.xml").getAbsolutePath());
+        ctxt.setWorkDir(workDir.getAbsolutePath());
+        ctxt.setWebXmlSnapshot(true);
+        CountingContextConfig config = new CountingContextConfig();
+        ctxt.addLifecycleListener(config);
+
+        tomcat.start();
+
+        Assert.assertTrue(config.parseCount > 0);
+        Assert.assertTrue(new File(workDir, "webxml.ser").isFile());
+        assertPageContains("/test/bug51396.jsp", "<p>OK</p>");
+
+        // Nothing has changed so nothing should be parsed on restart
+        ctxt.stop();
+        config.parseCount = 0;
+        ctxt.start();
+
+        Assert.assertEquals(0, config.parseCount);
+        assertPageContains("/test/bug51396.jsp", "<p>OK</p>");
+        assertPageContains("/test/resourceF.jsp",
+                "<p>resourceF.jsp in resources2.jar</p>");
+
+        // A different configuration invalidates the snapshot
+        ctxt.stop();
+        ctxt.setXmlValidation(!ctxt.getXmlValidation());
+        ctxt.start();
+
+        Assert.assertTrue(config.parseCount > 0);
+    }
+
+    private static class CountingContextConfig extends ContextConfig {
+
+        private int parseCount = 0;
+
+        @Override
+        protected void parseWebXml(InputSource source, WebXml dest,
+                boolean fragment) {
+            if (source != null) {
+                parseCount++;
+            }
+            super.parseWebXml(source, dest, fragment);
+        }
+    }
+
     private static class CustomDefaultServletSCI
             implements ServletContainerInitializer {
 
@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.startup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import org.apache.catalina.core.StandardHost;
+import org.apache.tomcat.util.buf.B2CConverter;
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.scan.TldIndex;
+
+public class TestTldConfig extends TomcatBaseTest {
+
+    private static final String URI = "http://tomcat.apache.org/tld-index";
+
+    @Test
+    public void testIndexTlds() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        StandardHost host = (StandardHost) tomcat.getHost();
+        host.setIndexTlds(true);
+
+        // Two web applications with their own copy of the same JAR
+        File jar = new File(getTemporaryDirectory(), "taglib.jar");
+        addDeleteOnTearDown(jar);
+        writeJar(jar);
+        for (int i = 1; i <= 2; i++) {
+            File appDir = new File(getTemporaryDirectory(), "tld-index" + i);
+            addDeleteOnTearDown(appDir);
+            File lib = new File(appDir, "WEB-INF/lib");
+            assertTrue(lib.mkdirs());
+            copy(jar, new File(lib, "taglib.jar"));
+            write(new File(appDir, "index.jsp"), "<%@ taglib uri=\"" + URI +
+                    "\" prefix=\"t\" %>OK");
+            tomcat.addWebapp(null, "/test" + i, appDir.getAbsolutePath());
+        }
+
+        TesterTldListener.COUNT.set(0);
+        tomcat.start();
+
+        // The listener is registered for both web applications
+        assertEquals(2, TesterTldListener.COUNT.get());
+
+        // Each distinct JAR, including those on the class path, is only
+        // scanned once for both web applications
+        TldIndex index = host.getTldIndex();
+        int size = index.getSize();
+        assertEquals(size, index.getScanCount());
+        long hits = index.getHitCount();
+        assertTrue(hits >= size);
+
+        // Jasper finds the TLD through the index
+        for (int i = 1; i <= 2; i++) {
+            ByteChunk res = getUrl("http://localhost:" + getPort() + "/test" +
+                    i + "/index.jsp");
+            assertEquals("OK", res.toString());
+        }
+        assertEquals(size, index.getScanCount());
+        assertTrue(index.getHitCount() > hits);
+
+        // The index is saved when the host stops
+        File file = host.getTldIndexFile();
+        tomcat.stop();
+        assertTrue(file.isFile());
+
+        TldIndex saved = new TldIndex();
+        saved.load(file);
+        assertEquals(size, saved.getSize());
+    }
+
+    private static void writeJar(File file) throws IOException {
+        JarOutputStream jos = new JarOutputStream(new FileOutputStream(file));
+        try {
+            jos.putNextEntry(new JarEntry("META-INF/index.tld"));
+            jos.write(("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                    "<taglib xmlns=\"http://java.sun.com/xml/ns/javaee\"" +
+                    " version=\"2.1\">\n" +
+                    "  <tlib-version>1.0</tlib-version>\n" +
+                    "  <short-name>index</short-name>\n" +
+                    "  <uri>" + URI + "</uri>\n" +
+                    "  <listener>\n" +
+                    "    <listener-class>" +
+                    TesterTldListener.class.getName() +
+                    "</listener-class>\n" +
+                    "  </listener>\n" +
+                    "</taglib>\n").getBytes(B2CConverter.UTF_8));
+            jos.closeEntry();
+        } finally {
+            jos.close();
+        }
+    }
+
+    private static void copy(File src, File dest) throws IOException {
+        FileInputStream fis = new FileInputStream(src);
+        OutputStream os = new FileOutputStream(dest);
+        try {
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = fis.read(buf)) >= 0) {
+                os.write(buf, 0, n);
+            }
+        } finally {
+            fis.close();
+            os.close();
+        }
+    }
+
+    private static void write(File file, String content) throws IOException {
+        OutputStream os = new FileOutputStream(file);
+        try {
+            os.write(content.getBytes(B2CConverter.UTF_8));
+        } finally {
+            os.close();
+        }
+    }
+
+    public static class TesterTldListener implements ServletContextListener {
+
+        static final AtomicInteger COUNT = new AtomicInteger();
+
+        @Override
+        public void contextInitialized(ServletContextEvent sce) {
+            COUNT.incrementAndGet();
+        }
+
+        @Override
+        public void contextDestroyed(ServletContextEvent sce) {
+            // NOOP
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.startup;
+
+import java.io.File;
+
+import org.junit.Test;
+
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.core.StandardContext;
+
+/**
+ * Compares the time taken to start a host with many contexts when each
+ * web.xml is parsed and merged with the time taken when the merged web.xml
+ * snapshots from the previous start are used.
+ */
+public class TesterContextConfigPerformance extends TomcatBaseTest {
+
+    private static final int CONTEXTS = 50;
+
+    private static final int ITERATIONS = 5;
+
+    @Test
+    public void testStartup() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+
+        File appDir = new File("test/webapp-3.0-fragments");
+        StandardContext[] contexts = new StandardContext[CONTEXTS];
+        for (int i = 0; i < CONTEXTS; i++) {
+            File workDir = new File(getTemporaryDirectory(), "work" + i);
+            addDeleteOnTearDown(workDir);
+            contexts[i] = (StandardContext) tomcat.addContext(null,
+                    "/test" + i, appDir.getAbsolutePath());
+            contexts[i].setDefaultWebXml(
+                    new File("conf/web.xml").getAbsolutePath());
+            contexts[i].setWorkDir(workDir.getAbsolutePath());
+            contexts[i].setWebXmlSnapshot(true);
+            contexts[i].addLifecycleListener(new ContextConfig());
+        }
+
+        // Creates the snapshots
+        tomcat.start();
+
+        long parsed = 0;
+        long snapshot = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            parsed += restart(contexts, false);
+            snapshot += restart(contexts, true);
+        }
+
+        System.out.println(CONTEXTS + " contexts, parsed web.xml: " +
+                parsed / ITERATIONS / 1000000 + "ms, snapshot: " +
+                snapshot / ITERATIONS / 1000000 + "ms");
+    }
+
+    private static long restart(StandardContext[] contexts,
+            boolean webXmlSnapshot) throws LifecycleException {
+        for (StandardContext context : contexts) {
+            context.stop();
+            context.setWebXmlSnapshot(webXmlSnapshot);
+        }
+        long start = System.nanoTime();
+        for (StandardContext context : contexts) {
+            context.start();
+        }
+        return System.nanoTime() - start;
+    }
+}
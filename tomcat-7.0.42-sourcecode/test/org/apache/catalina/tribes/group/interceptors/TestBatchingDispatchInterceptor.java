@@ -0,0 +1,169 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.tribes.group.interceptors;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.catalina.tribes.Channel;
+import org.apache.catalina.tribes.ChannelException;
+import org.apache.catalina.tribes.ChannelListener;
+import org.apache.catalina.tribes.ErrorHandler;
+import org.apache.catalina.tribes.Member;
+import org.apache.catalina.tribes.TesterUtil;
+import org.apache.catalina.tribes.UniqueId;
+import org.apache.catalina.tribes.group.GroupChannel;
+
+public class TestBatchingDispatchInterceptor {
+
+    private static final int OPTIONS = Channel.SEND_OPTIONS_ASYNCHRONOUS |
+        Channel.SEND_OPTIONS_USE_ACK | Channel.SEND_OPTIONS_SYNCHRONIZED_ACK;
+
+    int channelCount = 3;
+    GroupChannel[] channels = null;
+    BatchingDispatchInterceptor[] dispatchers = null;
+    TestListener[] listeners = null;
+
+    @Before
+    public void setUp() throws Exception {
+        channels = new GroupChannel[channelCount];
+        dispatchers = new BatchingDispatchInterceptor[channelCount];
+        listeners = new TestListener[channelCount];
+        for (int i = 0; i < channelCount; i++) {
+            channels[i] = new GroupChannel();
+            dispatchers[i] = new BatchingDispatchInterceptor();
+            channels[i].addInterceptor(dispatchers[i]);
+            listeners[i] = new TestListener();
+            channels[i].addChannelListener(listeners[i]);
+        }
+        TesterUtil.addRandomDomain(channels);
+        for (int i = 0; i < channelCount; i++) {
+            channels[i].start(Channel.DEFAULT);
+        }
+        for (int i = 0; i < 100; i++) {
+            boolean joined = true;
+            for (int j = 0; j < channelCount; j++) {
+                joined &= channels[j].getMembers().length == channelCount - 1;
+            }
+            if (joined) break;
+            Thread.sleep(100);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (int i = 0; i < channelCount; i++) {
+            channels[i].stop(Channel.DEFAULT);
+        }
+    }
+
+    @Test
+    public void testBatchedDelivery() throws Exception {
+        Member[] dest = channels[0].getMembers();
+        assertEquals(channelCount - 1, dest.length);
+        final AtomicInteger completed = new AtomicInteger(0);
+        final AtomicInteger failed = new AtomicInteger(0);
+        ErrorHandler handler = new ErrorHandler() {
+            @Override
+            public void handleError(ChannelException x, UniqueId id) {
+                failed.incrementAndGet();
+            }
+            @Override
+            public void handleCompletion(UniqueId id) {
+                completed.incrementAndGet();
+            }
+        };
+        int count = 1000;
+        for (int i = 0; i < count; i++) {
+            channels[0].send(dest, Integer.valueOf(i), OPTIONS, handler);
+        }
+        for (int i = 0; i < 200 && completed.get() + failed.get() < count; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(0, failed.get());
+        assertEquals(count, completed.get());
+        for (int i = 1; i < channelCount; i++) {
+            assertFalse(listeners[i].fail);
+            assertEquals(count, listeners[i].count);
+        }
+        BatchingDispatchInterceptor dispatcher = dispatchers[0];
+        assertEquals(count, dispatcher.getDispatchedCount());
+        assertEquals(0, dispatcher.getQueueDepth());
+        assertEquals(0, dispatcher.getCurrentSize());
+        assertTrue(dispatcher.getPeakQueueDepth() > 0);
+        assertTrue(dispatcher.getBatchCount() > 0);
+        assertTrue(dispatcher.getBatchedMessageCount() >= 2 * dispatcher.getBatchCount());
+        assertEquals(0, dispatcher.getOverflowCount());
+    }
+
+    @Test
+    public void testSynchronousMessage() throws Exception {
+        Member[] dest = channels[0].getMembers();
+        channels[0].send(dest, Integer.valueOf(0),
+                Channel.SEND_OPTIONS_USE_ACK | Channel.SEND_OPTIONS_SYNCHRONIZED_ACK);
+        for (int i = 1; i < channelCount; i++) {
+            assertEquals(1, listeners[i].count);
+        }
+        assertEquals(0, dispatchers[0].getDispatchedCount());
+    }
+
+    @Test
+    public void testQueueFull() throws Exception {
+        Member[] dest = channels[0].getMembers();
+        dispatchers[0].setMaxQueueSize(10);
+        dispatchers[0].setAlwaysSend(false);
+        try {
+            channels[0].send(dest, Integer.valueOf(0), OPTIONS);
+            fail("The message should not fit in the queue");
+        } catch (ChannelException x) {
+            // Expected
+        }
+        assertEquals(1, dispatchers[0].getOverflowCount());
+
+        dispatchers[0].setAlwaysSend(true);
+        channels[0].send(dest, Integer.valueOf(0), OPTIONS);
+        assertEquals(2, dispatchers[0].getOverflowCount());
+        for (int i = 1; i < channelCount; i++) {
+            assertEquals(1, listeners[i].count);
+        }
+    }
+
+    public static class TestListener implements ChannelListener {
+        volatile int count = 0;
+        volatile boolean fail = false;
+
+        @Override
+        public synchronized void messageReceived(Serializable msg, Member sender) {
+            if (((Integer) msg).intValue() != count) fail = true;
+            count++;
+        }
+
+        @Override
+        public boolean accept(Serializable msg, Member sender) {
+            return (msg instanceof Integer);
+        }
+    }
+}
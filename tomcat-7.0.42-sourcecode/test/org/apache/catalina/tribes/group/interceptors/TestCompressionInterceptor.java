@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.tribes.group.interceptors;
+
+import java.io.Serializable;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.catalina.tribes.ChannelException;
+import org.apache.catalina.tribes.ChannelMessage;
+import org.apache.catalina.tribes.Member;
+import org.apache.catalina.tribes.group.ChannelInterceptorBase;
+import org.apache.catalina.tribes.group.InterceptorPayload;
+import org.apache.catalina.tribes.io.ChannelData;
+import org.apache.catalina.tribes.io.XByteBuffer;
+
+public class TestCompressionInterceptor {
+
+    private CompressionInterceptor sender;
+    private CompressionInterceptor receiver;
+    private Capture wire;
+    private Capture delivered;
+
+    @Before
+    public void setUp() {
+        sender = new CompressionInterceptor();
+        receiver = new CompressionInterceptor();
+        wire = new Capture();
+        delivered = new Capture();
+        sender.setNext(wire);
+        receiver.setPrevious(delivered);
+    }
+
+    @Test
+    public void testSmallMessage() throws Exception {
+        int length = send("small");
+        assertEquals(length + 1, wire.length);
+        assertEquals(0, sender.getCompressedCount());
+        assertEquals(1, sender.getUncompressedCount());
+        assertEquals("small", receive());
+    }
+
+    @Test
+    public void testLZ() throws Exception {
+        doTestCompressible();
+    }
+
+    @Test
+    public void testDeflate() throws Exception {
+        sender.setCodec("deflate");
+        doTestCompressible();
+    }
+
+    @Test
+    public void testIncompressible() throws Exception {
+        Random random = new Random(1);
+        byte[] value = new byte[4096];
+        for (int i = 0; i < 50; i++) {
+            random.nextBytes(value);
+            send(value.clone());
+            assertTrue(value.length < wire.length);
+            Object result = receive();
+            assertEquals(value.length, ((byte[]) result).length);
+        }
+        assertFalse(sender.isCompressed(byte[].class.getName()));
+        assertEquals(0, sender.getCompressedCount());
+        // Compressible data of other types is still compressed
+        doTestCompressible();
+        assertTrue(sender.isCompressed(String.class.getName()));
+    }
+
+    private void doTestCompressible() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append("attribute").append(i % 10);
+        }
+        String value = sb.toString();
+        long compressed = sender.getCompressedCount();
+        int length = send(value);
+        assertTrue(wire.length < length / 2);
+        assertEquals(compressed + 1, sender.getCompressedCount());
+        assertTrue(sender.getCompressionRatio() < 0.5);
+        assertEquals(value, receive());
+    }
+
+    private int send(Serializable value) throws Exception {
+        ChannelData msg = new ChannelData(true);
+        msg.setMessage(new XByteBuffer(XByteBuffer.serialize(value), false));
+        int length = msg.getMessage().getLength();
+        sender.sendMessage(null, msg, null);
+        return length;
+    }
+
+    private Object receive() throws Exception {
+        receiver.messageReceived(wire.msg);
+        XByteBuffer buffer = delivered.msg.getMessage();
+        return XByteBuffer.deserialize(buffer.getBytesDirect(), 0, buffer.getLength());
+    }
+
+    private static class Capture extends ChannelInterceptorBase {
+        ChannelMessage msg;
+        int length;
+
+        @Override
+        public void sendMessage(Member[] destination, ChannelMessage msg,
+                InterceptorPayload payload) throws ChannelException {
+            ChannelData copy = new ChannelData(true);
+            copy.setMessage(new XByteBuffer(msg.getMessage().getBytes(), false));
+            this.msg = copy;
+            this.length = msg.getMessage().getLength();
+        }
+
+        @Override
+        public void messageReceived(ChannelMessage msg) {
+            this.msg = msg;
+        }
+    }
+}
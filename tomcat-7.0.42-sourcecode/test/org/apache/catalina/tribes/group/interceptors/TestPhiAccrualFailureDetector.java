@@ -0,0 +1,242 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.tribes.group.interceptors;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.catalina.tribes.Channel;
+import org.apache.catalina.tribes.ChannelMessage;
+import org.apache.catalina.tribes.ManagedChannel;
+import org.apache.catalina.tribes.Member;
+import org.apache.catalina.tribes.TesterUtil;
+import org.apache.catalina.tribes.group.ChannelInterceptorBase;
+import org.apache.catalina.tribes.group.GroupChannel;
+import org.apache.catalina.tribes.group.interceptors.PhiAccrualFailureDetector.HeartbeatHistory;
+import org.apache.catalina.tribes.group.interceptors.TestTcpFailureDetector.TestMbrListener;
+
+public class TestPhiAccrualFailureDetector {
+    private PhiAccrualFailureDetector detector1 = null;
+    private PhiAccrualFailureDetector detector2 = null;
+    private HeartbeatFilter filter1 = null;
+    private HeartbeatFilter filter2 = null;
+    private ManagedChannel channel1 = null;
+    private ManagedChannel channel2 = null;
+    private TestMbrListener mbrlist1 = null;
+    private TestMbrListener mbrlist2 = null;
+
+    @Before
+    public void setUp() throws Exception {
+        channel1 = new GroupChannel();
+        channel2 = new GroupChannel();
+        channel1.getMembershipService().setPayload("Channel-1".getBytes("ASCII"));
+        channel2.getMembershipService().setPayload("Channel-2".getBytes("ASCII"));
+        mbrlist1 = new TestMbrListener("Channel-1");
+        mbrlist2 = new TestMbrListener("Channel-2");
+        detector1 = newDetector();
+        detector2 = newDetector();
+        filter1 = new HeartbeatFilter();
+        filter2 = new HeartbeatFilter();
+        channel1.addInterceptor(detector1);
+        channel1.addInterceptor(filter1);
+        channel2.addInterceptor(detector2);
+        channel2.addInterceptor(filter2);
+        channel1.addMembershipListener(mbrlist1);
+        channel2.addMembershipListener(mbrlist2);
+        TesterUtil.addRandomDomain(new ManagedChannel[] {channel1, channel2});
+    }
+
+    private static PhiAccrualFailureDetector newDetector() {
+        PhiAccrualFailureDetector detector = new PhiAccrualFailureDetector();
+        detector.setHeartbeatInterval(100);
+        detector.setAcceptableHeartbeatPause(200);
+        detector.setMinStdDeviation(50);
+        return detector;
+    }
+
+    @Test
+    public void testRegularHeartbeats() {
+        HeartbeatHistory history = new HeartbeatHistory(100, 1000, 0);
+        long now = 0;
+        for (int i = 0; i < 50; i++) {
+            now += 1000;
+            history.heartbeat(now);
+        }
+        assertEquals(1000, history.getMean(), 50);
+        assertTrue(history.phi(now + 500, 100, 0) < 1);
+        assertTrue(history.phi(now + 1000, 100, 0) < 1);
+        assertTrue(history.phi(now + 1500, 100, 0) > 3);
+        assertTrue(history.phi(now + 3000, 100, 0) > 8);
+        // phi increases with the time elapsed
+        double last = 0;
+        for (long elapsed = 0; elapsed < 5000; elapsed += 100) {
+            double phi = history.phi(now + elapsed, 100, 0);
+            assertTrue(phi >= last);
+            last = phi;
+        }
+    }
+
+    @Test
+    public void testIrregularHeartbeats() {
+        HeartbeatHistory regular = new HeartbeatHistory(100, 1000, 0);
+        HeartbeatHistory irregular = new HeartbeatHistory(100, 1000, 0);
+        long now = 0;
+        for (int i = 0; i < 50; i++) {
+            now += 1000;
+            regular.heartbeat(now);
+            irregular.heartbeat(now + (i % 2 == 0 ? -400 : 400));
+        }
+        irregular.heartbeat(now);
+        // The same delay is less suspect for a member with irregular heartbeats
+        assertTrue(irregular.getStdDeviation() > regular.getStdDeviation());
+        assertTrue(irregular.phi(now + 2000, 100, 0) < regular.phi(now + 2000, 100, 0));
+    }
+
+    @Test
+    public void testAcceptablePause() {
+        HeartbeatHistory history = new HeartbeatHistory(100, 1000, 0);
+        long now = 0;
+        for (int i = 0; i < 50; i++) {
+            now += 1000;
+            history.heartbeat(now);
+        }
+        // a garbage collection pause of 800ms
+        assertTrue(history.phi(now + 1800, 100, 0) > 8);
+        assertTrue(history.phi(now + 1800, 100, 1000) < 1);
+    }
+
+    @Test
+    public void testWindow() {
+        HeartbeatHistory history = new HeartbeatHistory(10, 1000, 0);
+        long now = 0;
+        for (int i = 0; i < 20; i++) {
+            now += 5000;
+            history.heartbeat(now);
+        }
+        for (int i = 0; i < 10; i++) {
+            now += 100;
+            history.heartbeat(now);
+        }
+        // only the last intervals are kept
+        assertEquals(100, history.getMean(), 0.001);
+        assertEquals(0, history.getStdDeviation(), 0.001);
+    }
+
+    @Test
+    public void testSuspectMemberRemovedAndAdded() throws Exception {
+        channel1.start(Channel.DEFAULT);
+        channel2.start(Channel.DEFAULT);
+        waitForMembers(1);
+        Member member = channel1.getMembers()[0];
+        Thread.sleep(1000);
+        assertTrue(detector1.phi(member) < detector1.getThreshold());
+
+        filter1.dropHeartbeats = true;
+        waitForMembers(0);
+        assertEquals(0, detector1.getMembers().length);
+
+        filter1.dropHeartbeats = false;
+        waitForMembers(1);
+        assertEquals(1, detector1.getMembers().length);
+    }
+
+    @Test
+    public void testMemberDisappearedIgnoredWhileAlive() throws Exception {
+        channel1.start(Channel.DEFAULT);
+        channel2.start(Channel.DEFAULT);
+        waitForMembers(1);
+        Member member = channel1.getMembers()[0];
+        Thread.sleep(500);
+        // the membership service reports the member gone, but it is still heard of
+        detector1.memberDisappeared(member);
+        Thread.sleep(1000);
+        assertEquals(1, mbrlist1.members.size());
+        assertEquals(1, detector1.getMembers().length);
+        // once it is not heard of any more, it is removed
+        filter1.dropHeartbeats = true;
+        waitForMembers(0);
+    }
+
+    @Test
+    public void testMutualSuspicionRecovered() throws Exception {
+        channel1.start(Channel.DEFAULT);
+        channel2.start(Channel.DEFAULT);
+        waitForMembers(mbrlist1, 1);
+        waitForMembers(mbrlist2, 1);
+        Thread.sleep(1000);
+
+        // both members stop hearing of each other and suspect each other
+        filter1.dropHeartbeats = true;
+        filter2.dropHeartbeats = true;
+        waitForMembers(mbrlist1, 0);
+        waitForMembers(mbrlist2, 0);
+        assertEquals(0, detector1.getMembers().length);
+        assertEquals(0, detector2.getMembers().length);
+
+        // the heartbeats sent to the suspects bring both of them back
+        filter1.dropHeartbeats = false;
+        filter2.dropHeartbeats = false;
+        waitForMembers(mbrlist1, 1);
+        waitForMembers(mbrlist2, 1);
+        assertEquals(1, detector1.getMembers().length);
+        assertEquals(1, detector2.getMembers().length);
+    }
+
+    private void waitForMembers(int count) throws InterruptedException {
+        waitForMembers(mbrlist1, count);
+    }
+
+    private static void waitForMembers(TestMbrListener listener, int count)
+            throws InterruptedException {
+        long start = System.currentTimeMillis();
+        while (listener.members.size() != count &&
+                System.currentTimeMillis() - start < 10000) {
+            Thread.sleep(50);
+        }
+        assertEquals(count, listener.members.size());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try { channel1.stop(Channel.DEFAULT);}catch (Exception ignore){ /* Ignore */ }
+        try { channel2.stop(Channel.DEFAULT);}catch (Exception ignore){ /* Ignore */ }
+    }
+
+    /**
+     * Drops the heartbeats received, to simulate a member that is not heard
+     * of.
+     */
+    public static class HeartbeatFilter extends ChannelInterceptorBase {
+        volatile boolean dropHeartbeats = false;
+
+        @Override
+        public void messageReceived(ChannelMessage msg) {
+            if (dropHeartbeats && Arrays.equals(
+                    PhiAccrualFailureDetector.HEARTBEAT_DATA,
+                    msg.getMessage().getBytes())) {
+                return;
+            }
+            super.messageReceived(msg);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.tribes.io;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class TestLZCodec {
+
+    @Test
+    public void testEmpty() throws Exception {
+        doCompressDecompress(new byte[0]);
+    }
+
+    @Test
+    public void testShort() throws Exception {
+        doCompressDecompress("abcabcabcab".getBytes("ISO-8859-1"));
+    }
+
+    @Test
+    public void testRepeated() throws Exception {
+        byte[] data = new byte[100000];
+        Arrays.fill(data, (byte) 1);
+        int length = doCompressDecompress(data);
+        assertTrue(length < 1000);
+    }
+
+    @Test
+    public void testText() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            sb.append("session-attribute-").append(i % 37).append('=').append(i);
+        }
+        byte[] data = sb.toString().getBytes("ISO-8859-1");
+        int length = doCompressDecompress(data);
+        assertTrue(length < data.length / 2);
+    }
+
+    @Test
+    public void testRandom() throws Exception {
+        Random random = new Random(42);
+        for (int size = 1; size < 70000; size = size * 3 + 1) {
+            byte[] data = new byte[size];
+            random.nextBytes(data);
+            doCompressDecompress(data);
+        }
+    }
+
+    @Test
+    public void testLongLiteralsAndMatches() throws Exception {
+        Random random = new Random(7);
+        byte[] data = new byte[200000];
+        for (int i = 0; i < data.length; i += 1000) {
+            if ((i / 1000) % 2 == 0) {
+                byte[] chunk = new byte[1000];
+                random.nextBytes(chunk);
+                System.arraycopy(chunk, 0, data, i, 1000);
+            }
+        }
+        doCompressDecompress(data);
+    }
+
+    @Test
+    public void testTruncated() throws Exception {
+        byte[] data = new byte[1000];
+        Arrays.fill(data, (byte) 3);
+        byte[] compressed = new byte[LZCodec.maxCompressedLength(data.length)];
+        int length = LZCodec.compress(data, 0, data.length, compressed, 0);
+        try {
+            LZCodec.decompress(compressed, 0, length - 3,
+                    new byte[data.length], 0, data.length);
+            fail("Truncated data should not decompress");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testTruncatedEverywhere() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            sb.append("attribute-").append(i % 7).append('=').append(i);
+        }
+        byte[] data = sb.toString().getBytes("ISO-8859-1");
+        byte[] compressed = new byte[LZCodec.maxCompressedLength(data.length)];
+        int length = LZCodec.compress(data, 0, data.length, compressed, 0);
+        // The bytes after the truncation point stay in the array and must
+        // never be read
+        for (int i = 0; i < length; i++) {
+            try {
+                LZCodec.decompress(compressed, 0, i,
+                        new byte[data.length], 0, data.length);
+                fail("Data truncated to " + i + " bytes should not decompress");
+            } catch (IOException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void testCorrupted() throws Exception {
+        byte[] data = new byte[5000];
+        new Random(3).nextBytes(data);
+        Arrays.fill(data, 1000, 3000, (byte) 9);
+        byte[] compressed = new byte[LZCodec.maxCompressedLength(data.length)];
+        int length = LZCodec.compress(data, 0, data.length, compressed, 0);
+        Random random = new Random(11);
+        for (int i = 0; i < 2000; i++) {
+            byte[] corrupted = Arrays.copyOf(compressed, length);
+            corrupted[random.nextInt(length)] = (byte) random.nextInt(256);
+            try {
+                LZCodec.decompress(corrupted, 0, length,
+                        new byte[data.length], 0, data.length);
+            } catch (IOException e) {
+                // Expected for most corruptions
+            }
+        }
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testInvalidRange() throws Exception {
+        LZCodec.decompress(new byte[10], 5, 10, new byte[10], 0, 10);
+    }
+
+    private int doCompressDecompress(byte[] data) throws Exception {
+        byte[] compressed = new byte[LZCodec.maxCompressedLength(data.length) + 3];
+        int length = LZCodec.compress(data, 0, data.length, compressed, 3);
+        assertTrue(length <= LZCodec.maxCompressedLength(data.length));
+        byte[] result = new byte[data.length + 2];
+        LZCodec.decompress(compressed, 3, length, result, 2, data.length);
+        assertArrayEquals(data, Arrays.copyOfRange(result, 2, result.length));
+        return length;
+    }
+}
@@ -16,6 +16,7 @@
  */
 package org.apache.catalina.tribes.io;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
@@ -38,4 +39,24 @@ public class TestXByteBuffer {
         assertTrue(obj instanceof String);
         assertEquals(test, obj);
     }
+
+    @Test
+    public void testSerializationIntoBuffer() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            sb.append(i);
+        }
+        String test = sb.toString();
+        XByteBuffer buffer = new XByteBuffer(16, false);
+        buffer.append(1);
+        XByteBuffer.serialize(test, buffer);
+        byte[] expected = XByteBuffer.serialize(test);
+        assertEquals(4 + expected.length, buffer.getLength());
+        byte[] actual = new byte[expected.length];
+        System.arraycopy(buffer.getBytesDirect(), 4, actual, 0, actual.length);
+        assertArrayEquals(expected, actual);
+        Object obj = XByteBuffer.deserialize(buffer.getBytesDirect(), 4,
+                buffer.getLength() - 4);
+        assertEquals(test, obj);
+    }
 }
@@ -0,0 +1,191 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.tribes.tipis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.catalina.tribes.Channel;
+import org.apache.catalina.tribes.ManagedChannel;
+import org.apache.catalina.tribes.Member;
+import org.apache.catalina.tribes.TesterUtil;
+import org.apache.catalina.tribes.group.GroupChannel;
+import org.apache.catalina.tribes.tipis.AbstractReplicatedMap.MapEntry;
+
+public class TestConsistentHashReplicatedMap {
+
+    private static final int NODES = 3;
+    private static final int KEYS = 30;
+
+    private ManagedChannel[] channels = new ManagedChannel[NODES];
+    private ConsistentHashReplicatedMap[] maps =
+        new ConsistentHashReplicatedMap[NODES];
+
+    @Before
+    public void setUp() throws Exception {
+        for (int i = 0; i < NODES; i++) {
+            channels[i] = new GroupChannel();
+        }
+        TesterUtil.addRandomDomain(channels);
+        for (int i = 0; i < NODES; i++) {
+            channels[i].start(Channel.DEFAULT);
+        }
+        for (int i = 0; i < 100 && !allMembers(); i++) {
+            Thread.sleep(100);
+        }
+        assertTrue(allMembers());
+        ClassLoader[] cls = new ClassLoader[] {getClass().getClassLoader()};
+        for (int i = 0; i < NODES; i++) {
+            maps[i] = new ConsistentHashReplicatedMap(null, channels[i], 5000,
+                    "TestConsistentHashReplicatedMap", cls, 1, 100);
+            maps[i].setChannelSendOptions(Channel.SEND_OPTIONS_USE_ACK |
+                    Channel.SEND_OPTIONS_SYNCHRONIZED_ACK);
+        }
+        for (int i = 0; i < 100 && !allMapMembers(); i++) {
+            Thread.sleep(100);
+        }
+        assertTrue(allMapMembers());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (int i = 0; i < NODES; i++) {
+            try {
+                if (maps[i] != null) maps[i].breakdown();
+            } catch (Exception ignore) {
+                // Ignore
+            }
+            try {
+                channels[i].stop(Channel.DEFAULT);
+            } catch (Exception ignore) {
+                // Ignore
+            }
+        }
+    }
+
+    @Test
+    public void testPlacement() throws Exception {
+        for (int i = 0; i < KEYS; i++) {
+            maps[0].put("key-" + i, "value-" + i);
+        }
+        Member local = channels[0].getLocalMember(false);
+        int[] held = new int[NODES];
+        for (int i = 0; i < KEYS; i++) {
+            String key = "key-" + i;
+            Member backup = maps[0].getRing().getOwners(key, 1, local)[0];
+            assertEquals(backup, maps[0].getInternal(key).getBackupNodes()[0]);
+            for (int j = 1; j < NODES; j++) {
+                MapEntry entry = maps[j].getInternal(key);
+                if (channels[j].getLocalMember(false).equals(backup)) {
+                    assertNotNull(entry);
+                    assertTrue(entry.isBackup());
+                    assertEquals("value-" + i, entry.getValue());
+                    held[j]++;
+                } else {
+                    // no proxy entries
+                    assertNull(entry);
+                }
+            }
+        }
+        assertEquals(KEYS, held[1] + held[2]);
+        assertEquals(KEYS, countPrimaries(maps[0]));
+        assertEquals(KEYS, maps[1].sizeFull() + maps[2].sizeFull());
+    }
+
+    @Test
+    public void testGetFromOtherNode() throws Exception {
+        for (int i = 0; i < KEYS; i++) {
+            maps[0].put("key-" + i, "value-" + i);
+        }
+        // every key is held by exactly one of the other nodes
+        for (int i = 0; i < KEYS; i++) {
+            String key = "key-" + i;
+            int other = maps[1].getInternal(key) == null ? 1 : 2;
+            assertEquals("value-" + i, maps[other].get(key));
+            MapEntry entry = maps[other].getInternal(key);
+            assertTrue(entry.isPrimary());
+            // the previous primary is a backup or does not hold the key
+            MapEntry previous = maps[0].getInternal(key);
+            assertTrue(previous == null || previous.isBackup());
+            Member backup = entry.getBackupNodes()[0];
+            for (int j = 0; j < NODES; j++) {
+                if (j == other) continue;
+                boolean isBackup = channels[j].getLocalMember(false).equals(backup);
+                assertEquals(Boolean.valueOf(isBackup),
+                        Boolean.valueOf(maps[j].getInternal(key) != null));
+            }
+        }
+        assertNull(maps[1].get("missing"));
+    }
+
+    @Test
+    public void testPrimaryDisappeared() throws Exception {
+        for (int i = 0; i < KEYS; i++) {
+            maps[0].put("key-" + i, "value-" + i);
+        }
+        maps[0].breakdown();
+        maps[0] = null;
+        int primaries = 0;
+        for (int i = 0; i < 100; i++) {
+            primaries = countPrimaries(maps[1]) + countPrimaries(maps[2]);
+            if (primaries == KEYS && maps[1].getMapMembers().length == 1 &&
+                    maps[2].getMapMembers().length == 1) {
+                break;
+            }
+            Thread.sleep(100);
+        }
+        for (int i = 0; i < KEYS; i++) {
+            String key = "key-" + i;
+            MapEntry entry1 = maps[1].getInternal(key);
+            MapEntry entry2 = maps[2].getInternal(key);
+            // the backup became primary and selected the other node as backup
+            assertNotNull(entry1);
+            assertNotNull(entry2);
+            assertTrue(entry1.isPrimary() != entry2.isPrimary());
+        }
+        assertEquals(KEYS, primaries);
+    }
+
+    private static int countPrimaries(ConsistentHashReplicatedMap map) {
+        int count = 0;
+        for (Object key : map.keySetFull()) {
+            MapEntry entry = map.getInternal(key);
+            if (entry != null && entry.isPrimary()) count++;
+        }
+        return count;
+    }
+
+    private boolean allMembers() {
+        for (int i = 0; i < NODES; i++) {
+            if (channels[i].getMembers().length != NODES - 1) return false;
+        }
+        return true;
+    }
+
+    private boolean allMapMembers() {
+        for (int i = 0; i < NODES; i++) {
+            if (maps[i].getMapMembers().length != NODES - 1) return false;
+        }
+        return true;
+    }
+}
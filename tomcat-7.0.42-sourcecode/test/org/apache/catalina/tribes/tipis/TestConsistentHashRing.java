@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.tribes.tipis;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.catalina.tribes.Member;
+import org.apache.catalina.tribes.membership.MemberImpl;
+
+public class TestConsistentHashRing {
+
+    private static final int KEYS = 10000;
+
+    private Member[] members;
+
+    @Before
+    public void setUp() throws Exception {
+        members = new Member[6];
+        for (int i = 0; i < members.length; i++) {
+            members[i] = new MemberImpl("192.168.0." + (i + 1), 4000, 0);
+        }
+    }
+
+    @Test
+    public void testOwners() {
+        ConsistentHashRing ring = new ConsistentHashRing(members, 100);
+        for (int i = 0; i < 100; i++) {
+            String key = "session-" + i;
+            Member[] owners = ring.getOwners(key, 3, null);
+            assertEquals(3, owners.length);
+            assertEquals(3, new HashSet<Member>(Arrays.asList(owners)).size());
+            // the owners excluding a member are the next owners on the ring
+            Member[] excl = ring.getOwners(key, 2, owners[0]);
+            assertArrayEquals(new Member[] {owners[1], owners[2]}, excl);
+        }
+        // no more owners than members
+        assertEquals(5, ring.getOwners("key", 10, members[0]).length);
+        assertEquals(0, new ConsistentHashRing(new Member[] {members[0]}, 100)
+                .getOwners("key", 1, members[0]).length);
+    }
+
+    @Test
+    public void testSameOwnersOnAllNodes() {
+        ConsistentHashRing ring = new ConsistentHashRing(members, 100);
+        List<Member> shuffled = Arrays.asList(members.clone());
+        Collections.shuffle(shuffled);
+        ConsistentHashRing other = new ConsistentHashRing(
+                shuffled.toArray(new Member[members.length]), 100);
+        assertTrue(other.hasMembers(members));
+        for (int i = 0; i < KEYS; i++) {
+            String key = "session-" + i;
+            assertArrayEquals(ring.getOwners(key, 2, null), other.getOwners(key, 2, null));
+        }
+    }
+
+    @Test
+    public void testBalance() {
+        ConsistentHashRing ring = new ConsistentHashRing(members, 100);
+        int[] owned = new int[members.length];
+        for (int i = 0; i < KEYS; i++) {
+            Member owner = ring.getOwners("session-" + i, 1, null)[0];
+            owned[Arrays.asList(members).indexOf(owner)]++;
+        }
+        for (int i = 0; i < owned.length; i++) {
+            assertTrue("Member " + i + " owns " + owned[i],
+                    owned[i] > KEYS / members.length / 2 &&
+                    owned[i] < KEYS / members.length * 2);
+        }
+    }
+
+    @Test
+    public void testMemberAdded() {
+        Member[] before = Arrays.copyOf(members, members.length - 1);
+        Member added = members[members.length - 1];
+        ConsistentHashRing ring1 = new ConsistentHashRing(before, 100);
+        ConsistentHashRing ring2 = new ConsistentHashRing(members, 100);
+        assertFalse(ring1.contains(added));
+        assertFalse(ring1.hasMembers(members));
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            String key = "session-" + i;
+            Member[] owners1 = ring1.getOwners(key, 2, null);
+            Member[] owners2 = ring2.getOwners(key, 2, null);
+            if (!Arrays.equals(owners1, owners2)) {
+                moved++;
+                // the only change is the new member taking a place
+                List<Member> list = Arrays.asList(owners2);
+                assertTrue(list.contains(added));
+            }
+        }
+        // two owners out of six members, about a third of the keys
+        assertTrue("Moved " + moved, moved > KEYS / 6 && moved < KEYS / 2);
+    }
+}
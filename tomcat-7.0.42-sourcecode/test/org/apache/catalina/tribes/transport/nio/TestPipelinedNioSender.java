@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.tribes.transport.nio;
+
+import java.io.Serializable;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.catalina.tribes.Channel;
+import org.apache.catalina.tribes.ChannelException;
+import org.apache.catalina.tribes.ChannelListener;
+import org.apache.catalina.tribes.ManagedChannel;
+import org.apache.catalina.tribes.Member;
+import org.apache.catalina.tribes.TesterUtil;
+import org.apache.catalina.tribes.group.GroupChannel;
+import org.apache.catalina.tribes.transport.ReplicationTransmitter;
+import org.apache.catalina.tribes.util.LatencyHistogram;
+
+public class TestPipelinedNioSender {
+
+    private int threadCount = 10;
+    private int msgCount = 200;
+    private GroupChannel channel1;
+    private GroupChannel channel2;
+    private PipelinedNioSender sender;
+    private Listener listener;
+
+    @Before
+    public void setUp() throws Exception {
+        channel1 = new GroupChannel();
+        sender = new PipelinedNioSender();
+        sender.setConnectionsPerMember(3);
+        ((ReplicationTransmitter) channel1.getChannelSender()).setTransport(sender);
+        channel2 = new GroupChannel();
+        listener = new Listener();
+        channel2.addChannelListener(listener);
+        TesterUtil.addRandomDomain(new ManagedChannel[] {channel1, channel2});
+        channel1.start(Channel.DEFAULT);
+        channel2.start(Channel.DEFAULT);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        channel1.stop(Channel.DEFAULT);
+        channel2.stop(Channel.DEFAULT);
+    }
+
+    @Test
+    public void testSynchronizedAck() throws Exception {
+        doTestSend(Channel.SEND_OPTIONS_USE_ACK | Channel.SEND_OPTIONS_SYNCHRONIZED_ACK);
+        Member member = channel2.getLocalMember(false);
+        LatencyHistogram latency = sender.getAckLatency(member);
+        assertNotNull(latency);
+        assertEquals(threadCount * msgCount, latency.getCount());
+        assertTrue(latency.getPercentile(50) <= latency.getMax());
+        assertEquals(0, sender.getInFlight(member));
+    }
+
+    @Test
+    public void testAck() throws Exception {
+        doTestSend(Channel.SEND_OPTIONS_USE_ACK);
+    }
+
+    @Test
+    public void testNoAck() throws Exception {
+        doTestSend(0);
+        assertEquals(null, sender.getAckLatency(channel2.getLocalMember(false)));
+    }
+
+    @Test
+    public void testMemberGone() throws Exception {
+        Member member = channel2.getLocalMember(false);
+        channel1.send(new Member[] {member}, Integer.valueOf(0), Channel.SEND_OPTIONS_USE_ACK);
+        channel2.stop(Channel.DEFAULT);
+        sender.setTimeout(2000);
+        try {
+            channel1.send(new Member[] {member}, Integer.valueOf(1), Channel.SEND_OPTIONS_USE_ACK);
+            fail("The member is gone");
+        } catch (ChannelException x) {
+            assertEquals(1, x.getFaultyMembers().length);
+        }
+        assertEquals(0, sender.getInFlight(member));
+        channel2.start(Channel.DEFAULT);
+    }
+
+    private void doTestSend(final int options) throws Exception {
+        final Member[] dest = new Member[] {channel2.getLocalMember(false)};
+        final Queue<Exception> errors = new ConcurrentLinkedQueue<Exception>();
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < msgCount; j++) {
+                            channel1.send(dest, Integer.valueOf(j), options);
+                        }
+                    } catch (Exception x) {
+                        errors.add(x);
+                    }
+                }
+            };
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+        }
+        if (!errors.isEmpty()) {
+            fail("Exception while sending: " + errors.remove());
+        }
+        long start = System.currentTimeMillis();
+        while (System.currentTimeMillis() - start < 10000 &&
+                listener.count.get() < threadCount * msgCount) {
+            Thread.sleep(50);
+        }
+        assertEquals(threadCount * msgCount, listener.count.get());
+    }
+
+    public static class Listener implements ChannelListener {
+        AtomicInteger count = new AtomicInteger(0);
+
+        @Override
+        public void messageReceived(Serializable msg, Member sender) {
+            count.incrementAndGet();
+        }
+
+        @Override
+        public boolean accept(Serializable msg, Member sender) {
+            return (msg instanceof Integer);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.el.lang;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.el.ELContext;
+import javax.el.ExpressionFactory;
+import javax.el.PropertyNotFoundException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import org.apache.el.TesterBeanA;
+import org.apache.el.TesterBeanB;
+import org.apache.el.parser.Node;
+import org.apache.jasper.el.ELContextImpl;
+
+public class TestExpressionCompiler {
+
+    private static final String[] EXPRESSIONS = {
+        "${1 + 2}", "${1 + 2.5}", "${'1' + 2}", "${10 / 4}", "${10 % 4}",
+        "${3 * 4 - 5}", "${1 < 2}", "${2 <= 2}", "${'a' > 'b'}",
+        "${null < 1}", "${null <= null}", "${1 == 1.0}", "${'a' != 'a'}",
+        "${true and false}", "${true || false}", "${not true}",
+        "${empty ''}", "${empty list}", "${empty map}", "${empty missing}",
+        "${true ? 1 : 2}", "${-2}", "${-a.valLong}", "${a.valLong + 1}",
+        "${a.valLong * i}", "${a.valLong / i}", "${i % 3}", "${i > 2}",
+        "${i == a.valLong}", "${a.bean.name}", "${a['bean'].name}",
+        "${a.name}", "${a.bean.name == 'Tomcat'}", "${list[1]}",
+        "${list[i - 4]}", "${map.key}", "${map[a.bean.name]}",
+        "${map.missing.name}", "Hello ${a.bean.name}, ${i}!",
+        "#{a.bean.sayHello()}", "${a.bean.sayHello('World')}",
+        "${i > 1 && a.name == null ? a.bean.name : 'none'}",
+        "${empty a.bean.name ? 'empty' : a.bean.name}"
+    };
+
+    @Test
+    public void testSameResult() {
+        ELContext context = createContext();
+        for (String expression : EXPRESSIONS) {
+            Node node = ExpressionBuilder.createNode(expression);
+            CompiledExpression compiled = ExpressionCompiler.compile(node);
+            EvaluationContext ctx = new EvaluationContext(context, null,
+                    context.getVariableMapper());
+            assertEquals(expression, node.getValue(ctx),
+                    compiled.getValue(ctx));
+        }
+    }
+
+    @Test
+    public void testConstantFolding() {
+        assertTrue(compile("${1 + 2 * 3}").isConstant());
+        assertTrue(compile("${'a' == 'a' ? 'x' : 'y'}").isConstant());
+        assertTrue(compile("Text ${1 + 1} text").isConstant());
+        assertFalse(compile("${1 + i}").isConstant());
+        assertFalse(compile("${a.name}").isConstant());
+        assertEquals(Long.valueOf(7), compile("${1 + 2 * 3}").getValue(null));
+    }
+
+    @Test
+    public void testErrorNotFolded() {
+        // The error must be reported on evaluation, not compilation
+        CompiledExpression compiled = compile("${'a' + 1}");
+        assertFalse(compiled.isConstant());
+    }
+
+    @Test
+    public void testPropertyNotFound() {
+        ELContext context = createContext();
+        CompiledExpression compiled = compile("${a.unknown}");
+        EvaluationContext ctx = new EvaluationContext(context, null,
+                context.getVariableMapper());
+        try {
+            compiled.getValue(ctx);
+            fail();
+        } catch (PropertyNotFoundException e) {
+            // Expected
+        }
+        compiled = compile("${unknown}");
+        try {
+            compiled.getValue(new EvaluationContext(new ELContextImpl(),
+                    null, null));
+            fail();
+        } catch (PropertyNotFoundException e) {
+            // Expected
+        }
+    }
+
+    private static CompiledExpression compile(String expression) {
+        return ExpressionCompiler.compile(
+                ExpressionBuilder.createNode(expression));
+    }
+
+    private static ELContext createContext() {
+        ExpressionFactory factory = ExpressionFactory.newInstance();
+        ELContext context = new ELContextImpl();
+
+        TesterBeanB beanB = new TesterBeanB();
+        beanB.setName("Tomcat");
+        TesterBeanA beanA = new TesterBeanA();
+        beanA.setBean(beanB);
+        beanA.setValLong(6);
+
+        List<String> list = new ArrayList<String>();
+        list.add("a");
+        list.add("b");
+        Map<String,Object> map = new HashMap<String,Object>();
+        map.put("key", "value");
+        map.put("Tomcat", "cat");
+
+        context.getVariableMapper().setVariable("a",
+                factory.createValueExpression(beanA, TesterBeanA.class));
+        context.getVariableMapper().setVariable("i",
+                factory.createValueExpression(Integer.valueOf(5),
+                        Integer.class));
+        context.getVariableMapper().setVariable("list",
+                factory.createValueExpression(list, List.class));
+        context.getVariableMapper().setVariable("map",
+                factory.createValueExpression(map, Map.class));
+        context.getVariableMapper().setVariable("missing",
+                factory.createValueExpression(null, Object.class));
+        return context;
+    }
+}
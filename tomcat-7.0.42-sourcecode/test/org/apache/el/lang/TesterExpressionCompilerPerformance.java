@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.el.lang;
+
+import javax.el.ELContext;
+import javax.el.ExpressionFactory;
+
+import org.junit.Test;
+
+import org.apache.el.TesterBeanA;
+import org.apache.el.TesterBeanB;
+import org.apache.el.parser.Node;
+import org.apache.jasper.el.ELContextImpl;
+
+/**
+ * Compares the time taken to evaluate expressions by walking the parsed
+ * nodes with the time taken to evaluate the compiled expressions.
+ */
+public class TesterExpressionCompilerPerformance {
+
+    private static final int ITERATIONS = 1000000;
+
+    private static final String[] EXPRESSIONS = {
+        "${a.bean.name}",
+        "${a.valLong * 2 + 1 > 10 ? a.valLong - 1 : 0}",
+        "Hello ${a.bean.name}, ${a.valLong + 1} ${1 + 2 * 3}"
+    };
+
+    @Test
+    public void testGetValue() {
+        ExpressionFactory factory = ExpressionFactory.newInstance();
+        ELContext context = new ELContextImpl();
+        TesterBeanB beanB = new TesterBeanB();
+        beanB.setName("Tomcat");
+        TesterBeanA beanA = new TesterBeanA();
+        beanA.setBean(beanB);
+        beanA.setValLong(6);
+        context.getVariableMapper().setVariable("a",
+                factory.createValueExpression(beanA, TesterBeanA.class));
+        EvaluationContext ctx = new EvaluationContext(context, null,
+                context.getVariableMapper());
+
+        for (String expression : EXPRESSIONS) {
+            Node node = ExpressionBuilder.createNode(expression);
+            CompiledExpression compiled = ExpressionCompiler.compile(node);
+
+            // Warm up
+            runInterpreted(node, ctx, ITERATIONS / 10);
+            runCompiled(compiled, ctx, ITERATIONS / 10);
+
+            long interpreted = runInterpreted(node, ctx, ITERATIONS);
+            long compiledTime = runCompiled(compiled, ctx, ITERATIONS);
+
+            System.out.println(expression + ": interpreted " +
+                    interpreted / 1000000 + "ms, compiled " +
+                    compiledTime / 1000000 + "ms");
+        }
+    }
+
+    private static long runInterpreted(Node node, EvaluationContext ctx,
+            int iterations) {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            node.getValue(ctx);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long runCompiled(CompiledExpression compiled,
+            EvaluationContext ctx, int iterations) {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            compiled.getValue(ctx);
+        }
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jasper.compiler;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import org.junit.Test;
+
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.core.StandardContext;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+
+/**
+ * Compares the time taken to compile a tree of JSPs on start up with and
+ * without the types resolved by the JDT compiler being shared by the
+ * compilations.
+ */
+public class TesterJDTCompilerPerformance extends TomcatBaseTest {
+
+    private static final int DIRS = 10;
+
+    private static final int PAGES_PER_DIR = 30;
+
+    @Test
+    public void testCompileTree() throws Exception {
+        File appDir = new File(getTemporaryDirectory(), "jsp-tree");
+        addDeleteOnTearDown(appDir);
+        for (int i = 0; i < DIRS; i++) {
+            File dir = new File(appDir, "dir" + i);
+            if (!dir.mkdirs()) {
+                throw new IOException("Failed to create " + dir);
+            }
+            for (int j = 0; j < PAGES_PER_DIR; j++) {
+                writePage(new File(dir, "page" + j + ".jsp"), i, j);
+            }
+        }
+
+        Tomcat tomcat = getTomcatInstance();
+        tomcat.start();
+
+        // Warm up
+        compile(tomcat, appDir, "/warmup", true);
+
+        long uncached = compile(tomcat, appDir, "/uncached", false);
+        long cached = compile(tomcat, appDir, "/cached", true);
+
+        System.out.println(DIRS * PAGES_PER_DIR +
+                " JSPs, without type cache: " + uncached / 1000000 +
+                "ms, with type cache: " + cached / 1000000 + "ms");
+    }
+
+    private long compile(Tomcat tomcat, File appDir, String path,
+            boolean typeCache) throws Exception {
+        StandardContext ctxt = (StandardContext) tomcat.addContext(null,
+                path, appDir.getAbsolutePath());
+        File workDir = new File(getTemporaryDirectory(), "work" +
+                path.replace('/', '-'));
+        addDeleteOnTearDown(workDir);
+        ctxt.setWorkDir(workDir.getAbsolutePath());
+        ctxt.stop();
+        Tomcat.initWebappDefaults(ctxt);
+        Wrapper w = (Wrapper) ctxt.findChild("jsp");
+        w.addInitParameter("precompileOnStartup", "true");
+        w.addInitParameter("precompileThreads", "1");
+        w.addInitParameter("jdtTypeCache", Boolean.toString(typeCache));
+
+        long start = System.nanoTime();
+        ctxt.start();
+        long time = System.nanoTime() - start;
+        ctxt.stop();
+        return time;
+    }
+
+    private static void writePage(File file, int dir, int page)
+            throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file),
+                "UTF-8");
+        try {
+            writer.write("<%@ page import=\"java.util.*,java.text.*," +
+                    "java.io.*,java.math.BigDecimal\" %>\n");
+            writer.write("<html><body><h1>Page " + dir + "/" + page +
+                    "</h1>\n");
+            writer.write("<% List<String> items = new ArrayList<String>();\n" +
+                    "   Map<String,BigDecimal> prices = " +
+                    "new TreeMap<String,BigDecimal>();\n" +
+                    "   for (int i = 0; i < 10; i++) {\n" +
+                    "       items.add(\"item\" + i);\n" +
+                    "       prices.put(\"item\" + i, new BigDecimal(i));\n" +
+                    "   }\n" +
+                    "   NumberFormat nf = NumberFormat.getInstance();\n" +
+                    "   StringWriter sw = new StringWriter(); %>\n");
+            writer.write("<ul><% for (String item : items) { %>" +
+                    "<li><%= item %>: <%= nf.format(prices.get(item)) %>" +
+                    "</li><% } %></ul>\n");
+            writer.write("<p>${pageContext.request.requestURI}</p>\n");
+            writer.write("</body></html>\n");
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jasper.runtime;
+
+import java.io.CharArrayWriter;
+import java.io.Reader;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.jasper.Constants;
+
+public class TestBodyContentImpl {
+
+    @Test
+    public void testSegments() throws Exception {
+        BodyContentBufferPool pool = new BodyContentBufferPool(1024 * 1024);
+        BodyContentImpl body = new BodyContentImpl(null, pool);
+
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; expected.length() < 50000; i++) {
+            String s = Integer.toString(i);
+            expected.append(s).append('|');
+            if (i % 3 == 0) {
+                body.write(s);
+            } else {
+                body.write(s.toCharArray());
+            }
+            body.write('|');
+        }
+        // Spans several segments in one write
+        char[] large = new char[40000];
+        for (int i = 0; i < large.length; i++) {
+            large[i] = (char) ('a' + i % 26);
+        }
+        body.write(large);
+        expected.append(large);
+
+        Assert.assertEquals(expected.toString(), body.getString());
+
+        CharArrayWriter writer = new CharArrayWriter();
+        body.writeOut(writer);
+        Assert.assertEquals(expected.toString(), writer.toString());
+
+        Reader reader = body.getReader();
+        char[] read = new char[expected.length()];
+        int len = 0;
+        int n;
+        while ((n = reader.read(read, len, read.length - len)) > 0) {
+            len += n;
+        }
+        Assert.assertEquals(expected.length(), len);
+        Assert.assertEquals(expected.toString(), new String(read));
+        Assert.assertEquals(body.getBufferSize() - expected.length(),
+                body.getRemaining());
+    }
+
+    @Test
+    public void testPooling() throws Exception {
+        BodyContentBufferPool pool = new BodyContentBufferPool(1024 * 1024);
+        BodyContentImpl body = new BodyContentImpl(null, pool);
+
+        char[] content = new char[20000];
+        body.write(content);
+        long allocated = pool.getAllocatedChars();
+        Assert.assertTrue(allocated >= 20000 -
+                Constants.DEFAULT_TAG_BUFFER_SIZE);
+        Assert.assertEquals(0, pool.getRetainedChars());
+
+        body.clear();
+        Assert.assertEquals(allocated, pool.getRetainedChars());
+        Assert.assertEquals(Constants.DEFAULT_TAG_BUFFER_SIZE,
+                body.getBufferSize());
+        Assert.assertEquals("", body.getString());
+
+        // A second body reuses the segments
+        BodyContentImpl other = new BodyContentImpl(null, pool);
+        other.write(content);
+        Assert.assertEquals(allocated, pool.getAllocatedChars());
+        Assert.assertEquals(allocated, pool.getReusedChars());
+        Assert.assertEquals(0, pool.getRetainedChars());
+        Assert.assertEquals(20000, other.getString().length());
+    }
+
+    @Test
+    public void testPoolLimit() throws Exception {
+        BodyContentBufferPool pool = new BodyContentBufferPool(10000);
+        BodyContentImpl body = new BodyContentImpl(null, pool);
+
+        body.write(new char[100000]);
+        body.clear();
+
+        Assert.assertTrue(pool.getRetainedChars() <= 10000);
+        Assert.assertEquals(pool.getAllocatedChars(),
+                pool.getRetainedChars() + pool.getDiscardedChars());
+    }
+}
@@ -16,19 +16,33 @@
  */
 package org.apache.jasper.runtime;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
 
 import javax.servlet.http.HttpServletResponse;
 
 import org.junit.Assert;
 import org.junit.Test;
 
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.core.StandardContext;
+import org.apache.catalina.filters.TesterHttpServletResponse;
 import org.apache.catalina.startup.Tomcat;
 import org.apache.catalina.startup.TomcatBaseTest;
 import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.buf.EncodedOutput;
 
 public class TestJspWriterImpl extends TomcatBaseTest {
 
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
     @Test
     public void bug54241a() throws Exception {
         Tomcat tomcat = getTomcatInstance();
@@ -67,4 +81,182 @@ public class TestJspWriterImpl extends TomcatBaseTest {
         Assert.assertEquals(res.toString(),
                 HttpServletResponse.SC_INTERNAL_SERVER_ERROR, rc);
     }
+
+    @Test
+    public void testPreEncodedText() throws Exception {
+        EncodedWriter writer = new EncodedWriter();
+        JspWriterImpl out = createWriter(writer, 16, true);
+
+        out.write("ab");
+        new PreEncodedText("c\u00e9", "UTF-8").write(out);
+        out.write("d");
+        Assert.assertEquals(11, out.getRemaining());
+        out.flush();
+        Assert.assertEquals("abc\u00e9d", writer.toString());
+        Assert.assertEquals(1, writer.encoded);
+
+        // Encoded with a different charset so the characters are written
+        new PreEncodedText("\u00e9", "ISO-8859-1").write(out);
+        out.flush();
+        Assert.assertEquals("abc\u00e9d\u00e9", writer.toString());
+        Assert.assertEquals(1, writer.encoded);
+    }
+
+    @Test
+    public void testPreEncodedTextClearBuffer() throws Exception {
+        EncodedWriter writer = new EncodedWriter();
+        JspWriterImpl out = createWriter(writer, 16, true);
+
+        new PreEncodedText("discarded", "UTF-8").write(out);
+        out.clearBuffer();
+        out.write("a");
+        new PreEncodedText("kept", "UTF-8").write(out);
+        out.flush();
+        Assert.assertEquals("akept", writer.toString());
+    }
+
+    @Test
+    public void testPreEncodedTextAutoFlush() throws Exception {
+        EncodedWriter writer = new EncodedWriter();
+        JspWriterImpl out = createWriter(writer, 8, true);
+
+        out.write("abcde");
+        // Does not fit so the buffer is flushed first
+        new PreEncodedText("fghi", "UTF-8").write(out);
+        Assert.assertEquals("abcde", writer.toString());
+        Assert.assertEquals(4, out.getRemaining());
+        // Larger than the buffer so written directly
+        new PreEncodedText("jklmnopqr", "UTF-8").write(out);
+        Assert.assertEquals("abcdefghijklmnopqr", writer.toString());
+        Assert.assertEquals(8, out.getRemaining());
+    }
+
+    @Test(expected=IOException.class)
+    public void testPreEncodedTextOverflow() throws Exception {
+        JspWriterImpl out = createWriter(new EncodedWriter(), 8, false);
+
+        out.write("abcde");
+        new PreEncodedText("fghi", "UTF-8").write(out);
+    }
+
+    @Test
+    public void testPreEncodedTextPage() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+
+        File appDir = new File(getTemporaryDirectory(), "pre-encoded");
+        addDeleteOnTearDown(appDir);
+        File tagDir = new File(appDir, "WEB-INF/tags");
+        Assert.assertTrue(tagDir.mkdirs());
+        writeFile(new File(appDir, "page.jsp"),
+                "<%@ page contentType=\"text/plain;charset=UTF-8\" %>" +
+                "<%@ taglib prefix=\"t\" tagdir=\"/WEB-INF/tags\" %>" +
+                "discarded<% out.clearBuffer(); %>" +
+                "caf\u00e9 <%= 1 + 1 %> \u20ac\u20ac\u20ac " +
+                "<jsp:include page=\"inc.jsp\" /> " +
+                "<t:body>body \u00fc\u00fc\u00fc</t:body>");
+        writeFile(new File(appDir, "inc.jsp"),
+                "<%@ page contentType=\"text/plain;charset=UTF-8\" %>" +
+                "incl\u00fcded");
+        writeFile(new File(tagDir, "body.tag"),
+                "<%@ tag pageEncoding=\"UTF-8\" body-content=\"scriptless\" %>" +
+                "<jsp:doBody var=\"b\" />" +
+                "[<%= jspContext.getAttribute(\"b\") %>]");
+
+        StandardContext ctxt = (StandardContext) tomcat.addContext(null,
+                "/test", appDir.getAbsolutePath());
+        File workDir = new File(getTemporaryDirectory(), "pre-encoded-work");
+        addDeleteOnTearDown(workDir);
+        ctxt.setWorkDir(workDir.getAbsolutePath());
+        Tomcat.initWebappDefaults(ctxt);
+        Wrapper w = (Wrapper) ctxt.findChild("jsp");
+        w.addInitParameter("pageEncoding", "UTF-8");
+        w.addInitParameter("preEncodeTemplateText", "true");
+
+        tomcat.start();
+
+        ByteChunk res = getUrl("http://localhost:" + getPort() +
+                "/test/page.jsp");
+        res.setCharset(UTF_8);
+        Assert.assertEquals("caf\u00e9 2 \u20ac\u20ac\u20ac incl\u00fcded " +
+                "[body \u00fc\u00fc\u00fc]", res.toString());
+
+        String java = new String(readAll(new File(workDir,
+                "org/apache/jsp/page_jsp.java")), UTF_8);
+        Assert.assertTrue(java.contains("_jspx_text_0.write(out);"));
+    }
+
+    private static byte[] readAll(File file) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = fis.read(buf)) > 0) {
+                bytes.write(buf, 0, n);
+            }
+        } finally {
+            fis.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeFile(File file, String content)
+            throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file),
+                "UTF-8");
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+    }
+
+    static JspWriterImpl createWriter(final Writer writer, int size,
+            boolean autoFlush) {
+        final PrintWriter pw = writer instanceof PrintWriter ?
+                (PrintWriter) writer : new PrintWriter(writer);
+        TesterHttpServletResponse response = new TesterHttpServletResponse() {
+            @Override
+            public PrintWriter getWriter() {
+                return pw;
+            }
+        };
+        return new JspWriterImpl(response, size, autoFlush);
+    }
+
+    /**
+     * Records the characters as UTF-8, accepting text encoded in UTF-8.
+     */
+    private static class EncodedWriter extends PrintWriter
+            implements EncodedOutput {
+
+        private final ByteArrayOutputStream bytes;
+        private int encoded;
+
+        public EncodedWriter() {
+            this(new ByteArrayOutputStream());
+        }
+
+        private EncodedWriter(ByteArrayOutputStream bytes) {
+            super(new OutputStreamWriter(bytes, UTF_8));
+            this.bytes = bytes;
+        }
+
+        @Override
+        public boolean writeEncoded(byte[] b, String charset) {
+            if (!"UTF-8".equals(charset)) {
+                return false;
+            }
+            flush();
+            bytes.write(b, 0, b.length);
+            encoded++;
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            flush();
+            return new String(bytes.toByteArray(), UTF_8);
+        }
+    }
 }
@@ -0,0 +1,206 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jasper.runtime;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.jsp.tagext.Tag;
+import javax.servlet.jsp.tagext.TagSupport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import org.apache.catalina.filters.TesterServletContext;
+import org.apache.tomcat.InstanceManager;
+
+public class TestStripedTagHandlerPool {
+
+    @Test
+    public void testReuse() throws Exception {
+        TagHandlerPool pool = createPool(StripedTagHandlerPool.class, 5);
+        assertTrue(pool instanceof StripedTagHandlerPool);
+
+        Tag tag = pool.get(PooledTag.class);
+        pool.reuse(tag);
+        assertSame(tag, pool.get(PooledTag.class));
+        assertNotSame(tag, pool.get(PooledTag.class));
+    }
+
+    @Test
+    public void testCapacity() throws Exception {
+        TagHandlerPool pool = createPool(StripedTagHandlerPool.class, 5);
+        List<PooledTag> tags = new ArrayList<PooledTag>();
+        for (int i = 0; i < 10; i++) {
+            tags.add((PooledTag) pool.get(PooledTag.class));
+        }
+        for (PooledTag tag : tags) {
+            pool.reuse(tag);
+        }
+        // One in the slot of this thread and five in the shared stack
+        assertEquals(4, countReleased(tags));
+
+        pool.release();
+        assertEquals(10, countReleased(tags));
+
+        // Handlers returned once the pool has been released are not pooled
+        PooledTag tag = (PooledTag) pool.get(PooledTag.class);
+        pool.reuse(tag);
+        assertEquals(1, tag.released.get());
+    }
+
+    @Test
+    public void testConcurrent() throws Exception {
+        final TagHandlerPool pool =
+                createPool(StripedTagHandlerPool.class, 5);
+        final AtomicInteger errors = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < 100000; j++) {
+                            PooledTag tag1 =
+                                    (PooledTag) pool.get(PooledTag.class);
+                            PooledTag tag2 =
+                                    (PooledTag) pool.get(PooledTag.class);
+                            if (!tag1.inUse.compareAndSet(false, true) ||
+                                    !tag2.inUse.compareAndSet(false, true)) {
+                                errors.incrementAndGet();
+                            }
+                            tag1.inUse.set(false);
+                            tag2.inUse.set(false);
+                            pool.reuse(tag2);
+                            pool.reuse(tag1);
+                        }
+                    } catch (Exception e) {
+                        errors.incrementAndGet();
+                    }
+                }
+            };
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, errors.get());
+    }
+
+    private static int countReleased(List<PooledTag> tags) {
+        int result = 0;
+        for (PooledTag tag : tags) {
+            if (tag.released.get() > 0) {
+                assertEquals(1, tag.released.get());
+                assertFalse(tag.inUse.get());
+                result++;
+            }
+        }
+        return result;
+    }
+
+    static TagHandlerPool createPool(Class<? extends TagHandlerPool> type,
+            int maxSize) {
+        final Map<String,String> params = new HashMap<String,String>();
+        params.put(TagHandlerPool.OPTION_TAGPOOL, type.getName());
+        params.put(TagHandlerPool.OPTION_MAXSIZE, Integer.toString(maxSize));
+        final ServletContext context = new TesterServletContext() {
+            @Override
+            public Object getAttribute(String name) {
+                if (InstanceManager.class.getName().equals(name)) {
+                    return new TesterInstanceManager();
+                }
+                return null;
+            }
+        };
+        ServletConfig config = new ServletConfig() {
+            @Override
+            public String getServletName() {
+                return "jsp";
+            }
+
+            @Override
+            public ServletContext getServletContext() {
+                return context;
+            }
+
+            @Override
+            public String getInitParameter(String name) {
+                return params.get(name);
+            }
+
+            @Override
+            public Enumeration<String> getInitParameterNames() {
+                return Collections.enumeration(params.keySet());
+            }
+        };
+        return TagHandlerPool.getTagHandlerPool(config);
+    }
+
+    public static class PooledTag extends TagSupport {
+
+        private static final long serialVersionUID = 1L;
+
+        final AtomicBoolean inUse = new AtomicBoolean();
+
+        final AtomicInteger released = new AtomicInteger();
+
+        @Override
+        public void release() {
+            released.incrementAndGet();
+            super.release();
+        }
+    }
+
+    private static class TesterInstanceManager implements InstanceManager {
+
+        @Override
+        public Object newInstance(String className) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Object newInstance(String fqcn, ClassLoader classLoader) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void newInstance(Object o) {
+            // NO-OP
+        }
+
+        @Override
+        public void destroyInstance(Object o) {
+            // NO-OP
+        }
+    }
+}
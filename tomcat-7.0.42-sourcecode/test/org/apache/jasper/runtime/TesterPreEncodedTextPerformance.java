@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jasper.runtime;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import org.apache.catalina.connector.CoyoteWriter;
+import org.apache.catalina.connector.OutputBuffer;
+import org.apache.coyote.Response;
+import org.apache.tomcat.util.buf.ByteChunk;
+
+/**
+ * Compares the time taken to write the template text of a page with mostly
+ * template text as characters with the time taken to write it pre-encoded,
+ * through the same writers as are used for a response.
+ */
+public class TesterPreEncodedTextPerformance {
+
+    private static final int ITERATIONS = 100000;
+
+    private static final int CHUNKS = 40;
+
+    @Test
+    public void testTemplateText() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 200) {
+            sb.append("<tr><td class=\"name\">Caf\u00e9</td><td>\u20ac</td></tr>\n");
+        }
+        String text = sb.toString();
+        PreEncodedText encoded = new PreEncodedText(text, "UTF-8");
+
+        JspWriterImpl out = createWriter();
+        // Warm up
+        run(out, text, null, ITERATIONS / 10);
+        run(out, text, encoded, ITERATIONS / 10);
+
+        long chars = run(out, text, null, ITERATIONS);
+        long preEncoded = run(out, text, encoded, ITERATIONS);
+
+        System.out.println(CHUNKS + " x " + text.length() +
+                " characters of template text, chars: " +
+                chars / ITERATIONS + "ns, pre-encoded: " +
+                preEncoded / ITERATIONS + "ns per page");
+    }
+
+    private static long run(JspWriterImpl out, String text,
+            PreEncodedText encoded, int iterations) throws IOException {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            for (int j = 0; j < CHUNKS; j++) {
+                if (encoded == null) {
+                    out.write(text);
+                } else {
+                    encoded.write(out);
+                }
+                out.print(j);
+            }
+            out.flush();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static JspWriterImpl createWriter() throws IOException {
+        Response coyoteResponse = new Response();
+        coyoteResponse.setCharacterEncoding("UTF-8");
+        coyoteResponse.setOutputBuffer(new NullOutputBuffer());
+        OutputBuffer ob = new OutputBuffer();
+        ob.setResponse(coyoteResponse);
+        ob.checkConverter();
+        return TestJspWriterImpl.createWriter(new CoyoteWriter(ob), 8192,
+                true);
+    }
+
+    private static class NullOutputBuffer
+            implements org.apache.coyote.OutputBuffer {
+
+        private long bytesWritten;
+
+        @Override
+        public int doWrite(ByteChunk chunk, Response response) {
+            bytesWritten += chunk.getLength();
+            return chunk.getLength();
+        }
+
+        @Override
+        public long getBytesWritten() {
+            return bytesWritten;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jasper.runtime;
+
+import javax.servlet.jsp.tagext.Tag;
+
+import org.junit.Test;
+
+/**
+ * Compares the throughput of the synchronized {@link TagHandlerPool} with the
+ * {@link StripedTagHandlerPool} when many threads use the same pool, as they
+ * do for a tag on a busy page.
+ */
+public class TesterTagHandlerPoolPerformance {
+
+    private static final int ITERATIONS = 2000000;
+
+    private static final int[] THREADS = { 1, 4, 16 };
+
+    @Test
+    public void testGetReuse() throws Exception {
+        for (int threads : THREADS) {
+            // Warm up
+            run(TagHandlerPool.class, threads, ITERATIONS / 10);
+            run(StripedTagHandlerPool.class, threads, ITERATIONS / 10);
+
+            long synced = run(TagHandlerPool.class, threads, ITERATIONS);
+            long striped = run(StripedTagHandlerPool.class, threads,
+                    ITERATIONS);
+            System.out.println(threads + " threads, TagHandlerPool: " +
+                    synced / 1000000 + "ms, StripedTagHandlerPool: " +
+                    striped / 1000000 + "ms");
+        }
+    }
+
+    private static long run(Class<? extends TagHandlerPool> type, int count,
+            final int iterations) throws Exception {
+        final TagHandlerPool pool =
+                TestStripedTagHandlerPool.createPool(type, 5);
+        Thread[] threads = new Thread[count];
+        for (int i = 0; i < count; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < iterations; j++) {
+                            Tag tag = pool.get(
+                                    TestStripedTagHandlerPool.PooledTag.class);
+                            pool.reuse(tag);
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+        }
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long result = System.nanoTime() - start;
+        pool.release();
+        return result;
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jasper.servlet;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.core.StandardContext;
+import org.apache.catalina.core.StandardWrapper;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.jasper.compiler.JspDependencyTracker;
+import org.apache.jasper.compiler.JspRuntimeContext;
+import org.apache.tomcat.util.buf.ByteChunk;
+
+public class TestJspServlet extends TomcatBaseTest {
+
+    @Test
+    public void testPrecompileOnStartup() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+
+        File appDir = new File("test/webapp-3.0-fragments");
+        StandardContext ctxt = (StandardContext) tomcat.addContext(
+                null, "/test", appDir.getAbsolutePath());
+        File cacheDir = new File(getTemporaryDirectory(), "jsp-cache");
+        addDeleteOnTearDown(cacheDir);
+        File workDir = new File(getTemporaryDirectory(), "jsp-work1");
+        addDeleteOnTearDown(workDir);
+        ctxt.setWorkDir(workDir.getAbsolutePath());
+        Wrapper w = configure(ctxt, cacheDir);
+
+        tomcat.start();
+
+        // Every JSP outside of WEB-INF/classes is compiled before any request
+        JspServlet jspServlet =
+                (JspServlet) ((StandardWrapper) w).getServlet();
+        assertEquals(6, jspServlet.getJspCount());
+        // Read through reflection from the EL implementation
+        assertTrue(jspServlet.getExpressionCacheSize() >= 0);
+        assertTrue(jspServlet.getExpressionCacheMissCount() >= 0);
+        File classFile = getClassFile(workDir, "resourceA_jsp");
+        assertTrue(classFile.isFile());
+        assertTrue(new File(classFile.getPath().replace(".class", ".java"))
+                .isFile());
+        String[] entries = cacheDir.list();
+        assertTrue(entries != null && entries.length > 0);
+
+        // A new work directory, as after a redeployment
+        ctxt.stop();
+        workDir = new File(getTemporaryDirectory(), "jsp-work2");
+        addDeleteOnTearDown(workDir);
+        ctxt.setWorkDir(workDir.getAbsolutePath());
+        configure(ctxt, cacheDir);
+        ctxt.start();
+
+        // Restored from the cache, not compiled
+        classFile = getClassFile(workDir, "resourceA_jsp");
+        assertTrue(classFile.isFile());
+        assertFalse(new File(classFile.getPath().replace(".class", ".java"))
+                .isFile());
+
+        ByteChunk res = getUrl("http://localhost:" + getPort() +
+                "/test/resourceA.jsp");
+        assertTrue(res.toString().contains(
+                "resourceA.jsp in the web application"));
+    }
+
+    @Test
+    public void testCompileCacheDependencyTouched() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+
+        File appDir = new File(getTemporaryDirectory(), "jsp-cache-deps");
+        addDeleteOnTearDown(appDir);
+        if (!appDir.mkdirs() && !appDir.isDirectory()) {
+            fail("Unable to create directory [" + appDir + "]");
+        }
+        write(new File(appDir, "a.jsp"), "A<%@ include file=\"inc.jspf\" %>");
+        File inc = new File(appDir, "inc.jspf");
+        write(inc, "-inc");
+
+        StandardContext ctxt = (StandardContext) tomcat.addContext(
+                null, "/test", appDir.getAbsolutePath());
+        File cacheDir = new File(getTemporaryDirectory(), "jsp-cache-deps-cache");
+        addDeleteOnTearDown(cacheDir);
+        File workDir = new File(getTemporaryDirectory(), "jsp-cache-deps-work1");
+        addDeleteOnTearDown(workDir);
+        ctxt.setWorkDir(workDir.getAbsolutePath());
+        ctxt.setCachingAllowed(false);
+        configure(ctxt, cacheDir);
+
+        tomcat.start();
+        assertTrue(getClassFile(workDir, "a_jsp").isFile());
+
+        // Redeployed with the same content but a new time stamp for the
+        // included file
+        ctxt.stop();
+        assertTrue(inc.setLastModified(inc.lastModified() + 10000));
+        workDir = new File(getTemporaryDirectory(), "jsp-cache-deps-work2");
+        addDeleteOnTearDown(workDir);
+        ctxt.setWorkDir(workDir.getAbsolutePath());
+        Wrapper w = configure(ctxt, cacheDir);
+        ctxt.start();
+
+        // Compiled rather than restored with the old time stamp
+        File classFile = getClassFile(workDir, "a_jsp");
+        assertTrue(classFile.isFile());
+        assertTrue(new File(classFile.getPath().replace(".class", ".java"))
+                .isFile());
+
+        // And not seen as out of date on every request
+        JspServlet jspServlet =
+                (JspServlet) ((StandardWrapper) w).getServlet();
+        for (int i = 0; i < 3; i++) {
+            assertEquals("A-inc", getUrl("http://localhost:" + getPort() +
+                    "/test/a.jsp").toString());
+        }
+        int reloads = jspServlet.getJspReloadCount();
+        assertEquals("A-inc", getUrl("http://localhost:" + getPort() +
+                "/test/a.jsp").toString());
+        assertEquals(reloads, jspServlet.getJspReloadCount());
+    }
+
+    @Test
+    public void testTrackDependencies() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+
+        File appDir = new File(getTemporaryDirectory(), "jsp-deps");
+        addDeleteOnTearDown(appDir);
+        assertTrue(appDir.mkdirs());
+        write(new File(appDir, "a.jsp"),
+                "A<%@ include file=\"inc.jspf\" %>");
+        File inc = new File(appDir, "inc.jspf");
+        write(inc, "-inc1");
+        write(new File(appDir, "b.jsp"), "B");
+
+        StandardContext ctxt = (StandardContext) tomcat.addContext(
+                null, "/test", appDir.getAbsolutePath());
+        File workDir = new File(getTemporaryDirectory(), "jsp-deps-work");
+        addDeleteOnTearDown(workDir);
+        ctxt.setWorkDir(workDir.getAbsolutePath());
+        // Modifications must be visible immediately
+        ctxt.setCachingAllowed(false);
+        Tomcat.initWebappDefaults(ctxt);
+        Wrapper w = (Wrapper) ctxt.findChild("jsp");
+        w.addInitParameter("checkInterval", "1");
+        w.addInitParameter("development", "false");
+        w.addInitParameter("trackDependencies", "true");
+
+        tomcat.start();
+        JspServlet jspServlet =
+                (JspServlet) ((StandardWrapper) w).getServlet();
+
+        assertEquals("A-inc1", getUrl("http://localhost:" + getPort() +
+                "/test/a.jsp").toString());
+        assertEquals("B", getUrl("http://localhost:" + getPort() +
+                "/test/b.jsp").toString());
+
+        // The first check registers the dependencies of both pages
+        checkCompile(jspServlet);
+        int reloads = jspServlet.getJspReloadCount();
+
+        write(inc, "-inc2");
+        assertTrue(inc.setLastModified(inc.lastModified() + 10000));
+        // Only the pages that include inc.jspf are checked so the missing
+        // class of b.jsp goes unnoticed
+        File classB = getClassFile(workDir, "b_jsp");
+        assertTrue(classB.delete());
+        checkCompile(jspServlet);
+
+        assertFalse(classB.exists());
+        assertEquals("A-inc2", getUrl("http://localhost:" + getPort() +
+                "/test/a.jsp").toString());
+        assertEquals("B", getUrl("http://localhost:" + getPort() +
+                "/test/b.jsp").toString());
+        assertEquals(reloads + 1, jspServlet.getJspReloadCount());
+    }
+
+    @Test
+    public void testTrackDependenciesConcurrentRegistration()
+            throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+
+        File appDir = new File(getTemporaryDirectory(), "jsp-deps-concurrent");
+        addDeleteOnTearDown(appDir);
+        if (!appDir.mkdirs() && !appDir.isDirectory()) {
+            fail("Unable to create directory " + appDir);
+        }
+        final String[] uris = new String[4];
+        for (int i = 0; i < uris.length; i++) {
+            uris[i] = "/p" + i + ".jsp";
+            write(new File(appDir, uris[i].substring(1)),
+                    "P" + i + "<%@ include file=\"inc.jspf\" %>");
+        }
+        File inc = new File(appDir, "inc.jspf");
+        write(inc, "-inc");
+
+        StandardContext ctxt = (StandardContext) tomcat.addContext(
+                null, "/test", appDir.getAbsolutePath());
+        File workDir = new File(getTemporaryDirectory(),
+                "jsp-deps-concurrent-work");
+        addDeleteOnTearDown(workDir);
+        ctxt.setWorkDir(workDir.getAbsolutePath());
+        // Modifications must be visible immediately
+        ctxt.setCachingAllowed(false);
+        Tomcat.initWebappDefaults(ctxt);
+        Wrapper w = (Wrapper) ctxt.findChild("jsp");
+        w.addInitParameter("development", "false");
+        w.addInitParameter("trackDependencies", "true");
+
+        tomcat.start();
+        for (int i = 0; i < uris.length; i++) {
+            assertEquals("P" + i + "-inc", getUrl("http://localhost:" +
+                    getPort() + "/test" + uris[i]).toString());
+        }
+
+        Field field = JspServlet.class.getDeclaredField("rctxt");
+        field.setAccessible(true);
+        JspRuntimeContext rctxt = (JspRuntimeContext) field.get(
+                ((StandardWrapper) w).getServlet());
+        final JspDependencyTracker tracker = rctxt.getDependencyTracker();
+        final JspServletWrapper[] pages = new JspServletWrapper[uris.length];
+        for (int i = 0; i < uris.length; i++) {
+            pages[i] = rctxt.getWrapper(uris[i]);
+        }
+
+        // Every page is stale once the file they share has been modified
+        assertTrue(inc.setLastModified(inc.lastModified() + 10000));
+
+        // Each round, half of the pages are registered while the other half
+        // are unregistered, so the shared file is regularly left with no
+        // page while pages are being added to it. No registration may be
+        // lost from the graph.
+        for (int i = 1; i < pages.length; i += 2) {
+            tracker.register(pages[i]);
+        }
+        final int rounds = 5000;
+        final CyclicBarrier barrier = new CyclicBarrier(pages.length + 1);
+        Thread[] threads = new Thread[pages.length];
+        for (int i = 0; i < pages.length; i++) {
+            final JspServletWrapper jsw = pages[i];
+            final int parity = i % 2;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    Random random = new Random(parity);
+                    try {
+                        for (int j = 0; j < rounds; j++) {
+                            barrier.await();
+                            // Vary the order of the threads
+                            for (int k = random.nextInt(200); k > 0; k--) {
+                                Thread.yield();
+                            }
+                            if (j % 2 == parity) {
+                                tracker.register(jsw);
+                            } else {
+                                tracker.unregister(jsw);
+                            }
+                            barrier.await();
+                        }
+                    } catch (Exception e) {
+                        // The test fails on the barrier
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        try {
+            for (int j = 0; j < rounds; j++) {
+                barrier.await(10, TimeUnit.SECONDS);
+                barrier.await(10, TimeUnit.SECONDS);
+                Set<JspServletWrapper> stale = tracker.findStale();
+                for (int i = j % 2; i < pages.length; i += 2) {
+                    assertTrue(uris[i] + " registered in round " + j,
+                            tracker.isRegistered(pages[i]));
+                    assertTrue(uris[i] + " checked in round " + j,
+                            stale.contains(pages[i]));
+                }
+                assertEquals(pages.length / 2 + 1, tracker.getResourceCount());
+            }
+        } finally {
+            for (Thread thread : threads) {
+                thread.interrupt();
+                thread.join();
+            }
+        }
+    }
+
+    private static void checkCompile(JspServlet jspServlet)
+            throws InterruptedException {
+        // Wait for the check interval to elapse
+        Thread.sleep(1100);
+        jspServlet.periodicEvent();
+    }
+
+    private static void write(File file, String content) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file),
+                "UTF-8");
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static Wrapper configure(StandardContext ctxt, File cacheDir) {
+        Tomcat.initWebappDefaults(ctxt);
+        Wrapper w = (Wrapper) ctxt.findChild("jsp");
+        w.addInitParameter("precompileOnStartup", "true");
+        w.addInitParameter("precompileThreads", "2");
+        w.addInitParameter("compileCacheDir", cacheDir.getAbsolutePath());
+        return w;
+    }
+
+    private static File getClassFile(File workDir, String className) {
+        return new File(workDir, "org" + File.separator + "apache" +
+                File.separator + "jsp" + File.separator + className +
+                ".class");
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.naming.resources;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import org.apache.catalina.core.StandardContext;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+
+public class TestConcurrentResourceCache extends TomcatBaseTest {
+
+    @Test
+    public void testLoadLookupUnload() {
+        ConcurrentResourceCache cache = new ConcurrentResourceCache();
+        cache.setCacheMaxSize(100);
+
+        assertTrue(cache.allocate(10));
+        cache.load(entry("/a", 10));
+        assertEquals(10, cache.getCacheSize());
+        // Duplicate loads are ignored
+        cache.load(entry("/a", 10));
+        assertEquals(10, cache.getCacheSize());
+
+        assertNotNull(cache.lookup("/a"));
+        assertNull(cache.lookup("/b"));
+        assertEquals(2, cache.getAccessCount());
+        assertEquals(1, cache.getHitsCount());
+        assertEquals(1, cache.getMissCount());
+
+        assertTrue(cache.unload("/a"));
+        assertFalse(cache.unload("/a"));
+        assertEquals(0, cache.getCacheSize());
+        assertEquals(0, cache.getEntryCount());
+    }
+
+    @Test
+    public void testEvictsProbationBeforeProtected() {
+        ConcurrentResourceCache cache = new ConcurrentResourceCache();
+        cache.setCacheMaxSize(30);
+
+        cache.load(entry("/hot", 10));
+        cache.load(entry("/cold1", 10));
+        cache.load(entry("/cold2", 10));
+        // Promote /hot to the protected segment
+        cache.lookup("/hot");
+
+        assertTrue(cache.allocate(10));
+        cache.load(entry("/new", 10));
+
+        assertNotNull(cache.lookup("/hot"));
+        assertNull(cache.lookup("/cold1"));
+        assertNotNull(cache.lookup("/cold2"));
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(30, cache.getCacheSize());
+    }
+
+    @Test
+    public void testSizeWeightedEviction() {
+        ConcurrentResourceCache cache = new ConcurrentResourceCache();
+        cache.setCacheMaxSize(100);
+
+        for (int i = 0; i < 10; i++) {
+            cache.load(entry("/small" + i, 1));
+        }
+        cache.load(entry("/large", 80));
+        assertEquals(90, cache.getCacheSize());
+
+        // Only as many small entries as needed are removed
+        assertTrue(cache.allocate(15));
+        assertEquals(5, cache.getEvictionCount());
+        assertEquals(85, cache.getCacheSize());
+
+        // Larger than the whole cache
+        assertFalse(cache.allocate(101));
+    }
+
+    @Test
+    public void testContextConfiguration() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+
+        StandardContext ctx = (StandardContext)
+            tomcat.addContext("", System.getProperty("java.io.tmpdir"));
+        ctx.setCacheClassName(ConcurrentResourceCache.class.getName());
+        tomcat.start();
+
+        ProxyDirContext resources = (ProxyDirContext) ctx.getResources();
+        assertTrue(resources.getCache() instanceof ConcurrentResourceCache);
+        ConcurrentResourceCache cache =
+            (ConcurrentResourceCache) resources.getCache();
+        long accesses = cache.getAccessCount();
+        long misses = cache.getMissCount();
+        assertFalse(resources.lookupCache("/does-not-exist").exists);
+        // The miss is counted once
+        assertEquals(accesses + 1, cache.getAccessCount());
+        assertEquals(misses + 1, cache.getMissCount());
+        // Not found entries are cached too
+        assertNotNull(resources.getCache().lookup("/does-not-exist"));
+    }
+
+    private static CacheEntry entry(String name, int size) {
+        CacheEntry entry = new CacheEntry();
+        entry.name = name;
+        entry.size = size;
+        return entry;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestConcurrentCache {
+
+    @Test
+    public void testGetPut() {
+        ConcurrentCache<String,String> cache =
+                new ConcurrentCache<String,String>(10);
+        assertNull(cache.get("a"));
+        cache.put("a", "1");
+        assertEquals("1", cache.get("a"));
+        cache.put("a", "2");
+        assertEquals("2", cache.get("a"));
+        assertEquals(1, cache.getSize());
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testBounded() {
+        ConcurrentCache<Integer,Integer> cache =
+                new ConcurrentCache<Integer,Integer>(100);
+        for (int i = 0; i < 1000; i++) {
+            Integer key = Integer.valueOf(i);
+            cache.get(key);
+            cache.put(key, key);
+        }
+        assertEquals(100, cache.getSize());
+        assertEquals(900, cache.getEvictionCount() +
+                cache.getRejectionCount());
+    }
+
+    @Test
+    public void testFrequentEntriesRetained() {
+        ConcurrentCache<String,String> cache =
+                new ConcurrentCache<String,String>(100);
+        for (int i = 0; i < 50; i++) {
+            String key = "hot" + i;
+            for (int j = 0; j < 5; j++) {
+                if (cache.get(key) == null) {
+                    cache.put(key, key);
+                }
+            }
+        }
+
+        // A scan of keys that are only used once while the hot keys
+        // continue to be used
+        for (int i = 0; i < 10000; i++) {
+            String key = "cold" + i;
+            if (cache.get(key) == null) {
+                cache.put(key, key);
+            }
+            key = "hot" + (i % 50);
+            if (cache.get(key) == null) {
+                cache.put(key, key);
+            }
+        }
+
+        int retained = 0;
+        for (int i = 0; i < 50; i++) {
+            if (cache.get("hot" + i) != null) {
+                retained++;
+            }
+        }
+        assertTrue("Retained " + retained, retained >= 45);
+        assertTrue(cache.getSize() <= 100);
+        assertTrue(cache.getRejectionCount() > 0);
+    }
+
+    @Test
+    public void testDisabled() {
+        ConcurrentCache<String,String> cache =
+                new ConcurrentCache<String,String>(0);
+        cache.put("a", "1");
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.getSize());
+    }
+}